@@ -132,6 +132,8 @@ public:
   // compute/return n-gram probability for array of Joshua word ids
   virtual float Prob(jint *begin, jint *end) const = 0;
 
+  virtual float ProbNgrams(jint *begin, jint count, jint order) const = 0;
+
   // Compute/return n-gram probability for array of lm:WordIndexes
   virtual float ProbForWordIndexArray(jint *begin, jint *end) const = 0;
 
@@ -175,6 +177,14 @@ public:
     return ProbForWordIndexArray(begin, end);
   }
 
+  // Sums the probabilities of count n-grams of the given order, stored one after another
+  float ProbNgrams(jint * const begin, jint count, jint order) const {
+    float prob = 0.0;
+    for (jint *ngram = begin; ngram != begin + count * order; ngram += order)
+      prob += Prob(ngram, ngram + order);
+    return prob;
+  }
+
   float ProbForWordIndexArray(jint * const begin, jint * const end) const {
     std::reverse(begin, end - 1);
     lm::ngram::State ignored;
@@ -403,6 +413,15 @@ JNIEXPORT jfloat JNICALL Java_org_apache_joshua_decoder_ff_lm_KenLM_prob(
       values + length);
 }
 
+JNIEXPORT jfloat JNICALL Java_org_apache_joshua_decoder_ff_lm_KenLM_probNgrams(
+    JNIEnv *env, jclass, jlong pointer, jobject buffer, jint count, jint order) {
+  if (count <= 0 || order <= 0)
+    return 0.0;
+  // The n-grams are written by Java into a direct buffer, so they are scored in place
+  jint *ngrams = (jint*)env->GetDirectBufferAddress(buffer);
+  return reinterpret_cast<const VirtualBase*>(pointer)->ProbNgrams(ngrams, count, order);
+}
+
 JNIEXPORT jfloat JNICALL Java_org_apache_joshua_decoder_ff_lm_KenLM_probForString(
     JNIEnv *env, jclass, jlong pointer, jobjectArray arr) {
   jint length = env->GetArrayLength(arr);
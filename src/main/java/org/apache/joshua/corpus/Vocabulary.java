@@ -30,11 +30,13 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.StampedLock;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.joshua.decoder.DecoderContext;
 import org.apache.joshua.decoder.ff.lm.NGramLanguageModel;
 import org.apache.joshua.util.FormatUtils;
 import org.slf4j.Logger;
@@ -44,17 +46,37 @@ import org.slf4j.LoggerFactory;
  * Static singular vocabulary class.
  * Supports (de-)serialization into a vocabulary file.
  *
+ * The static methods operate on the vocabulary of the current
+ * {@link DecoderContext}, so that decoders with different models can coexist
+ * in one process.
+ *
+ * Lookups never lock: the string-to-id index is a {@link ConcurrentHashMap} and
+ * the id-to-string mapping is an append-only array of fixed-size chunks that is
+ * never copied. Only the addition of a new word takes a lock. Once the models
+ * are loaded, {@link #freeze()} snapshots the words seen so far into a plain
+ * read-only map that is consulted first; words added afterwards (e.g., OOVs)
+ * still go into the concurrent index.
+ *
  * @author Juri Ganitkevitch
  */
 
 public class Vocabulary implements Externalizable {
 
   private static final Logger LOG = LoggerFactory.getLogger(Vocabulary.class);
-  private final static ArrayList<NGramLanguageModel> LMs = new ArrayList<>();
 
-  private static List<String> idToString;
-  private static Map<String, Integer> stringToId;
-  private static final StampedLock lock = new StampedLock();
+  // the id-to-string mapping is stored in chunks of 2^CHUNK_BITS words
+  private static final int CHUNK_BITS = 14;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final ArrayList<NGramLanguageModel> LMs = new ArrayList<>();
+
+  private volatile String[][] idToString;
+  private volatile int size;
+  private volatile ConcurrentHashMap<String, Integer> stringToId;
+  // the read-only snapshot taken by freeze(), or null if the vocabulary is not frozen
+  private volatile Map<String, Integer> frozenStringToId;
+  private final Object lock = new Object();
 
   static final int UNKNOWN_ID = 0;
   static final String UNKNOWN_WORD = "<unk>";
@@ -62,22 +84,28 @@ public class Vocabulary implements Externalizable {
   public static final String START_SYM = "<s>";
   public static final String STOP_SYM = "</s>";
 
-  static {
-    clear();
+  /**
+   * Creates an empty vocabulary. Use {@link DecoderContext} to obtain the one the static methods
+   * operate on.
+   */
+  public Vocabulary() {
+    reset();
+  }
+
+  private static Vocabulary current() {
+    return DecoderContext.current().getVocabulary();
   }
 
   public static boolean registerLanguageModel(NGramLanguageModel lm) {
-    long lock_stamp = lock.writeLock();
-    try {
+    final Vocabulary v = current();
+    synchronized (v.lock) {
       // Store the language model.
-      LMs.add(lm);
+      v.LMs.add(lm);
       // Notify it of all the existing words.
       boolean collision = false;
-      for (int i = idToString.size() - 1; i > 0; i--)
-        collision = collision || lm.registerWord(idToString.get(i), i);
+      for (int i = v.size - 1; i > 0; i--)
+        collision = collision || lm.registerWord(v.get(i), i);
       return collision;
-    } finally {
-      lock.unlockWrite(lock_stamp);
     }
   }
 
@@ -104,92 +132,119 @@ public class Vocabulary implements Externalizable {
       }
     }
     vocab_stream.close();
-    return (size + 1 == idToString.size());
+    return (size + 1 == size());
   }
 
   public static void write(String file_name) throws IOException {
-    long lock_stamp =lock.readLock();
-    try {
+    final Vocabulary v = current();
+    synchronized (v.lock) {
       File vocab_file = new File(file_name);
       DataOutputStream vocab_stream =
           new DataOutputStream(new BufferedOutputStream(new FileOutputStream(vocab_file)));
-      vocab_stream.writeInt(idToString.size() - 1);
-      LOG.info("Writing vocabulary: {} tokens", idToString.size() - 1);
-      for (int i = 1; i < idToString.size(); i++) {
+      vocab_stream.writeInt(v.size - 1);
+      LOG.info("Writing vocabulary: {} tokens", v.size - 1);
+      for (int i = 1; i < v.size; i++) {
         vocab_stream.writeInt(i);
-        vocab_stream.writeUTF(idToString.get(i));
+        vocab_stream.writeUTF(v.get(i));
       }
       vocab_stream.close();
     }
-    finally{
-      lock.unlockRead(lock_stamp);
-    }
   }
 
   /**
    * Get the id of the token if it already exists, new id is created otherwise.
    *
-   * TODO: currently locks for every call. Separate constant (frozen) ids from
-   * changing (e.g. OOV) ids. Constant ids could be immutable -&gt; no locking.
-   * Alternatively: could we use ConcurrentHashMap to not have to lock if
-   * actually contains it and only lock for modifications?
+   * Known tokens are looked up without locking; only the creation of a new id
+   * is serialized.
    * 
    * @param token a token to obtain an id for
    * @return the token id
    */
   public static int id(String token) {
-    // First attempt an optimistic read
-    long attempt_read_lock = lock.tryOptimisticRead();
-    if (stringToId.containsKey(token)) {
-      int resultId = stringToId.get(token);
-      if (lock.validate(attempt_read_lock)) {
+    final Vocabulary v = current();
+    Integer resultId = v.lookup(token);
+    if (resultId != null)
+      return resultId;
+
+    // Looks like the id we want is not there, let's take the lock and add it
+    synchronized (v.lock) {
+      resultId = v.lookup(token);
+      if (resultId != null)
         return resultId;
-      }
-    }
 
-    // The optimistic read failed, try a read with a stamped read lock
-    long read_lock_stamp = lock.readLock();
-    try {
-      if (stringToId.containsKey(token)) {
-        return stringToId.get(token);
-      }
-    } finally {
-      lock.unlockRead(read_lock_stamp);
-    }
-
-    // Looks like the id we want is not there, let's get a write lock and add it
-    long write_lock_stamp = lock.writeLock();
-    try {
-      if (stringToId.containsKey(token)) {
-        return stringToId.get(token);
-      }
-      int id = idToString.size() * (FormatUtils.isNonterminal(token) ? -1 : 1);
+      int index = v.size;
+      int id = index * (FormatUtils.isNonterminal(token) ? -1 : 1);
 
       // register this (token,id) mapping with each language
       // model, so that they can map it to their own private
       // vocabularies
-      for (NGramLanguageModel lm : LMs)
-        lm.registerWord(token, Math.abs(id));
-
-      idToString.add(token);
-      stringToId.put(token, id);
+      for (NGramLanguageModel lm : v.LMs)
+        lm.registerWord(token, index);
+
+      int chunk = index >>> CHUNK_BITS;
+      if (chunk == v.idToString.length)
+        v.idToString = Arrays.copyOf(v.idToString, 2 * chunk);
+      if (v.idToString[chunk] == null)
+        v.idToString[chunk] = new String[CHUNK_SIZE];
+
+      // The word is stored and the size grown before the id is published, so
+      // any thread that obtains the id can also see the word and hasId() holds.
+      v.idToString[chunk][index & CHUNK_MASK] = token;
+      v.size = index + 1;
+      v.stringToId.put(token, id);
       return id;
-    } finally {
-      lock.unlockWrite(write_lock_stamp);
     }
   }
 
-  public static boolean hasId(int id) {
-    long lock_stamp = lock.readLock();
-    try {
-      id = Math.abs(id);
-      return (id < idToString.size());
+  private Integer lookup(String token) {
+    Map<String, Integer> frozen = frozenStringToId;
+    if (frozen != null) {
+      Integer id = frozen.get(token);
+      if (id != null)
+        return id;
     }
-    finally{
-      lock.unlockRead(lock_stamp);
+    return stringToId.get(token);
+  }
+
+  private String get(int id) {
+    if (id >= size)
+      throw new IndexOutOfBoundsException("Index: " + id + ", Size: " + size);
+    return idToString[id >>> CHUNK_BITS][id & CHUNK_MASK];
+  }
+
+  /**
+   * Snapshots the current vocabulary into a read-only index that is consulted
+   * before the concurrent one. This is meant to be called once all models are
+   * loaded; words can still be added afterwards.
+   */
+  public static void freeze() {
+    final Vocabulary v = current();
+    synchronized (v.lock) {
+      HashMap<String, Integer> frozen = new HashMap<>(v.stringToId);
+      if (v.frozenStringToId != null)
+        frozen.putAll(v.frozenStringToId);
+      v.frozenStringToId = Collections.unmodifiableMap(frozen);
+      /*
+       * Readers that miss the frozen snapshot fall through to the concurrent index, so it is
+       * replaced rather than cleared; a reader still holding the old one sees a superset.
+       */
+      v.stringToId = new ConcurrentHashMap<>();
+      LOG.info("Froze the vocabulary at {} entries", v.size);
     }
   }
 
+  /**
+   * @return true if {@link #freeze()} has been called since the last {@link #clear()}
+   */
+  public static boolean isFrozen() {
+    return current().frozenStringToId != null;
+  }
+
+  public static boolean hasId(int id) {
+    id = Math.abs(id);
+    return (id < current().size);
+  }
+
   public static int[] addAll(String sentence) {
     return addAll(sentence.split("\\s+"));
   }
@@ -202,14 +257,7 @@ public class Vocabulary implements Externalizable {
   }
 
   public static String word(int id) {
-    long lock_stamp = lock.readLock();
-    try {
-      id = Math.abs(id);
-      return idToString.get(id);
-    }
-    finally{
-      lock.unlockRead(lock_stamp);
-    }
+    return current().get(Math.abs(id));
   }
 
   public static String getWords(int[] ids) {
@@ -243,15 +291,10 @@ public class Vocabulary implements Externalizable {
   }
 
   public static int size() {
-    long lock_stamp = lock.readLock();
-    try {
-      return idToString.size();
-    } finally {
-      lock.unlockRead(lock_stamp);
-    }
+    return current().size;
   }
 
-  public static synchronized int getTargetNonterminalIndex(int id) {
+  public static int getTargetNonterminalIndex(int id) {
     return FormatUtils.getNonterminalIndex(word(id));
   }
 
@@ -260,20 +303,29 @@ public class Vocabulary implements Externalizable {
    * language models are left unchanged.
    */
   public static void clear() {
-    long lock_stamp = lock.writeLock();
-    try {
-      idToString = new ArrayList<>();
-      stringToId = new HashMap<>();
-
-      idToString.add(UNKNOWN_ID, UNKNOWN_WORD);
-      stringToId.put(UNKNOWN_WORD, UNKNOWN_ID);
-    } finally {
-      lock.unlockWrite(lock_stamp);
+    current().reset();
+  }
+
+  private void reset() {
+    synchronized (lock) {
+      String[][] chunks = new String[1][];
+      chunks[0] = new String[CHUNK_SIZE];
+      chunks[0][UNKNOWN_ID] = UNKNOWN_WORD;
+      ConcurrentHashMap<String, Integer> index = new ConcurrentHashMap<>();
+      index.put(UNKNOWN_WORD, UNKNOWN_ID);
+
+      frozenStringToId = null;
+      idToString = chunks;
+      stringToId = index;
+      size = 1;
     }
   }
 
   public static void unregisterLanguageModels() {
-    LMs.clear();
+    final Vocabulary v = current();
+    synchronized (v.lock) {
+      v.LMs.clear();
+    }
   }
 
   @Override
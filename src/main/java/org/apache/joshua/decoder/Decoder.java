@@ -18,7 +18,7 @@
  */
 package org.apache.joshua.decoder;
 
-import static org.apache.joshua.decoder.ff.FeatureVector.DENSE_FEATURE_NAMES;
+import static org.apache.joshua.decoder.ff.FeatureVector.getDenseFeatureNames;
 import static org.apache.joshua.decoder.ff.tm.OwnerMap.getOwner;
 
 import java.io.BufferedWriter;
@@ -32,19 +32,22 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.ff.FeatureFunction;
 import org.apache.joshua.decoder.ff.FeatureVector;
 import org.apache.joshua.decoder.ff.PhraseModel;
-import org.apache.joshua.decoder.ff.StatefulFF;
 import org.apache.joshua.decoder.ff.lm.LanguageModelFF;
+import org.apache.joshua.decoder.ff.lm.StateMinimizingLanguageModel;
 import org.apache.joshua.decoder.ff.tm.Grammar;
 import org.apache.joshua.decoder.ff.tm.OwnerId;
-import org.apache.joshua.decoder.ff.tm.OwnerMap;
 import org.apache.joshua.decoder.ff.tm.Rule;
 import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
 import org.apache.joshua.decoder.ff.tm.hash_based.MemoryBasedBatchGrammar;
@@ -60,7 +63,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * This class handles decoder initialization and the complication introduced by multithreading.
@@ -69,17 +71,18 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * decodeAll(TranslationRequest), which returns a set of Translation objects wrapped in an iterable
  * TranslationResponseStream object. It is important that we support multithreading both (a) across the sentences
  * within a request and (b) across requests, in a round-robin fashion. This is done by maintaining a
- * fixed sized concurrent thread pool. When a new request comes in, a RequestParallelizer thread is
- * launched. This object iterates over the request's sentences, obtaining a thread from the
- * thread pool, and using that thread to decode the sentence. If a decoding thread is not available,
- * it will block until one is in a fair (FIFO) manner. RequestParallelizer thereby permits intra-request
- * parallelization by separating out reading the input stream from processing the translated sentences,
- * but also ensures that round-robin parallelization occurs, since RequestParallelizer uses the
- * thread pool before translating each request.
+ * single work-stealing pool of num_parallel_decoders decoding threads that lives as long as the
+ * decoder and is shared by all requests. When a new request comes in, a reader thread is launched.
+ * It iterates over the request's sentences and submits each one to the decoding pool. A request may
+ * have at most num_parallel_decoders sentences waiting or being decoded at any time; its reader
+ * blocks until one of them is done. This permits intra-request parallelization, but also keeps a
+ * long request from filling the pool's queue ahead of requests that arrive later, so that the
+ * decoding threads are shared among concurrent requests in a round-robin fashion.
  *
- * A decoding thread is handled by DecoderTask and launched from DecoderThreadRunner. The purpose
- * of the runner is to record where to place the translated sentence when it is done (i.e., which
- * TranslationResponseStream object). TranslationResponseStream itself is an iterator whose next() call blocks until the next
+ * A sentence is decoded by a DecoderTask. DecoderTasks are reused from one sentence to the next,
+ * since creating one clones the source-dependent feature functions. Each translation is recorded in
+ * the request's TranslationResponseStream, which puts the translations back in input order.
+ * TranslationResponseStream itself is an iterator whose next() call blocks until the next
  * translation is available.
  *
  * @author Matt Post post@cs.jhu.edu
@@ -108,8 +111,35 @@ public class Decoder {
   private ArrayList<FeatureFunction> featureFunctions;
   private Grammar customPhraseTable;
 
+  /*
+   * The vocabulary, feature registries and weights of this decoder. It is bound to the calling
+   * thread while models are loaded and sentences are translated, so that several decoders can
+   * coexist in one JVM.
+   */
+  private final DecoderContext context;
+
   /* The feature weights. */
-  public static FeatureVector weights;
+  private FeatureVector weights;
+
+  /*
+   * The decoding threads shared by all requests, and the threads reading the requests' input.
+   * Both are started on first use and stopped by cleanUp().
+   */
+  private ForkJoinPool decodingPool;
+  private ExecutorService requestReaders;
+
+  /* The threads that expand the spans of a sentence in parallel (num_span_threads > 1) */
+  private ForkJoinPool spanPool;
+
+  /* DecoderTasks that are not currently translating a sentence, available for reuse. */
+  private final ConcurrentLinkedQueue<DecoderTask> idleTasks = new ConcurrentLinkedQueue<>();
+
+  /*
+   * Sentences are decoded under the read lock. Changes to the weights or the custom grammar take
+   * the write lock, so that they wait for the sentences being decoded and are never seen halfway.
+   * The lock is fair, so that a waiting change is not starved by a steady stream of sentences.
+   */
+  private final ReadWriteLock modelLock = new ReentrantReadWriteLock(true);
 
   public static int VERBOSE = 1;
 
@@ -124,7 +154,19 @@ public class Decoder {
    * @param configFile name of configuration file.
    */
   public Decoder(JoshuaConfiguration joshuaConfiguration, String configFile) {
-    this(joshuaConfiguration);
+    this(joshuaConfiguration, configFile, DecoderContext.current());
+  }
+
+  /**
+   * Constructor method that creates a new decoder with its own vocabulary and feature registries,
+   * which allows loading several models into the same JVM.
+   *
+   * @param joshuaConfiguration a populated {@link org.apache.joshua.decoder.JoshuaConfiguration}
+   * @param configFile name of configuration file.
+   * @param context the {@link DecoderContext} holding this decoder's global state; it is reset
+   */
+  public Decoder(JoshuaConfiguration joshuaConfiguration, String configFile, DecoderContext context) {
+    this(joshuaConfiguration, context);
     this.initialize(configFile);
   }
 
@@ -146,12 +188,13 @@ public class Decoder {
    * {@link #getUninitalizedDecoder()} method to provide an uninitialized decoder for use in
    * testing.
    */
-  private Decoder(JoshuaConfiguration joshuaConfiguration) {
+  private Decoder(JoshuaConfiguration joshuaConfiguration, DecoderContext context) {
     this.joshuaConfiguration = joshuaConfiguration;
+    this.context = context;
     this.grammars = new ArrayList<>();
     this.customPhraseTable = null;
 
-    resetGlobalState();
+    context.reset();
   }
 
   /**
@@ -163,13 +206,13 @@ public class Decoder {
    * @return an uninitialized decoder for use in testing
    */
   static public Decoder getUninitalizedDecoder(JoshuaConfiguration joshuaConfiguration) {
-    return new Decoder(joshuaConfiguration);
+    return new Decoder(joshuaConfiguration, DecoderContext.current());
   }
 
   /**
    * This function is the main entry point into the decoder. It translates all the sentences in a
    * (possibly boundless) set of input sentences. Each request launches its own thread to read the
-   * sentences of the request.
+   * sentences of the request, which are then translated on the decoder's shared decoding threads.
    *
    * @param request the populated {@link TranslationRequestStream}
    * @throws RuntimeException if any fatal errors occur during translation
@@ -177,20 +220,19 @@ public class Decoder {
    */
   public TranslationResponseStream decodeAll(TranslationRequestStream request) {
     TranslationResponseStream results = new TranslationResponseStream(request);
-    CompletableFuture.runAsync(() -> decodeAllAsync(request, results));
+    startThreads();
+    CompletableFuture.runAsync(context.wrap(() -> decodeAllAsync(request, results)), requestReaders);
     return results;
   }
 
   private void decodeAllAsync(TranslationRequestStream request,
                               TranslationResponseStream responseStream) {
 
-    // Give the threadpool a friendly name to help debuggers
-    final ThreadFactory threadFactory = new ThreadFactoryBuilder()
-            .setNameFormat("TranslationWorker-%d")
-            .setDaemon(true)
-            .build();
-    ExecutorService executor = Executors.newFixedThreadPool(this.joshuaConfiguration.num_parallel_decoders,
-            threadFactory);
+    /*
+     * Limit the number of this request's sentences that are queued or being decoded, so that
+     * concurrent requests take turns on the decoding threads.
+     */
+    final Semaphore inFlight = new Semaphore(this.joshuaConfiguration.num_parallel_decoders);
     try {
       for (; ; ) {
         Sentence sentence = request.next();
@@ -199,21 +241,65 @@ public class Decoder {
           break;
         }
 
-        executor.execute(() -> {
+        inFlight.acquireUninterruptibly();
+        /*
+         * A sentence of a cancelled request (see TranslationResponseStream#cancel) is skipped if
+         * it has not started decoding yet, which returns its permit all the same.
+         */
+        CompletableFuture.runAsync(() -> {
           try {
-            Translation result = decode(sentence);
-            responseStream.record(result);
+            if (!responseStream.isCancelled())
+              responseStream.record(decode(sentence));
           } catch (Throwable ex) {
             responseStream.propagate(ex);
+          } finally {
+            responseStream.completed();
+            inFlight.release();
           }
-        });
+        }, decodingPool);
+        // Counted only once accepted by the pool; the count is only checked after the last one
+        responseStream.submitted();
       }
       responseStream.finish();
+    } catch (Throwable ex) {
+      responseStream.propagate(ex);
     } finally {
-      executor.shutdown();
+      responseStream.submittedAll();
     }
   }
 
+  /**
+   * Translates a single sentence on the decoder's shared decoding threads. This is for callers
+   * that read their input themselves (such as the NIO TCP server) and cannot hand over a
+   * {@link TranslationRequestStream}; they are responsible for the order of the results.
+   *
+   * @param sentence the sentence to translate
+   * @return a future that completes with the translation
+   */
+  public CompletableFuture<Translation> decodeAsync(Sentence sentence) {
+    startThreads();
+    return CompletableFuture.supplyAsync(() -> decode(sentence), decodingPool);
+  }
+
+  private synchronized ForkJoinPool spanPool() {
+    if (spanPool == null && this.joshuaConfiguration.num_span_threads > 1) {
+      spanPool = new ForkJoinPool(this.joshuaConfiguration.num_span_threads,
+          DecoderContext.forkJoinThreadFactory("SpanWorker-"), null, false);
+    }
+    return spanPool;
+  }
+
+  private synchronized void startThreads() {
+    if (decodingPool != null)
+      return;
+
+    // Give the threads friendly names to help debuggers. They must always run with a bound context.
+    decodingPool = new ForkJoinPool(this.joshuaConfiguration.num_parallel_decoders,
+        DecoderContext.forkJoinThreadFactory("TranslationWorker-"), null, true);
+    requestReaders = Executors.newCachedThreadPool(
+        DecoderContext.threadFactory("TranslationReader-%d"));
+  }
+
 
   /**
    * We can also just decode a single sentence in the same thread.
@@ -223,12 +309,38 @@ public class Decoder {
    * @return the sentence {@link org.apache.joshua.decoder.Translation}
    */
   public Translation decode(Sentence sentence) {
-    try {
-      DecoderTask decoderTask = new DecoderTask(this.grammars, Decoder.weights, this.featureFunctions, joshuaConfiguration);
-      return decoderTask.translate(sentence);
+    modelLock.readLock().lock();
+    try (DecoderContext.Binding binding = context.bind()) {
+      DecoderTask decoderTask = idleTasks.poll();
+      if (decoderTask == null)
+        decoderTask = new DecoderTask(this.grammars, weights, this.featureFunctions,
+            joshuaConfiguration, context, spanPool());
+      try {
+        return decoderTask.translate(sentence);
+      } finally {
+        idleTasks.offer(decoderTask);
+      }
     } catch (IOException e) {
       throw new RuntimeException(String.format(
               "Input %d: FATAL UNCAUGHT EXCEPTION: %s", sentence.id(), e.getMessage()), e);
+    } finally {
+      modelLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Changes the models of a running decoder, such as its weights or its custom grammar. The change
+   * waits until the sentences being decoded are done, and sentences submitted after it wait for
+   * the change, so every sentence is decoded with either the old or the new models.
+   *
+   * @param update the change, which is run with this decoder's context bound
+   */
+  public void updateModels(Runnable update) {
+    modelLock.writeLock().lock();
+    try (DecoderContext.Binding binding = context.bind()) {
+      update.run();
+    } finally {
+      modelLock.writeLock().unlock();
     }
   }
 
@@ -238,17 +350,44 @@ public class Decoder {
    * afterwards gets a fresh start.
    */
   public void cleanUp() {
-    resetGlobalState();
+    synchronized (this) {
+      if (decodingPool != null) {
+        decodingPool.shutdown();
+        requestReaders.shutdown();
+        decodingPool = null;
+        requestReaders = null;
+      }
+      if (spanPool != null) {
+        spanPool.shutdown();
+        spanPool = null;
+      }
+    }
+    idleTasks.clear();
+    context.reset();
   }
 
+  /**
+   * Resets the {@link DecoderContext} bound to the calling thread (by default, the one shared by
+   * all decoders constructed without their own context).
+   */
   public static void resetGlobalState() {
-    // clear/reset static variables
-    OwnerMap.clear();
-    DENSE_FEATURE_NAMES.clear();
-    Vocabulary.clear();
-    Vocabulary.unregisterLanguageModels();
-    LanguageModelFF.resetLmIndex();
-    StatefulFF.resetGlobalStateIndex();
+    DecoderContext.current().reset();
+  }
+
+  public List<Grammar> getGrammars() {
+    return grammars;
+  }
+
+  public List<FeatureFunction> getFeatureFunctions() {
+    return featureFunctions;
+  }
+
+  public DecoderContext getContext() {
+    return context;
+  }
+
+  public FeatureVector getWeights() {
+    return weights;
   }
 
   public static void writeConfigFile(double[] newWeights, String template, String outputFile,
@@ -337,7 +476,7 @@ public class Decoder {
    * @return An initialized decoder
    */
   public Decoder initialize(String configFile) {
-    try {
+    try (DecoderContext.Binding binding = context.bind()) {
 
       long pre_load_time = System.currentTimeMillis();
 
@@ -379,24 +518,39 @@ public class Decoder {
         weights.set(pair[0], Float.parseFloat(pair[1]));
       }
 
-      LOG.info("Read {} weights ({} of them dense)", weights.size(), DENSE_FEATURE_NAMES.size());
+      LOG.info("Read {} weights ({} of them dense)", weights.size(), getDenseFeatureNames().size());
 
       // Do this before loading the grammars and the LM.
       this.featureFunctions = new ArrayList<>();
 
-      // Initialize and load grammars. This must happen first, since the vocab gets defined by
-      // the packed grammar (if any)
-      this.initializeTranslationGrammars();
-      LOG.info("Grammar loading took: {} seconds.",
-          (System.currentTimeMillis() - pre_load_time) / 1000);
+      // Start reading the language models, which do not touch the vocabulary until their feature
+      // functions register them, while the grammars are loaded
+      ModelLoader loader = new ModelLoader(context, joshuaConfiguration.num_loading_threads);
+      context.setModelLoader(loader);
+      try {
+        this.preloadLanguageModels(loader);
+
+        // Initialize and load grammars. This must happen first, since the vocab gets defined by
+        // the packed grammar (if any)
+        this.initializeTranslationGrammars(loader);
+        LOG.info("Grammar loading took: {} seconds.",
+            (System.currentTimeMillis() - pre_load_time) / 1000);
 
-      // Initialize the features: requires that LM model has been initialized.
-      this.initializeFeatureFunctions();
+        // Initialize the features: requires that LM model has been initialized.
+        this.initializeFeatureFunctions(loader);
+
+        LOG.info("Model load times:");
+        for (String timing : loader.getTimings())
+          LOG.info("  {}", timing);
+      } finally {
+        context.setModelLoader(null);
+        loader.close();
+      }
 
       // This is mostly for compatibility with the Moses tuning script
       if (joshuaConfiguration.show_weights_and_quit) {
-        for (int i = 0; i < DENSE_FEATURE_NAMES.size(); i++) {
-          String name = DENSE_FEATURE_NAMES.get(i);
+        for (int i = 0; i < getDenseFeatureNames().size(); i++) {
+          String name = getDenseFeatureNames().get(i);
           if (joshuaConfiguration.moses)
             System.out.println(String.format("%s= %.5f", mosesize(name), weights.getDense(i)));
           else
@@ -417,6 +571,15 @@ public class Decoder {
             (System.currentTimeMillis() - pre_sort_time) / 1000);
       }
 
+      // Build the terminal vocabularies that OOVs are segmented with once, before decoding
+      if (joshuaConfiguration.segment_oovs) {
+        for (Grammar grammar : this.grammars)
+          grammar.getTerminalVocabulary();
+      }
+
+      // All model vocabulary is known now; later additions are OOVs seen while decoding
+      Vocabulary.freeze();
+
       // Create the threads
       //TODO: (kellens) see if we need to wait until initialized before decoding
     } catch (IOException e) {
@@ -431,9 +594,10 @@ public class Decoder {
    *
    * @param ownersSeen Records which PhraseModelFF's have been instantiated (one is needed for each
    *          owner)
+   * @param loader times the loading of each grammar
    * @throws IOException
    */
-  private void initializeTranslationGrammars() throws IOException {
+  private void initializeTranslationGrammars(ModelLoader loader) throws IOException {
 
     // collect packedGrammars to check if they use a shared vocabulary
     final List<PackedGrammar> packed_grammars = new ArrayList<>();
@@ -452,39 +616,21 @@ public class Decoder {
       int span_limit = Integer.parseInt(parsedArgs.get("maxspan"));
       String path = joshuaConfiguration.getFilePath(parsedArgs.get("path"));
       
-      Grammar grammar;
-      if (type.equals("moses") || type.equals("phrase")) {
-        joshuaConfiguration.search_algorithm = "stack";
-        grammar = new PhraseTable(path, owner, type, joshuaConfiguration);
-
-      } else {
-        if (new File(path).isDirectory()) {
-          /* Bug check. It is a problem if you load the glue grammar before a packed grammar, due to vocabulary
-           * issues. That should be fixed one day, but in the meantime, it is important to tell people about it.
-           */
-          if (glueGrammar != null) {
-            LOG.error("FATAL: the glue grammar must be listed AFTER any packed grammar.");
-            LOG.error("  Change the order in the config file so that your packed grammar is loaded first.");
-            throw new RuntimeException("Glue grammar loaded before a packed grammar.");
-          }
-
-          try {
-            PackedGrammar packed_grammar = new PackedGrammar(path, span_limit, owner, type, joshuaConfiguration);
-            packed_grammars.add(packed_grammar);
-            grammar = packed_grammar;
-          } catch (FileNotFoundException e) {
-            String msg = String.format("Couldn't load packed grammar from '%s'", path)
-                + "Perhaps it doesn't exist, or it may be an old packed file format.";
-            throw new RuntimeException(msg);
-          }
-
-        } else {
-          // thrax, hiero, samt
-          grammar = new MemoryBasedBatchGrammar(type, path, owner,
-              joshuaConfiguration.default_non_terminal, span_limit, joshuaConfiguration);
-        }
+      /* Bug check. It is a problem if you load the glue grammar before a packed grammar, due to vocabulary
+       * issues. That should be fixed one day, but in the meantime, it is important to tell people about it.
+       */
+      if (glueGrammar != null && isPackedGrammar(type, path)) {
+        LOG.error("FATAL: the glue grammar must be listed AFTER any packed grammar.");
+        LOG.error("  Change the order in the config file so that your packed grammar is loaded first.");
+        throw new RuntimeException("Glue grammar loaded before a packed grammar.");
       }
 
+      // Grammars assign vocabulary ids as they are read, so they are loaded in order on this thread
+      Grammar grammar = loader.time(String.format("%s grammar %s", type, path),
+          () -> createGrammar(type, path, owner, span_limit));
+      if (grammar instanceof PackedGrammar)
+        packed_grammars.add((PackedGrammar) grammar);
+
       this.grammars.add(grammar);
 
       /* Record whether we saw a custom grammar for adding phrase entries */
@@ -542,6 +688,58 @@ public class Decoder {
         ((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1000000.0));
   }
 
+  private static boolean isPackedGrammar(String type, String path) {
+    return !type.equals("moses") && !type.equals("phrase") && new File(path).isDirectory();
+  }
+
+  private Grammar createGrammar(String type, String path, String owner, int span_limit)
+      throws IOException {
+    if (type.equals("moses") || type.equals("phrase")) {
+      joshuaConfiguration.search_algorithm = "stack";
+      return new PhraseTable(path, owner, type, joshuaConfiguration);
+
+    } else if (isPackedGrammar(type, path)) {
+      try {
+        return new PackedGrammar(path, span_limit, owner, type, joshuaConfiguration);
+      } catch (FileNotFoundException e) {
+        String msg = String.format("Couldn't load packed grammar from '%s'", path)
+            + "Perhaps it doesn't exist, or it may be an old packed file format.";
+        throw new RuntimeException(msg);
+      }
+
+    } else {
+      // thrax, hiero, samt
+      return new MemoryBasedBatchGrammar(type, path, owner,
+          joshuaConfiguration.default_non_terminal, span_limit, joshuaConfiguration);
+    }
+  }
+
+  /**
+   * Starts loading the backend of each language model feature in the background, so that the
+   * feature function finds it loaded, or partly loaded, when it is created after the grammars.
+   */
+  private void preloadLanguageModels(ModelLoader loader) {
+    for (String featureLine : joshuaConfiguration.features) {
+      String fields[] = featureLine.split("\\s+");
+      Class<?> clas = getFeatureFunctionClass(fields[0]);
+      if (clas == null || !LanguageModelFF.class.isAssignableFrom(clas))
+        continue;
+
+      HashMap<String, String> parsedArgs = FeatureFunction.parseArgs(fields);
+      if (!parsedArgs.containsKey("lm_type") || !parsedArgs.containsKey("lm_order")
+          || !parsedArgs.containsKey("lm_file"))
+        continue;
+
+      // Only KenLM supports left-state minimization
+      final String type = StateMinimizingLanguageModel.class.isAssignableFrom(clas)
+          ? "kenlm" : parsedArgs.get("lm_type");
+      final int order = Integer.parseInt(parsedArgs.get("lm_order"));
+      final String path = joshuaConfiguration.getFilePath(parsedArgs.get("lm_file"));
+      loader.submit(LanguageModelFF.getLoadingKey(type, order, path),
+          () -> LanguageModelFF.createLanguageModel(type, order, path));
+    }
+  }
+
   /**
    * Checks if multiple packedGrammars have the same vocabulary by comparing their vocabulary file checksums.
    */
@@ -569,7 +767,8 @@ public class Decoder {
    * FEATURE_NAME WEIGHT
    */
   private void readWeights(String fileName) {
-    Decoder.weights = new FeatureVector();
+    weights = new FeatureVector();
+    context.setWeights(weights);
 
     if (fileName.equals(""))
       return;
@@ -618,10 +817,11 @@ public class Decoder {
    *
    * Weights for features are listed separately.
    *
+   * @param loader times the creation of each feature function
    * @throws IOException
    *
    */
-  private void initializeFeatureFunctions() throws IOException {
+  private void initializeFeatureFunctions(ModelLoader loader) throws IOException {
 
     for (String featureLine : joshuaConfiguration.features) {
       // line starts with NAME, followed by args
@@ -635,7 +835,8 @@ public class Decoder {
         Class<?> clas = getFeatureFunctionClass(featureName);
         Constructor<?> constructor = clas.getConstructor(FeatureVector.class,
             String[].class, JoshuaConfiguration.class);
-        FeatureFunction feature = (FeatureFunction) constructor.newInstance(weights, fields, joshuaConfiguration);
+        FeatureFunction feature = loader.time(featureLine,
+            () -> (FeatureFunction) constructor.newInstance(weights, fields, joshuaConfiguration));
         this.featureFunctions.add(feature);
 
       } catch (Exception e) {
@@ -685,9 +886,11 @@ public class Decoder {
    */
   public void addCustomRule(Rule rule) {
     if (getCustomPhraseTable() != null) {
-      getCustomPhraseTable().addRule(rule);
-      rule.estimateRuleCost(featureFunctions);
-      getCustomPhraseTable().save();
+      updateModels(() -> {
+        getCustomPhraseTable().addRule(rule);
+        rule.estimateRuleCost(featureFunctions);
+        getCustomPhraseTable().save();
+      });
     }
   }
 
@@ -703,7 +906,8 @@ public class Decoder {
   }
   
   public void saveCustomPhraseTable() {
-    if (getCustomPhraseTable() != null)
-      getCustomPhraseTable().save();
+    if (getCustomPhraseTable() != null) {
+      updateModels(() -> getCustomPhraseTable().save());
+    }
   }
 }
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.ff.FeatureMap;
+import org.apache.joshua.decoder.ff.FeatureVector;
+import org.apache.joshua.decoder.ff.StatefulFF;
+import org.apache.joshua.decoder.ff.lm.LanguageModelFF;
+import org.apache.joshua.decoder.ff.tm.OwnerMap;
+
+/**
+ * DecoderContext holds the state that used to be global to the JVM: the
+ * {@link Vocabulary}, the {@link OwnerMap}, the feature name registry
+ * ({@link FeatureMap}, including the dense feature names), the language model
+ * and stateful feature function counters, and the weight vector. Each
+ * {@link Decoder} owns one context, so several decoders with different models
+ * can live in the same process.
+ *
+ * The decoder passes its context explicitly to the objects that translate a
+ * sentence ({@link DecoderTask}, and the chart or stacks it builds), which bind
+ * it around their work. The static accessors of the classes above (e.g.,
+ * {@link Vocabulary#id(String)}) resolve to the context that is bound to the
+ * calling thread. On the threads a decoder creates (see
+ * {@link #threadFactory(String)}), there is no fallback: using a static
+ * accessor without a bound context is an error, so that work handed to those
+ * threads can never silently use another decoder's models. Other threads, such
+ * as the one that constructs a decoder without a context of its own, fall back
+ * to the default context. Code that hands decoder work to other threads must
+ * carry the context along with {@link #wrap(Runnable)} or {@link #bind()}.
+ */
+public class DecoderContext {
+
+  private static final ThreadLocal<DecoderContext> BOUND = new ThreadLocal<>();
+
+  private static final DecoderContext DEFAULT = new DecoderContext();
+
+  private final Vocabulary vocabulary = new Vocabulary();
+  private final OwnerMap ownerMap = new OwnerMap();
+  private final FeatureMap featureMap = new FeatureMap();
+
+  // Language model features are named lm_0, lm_1, ... in order of creation
+  private final AtomicInteger languageModelIndex = new AtomicInteger();
+  // Each stateful feature function gets its own slot in the hypergraph node state
+  private final AtomicInteger stateIndex = new AtomicInteger();
+
+  private volatile FeatureVector weights;
+
+  // Set while the decoder loads its models
+  private volatile ModelLoader modelLoader;
+
+  /**
+   * Restores the previously bound context when closed.
+   */
+  public interface Binding extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /**
+   * Marks the threads created by a decoder, which never fall back to the default context.
+   */
+  private interface DecoderThread {
+  }
+
+  private static class DecoderWorker extends Thread implements DecoderThread {
+    DecoderWorker(Runnable task) {
+      super(task);
+    }
+  }
+
+  private static class DecoderForkJoinWorker extends ForkJoinWorkerThread implements DecoderThread {
+    DecoderForkJoinWorker(ForkJoinPool pool) {
+      super(pool);
+    }
+  }
+
+  /**
+   * @return the context bound to the calling thread, or the default context on threads that were
+   *         not created by a decoder
+   * @throws IllegalStateException if no context is bound to a thread created by a decoder
+   */
+  public static DecoderContext current() {
+    DecoderContext context = BOUND.get();
+    if (context != null)
+      return context;
+    if (Thread.currentThread() instanceof DecoderThread)
+      throw new IllegalStateException(String.format(
+          "No DecoderContext is bound to decoder thread %s", Thread.currentThread().getName()));
+    return DEFAULT;
+  }
+
+  /**
+   * Creates daemon threads that require a bound context (see {@link #current()}).
+   *
+   * @param nameFormat the thread names, with a %d for the thread number
+   * @return a factory of decoder threads
+   */
+  public static ThreadFactory threadFactory(String nameFormat) {
+    final AtomicInteger count = new AtomicInteger();
+    return task -> {
+      Thread thread = new DecoderWorker(task);
+      thread.setName(String.format(nameFormat, count.getAndIncrement()));
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Creates fork/join worker threads that require a bound context (see {@link #current()}).
+   *
+   * @param namePrefix the thread names, which are followed by the worker's index in its pool
+   * @return a factory of decoder threads
+   */
+  public static ForkJoinWorkerThreadFactory forkJoinThreadFactory(String namePrefix) {
+    return pool -> {
+      ForkJoinWorkerThread worker = new DecoderForkJoinWorker(pool);
+      worker.setName(namePrefix + worker.getPoolIndex());
+      return worker;
+    };
+  }
+
+  /**
+   * @return the context used by threads that have not bound one
+   */
+  public static DecoderContext getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Makes this the current context of the calling thread until the returned binding is closed.
+   * Bindings nest.
+   *
+   * @return a binding that restores the previous context
+   */
+  public Binding bind() {
+    final DecoderContext previous = BOUND.get();
+    BOUND.set(this);
+    return () -> {
+      if (previous == null)
+        BOUND.remove();
+      else
+        BOUND.set(previous);
+    };
+  }
+
+  /**
+   * @param task a task that will run on another thread
+   * @return a task that runs the given one with this context bound
+   */
+  public Runnable wrap(Runnable task) {
+    return () -> {
+      try (Binding binding = bind()) {
+        task.run();
+      }
+    };
+  }
+
+  /**
+   * Clears the vocabulary, the owner and feature registries, and the counters. The weights are
+   * left unchanged.
+   */
+  public void reset() {
+    try (Binding binding = bind()) {
+      OwnerMap.clear();
+      FeatureVector.clearDenseFeatures();
+      FeatureMap.clear();
+      Vocabulary.clear();
+      Vocabulary.unregisterLanguageModels();
+      LanguageModelFF.resetLmIndex();
+      StatefulFF.resetGlobalStateIndex();
+    }
+  }
+
+  public Vocabulary getVocabulary() {
+    return vocabulary;
+  }
+
+  public OwnerMap getOwnerMap() {
+    return ownerMap;
+  }
+
+  public FeatureMap getFeatureMap() {
+    return featureMap;
+  }
+
+  public AtomicInteger getLanguageModelIndex() {
+    return languageModelIndex;
+  }
+
+  public AtomicInteger getStateIndex() {
+    return stateIndex;
+  }
+
+  public FeatureVector getWeights() {
+    return weights;
+  }
+
+  public void setWeights(FeatureVector weights) {
+    this.weights = weights;
+  }
+
+  /**
+   * @return the loader of the decoder's models while they are loaded, or null
+   */
+  public ModelLoader getModelLoader() {
+    return modelLoader;
+  }
+
+  public void setModelLoader(ModelLoader modelLoader) {
+    this.modelLoader = modelLoader;
+  }
+}
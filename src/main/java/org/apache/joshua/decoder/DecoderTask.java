@@ -21,12 +21,16 @@ package org.apache.joshua.decoder;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.joshua.decoder.chart_parser.Chart;
 import org.apache.joshua.decoder.ff.FeatureFunction;
 import org.apache.joshua.decoder.ff.FeatureVector;
 import org.apache.joshua.decoder.ff.SourceDependentFF;
+import org.apache.joshua.decoder.ff.lm.CachedNGramLanguageModel;
+import org.apache.joshua.decoder.ff.lm.LanguageModelFF;
 import org.apache.joshua.decoder.ff.tm.Grammar;
+import org.apache.joshua.decoder.ff.tm.packed.PackedGrammar;
 import org.apache.joshua.decoder.hypergraph.ForestWalker;
 import org.apache.joshua.decoder.hypergraph.GrammarBuilderWalkerFunction;
 import org.apache.joshua.decoder.hypergraph.HyperGraph;
@@ -60,6 +64,12 @@ public class DecoderTask {
   private final List<Grammar> allGrammars;
   private final List<FeatureFunction> featureFunctions;
 
+  /* The decoder's models, which are bound to the calling thread while a sentence is translated */
+  private final DecoderContext context;
+
+  /* Expands the spans of a sentence in parallel, if not null */
+  private final ForkJoinPool spanPool;
+
 
   // ===============================================================
   // Constructor
@@ -67,9 +77,17 @@ public class DecoderTask {
   //TODO: (kellens) why is weights unused?
   public DecoderTask(List<Grammar> grammars, FeatureVector weights,
                      List<FeatureFunction> featureFunctions, JoshuaConfiguration joshuaConfiguration) throws IOException {
+    this(grammars, weights, featureFunctions, joshuaConfiguration, DecoderContext.current(), null);
+  }
+
+  public DecoderTask(List<Grammar> grammars, FeatureVector weights,
+                     List<FeatureFunction> featureFunctions, JoshuaConfiguration joshuaConfiguration,
+                     DecoderContext context, ForkJoinPool spanPool) throws IOException {
 
     this.joshuaConfiguration = joshuaConfiguration;
     this.allGrammars = grammars;
+    this.context = context;
+    this.spanPool = spanPool;
 
     this.featureFunctions = new ArrayList<>();
     for (FeatureFunction ff : featureFunctions) {
@@ -92,6 +110,12 @@ public class DecoderTask {
    * @return the sentence {@link org.apache.joshua.decoder.Translation}
    */
   public Translation translate(Sentence sentence) {
+    try (DecoderContext.Binding binding = context.bind()) {
+      return translateInContext(sentence);
+    }
+  }
+
+  private Translation translateInContext(Sentence sentence) {
 
     LOG.info("Input {}: {}", sentence.id(), sentence.fullSource());
 
@@ -107,6 +131,14 @@ public class DecoderTask {
 
     long startTime = System.currentTimeMillis();
 
+    /* The LM cache counts before this sentence, so that its own hits and misses can be logged */
+    long[][] cacheCounts = new long[featureFunctions.size()][];
+    for (int i = 0; i < featureFunctions.size(); i++) {
+      CachedNGramLanguageModel cache = getLanguageModelCache(featureFunctions.get(i));
+      if (cache != null)
+        cacheCounts[i] = new long[] { cache.getHits(), cache.getMisses() };
+    }
+
     int numGrammars = allGrammars.size();
     Grammar[] grammars = new Grammar[numGrammars];
 
@@ -125,13 +157,14 @@ public class DecoderTask {
     try {
 
       if (joshuaConfiguration.search_algorithm.equals("stack")) {
-        Stacks stacks = new Stacks(sentence, this.featureFunctions, grammars, joshuaConfiguration);
+        Stacks stacks = new Stacks(sentence, this.featureFunctions, grammars, joshuaConfiguration,
+            context, spanPool);
 
         hypergraph = stacks.search();
       } else {
         /* Seeding: the chart only sees the grammars, not the factories */
         Chart chart = new Chart(sentence, this.featureFunctions, grammars,
-            joshuaConfiguration.goal_symbol, joshuaConfiguration);
+            joshuaConfiguration.goal_symbol, joshuaConfiguration, context, spanPool);
 
         hypergraph = (joshuaConfiguration.use_dot_chart) 
             ? chart.expand() 
@@ -147,6 +180,26 @@ public class DecoderTask {
     LOG.info("Input {}: Translation took {} seconds", sentence.id(), seconds);
     LOG.info("Input {}: Memory used is {} MB", sentence.id(), (Runtime
         .getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1000000.0);
+    for (int i = 0; i < featureFunctions.size(); i++) {
+      CachedNGramLanguageModel cache = getLanguageModelCache(featureFunctions.get(i));
+      if (cache != null) {
+        // Sentences decoded at the same time share the cache, so their lookups are included
+        LOG.info("Input {}: {} cache: {}; so far: {}", sentence.id(),
+            featureFunctions.get(i).getName(),
+            CachedNGramLanguageModel.formatStatistics(cache.getHits() - cacheCounts[i][0],
+                cache.getMisses() - cacheCounts[i][1]),
+            cache.getStatistics());
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      for (Grammar grammar : grammars) {
+        if (grammar instanceof PackedGrammar) {
+          LOG.debug("Input {}: trie cache {}, rule cache {}", sentence.id(),
+              ((PackedGrammar) grammar).getTrieCacheStats(),
+              ((PackedGrammar) grammar).getRuleCacheStats());
+        }
+      }
+    }
 
     /* Return the translation unless we're doing synchronous parsing. */
     if (!joshuaConfiguration.parse || hypergraph == null) {
@@ -194,4 +247,12 @@ public class DecoderTask {
     walker.walk(hg.goalNode, f);
     return f.getGrammar();
   }
+
+  /* The n-gram cache in front of a language model feature, or null if it has none */
+  private static CachedNGramLanguageModel getLanguageModelCache(FeatureFunction feature) {
+    if (feature instanceof LanguageModelFF
+        && ((LanguageModelFF) feature).getLM() instanceof CachedNGramLanguageModel)
+      return (CachedNGramLanguageModel) ((LanguageModelFF) feature).getLM();
+    return null;
+  }
 }
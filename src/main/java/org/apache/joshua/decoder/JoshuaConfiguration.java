@@ -33,6 +33,7 @@ import java.util.Collections;
 
 import org.apache.joshua.decoder.ff.StatefulFF;
 import org.apache.joshua.decoder.ff.fragmentlm.Tree;
+import org.apache.joshua.decoder.io.OutputFormat;
 import org.apache.joshua.util.FormatUtils;
 import org.apache.joshua.util.Regex;
 import org.apache.joshua.util.io.LineReader;
@@ -77,6 +78,10 @@ public class JoshuaConfiguration {
   // Testing shows there's up to ~95% hit rate when cache size is 5000 Trie nodes.
   public Integer cachedRuleSize = 5000;
 
+  // The number of packed grammar trie nodes to keep per grammar slice. Nodes that fall out of the
+  // cache are recreated from the memory-mapped grammar when they are visited again.
+  public Integer cachedTrieSize = 1000000;
+
   /*
    * The file to read the weights from (part of the sparse features implementation). Weights can
    * also just be listed in the main config file.
@@ -149,6 +154,13 @@ public class JoshuaConfiguration {
   /* The cube pruning pop limit. Set to 0 for exhaustive pruning. */
   public int pop_limit = 100;
 
+  /*
+   * Lazy cube pruning: candidates enter the heap with the rule's estimated cost plus the Viterbi
+   * costs of their tail nodes, and the feature functions are only run when a candidate reaches the
+   * top of the heap, after which it is put back with its real score.
+   */
+  public boolean lazy_cube_pruning = false;
+
   /* Maximum sentence length. Sentences longer than this are truncated. */
   public int maxlen = 200;
 
@@ -183,9 +195,26 @@ public class JoshuaConfiguration {
    */
   public String outputFormat = "%i ||| %s ||| %f ||| %c";
 
+  /* The compiled outputFormat (see getOutputFormat()) */
+  private volatile OutputFormat compiledOutputFormat = null;
+
   /* The number of decoding threads to use (-threads). */
   public int num_parallel_decoders = 1;
 
+  /*
+   * The number of threads that expand the spans of a single sentence in parallel (-span-threads).
+   * They are shared by all decoding threads. With 1, each sentence is decoded by its decoding
+   * thread alone. The CKY decoder with the dot chart expands spans of equal width on them, and the
+   * phrase-based decoder builds the candidates of each stack on them.
+   */
+  public int num_span_threads = 1;
+
+  /*
+   * The number of threads that load language models in the background while the grammars are read
+   * (-loading-threads). With 0, each model is loaded when its feature function is created.
+   */
+  public int num_loading_threads = 2;
+
   /*
    * When true, _OOV is appended to all words that are passed through (useful for something like
    * transliteration on the target side
@@ -215,6 +244,30 @@ public class JoshuaConfiguration {
   /* If set, Joshua will start a (multi-threaded, per "threads") TCP/IP server on this port. */
   public int server_port = 0;
 
+  /*
+   * The number of HTTP requests that may wait for a decoding thread on top of the ones being
+   * translated (-server-queue-depth). Requests beyond that are turned away with a 503.
+   */
+  public int server_queue_depth = 64;
+
+  /*
+   * The number of connections that the server's socket may hold before they are accepted
+   * (-server-backlog). 0 uses the system's default.
+   */
+  public int server_backlog = 0;
+
+  /*
+   * Serve TCP connections from a single selector thread instead of a thread per connection
+   * (-server-nio). Only plain-text input is supported this way.
+   */
+  public boolean server_nio = false;
+
+  /*
+   * The longest input line, in bytes, that the NIO server accepts (-server-max-line-length). A
+   * connection that sends a longer one is closed.
+   */
+  public int server_max_line_length = 1 << 20;
+
   /*
    * Whether to do forest rescoring. If set to true, the references are expected on STDIN along with
    * the input sentences in the following format:
@@ -277,9 +330,27 @@ public class JoshuaConfiguration {
   /* Weights overridden from the command line */
   public String weight_overwrite = "";
 
-  /* Timeout in seconds for threads */
+  /*
+   * Timeout in milliseconds for translating a request (-translation-thread-timeout). The HTTP
+   * server gives up on a request that has not been translated by then.
+   */
   public long translation_thread_timeout = 30_000;
 
+  /**
+   * Returns the `output-format` template, which is compiled once and compiled again only if
+   * {@link #outputFormat} changes.
+   *
+   * @return the compiled {@link #outputFormat}
+   */
+  public OutputFormat getOutputFormat() {
+    OutputFormat format = compiledOutputFormat;
+    if (format == null || !format.toString().equals(outputFormat)) {
+      format = new OutputFormat(outputFormat);
+      compiledOutputFormat = format;
+    }
+    return format;
+  }
+
   /**
    * This method resets the state of JoshuaConfiguration back to the state after initialization.
    * This is useful when for example making different calls to the decoder within the same java
@@ -308,18 +379,26 @@ public class JoshuaConfiguration {
     true_oovs_only = false;
     filter_grammar = false;
     pop_limit = 100;
+    lazy_cube_pruning = false;
     maxlen = 200;
     use_unique_nbest = false;
     include_align_index = false;
     topN = 1;
     outputFormat = "%i ||| %s ||| %f ||| %c";
     num_parallel_decoders = 1;
+    num_span_threads = 1;
+    num_loading_threads = 2;
     mark_oovs = false;
     // oracleFile = null;
     parse = false; // perform synchronous parsing
     features = new ArrayList<>();
     weights = new ArrayList<>();
     server_port = 0;
+    server_queue_depth = 64;
+    server_backlog = 0;
+    server_nio = false;
+    server_max_line_length = 1 << 20;
+    translation_thread_timeout = 30_000;
 
     reordering_limit = 8;
     num_translation_options = 20;
@@ -569,6 +648,24 @@ public class JoshuaConfiguration {
             }
             LOG.debug("num_parallel_decoders: {}", num_parallel_decoders);
 
+          } else if (parameter.equals(normalize_key("num_span_threads"))
+              || parameter.equals(normalize_key("span-threads"))) {
+            num_span_threads = Integer.parseInt(fds[1]);
+            if (num_span_threads <= 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a positive number for num_span_threads");
+            }
+            LOG.debug("num_span_threads: {}", num_span_threads);
+
+          } else if (parameter.equals(normalize_key("num_loading_threads"))
+              || parameter.equals(normalize_key("loading-threads"))) {
+            num_loading_threads = Integer.parseInt(fds[1]);
+            if (num_loading_threads < 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a non-negative number for num_loading_threads");
+            }
+            LOG.debug("num_loading_threads: {}", num_loading_threads);
+
           } else if (parameter.equals(normalize_key("mark_oovs"))) {
             mark_oovs = Boolean.valueOf(fds[1]);
             LOG.debug("mark_oovs: {}", mark_oovs);
@@ -577,6 +674,10 @@ public class JoshuaConfiguration {
             pop_limit = Integer.parseInt(fds[1]);
             LOG.info("pop-limit: {}", pop_limit);
 
+          } else if (parameter.equals(normalize_key("lazy-cube-pruning"))) {
+            lazy_cube_pruning = Boolean.parseBoolean(fds[1]);
+            LOG.info("lazy-cube-pruning: {}", lazy_cube_pruning);
+
           } else if (parameter.equals(normalize_key("input-type"))) {
             switch (fds[1]) {
             case "json":
@@ -603,6 +704,38 @@ public class JoshuaConfiguration {
             server_port = Integer.parseInt(fds[1]);
             LOG.info("    server-port: {}", server_port);
 
+          } else if (parameter.equals(normalize_key("server-queue-depth"))) {
+            server_queue_depth = Integer.parseInt(fds[1]);
+            if (server_queue_depth < 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a non-negative number for server-queue-depth");
+            }
+            LOG.info("    server-queue-depth: {}", server_queue_depth);
+
+          } else if (parameter.equals(normalize_key("server-backlog"))) {
+            server_backlog = Integer.parseInt(fds[1]);
+            if (server_backlog < 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a non-negative number for server-backlog");
+            }
+            LOG.info("    server-backlog: {}", server_backlog);
+
+          } else if (parameter.equals(normalize_key("server-nio"))) {
+            server_nio = Boolean.parseBoolean(fds[1]);
+            LOG.info("    server-nio: {}", server_nio);
+
+          } else if (parameter.equals(normalize_key("server-max-line-length"))) {
+            server_max_line_length = Integer.parseInt(fds[1]);
+            if (server_max_line_length <= 0) {
+              throw new IllegalArgumentException(
+                  "Must specify a positive number for server-max-line-length");
+            }
+            LOG.info("    server-max-line-length: {}", server_max_line_length);
+
+          } else if (parameter.equals(normalize_key("translation-thread-timeout"))) {
+            translation_thread_timeout = Long.parseLong(fds[1]);
+            LOG.info("    translation-thread-timeout: {}", translation_thread_timeout);
+
           } else if (parameter.equals(normalize_key("rescore-forest"))) {
             rescoreForest = true;
             LOG.info("    rescore-forest: {}", rescoreForest);
@@ -689,6 +822,8 @@ public class JoshuaConfiguration {
           } else if (parameter.equals(normalize_key("cached-rules-size"))) {
             // Check source sentence
             cachedRuleSize = Integer.parseInt(fds[1]);
+          } else if (parameter.equals(normalize_key("cached-tries-size"))) {
+            cachedTrieSize = Integer.parseInt(fds[1]);
           } else if (parameter.equals(normalize_key("lowercase"))) {
             lowercase = true;
 
@@ -24,18 +24,18 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.InetSocketAddress;
 
+import org.apache.joshua.decoder.JoshuaConfiguration.INPUT_TYPE;
 import org.apache.joshua.decoder.JoshuaConfiguration.SERVER_TYPE;
 import org.apache.joshua.decoder.io.TranslationRequestStream;
-import org.apache.joshua.server.ServerThread;
+import org.apache.joshua.server.HttpServer;
+import org.apache.joshua.server.NioTcpServer;
 import org.apache.joshua.server.TcpServer;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sun.net.httpserver.HttpServer;
 
 /**
  * Implements decoder initialization, including interaction with <code>JoshuaConfiguration</code>
@@ -76,17 +76,20 @@ public class JoshuaDecoder {
     // create a server if requested, which will create TranslationRequest objects
     if (joshuaConfiguration.server_port > 0) {
       int port = joshuaConfiguration.server_port;
+      if (joshuaConfiguration.server_nio && (joshuaConfiguration.server_type != SERVER_TYPE.TCP
+          || joshuaConfiguration.input_type != INPUT_TYPE.plain))
+        LOG.warn("-server-nio only serves plain TCP input; using the {} server for {} input instead",
+            joshuaConfiguration.server_type, joshuaConfiguration.input_type);
       if (joshuaConfiguration.server_type == SERVER_TYPE.TCP) {
-        new TcpServer(decoder, port, joshuaConfiguration).start();
+        if (joshuaConfiguration.server_nio && joshuaConfiguration.input_type == INPUT_TYPE.plain)
+          new NioTcpServer(decoder, port, joshuaConfiguration).start();
+        else
+          new TcpServer(decoder, port, joshuaConfiguration).start();
 
       } else if (joshuaConfiguration.server_type == SERVER_TYPE.HTTP) {
         joshuaConfiguration.use_structured_output = true;
 
-        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
-        LOG.info("HTTP Server running and listening on port {}.", port);
-        server.createContext("/", new ServerThread(null, decoder, joshuaConfiguration));
-        server.setExecutor(null); // creates a default executor
-        server.start();
+        new HttpServer(decoder, port, joshuaConfiguration).start();
       } else {
         LOG.error("Unknown server type");
         System.exit(1);
@@ -25,13 +25,18 @@ import java.util.Map;
 import java.util.UUID;
 
 /**
+ * Holds the KenLM state pools of one sentence, one per language model. The spans or candidates of
+ * a sentence may be scored on several threads (num_span_threads &gt; 1), so the pools are created
+ * and cleared under the manager's lock, and {@link KenLM#probRule(long[], LmPool)} serializes the
+ * calls on each pool.
+ *
  * @author Kellen Sunderland
  */
 public class LanguageModelStateManager {
 
   private Map<UUID, LmPool> languageModelPoolMapping = new HashMap<>();
 
-  public LmPool getStatePool(UUID languageModelId, KenLM languageModel) {
+  public synchronized LmPool getStatePool(UUID languageModelId, KenLM languageModel) {
     LmPool statePool = languageModelPoolMapping.get(languageModelId);
     if (statePool == null) {
       statePool = languageModel.createLMPool();
@@ -40,7 +45,7 @@ public class LanguageModelStateManager {
     return statePool;
   }
 
-  public void clearStatePool() {
+  public synchronized void clearStatePool() {
     languageModelPoolMapping.values().forEach(LmPool::close);
     languageModelPoolMapping.clear();
   }
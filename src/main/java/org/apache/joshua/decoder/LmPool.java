@@ -25,7 +25,8 @@ import java.nio.ByteBuffer;
 import static org.apache.joshua.util.Constants.LONG_SIZE_IN_BYTES;
 
 /**
- * Class to wrap a KenLM pool of states.  This class is not ThreadSafe.  It should be
+ * Class to wrap a KenLM pool of states.  This class is not ThreadSafe; threads sharing a pool
+ * synchronize on it (see {@link KenLM#probRule(long[], LmPool)}).  It should be
  * used in a scoped context, and close must be called to release native resources.  It
  * does implement a custom finalizer that will release these resources if needed, but
  * this should not be relied on.
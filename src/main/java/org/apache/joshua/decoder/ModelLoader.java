@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the models of a {@link Decoder} while it starts up, and records how long each one took.
+ *
+ * Models that do not touch the decoder's vocabulary while they load, such as language model
+ * backends, can be started in the background with {@link #submit(String, Callable)} before the
+ * grammars are read. The component that needs the model later takes it with
+ * {@link #get(String, Callable)}, which waits for it, or loads it on the calling thread if it was
+ * never submitted. Everything that assigns vocabulary ids or registers with the vocabulary stays on
+ * the thread that initializes the decoder, in the order of the config file, so that the vocabulary
+ * is the same from run to run.
+ *
+ * While the decoder is initialized, its loader is available from {@link DecoderContext#getModelLoader()}.
+ */
+public class ModelLoader implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ModelLoader.class);
+
+  private final DecoderContext context;
+  private final ExecutorService threads;
+
+  /* Submitted models by key; a key that is submitted twice yields two separate models */
+  private final HashMap<String, ArrayDeque<Future<?>>> submitted = new HashMap<>();
+
+  private final List<String> timings = new ArrayList<>();
+
+  /**
+   * @param context the context the models are loaded into, which is bound on the loading threads
+   * @param numThreads the number of threads loading submitted models, or 0 to load every model on
+   *          the thread that asks for it
+   */
+  public ModelLoader(DecoderContext context, int numThreads) {
+    this.context = context;
+    this.threads = (numThreads > 0)
+        ? Executors.newFixedThreadPool(numThreads, DecoderContext.threadFactory("ModelLoader-%d"))
+        : null;
+  }
+
+  /**
+   * Starts loading a model in the background, if the loader has threads.
+   *
+   * @param key the name of the model, which is also given to {@link #get(String, Callable)}
+   * @param loader loads the model; it must not add to the vocabulary
+   */
+  public synchronized void submit(String key, Callable<?> loader) {
+    if (threads == null)
+      return;
+    Future<?> future = threads.submit(() -> {
+      try (DecoderContext.Binding binding = context.bind()) {
+        return time(key + " (background)", loader);
+      }
+    });
+    submitted.computeIfAbsent(key, k -> new ArrayDeque<>()).add(future);
+  }
+
+  /**
+   * Returns a model that was submitted under the given key, waiting for it to finish loading, or
+   * loads it on the calling thread if none was.
+   *
+   * @param key the name of the model
+   * @param loader loads the model if it was not submitted
+   * @return the model
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(String key, Callable<T> loader) {
+    Future<?> future;
+    synchronized (this) {
+      ArrayDeque<Future<?>> futures = submitted.get(key);
+      future = (futures == null) ? null : futures.poll();
+    }
+    if (future == null)
+      return time(key, loader);
+
+    try {
+      return (T) future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(String.format("Interrupted while loading %s", key), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new RuntimeException(String.format("Could not load %s", key), e.getCause());
+    }
+  }
+
+  /**
+   * Runs a loading step on the calling thread and records how long it took.
+   *
+   * @param name the name of the step, for the log
+   * @param loader the step
+   * @return the result of the step
+   */
+  public <T> T time(String name, Callable<T> loader) {
+    long start = System.currentTimeMillis();
+    T model;
+    try {
+      model = loader.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(String.format("Could not load %s", name), e);
+    }
+    long elapsed = System.currentTimeMillis() - start;
+
+    String timing = String.format("%s: %.2f seconds", name, elapsed / 1000.0);
+    LOG.info("Loaded {}", timing);
+    synchronized (this) {
+      timings.add(timing);
+    }
+    return model;
+  }
+
+  /**
+   * @return the time each model took, in the order they finished
+   */
+  public synchronized List<String> getTimings() {
+    return new ArrayList<>(timings);
+  }
+
+  /**
+   * Stops the loading threads. Models that were submitted but never taken are abandoned.
+   */
+  @Override
+  public synchronized void close() {
+    if (threads == null)
+      return;
+    for (ArrayDeque<Future<?>> futures : submitted.values())
+      for (Future<?> future : futures)
+        future.cancel(true);
+    submitted.clear();
+    threads.shutdownNow();
+  }
+}
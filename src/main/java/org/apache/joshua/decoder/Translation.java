@@ -24,7 +24,6 @@ import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiSt
 import static org.apache.joshua.decoder.hypergraph.ViterbiExtractor.getViterbiWordAlignments;
 import static org.apache.joshua.util.FormatUtils.removeSentenceMarkers;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Collections;
@@ -35,6 +34,7 @@ import org.apache.joshua.decoder.ff.FeatureVector;
 import org.apache.joshua.decoder.hypergraph.HyperGraph;
 import org.apache.joshua.decoder.hypergraph.KBestExtractor;
 import org.apache.joshua.decoder.io.DeNormalize;
+import org.apache.joshua.decoder.io.OutputFormat;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,7 +87,7 @@ public class Translation {
         /*
          * Get K-Best list of StructuredTranslations
          */
-        final KBestExtractor kBestExtractor = new KBestExtractor(source, featureFunctions, Decoder.weights, false, joshuaConfiguration);
+        final KBestExtractor kBestExtractor = new KBestExtractor(source, featureFunctions, DecoderContext.current().getWeights(), false, joshuaConfiguration);
         structuredTranslations = kBestExtractor.KbestExtractOnHG(hypergraph, joshuaConfiguration.topN);
         if (structuredTranslations.isEmpty()) {
             structuredTranslations = Collections
@@ -101,8 +101,12 @@ public class Translation {
 
     } else {
 
-      StringWriter sw = new StringWriter();
-      BufferedWriter out = new BufferedWriter(sw);
+      /*
+       * Each output line is written straight into this buffer, and the hypergraph is no longer
+       * needed once it is complete.
+       */
+      StringWriter out = new StringWriter();
+      final OutputFormat outputFormat = joshuaConfiguration.getOutputFormat();
 
       try {
 
@@ -112,7 +116,7 @@ public class Translation {
 
           // We must put this weight as zero, otherwise we get an error when we try to retrieve it
           // without checking
-          Decoder.weights.increment("BLEU", 0);
+          DecoderContext.current().getWeights().increment("BLEU", 0);
 
           if (joshuaConfiguration.topN == 0) {
 
@@ -126,35 +130,38 @@ public class Translation {
              * the output-string, with the understanding that we can only substitute variables for the
              * output string, sentence number, and model score.
              */
-            String translation = joshuaConfiguration.outputFormat
-                .replace("%s", removeSentenceMarkers(best))
-                .replace("%S", DeNormalize.processSingleLine(best))
-                .replace("%c", String.format("%.3f", hypergraph.goalNode.getScore()))
-                .replace("%i", String.format("%d", source.id()));
-
-            if (joshuaConfiguration.outputFormat.contains("%a")) {
-              translation = translation.replace("%a", getViterbiWordAlignments(hypergraph));
-            }
-
-            if (joshuaConfiguration.outputFormat.contains("%f")) {
-              final FeatureVector features = getViterbiFeatures(hypergraph, featureFunctions, source);
-              translation = translation.replace("%f", joshuaConfiguration.moses ? features.mosesString() : features.toString());
-            }
-
-            out.write(translation);
-            out.newLine();
+            outputFormat.write(out, variable -> {
+              switch (variable) {
+              case 's':
+                return removeSentenceMarkers(best);
+              case 'S':
+                return DeNormalize.processSingleLine(best);
+              case 'c':
+                return String.format("%.3f", hypergraph.goalNode.getScore());
+              case 'i':
+                return String.format("%d", source.id());
+              case 'a':
+                return getViterbiWordAlignments(hypergraph);
+              case 'f':
+                final FeatureVector features = getViterbiFeatures(hypergraph, featureFunctions, source);
+                return joshuaConfiguration.moses ? features.mosesString() : features.toString();
+              default:
+                return null;
+              }
+            });
+            out.write("\n");
 
           } else {
 
             final KBestExtractor kBestExtractor = new KBestExtractor(
-                source, featureFunctions, Decoder.weights, false, joshuaConfiguration);
+                source, featureFunctions, DecoderContext.current().getWeights(), false, joshuaConfiguration);
             kBestExtractor.lazyKBestExtractOnHG(hypergraph, joshuaConfiguration.topN, out);
 
             if (joshuaConfiguration.rescoreForest) {
-              Decoder.weights.increment("BLEU", joshuaConfiguration.rescoreForestWeight);
+              DecoderContext.current().getWeights().increment("BLEU", joshuaConfiguration.rescoreForestWeight);
               kBestExtractor.lazyKBestExtractOnHG(hypergraph, joshuaConfiguration.topN, out);
 
-              Decoder.weights.increment("BLEU", -joshuaConfiguration.rescoreForestWeight);
+              DecoderContext.current().getWeights().increment("BLEU", -joshuaConfiguration.rescoreForestWeight);
               kBestExtractor.lazyKBestExtractOnHG(hypergraph, joshuaConfiguration.topN, out);
             }
           }
@@ -166,18 +173,16 @@ public class Translation {
         } else {
 
           // Failed translations and blank lines get empty formatted outputs
-          out.write(getFailedTranslationOutput(source, joshuaConfiguration));
-          out.newLine();
+          outputFormat.write(out, this::getFailedTranslationValue);
+          out.write("\n");
 
         }
 
-        out.flush();
-
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
 
-      this.output = sw.toString();
+      this.output = out.toString();
 
     }
 
@@ -199,15 +204,23 @@ public class Translation {
     return output;
   }
 
-  private String getFailedTranslationOutput(final Sentence source, final JoshuaConfiguration joshuaConfiguration) {
-    return joshuaConfiguration.outputFormat
-        .replace("%s", source.source())
-        .replace("%e", "")
-        .replace("%S", "")
-        .replace("%t", "()")
-        .replace("%i", Integer.toString(source.id()))
-        .replace("%f", "")
-        .replace("%c", "0.000");
+  private String getFailedTranslationValue(char variable) {
+    switch (variable) {
+    case 's':
+      return source.source();
+    case 'e':
+    case 'S':
+    case 'f':
+      return "";
+    case 't':
+      return "()";
+    case 'i':
+      return Integer.toString(source.id());
+    case 'c':
+      return "0.000";
+    default:
+      return null;
+    }
   }
 
   /**
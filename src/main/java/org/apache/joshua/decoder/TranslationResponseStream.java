@@ -20,6 +20,9 @@ package org.apache.joshua.decoder;
 
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.google.common.base.Throwables;
 import org.apache.joshua.decoder.io.TranslationRequestStream;
@@ -54,6 +57,18 @@ public class TranslationResponseStream implements Iterator<Translation>, Iterabl
   private Translation nextTranslation;
   private Throwable fatalException;
 
+  /* The number of the request's sentences that are waiting for or being decoded. */
+  private int pending = 0;
+
+  /* Whether all of the request's sentences have been submitted for decoding. */
+  private boolean submittedAll = false;
+
+  /* Set by cancel(); sentences that have not started decoding by then are skipped. */
+  private volatile boolean cancelled = false;
+
+  /* Completed once all sentences have been submitted and none is waiting or being decoded. */
+  private final CompletableFuture<Void> drained = new CompletableFuture<>();
+
   public TranslationResponseStream(TranslationRequestStream request) {
     this.request = request;
     this.translations = new LinkedList<>();
@@ -156,6 +171,82 @@ public class TranslationResponseStream implements Iterator<Translation>, Iterabl
     }
   }
 
+  /**
+   * Returns the next Translation like {@link #next()}, but gives up waiting for it once the
+   * timeout has elapsed.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return the next {@link org.apache.joshua.decoder.Translation}, or null if there are no more
+   * @throws TimeoutException if the next translation was not available in time
+   */
+  public Translation next(long timeout, TimeUnit unit) throws TimeoutException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (this) {
+      while (nextTranslation == null && !(spent && currentID == request.size())
+          && (translations.size() == 0 || translations.peek() == null)) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+          throw new TimeoutException(String.format("Translation %d not ready after %d %s",
+              currentID, timeout, unit));
+        try {
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new TimeoutException("Interrupted while waiting for translation " + currentID);
+        }
+        fatalErrorCheck();
+      }
+      return next();
+    }
+  }
+
+  /*
+   * Called by the decoder when one of the request's sentences is submitted for decoding, when it
+   * is done (or skipped), and when no more sentences will be submitted.
+   */
+  synchronized void submitted() {
+    pending++;
+  }
+
+  synchronized void completed() {
+    pending--;
+    if (submittedAll && pending == 0)
+      drained.complete(null);
+  }
+
+  synchronized void submittedAll() {
+    submittedAll = true;
+    if (pending == 0)
+      drained.complete(null);
+  }
+
+  /*
+   * Whether the request was cancelled, so that a sentence that has not started decoding is skipped
+   */
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Gives up on the rest of the translations, for instance because the client stopped waiting
+   * for them. No more input is read, and the request's sentences that have not started decoding
+   * are dropped. A sentence that is already being decoded runs to completion; see
+   * {@link #drained()}.
+   */
+  public void cancel() {
+    cancelled = true;
+    request.shutdown();
+  }
+
+  /**
+   * @return a future that completes once none of the request's sentences is waiting for or being
+   * decoded any more, including after {@link #cancel()}
+   */
+  public CompletableFuture<Void> drained() {
+    return drained;
+  }
+
   @Override
   public Iterator<Translation> iterator() {
     return this;
@@ -23,7 +23,6 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -59,8 +58,13 @@ class Cell {
   // The top-level (goal) symbol
   private final int goalSymbol;
 
-  // to maintain uniqueness of nodes
-  private final HashMap<HGNode.Signature, HGNode> nodesSigTbl = new LinkedHashMap<>();
+  // to maintain uniqueness of nodes: the nodes in insertion order...
+  private final List<HGNode> nodes = new ArrayList<>();
+
+  // ...and an open-addressing table from the fingerprints of their states to 1 + their index in
+  // nodes (0 for an empty slot). Allocated with the first node.
+  private long[] nodeFingerprints = null;
+  private int[] nodeSlots = null;
 
   // signature by lhs
   private final Map<Integer, SuperNode> superNodesTbl = new HashMap<>();
@@ -191,9 +195,10 @@ class Cell {
      * each node has a list of hyperedges, need to check whether the node is already exist, if
      * yes, just add the hyperedges, this may change the best logP of the node
      * */
-    HGNode oldNode = this.nodesSigTbl.get(newNode.signature());
-    if (null != oldNode) { // have an item with same states, combine items
-      this.chart.nMerged++;
+    int oldIndex = findNode(newNode);
+    if (oldIndex >= 0) { // have an item with same states, combine items
+      HGNode oldNode = this.nodes.get(oldIndex);
+      this.chart.nMerged.increment();
 
       /**
        * the position of oldItem in this.heapItems may change, basically, we should remove the
@@ -202,16 +207,16 @@ class Cell {
       if (newNode.getScore() > oldNode.getScore()) { // merge old to new: semiring plus
 
         newNode.addHyperedgesInNode(oldNode.hyperedges);
-        // This will update the HashMap, so that the oldNode is destroyed.
-        addNewNode(newNode);
+        // This will replace the oldNode, so that it is destroyed.
+        addNewNode(newNode, oldIndex);
       } else {// merge new to old, does not trigger pruningItems
         oldNode.addHyperedgesInNode(newNode.hyperedges);
       }
 
     } else { // first time item
-      this.chart.nAdded++; // however, this item may not be used in the future due to pruning in
+      this.chart.nAdded.increment(); // however, this item may not be used in the future due to pruning in
       // the hyper-graph
-      addNewNode(newNode);
+      addNewNode(newNode, -1);
     }
 
     return newNode;
@@ -236,8 +241,11 @@ class Cell {
    * (2) a new hyperedge's signature matches an old node's signature, but the best-logp of old node
    * is worse than the new hyperedge's logP
    * */
-  private void addNewNode(HGNode node) {
-    this.nodesSigTbl.put(node.signature(), node); // add/replace the item
+  private void addNewNode(HGNode node, int index) {
+    if (index >= 0)
+      this.nodes.set(index, node); // replace the item, keeping its place
+    else
+      insertNode(node);
     this.sortedNodes = null; // reset the list
     
 //    System.err.println(String.format("** NEW NODE %s %d %d", Vocabulary.word(node.lhs), node.i, node.j));
@@ -262,10 +270,7 @@ class Cell {
     if (null == this.sortedNodes) {
       
       // get sortedNodes.
-      this.sortedNodes = new ArrayList<>(this.nodesSigTbl.size());
-      for (HGNode node : this.nodesSigTbl.values()) {
-        this.sortedNodes.add(node);
-      }
+      this.sortedNodes = new ArrayList<>(this.nodes);
 
       // sort the node in an decreasing-LogP order 
       this.sortedNodes.sort(HGNode.inverseLogPComparator);
@@ -291,4 +296,53 @@ class Cell {
       }
     }
   }
+
+  /**
+   * Finds the node with the same DP state as the given one. Fingerprints are compared first, and
+   * the states themselves only when the fingerprints agree.
+   * 
+   * @return the index of the node in this.nodes, or -1 if there is none
+   */
+  private int findNode(HGNode node) {
+    if (null == this.nodeSlots)
+      return -1;
+
+    long fingerprint = node.fingerprint();
+    int mask = this.nodeSlots.length - 1;
+    for (int slot = slotOf(fingerprint) & mask;; slot = (slot + 1) & mask) {
+      int entry = this.nodeSlots[slot];
+      if (entry == 0)
+        return -1;
+      if (this.nodeFingerprints[slot] == fingerprint && this.nodes.get(entry - 1).hasSameState(node))
+        return entry - 1;
+    }
+  }
+
+  private void insertNode(HGNode node) {
+    this.nodes.add(node);
+    if (null == this.nodeSlots) {
+      this.nodeFingerprints = new long[16];
+      this.nodeSlots = new int[16];
+    } else if (2 * this.nodes.size() > this.nodeSlots.length) {
+      // Keep the table at most half full; the slots are rebuilt from the list
+      this.nodeFingerprints = new long[2 * this.nodeSlots.length];
+      this.nodeSlots = new int[this.nodeFingerprints.length];
+      for (int n = 0; n < this.nodes.size() - 1; n++)
+        putSlot(this.nodes.get(n).fingerprint(), n);
+    }
+    putSlot(node.fingerprint(), this.nodes.size() - 1);
+  }
+
+  private void putSlot(long fingerprint, int index) {
+    int mask = this.nodeSlots.length - 1;
+    int slot = slotOf(fingerprint) & mask;
+    while (this.nodeSlots[slot] != 0)
+      slot = (slot + 1) & mask;
+    this.nodeFingerprints[slot] = fingerprint;
+    this.nodeSlots[slot] = index + 1;
+  }
+
+  private static int slotOf(long fingerprint) {
+    return (int) (fingerprint ^ (fingerprint >>> 32));
+  }
 }
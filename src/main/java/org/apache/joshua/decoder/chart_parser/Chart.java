@@ -23,8 +23,12 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.DecoderContext;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.chart_parser.DotChart.DotNode;
 import org.apache.joshua.decoder.ff.FeatureFunction;
@@ -74,9 +78,9 @@ public class Chart {
    * how many items have been pruned away because its cost is greater than the
    * cutoff in calling chart.add_deduction_in_chart()
    */
-  int nMerged = 0;
-  int nAdded = 0;
-  int nDotitemAdded = 0; // note: there is no pruning in dot-item
+  final LongAdder nMerged = new LongAdder();
+  final LongAdder nAdded = new LongAdder();
+  final LongAdder nDotitemAdded = new LongAdder(); // note: there is no pruning in dot-item
 
   public Sentence getSentence() {
     return this.sentence;
@@ -98,6 +102,13 @@ public class Chart {
 //  private SyntaxTree parseTree;
   private StateConstraint stateConstraint;
 
+  /*
+   * If not null, the spans of each width are expanded in parallel on this pool. The context is
+   * bound on its threads while they work on this chart.
+   */
+  private final ForkJoinPool spanPool;
+  private final DecoderContext context;
+
 
   // ===============================================================
   // Constructors
@@ -116,7 +127,26 @@ public class Chart {
 
   public Chart(Sentence sentence, List<FeatureFunction> featureFunctions, Grammar[] grammars,
       String goalSymbol, JoshuaConfiguration config) {
+    this(sentence, featureFunctions, grammars, goalSymbol, config, DecoderContext.current(), null);
+  }
+
+  /**
+   * Creates a chart whose spans of equal width are expanded in parallel on the given pool (see
+   * {@link #expand()}).
+   *
+   * @param sentence the sentence to translate
+   * @param featureFunctions the feature functions to score with
+   * @param grammars the translation grammars
+   * @param goalSymbol the goal nonterminal
+   * @param config the decoder configuration
+   * @param context the decoder's models, which are bound on the pool's threads
+   * @param spanPool the pool to expand spans on, or null to expand them one at a time
+   */
+  public Chart(Sentence sentence, List<FeatureFunction> featureFunctions, Grammar[] grammars,
+      String goalSymbol, JoshuaConfiguration config, DecoderContext context, ForkJoinPool spanPool) {
     this.config = config;
+    this.spanPool = spanPool;
+    this.context = context;
     this.inputLattice = sentence.getLattice();
     this.sourceLength = inputLattice.size() - 1;
     this.featureFunctions = featureFunctions;
@@ -152,9 +182,7 @@ public class Chart {
 
     stateConstraint = null;
     if (sentence.target() != null)
-      // stateConstraint = new StateConstraint(sentence.target());
-      stateConstraint = new StateConstraint(Vocabulary.START_SYM + " " + sentence.target() + " "
-          + Vocabulary.STOP_SYM);
+      stateConstraint = new StateConstraint(sentence.targetIndex());
 
     /* Find the SourceDependent feature and give it access to the sentence. */
     this.featureFunctions.stream().filter(ff -> ff instanceof SourceDependentFF)
@@ -200,8 +228,8 @@ public class Chart {
    */
   private void completeSpan(int i, int j) {
 
-    /* STEP 1: create the heap, and seed it with all of the candidate states */
-    PriorityQueue<CubePruneState> candidates = new PriorityQueue<>();
+    /* STEP 1: seed this thread's candidate heap with all of the candidate states */
+    CubePruner candidates = CubePruner.get();
 
     /*
      * Look at all the grammars, seeding the chart with completed rules from the
@@ -261,20 +289,16 @@ public class Chart {
           }
 
           /*
-           * `ranks` records the current position in the cube. the 0th index is
-           * the rule, and the remaining indices 1..N correspond to the tail
-           * nodes (= nonterminals in the rule). These tail nodes are
-           * represented by SuperNodes, which group together items with the same
-           * nonterminal but different DP state (e.g., language model state)
+           * The seed is the corner of the cube where the rule and all of the
+           * tail nodes have rank 1. The first dimension of the cube is the
+           * rule, and the remaining dimensions correspond to the tail nodes (=
+           * nonterminals in the rule). These tail nodes are represented by
+           * SuperNodes, which group together items with the same nonterminal
+           * but different DP state (e.g., language model state)
            */
-          int[] ranks = new int[1 + superNodes.size()];
-          Arrays.fill(ranks, 1);
-
           ComputeNodeResult result = new ComputeNodeResult(featureFunctions, bestRule,
               currentTailNodes, i, j, sourcePath, sentence);
-          CubePruneState bestState = new CubePruneState(result, ranks, rules, currentTailNodes,
-              dotNode);
-          candidates.add(bestState);
+          candidates.addSeed(dotNode, rules, config.num_translation_options, result);
         }
       }
     }
@@ -283,91 +307,96 @@ public class Chart {
   }
 
   /**
-   * Applies cube pruning over a span.
+   * Applies cube pruning over a span. Only the candidates that are popped
+   * become hyperedges in the chart; their neighbors in the cube are scored and
+   * added to the heap, unless they have been reached before.
    * 
    * @param i
    * @param j
-   * @param stateConstraint
-   * @param candidates
+   * @param candidates the seeded candidate heap, which is cleared afterwards
    */
-  private void applyCubePruning(int i, int j, PriorityQueue<CubePruneState> candidates) {
-
-    // System.err.println(String.format("CUBEPRUNE: %d-%d with %d candidates",
-    // i, j, candidates.size()));
-    // for (CubePruneState cand: candidates) {
-    // System.err.println(String.format("  CAND " + cand));
-    // }
-
-    /*
-     * There are multiple ways to reach each point in the cube, so short-circuit
-     * that.
-     */
-    HashSet<CubePruneState> visitedStates = new HashSet<>();
+  private void applyCubePruning(int i, int j, CubePruner candidates) {
 
     int popLimit = config.pop_limit;
     int popCount = 0;
-    while (candidates.size() > 0 && ((++popCount <= popLimit) || popLimit == 0)) {
-      CubePruneState state = candidates.poll();
-
-      DotNode dotNode = state.getDotNode();
-      List<Rule> rules = state.rules;
-      SourcePath sourcePath = dotNode.getSourcePath();
-      List<SuperNode> superNodes = dotNode.getAntSuperNodes();
-
-      /*
-       * Add the hypothesis to the chart. This can only happen if (a) we're not
-       * doing constrained decoding or (b) we are and the state is legal.
-       */
-      if (stateConstraint == null || stateConstraint.isLegal(state.getDPStates())) {
-        getCell(i, j).addHyperEdgeInCell(state.computeNodeResult, state.getRule(), i, j,
-            state.antNodes, sourcePath, true);
-      }
-
-      /*
-       * Expand the hypothesis by walking down a step along each dimension of
-       * the cube, in turn. k = 0 means we extend the rule being used; k > 0
-       * expands the corresponding tail node.
-       */
-
-      for (int k = 0; k < state.ranks.length; k++) {
+    try {
+      while (!candidates.isEmpty() && (popCount < popLimit || popLimit == 0)) {
+        int state = candidates.poll();
 
-        /* Copy the current ranks, then extend the one we're looking at. */
-        int[] nextRanks = new int[state.ranks.length];
-        System.arraycopy(state.ranks, 0, nextRanks, 0, state.ranks.length);
-        nextRanks[k]++;
+        DotNode dotNode = candidates.getDotNode(state);
+        SourcePath sourcePath = dotNode.getSourcePath();
+        ComputeNodeResult result = candidates.getResult(state);
 
         /*
-         * We might have reached the end of something (list of rules or tail
-         * nodes)
+         * In lazy mode, a candidate reaches the top of the heap on its estimate
+         * alone. It is scored now and put back, and only counts as a pop once it
+         * makes it to the top with its real score.
          */
-        if (k == 0
-            && (nextRanks[k] > rules.size() || (config.num_translation_options > 0 && nextRanks[k] > config.num_translation_options)))
-          continue;
-        else if ((k != 0 && nextRanks[k] > superNodes.get(k - 1).nodes.size()))
+        if (result == null) {
+          candidates.push(state, new ComputeNodeResult(featureFunctions, candidates.getRule(state),
+              candidates.getScratchTailNodes(state), i, j, sourcePath, this.sentence));
           continue;
+        }
+        popCount++;
 
-        /* Use the updated ranks to assign the next rule and tail node. */
-        Rule nextRule = rules.get(nextRanks[0] - 1);
-        // HGNode[] nextAntNodes = new HGNode[state.antNodes.size()];
-        List<HGNode> nextAntNodes = new ArrayList<>(state.antNodes.size());
-        for (int x = 0; x < state.ranks.length - 1; x++)
-          nextAntNodes.add(superNodes.get(x).nodes.get(nextRanks[x + 1] - 1));
-
-        /* Create the next state. */
-        CubePruneState nextState = new CubePruneState(new ComputeNodeResult(featureFunctions,
-            nextRule, nextAntNodes, i, j, sourcePath, this.sentence), nextRanks, rules,
-            nextAntNodes, dotNode);
-
-        /* Skip states that have been explored before. */
-        if (visitedStates.contains(nextState))
-          continue;
+        /*
+         * Add the hypothesis to the chart. This can only happen if (a) we're not
+         * doing constrained decoding or (b) we are and the state is legal.
+         */
+        if (stateConstraint == null || stateConstraint.isLegal(result.getDPStates())) {
+          getCell(i, j).addHyperEdgeInCell(result, candidates.getRule(state), i, j,
+              candidates.getTailNodes(state), sourcePath, true);
+        }
 
-        visitedStates.add(nextState);
-        candidates.add(nextState);
+        /*
+         * Expand the hypothesis by walking down a step along each dimension of
+         * the cube, in turn. k = 0 means we extend the rule being used; k > 0
+         * expands the corresponding tail node. Neighbors that are outside the
+         * cube or have been explored before are skipped.
+         */
+        float lazyBase = 0.0f;
+        if (config.lazy_cube_pruning)
+          lazyBase = result.getPruningEstimate()
+              - additiveCost(candidates.getRule(state), candidates.getScratchTailNodes(state));
+
+        int dimensions = 1 + dotNode.getAntSuperNodes().size();
+        for (int k = 0; k < dimensions; k++) {
+          int nextState = candidates.extend(state, k);
+          if (nextState == -1)
+            continue;
+
+          Rule nextRule = candidates.getRule(nextState);
+          List<HGNode> nextTailNodes = candidates.getScratchTailNodes(nextState);
+          if (config.lazy_cube_pruning) {
+            /*
+             * The neighbor differs from the popped candidate in one dimension
+             * only, so its estimate is the popped candidate's real score with
+             * that dimension's change in additive cost applied.
+             */
+            candidates.push(nextState, lazyBase + additiveCost(nextRule, nextTailNodes));
+          } else {
+            candidates.push(nextState, new ComputeNodeResult(featureFunctions, nextRule,
+                nextTailNodes, i, j, sourcePath, this.sentence));
+          }
+        }
       }
+    } finally {
+      candidates.clear();
     }
   }
 
+  /**
+   * The part of a candidate's cost that is known without running the feature
+   * functions: the rule's estimated cost plus the Viterbi costs of the tail
+   * nodes.
+   */
+  private static float additiveCost(Rule rule, List<HGNode> tailNodes) {
+    float cost = rule.getEstimatedCost();
+    for (HGNode tailNode : tailNodes)
+      cost += tailNode.bestHyperedge.getBestDerivationScore();
+    return cost;
+  }
+
   /* Create a priority queue of candidates for each span under consideration */
   private PriorityQueue<CubePruneState>[] allCandidates;
 
@@ -413,7 +442,11 @@ public class Chart {
         }
 
         // Now that we've accumulated all the candidates, apply cube pruning
-        applyCubePruning(i, j, allCandidates[j - i]);
+        CubePruner candidates = CubePruner.get();
+        for (CubePruneState seed : allCandidates[j - i])
+          candidates.addSeed(seed.getDotNode(), seed.rules, config.num_translation_options,
+              seed.computeNodeResult);
+        applyCubePruning(i, j, candidates);
 
         // Add unary nodes
         addUnaryNodes(this.grammars, i, j);
@@ -548,70 +581,22 @@ public class Chart {
   /**
    * This function performs the main work of decoding.
    * 
+   * Spans are expanded in order of width. A span only depends on narrower spans, so when the chart
+   * has a span pool, all spans of one width are expanded in parallel, and the next width starts
+   * when they are all done. Each span is still expanded by a single thread, so the chart comes out
+   * the same either way.
+   * 
    * @return the hypergraph containing the translated sentence.
    */
   public HyperGraph expand() {
 
     for (int width = 1; width <= sourceLength; width++) {
-      for (int i = 0; i <= sourceLength - width; i++) {
-        int j = i + width;
-        if (LOG.isDebugEnabled())
-          LOG.debug("Processing span ({}, {})", i, j);
-
-        /* Skips spans for which no path exists (possible in lattices). */
-        if (inputLattice.distance(i, j) == Float.POSITIVE_INFINITY) {
-          continue;
-        }
-
-        /*
-         * 1. Expand the dot through all rules. This is a matter of (a) look for
-         * rules over (i,j-1) that need the terminal at (j-1,j) and looking at
-         * all split points k to expand nonterminals.
-         */
-        if (LOG.isDebugEnabled())
-          LOG.debug("Expanding cell");
-        for (int k = 0; k < this.grammars.length; k++) {
-          /**
-           * Each dotChart can act individually (without consulting other
-           * dotCharts) because it either consumes the source input or the
-           * complete nonTerminals, which are both grammar-independent.
-           **/
-          this.dotcharts[k].expandDotCell(i, j);
-        }
-
-        /*
-         * 2. The regular CKY part: add completed items onto the chart via cube
-         * pruning.
-         */
-        if (LOG.isDebugEnabled())
-          LOG.debug("Adding complete items into chart");
-        completeSpan(i, j);
-
-        /* 3. Process unary rules. */
-        if (LOG.isDebugEnabled())
-          LOG.debug("Adding unary items into chart");
-        addUnaryNodes(this.grammars, i, j);
-
-        // (4)=== in dot_cell(i,j), add dot-nodes that start from the /complete/
-        // superIterms in
-        // chart_cell(i,j)
-        if (LOG.isDebugEnabled())
-          LOG.debug("Initializing new dot-items that start from complete items in this cell");
-        for (int k = 0; k < this.grammars.length; k++) {
-          if (this.grammars[k].hasRuleForSpan(i, j, inputLattice.distance(i, j))) {
-            this.dotcharts[k].startDotItems(i, j);
-          }
-        }
-
-        /*
-         * 5. Sort the nodes in the cell.
-         * 
-         * Sort the nodes in this span, to make them usable for future
-         * applications of cube pruning.
-         */
-        if (null != this.cells.get(i, j)) {
-          this.cells.get(i, j).getSortedNodes();
-        }
+      int numSpans = sourceLength - width + 1;
+      if (spanPool != null && numSpans > 1) {
+        spanPool.invoke(new ExpandSpans(width, 0, numSpans));
+      } else {
+        for (int i = 0; i < numSpans; i++)
+          expandSpan(i, i + width);
       }
     }
 
@@ -631,6 +616,97 @@ public class Chart {
     return new HyperGraph(this.goalBin.getSortedNodes().get(0), -1, -1, this.sentence);
   }
 
+  /**
+   * Expands the spans of one width that start in [from, to), splitting the range in halves.
+   */
+  private class ExpandSpans extends RecursiveAction {
+    private final int width;
+    private final int from;
+    private final int to;
+
+    ExpandSpans(int width, int from, int to) {
+      this.width = width;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        try (DecoderContext.Binding binding = context.bind()) {
+          expandSpan(from, from + width);
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ExpandSpans(width, from, mid), new ExpandSpans(width, mid, to));
+      }
+    }
+  }
+
+  /**
+   * Fills in the cell (i, j), and the dot chart cells that start with it. All narrower spans must
+   * have been expanded already.
+   */
+  private void expandSpan(int i, int j) {
+    if (LOG.isDebugEnabled())
+      LOG.debug("Processing span ({}, {})", i, j);
+
+    /* Skips spans for which no path exists (possible in lattices). */
+    if (inputLattice.distance(i, j) == Float.POSITIVE_INFINITY) {
+      return;
+    }
+
+    /*
+     * 1. Expand the dot through all rules. This is a matter of (a) look for
+     * rules over (i,j-1) that need the terminal at (j-1,j) and looking at
+     * all split points k to expand nonterminals.
+     */
+    if (LOG.isDebugEnabled())
+      LOG.debug("Expanding cell");
+    for (int k = 0; k < this.grammars.length; k++) {
+      /**
+       * Each dotChart can act individually (without consulting other
+       * dotCharts) because it either consumes the source input or the
+       * complete nonTerminals, which are both grammar-independent.
+       **/
+      this.dotcharts[k].expandDotCell(i, j);
+    }
+
+    /*
+     * 2. The regular CKY part: add completed items onto the chart via cube
+     * pruning.
+     */
+    if (LOG.isDebugEnabled())
+      LOG.debug("Adding complete items into chart");
+    completeSpan(i, j);
+
+    /* 3. Process unary rules. */
+    if (LOG.isDebugEnabled())
+      LOG.debug("Adding unary items into chart");
+    addUnaryNodes(this.grammars, i, j);
+
+    // (4)=== in dot_cell(i,j), add dot-nodes that start from the /complete/
+    // superIterms in
+    // chart_cell(i,j)
+    if (LOG.isDebugEnabled())
+      LOG.debug("Initializing new dot-items that start from complete items in this cell");
+    for (int k = 0; k < this.grammars.length; k++) {
+      if (this.grammars[k].hasRuleForSpan(i, j, inputLattice.distance(i, j))) {
+        this.dotcharts[k].startDotItems(i, j);
+      }
+    }
+
+    /*
+     * 5. Sort the nodes in the cell.
+     * 
+     * Sort the nodes in this span, to make them usable for future
+     * applications of cube pruning.
+     */
+    if (null != this.cells.get(i, j)) {
+      this.cells.get(i, j).getSortedNodes();
+    }
+  }
+
   /**
    * Get the requested cell, creating the entry if it doesn't already exist.
    * 
@@ -648,6 +724,18 @@ public class Chart {
     return cells.get(i, j);
   }
 
+  /**
+   * Like {@link #getCell(int, int)}, but does not create the cell. Spans being expanded in
+   * parallel use this to look at narrower spans, which they must not modify.
+   * 
+   * @param i span start
+   * @param j span end
+   * @return the cell, or null if nothing was added over (i, j)
+   */
+  Cell getExistingCell(int i, int j) {
+    return cells.get(i, j);
+  }
+
   // ===============================================================
   // Private methods
   // ===============================================================
@@ -655,7 +743,7 @@ public class Chart {
   private void logStatistics() {
     if (LOG.isDebugEnabled())
       LOG.debug("Input {}: Chart: added {} merged {} dot-items added: {}",
-          this.sentence.id(), this.nAdded, this.nMerged, this.nDotitemAdded);
+          this.sentence.id(), this.nAdded.sum(), this.nMerged.sum(), this.nDotitemAdded.sum());
   }
 
   /**
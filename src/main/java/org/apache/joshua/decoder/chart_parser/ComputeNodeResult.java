@@ -22,9 +22,9 @@ import java.util.ArrayList;
 
 import java.util.List;
 
-import org.apache.joshua.decoder.Decoder;
 import org.apache.joshua.decoder.ff.StatefulFF;
 import org.apache.joshua.decoder.ff.FeatureFunction;
+import org.apache.joshua.decoder.ff.FeatureFunction.ScoreAccumulator;
 import org.apache.joshua.decoder.ff.FeatureVector;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
 import org.apache.joshua.decoder.ff.tm.Rule;
@@ -45,6 +45,13 @@ public class ComputeNodeResult {
 
   private static final Logger LOG = LoggerFactory.getLogger(ComputeNodeResult.class);
 
+  /*
+   * Every feature function on every edge needs a score accumulator. Rather than allocating one each
+   * time, each decoding thread resets and reuses its own.
+   */
+  private static final ThreadLocal<ScoreAccumulator> ACCUMULATOR =
+      ThreadLocal.withInitial(ScoreAccumulator::new);
+
   // The cost incurred by the rule itself (and all associated feature functions)
   private float transitionCost;
 
@@ -111,8 +118,9 @@ public class ComputeNodeResult {
      * We now iterate over all the feature functions, computing their cost and their expected future
      * cost.
      */
+    final ScoreAccumulator acc = ACCUMULATOR.get();
     for (FeatureFunction feature : featureFunctions) {
-      FeatureFunction.ScoreAccumulator acc = feature.new ScoreAccumulator(); 
+      acc.reset(feature.getWeights());
 
       DPState newState = feature.compute(rule, tailNodes, i, j, sourcePath, sentence, acc);
       this.transitionCost += acc.getScore();
@@ -120,8 +128,8 @@ public class ComputeNodeResult {
 
       if (LOG.isDebugEnabled()) {
         LOG.debug("FEATURE {} = {} * {} = {}", feature.getName(),
-            acc.getScore() / Decoder.weights.getSparse(feature.getName()),
-            Decoder.weights.getSparse(feature.getName()), acc.getScore());
+            acc.getScore() / feature.getWeights().getSparse(feature.getName()),
+            feature.getWeights().getSparse(feature.getName()), acc.getScore());
       }
 
       if (feature.isStateful()) {
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.chart_parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.joshua.decoder.chart_parser.DotChart.DotNode;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.hypergraph.HGNode;
+
+/**
+ * The candidate heap used by cube pruning over a single span (see
+ * {@link Chart}). It plays the role of a PriorityQueue of {@link CubePruneState}s together with the
+ * set of visited states, but keeps everything in flat arrays that are reused from span to span:
+ *
+ * <ul>
+ * <li>a candidate is an int index; its score is kept in parallel arrays and its position in the
+ * cube (the rule rank followed by the tail node ranks) is a slice of a shared int arena;</li>
+ * <li>the heap is an array of candidate indices, ordered exactly like a PriorityQueue of
+ * CubePruneStates, so that ties are broken the same way;</li>
+ * <li>visited states are found with an open-addressing hash of (seed, ranks) over the arena.</li>
+ * </ul>
+ *
+ * A seed is the best corner of one cube, i.e., one {@link DotNode} with its sorted rules. Lists of
+ * tail nodes are only materialized for candidates that are popped and added to the chart; the
+ * candidates that are merely scored share a scratch list.
+ *
+ * A pruner is not thread-safe. Each thread uses its own ({@link #get()}).
+ */
+class CubePruner {
+
+  private static final ThreadLocal<CubePruner> PRUNERS = ThreadLocal.withInitial(CubePruner::new);
+
+  static CubePruner get() {
+    return PRUNERS.get();
+  }
+
+  /* Seeds */
+  private int numSeeds = 0;
+  private DotNode[] seedDotNodes = new DotNode[16];
+  private List<?>[] seedRules = new List<?>[16];
+  private int[] seedRuleLimits = new int[16];
+
+  /* Candidates */
+  private int numCandidates = 0;
+  private int[] candidateSeeds = new int[64];
+  private int[] candidateRanks = new int[64];
+  private float[] estimates = new float[64];
+  private ComputeNodeResult[] results = new ComputeNodeResult[64];
+
+  /* The ranks of all candidates, one slice of (1 + arity) ints each */
+  private int arenaSize = 0;
+  private int[] arena = new int[256];
+
+  /* Candidate indices in PriorityQueue order */
+  private int heapSize = 0;
+  private int[] heap = new int[64];
+
+  /* Open-addressing set of visited candidates; -1 is an empty slot */
+  private int numVisited = 0;
+  private int[] visited = new int[64];
+
+  /* The tail nodes of the candidate being scored */
+  private final ArrayList<HGNode> scratchTailNodes = new ArrayList<>();
+
+  private CubePruner() {
+    Arrays.fill(visited, -1);
+  }
+
+  /**
+   * Adds the best corner of a cube: the first rule with the first node of every tail super node.
+   *
+   * @param dotNode the completed dot node whose rules and tail nodes make up the cube
+   * @param rules the rules of the dot node, sorted by their estimated cost
+   * @param ruleLimit the maximum number of rules to explore (0 for all)
+   * @param result the score of the first rule with the best tail nodes
+   */
+  void addSeed(DotNode dotNode, List<Rule> rules, int ruleLimit, ComputeNodeResult result) {
+    if (numSeeds == seedDotNodes.length) {
+      seedDotNodes = Arrays.copyOf(seedDotNodes, 2 * numSeeds);
+      seedRules = Arrays.copyOf(seedRules, 2 * numSeeds);
+      seedRuleLimits = Arrays.copyOf(seedRuleLimits, 2 * numSeeds);
+    }
+    int seed = numSeeds++;
+    seedDotNodes[seed] = dotNode;
+    seedRules[seed] = rules;
+    seedRuleLimits[seed] = (ruleLimit > 0) ? Math.min(ruleLimit, rules.size()) : rules.size();
+
+    int width = 1 + dotNode.getAntSuperNodes().size();
+    int candidate = newCandidate(seed, width);
+    Arrays.fill(arena, candidateRanks[candidate], arenaSize, 1);
+    push(candidate, result);
+  }
+
+  boolean isEmpty() {
+    return heapSize == 0;
+  }
+
+  /**
+   * Removes the best candidate from the heap.
+   *
+   * @return the index of the candidate
+   */
+  int poll() {
+    int best = heap[0];
+    int last = heap[--heapSize];
+    if (heapSize > 0)
+      siftDown(last);
+    return best;
+  }
+
+  /**
+   * Moves a candidate one step along dimension k of its cube. The neighbor is not created if it
+   * lies outside of the cube or has been reached before.
+   *
+   * @param candidate a popped candidate
+   * @param k 0 for the rule, or the 1-based index of a tail node
+   * @return the index of the new candidate, which still has to be scored and pushed, or -1
+   */
+  int extend(int candidate, int k) {
+    int seed = candidateSeeds[candidate];
+    int width = getWidth(candidate);
+    int rank = arena[candidateRanks[candidate] + k] + 1;
+    if (k == 0 && rank > seedRuleLimits[seed])
+      return -1;
+    if (k > 0 && rank > seedDotNodes[seed].getAntSuperNodes().get(k - 1).nodes.size())
+      return -1;
+
+    int next = newCandidate(seed, width);
+    System.arraycopy(arena, candidateRanks[candidate], arena, candidateRanks[next], width);
+    arena[candidateRanks[next] + k] = rank;
+
+    if (!visit(next)) {
+      // Discard it again, nothing else has been allocated since
+      numCandidates--;
+      arenaSize -= width;
+      return -1;
+    }
+    return next;
+  }
+
+  /**
+   * Adds a new candidate to the heap once it has been scored.
+   */
+  void push(int candidate, ComputeNodeResult result) {
+    results[candidate] = result;
+    push(candidate, result.getPruningEstimate());
+  }
+
+  /**
+   * Adds a new candidate to the heap with an estimate in place of its score (lazy cube pruning).
+   * It has to be scored and pushed again once it is popped.
+   */
+  void push(int candidate, float estimate) {
+    estimates[candidate] = estimate;
+    if (heapSize == heap.length)
+      heap = Arrays.copyOf(heap, 2 * heapSize);
+    siftUp(heapSize++, candidate);
+  }
+
+  /**
+   * @return the candidate's score, or null if it was pushed with an estimate only
+   */
+  ComputeNodeResult getResult(int candidate) {
+    return results[candidate];
+  }
+
+  DotNode getDotNode(int candidate) {
+    return seedDotNodes[candidateSeeds[candidate]];
+  }
+
+  @SuppressWarnings("unchecked")
+  Rule getRule(int candidate) {
+    List<Rule> rules = (List<Rule>) seedRules[candidateSeeds[candidate]];
+    return rules.get(arena[candidateRanks[candidate]] - 1);
+  }
+
+  /**
+   * @return a new list of the candidate's tail nodes, for adding it to the chart
+   */
+  List<HGNode> getTailNodes(int candidate) {
+    return fillTailNodes(candidate, new ArrayList<>(getWidth(candidate) - 1));
+  }
+
+  /**
+   * @return the candidate's tail nodes in a list that is overwritten by the next call, for scoring
+   */
+  List<HGNode> getScratchTailNodes(int candidate) {
+    scratchTailNodes.clear();
+    return fillTailNodes(candidate, scratchTailNodes);
+  }
+
+  /**
+   * Forgets all seeds and candidates, keeping the allocated arrays for the next span.
+   */
+  void clear() {
+    Arrays.fill(seedDotNodes, 0, numSeeds, null);
+    Arrays.fill(seedRules, 0, numSeeds, null);
+    Arrays.fill(results, 0, numCandidates, null);
+    if (numVisited > 0)
+      Arrays.fill(visited, -1);
+    scratchTailNodes.clear();
+    numSeeds = numCandidates = arenaSize = heapSize = numVisited = 0;
+  }
+
+  private List<HGNode> fillTailNodes(int candidate, List<HGNode> tailNodes) {
+    List<SuperNode> superNodes = getDotNode(candidate).getAntSuperNodes();
+    int ranks = candidateRanks[candidate];
+    for (int x = 0; x < superNodes.size(); x++)
+      tailNodes.add(superNodes.get(x).nodes.get(arena[ranks + x + 1] - 1));
+    return tailNodes;
+  }
+
+  private int getWidth(int candidate) {
+    return 1 + seedDotNodes[candidateSeeds[candidate]].getAntSuperNodes().size();
+  }
+
+  private int newCandidate(int seed, int width) {
+    if (numCandidates == candidateSeeds.length) {
+      int size = 2 * numCandidates;
+      candidateSeeds = Arrays.copyOf(candidateSeeds, size);
+      candidateRanks = Arrays.copyOf(candidateRanks, size);
+      estimates = Arrays.copyOf(estimates, size);
+      results = Arrays.copyOf(results, size);
+    }
+    if (arenaSize + width > arena.length)
+      arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaSize + width));
+
+    int candidate = numCandidates++;
+    candidateSeeds[candidate] = seed;
+    candidateRanks[candidate] = arenaSize;
+    arenaSize += width;
+    return candidate;
+  }
+
+  /*
+   * The order of CubePruneState.compareTo(): higher estimates come first, and the comparison is
+   * negative for NaN.
+   */
+  private int compare(int a, int b) {
+    float x = estimates[a], y = estimates[b];
+    if (x < y)
+      return 1;
+    else if (x == y)
+      return 0;
+    else
+      return -1;
+  }
+
+  /* The same sifts as java.util.PriorityQueue, so ties come out in the same order */
+
+  private void siftUp(int k, int candidate) {
+    while (k > 0) {
+      int parent = (k - 1) >>> 1;
+      if (compare(candidate, heap[parent]) >= 0)
+        break;
+      heap[k] = heap[parent];
+      k = parent;
+    }
+    heap[k] = candidate;
+  }
+
+  private void siftDown(int candidate) {
+    int k = 0;
+    int half = heapSize >>> 1;
+    while (k < half) {
+      int child = 2 * k + 1;
+      int right = child + 1;
+      if (right < heapSize && compare(heap[child], heap[right]) > 0)
+        child = right;
+      if (compare(candidate, heap[child]) <= 0)
+        break;
+      heap[k] = heap[child];
+      k = child;
+    }
+    heap[k] = candidate;
+  }
+
+  /**
+   * Adds a candidate to the visited set.
+   *
+   * @return false if a candidate with the same seed and ranks was there already
+   */
+  private boolean visit(int candidate) {
+    if (2 * (numVisited + 1) > visited.length)
+      rehash();
+
+    int mask = visited.length - 1;
+    for (int slot = hash(candidate) & mask;; slot = (slot + 1) & mask) {
+      int other = visited[slot];
+      if (other == -1) {
+        visited[slot] = candidate;
+        numVisited++;
+        return true;
+      }
+      if (sameState(candidate, other))
+        return false;
+    }
+  }
+
+  private void rehash() {
+    int[] old = visited;
+    visited = new int[2 * old.length];
+    Arrays.fill(visited, -1);
+    int mask = visited.length - 1;
+    for (int candidate : old) {
+      if (candidate == -1)
+        continue;
+      int slot = hash(candidate) & mask;
+      while (visited[slot] != -1)
+        slot = (slot + 1) & mask;
+      visited[slot] = candidate;
+    }
+  }
+
+  private int hash(int candidate) {
+    int hash = candidateSeeds[candidate];
+    int start = candidateRanks[candidate];
+    int end = start + getWidth(candidate);
+    for (int r = start; r < end; r++)
+      hash = 31 * hash + arena[r];
+    // Spread the bits, since the ranks are small numbers
+    hash *= 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private boolean sameState(int a, int b) {
+    if (candidateSeeds[a] != candidateSeeds[b])
+      return false;
+    int ra = candidateRanks[a], rb = candidateRanks[b];
+    for (int x = getWidth(a) - 1; x >= 0; x--)
+      if (arena[ra + x] != arena[rb + x])
+        return false;
+    return true;
+  }
+}
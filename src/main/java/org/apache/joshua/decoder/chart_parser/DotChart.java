@@ -233,12 +233,12 @@ class DotChart {
    * @param skipUnary if true, don't extend unary rules
    */
   private void extendDotItemsWithProvedItems(int i, int k, int j, boolean skipUnary) {
-    if (this.dotcells.get(i, k) == null || this.dotChart.getCell(k, j) == null) {
+    if (this.dotcells.get(i, k) == null || this.dotChart.getExistingCell(k, j) == null) {
       return;
     }
 
     // complete super-items (items over the same span with different LHSs)
-    List<SuperNode> superNodes = new ArrayList<>(this.dotChart.getCell(k, j).getSortedSuperItems().values());
+    List<SuperNode> superNodes = new ArrayList<>(this.dotChart.getExistingCell(k, j).getSortedSuperItems().values());
 
     /* For every partially complete item over (i,k) */
     for (DotNode dotNode : dotcells.get(i, k).dotNodes) {
@@ -293,11 +293,11 @@ class DotChart {
       dotcells.set(i, j, new DotCell());
     }
     dotcells.get(i, j).addDotNode(item);
-    dotChart.nDotitemAdded++;
+    dotChart.nDotitemAdded.increment();
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("Add a dotitem in cell ({}, {}), n_dotitem={}, {}", i, j,
-          dotChart.nDotitemAdded, srcPath);
+          dotChart.nDotitemAdded.sum(), srcPath);
 
       RuleCollection rules = tnode.getRuleCollection();
       if (rules != null) {
@@ -20,9 +20,10 @@ package org.apache.joshua.decoder.chart_parser;
 
 import java.util.Collection;
 
-import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
 import org.apache.joshua.decoder.ff.state_maintenance.NgramDPState;
+import org.apache.joshua.decoder.segment_file.TargetIndex;
+import org.apache.joshua.util.FormatUtils;
 
 /**
  * This class provides constraints on the sorts of states that are permitted in the chart. Its
@@ -33,10 +34,18 @@ import org.apache.joshua.decoder.ff.state_maintenance.NgramDPState;
  * 
  */
 public class StateConstraint {
-  private String target = null;
+  private final TargetIndex target;
 
   public StateConstraint(String target) {
-    this.target = " <s> " + target + " </s> ";
+    this(new TargetIndex(FormatUtils.addSentenceMarkers(target)));
+  }
+
+  /**
+   * @param target the index of the target side, including sentence markers (see
+   *          {@link org.apache.joshua.decoder.segment_file.Sentence#targetIndex()})
+   */
+  public StateConstraint(TargetIndex target) {
+    this.target = target;
   }
 
   /**
@@ -53,17 +62,9 @@ public class StateConstraint {
      */
     for (DPState dpState : dpStates) {
       if (dpState instanceof NgramDPState) {
-        // Build a regular expression out of the state context.
-        String leftWords = " "
-            + Vocabulary.getWords(((NgramDPState) dpState).getLeftLMStateWords()) + " ";
-        String rightWords = " "
-            + Vocabulary.getWords(((NgramDPState) dpState).getRightLMStateWords()) + " ";
-
-        int leftPos = this.target.indexOf(leftWords);
-        int rightPos = this.target.lastIndexOf(rightWords);
-
-        //        System.err.println(String.format("  isLegal(%s @ %d,%s @ %d) = %s", leftWords, leftPos,
-//         rightWords, rightPos, legal));
+        // The left context must occur no later than the last occurrence of the right context
+        int leftPos = target.indexOf(((NgramDPState) dpState).getLeftLMStateWords());
+        int rightPos = target.lastIndexOf(((NgramDPState) dpState).getRightLMStateWords());
 
         return (leftPos != -1 && leftPos <= rightPos);
       }
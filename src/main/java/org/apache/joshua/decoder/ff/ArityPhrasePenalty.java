@@ -43,6 +43,7 @@ public class ArityPhrasePenalty extends StatelessFF {
   private final OwnerId owner;
   private final int minArity;
   private final int maxArity;
+  private final int featureId;
 
   public ArityPhrasePenalty(final FeatureVector weights, String[] args, JoshuaConfiguration config) {
     super(weights, "ArityPenalty", args, config);
@@ -50,6 +51,7 @@ public class ArityPhrasePenalty extends StatelessFF {
     this.owner = OwnerMap.register(parsedArgs.get("owner"));
     this.minArity = Integer.parseInt(parsedArgs.get("min-arity"));
     this.maxArity = Integer.parseInt(parsedArgs.get("max-arity"));
+    this.featureId = FeatureMap.hashFeature(name);
   }
 
   /**
@@ -66,7 +68,7 @@ public class ArityPhrasePenalty extends StatelessFF {
   @Override
   public DPState compute(Rule rule, List<HGNode> tailNodes, int i, int j, SourcePath sourcePath,
       Sentence sentence, Accumulator acc) {
-    acc.add(name, isEligible(rule));
+    acc.addSparse(featureId, isEligible(rule));
     
     return null;
   }
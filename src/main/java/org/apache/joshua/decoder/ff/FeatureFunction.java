@@ -101,6 +101,10 @@ public abstract class FeatureFunction {
     return name;
   }
 
+  public FeatureVector getWeights() {
+    return weights;
+  }
+
   // Whether the feature has state.
   public abstract boolean isStateful();
 
@@ -137,7 +141,10 @@ public abstract class FeatureFunction {
    * This is the main function for defining feature values. The implementor
    * should compute all the features along the hyperedge, calling 
    * {@link org.apache.joshua.decoder.ff.FeatureFunction.Accumulator#add(String, float)}
-   * for each feature. It then returns the newly-computed dynamic
+   * for each feature. Sparse features fired on every edge should be resolved to
+   * {@link FeatureMap} IDs once and reported with
+   * {@link org.apache.joshua.decoder.ff.FeatureFunction.Accumulator#addSparse(int, float)},
+   * which avoids hashing the feature name during decoding. It then returns the newly-computed dynamic
    * programming state for this feature (for example, for the
    * {@link org.apache.joshua.decoder.ff.lm.LanguageModelFF} feature, this returns the new language model
    * context). For stateless features, this value is null.
@@ -214,7 +221,7 @@ public abstract class FeatureFunction {
   public final float computeFinalCost(HGNode tailNode, int i, int j, SourcePath sourcePath,
       Sentence sentence) {
 
-    ScoreAccumulator score = new ScoreAccumulator();
+    ScoreAccumulator score = new ScoreAccumulator(weights);
     computeFinal(tailNode, i, j, sourcePath, sentence, score);
     return score.getScore();
   }
@@ -320,12 +327,44 @@ public abstract class FeatureFunction {
   public interface Accumulator {
     void add(String name, float value);
     void add(int id, float value);
+
+    /**
+     * Adds a sparse feature that has already been resolved to its {@link FeatureMap} ID.
+     *
+     * @param featureId the sparse feature's ID
+     * @param value the unweighted feature value
+     */
+    void addSparse(int featureId, float value);
   }
 
-  public class ScoreAccumulator implements Accumulator {
+  /**
+   * Sums weighted feature values. A single instance can be reused across feature functions and
+   * hyperedges by calling {@link #reset(FeatureVector)} before each use, which is how
+   * {@link org.apache.joshua.decoder.chart_parser.ComputeNodeResult} avoids allocating an
+   * accumulator per feature per edge. The sparse weights are resolved to a table indexed by
+   * feature ID when the weights are set, so {@link #addSparse(int, float)} is a plain multiply-add.
+   */
+  public static class ScoreAccumulator implements Accumulator {
+    private FeatureVector weights;
+    private float[] sparseWeights;
     private float score;
 
     public ScoreAccumulator() {
+      this(null);
+    }
+
+    public ScoreAccumulator(FeatureVector weights) {
+      reset(weights);
+    }
+
+    /**
+     * Clears the score and sets the weight vector used for subsequent additions.
+     *
+     * @param weights the weights to multiply feature values with
+     */
+    public void reset(FeatureVector weights) {
+      this.weights = weights;
+      this.sparseWeights = (weights == null) ? null : weights.getSparseTable();
       this.score = 0.0f;
     }
 
@@ -339,6 +378,12 @@ public abstract class FeatureFunction {
       score += value * weights.getDense(id);
     }
 
+    @Override
+    public void addSparse(int featureId, float value) {
+      if (featureId < sparseWeights.length)
+        score += value * sparseWeights[featureId];
+    }
+
     public float getScore() {
       return score;
     }
@@ -361,6 +406,11 @@ public abstract class FeatureFunction {
       features.increment(id,  value);
     }
 
+    @Override
+    public void addSparse(int featureId, float value) {
+      features.incrementSparse(featureId, value);
+    }
+
     public FeatureVector getFeatures() {
       return features;
     }
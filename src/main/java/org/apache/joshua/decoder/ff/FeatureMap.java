@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.joshua.decoder.DecoderContext;
+
+/**
+ * FeatureMap maintains a decoder-wide mapping between feature names and
+ * interned integer IDs. {@link FeatureVector} stores its sparse features keyed
+ * by these IDs, so that feature vectors can be merged and multiplied without
+ * hashing strings or boxing values. It also holds the names of the dense
+ * features registered through {@link FeatureVector#registerDenseFeatures}.
+ *
+ * IDs are assigned in increasing order starting at 0 and are never reused
+ * until {@link #clear()} is called. Lookups of known features do not lock;
+ * only the registration of a new feature name does. The static methods operate
+ * on the map of the current {@link DecoderContext}.
+ */
+public class FeatureMap {
+
+  private final ConcurrentHashMap<String, Integer> nameToId = new ConcurrentHashMap<>();
+
+  /*
+   * The reverse mapping. Entries are written before the name is published in nameToId, so any
+   * thread that obtained an id from hashFeature() sees the corresponding name here.
+   */
+  private volatile String[] idToName = new String[64];
+  private int size = 0;
+
+  /*
+   * The dense feature names, in index order, and the index of each. These are only written while
+   * the feature functions are registered, before decoding starts.
+   */
+  final ArrayList<String> denseFeatureNames = new ArrayList<>();
+  final HashMap<String, Integer> denseFeatureIndices = new HashMap<>();
+
+  static FeatureMap current() {
+    return DecoderContext.current().getFeatureMap();
+  }
+
+  /**
+   * Returns the ID for the given feature name, registering it if it has not been seen before.
+   *
+   * @param name the feature name
+   * @return the feature ID
+   */
+  public static int hashFeature(String name) {
+    final FeatureMap features = current();
+    Integer id = features.nameToId.get(name);
+    if (id != null)
+      return id;
+
+    synchronized (features) {
+      id = features.nameToId.get(name);
+      if (id != null)
+        return id;
+
+      if (features.size == features.idToName.length)
+        features.idToName = Arrays.copyOf(features.idToName, 2 * features.size);
+      features.idToName[features.size] = name;
+      features.nameToId.put(name, features.size);
+      return features.size++;
+    }
+  }
+
+  /**
+   * Returns the ID for the given feature name without registering it.
+   *
+   * @param name the feature name
+   * @return the feature ID, or -1 if the feature has never been registered
+   */
+  public static int getId(String name) {
+    Integer id = current().nameToId.get(name);
+    return (id == null) ? -1 : id;
+  }
+
+  /**
+   * Returns the name of the feature with the given ID.
+   *
+   * @param id a feature ID previously returned by {@link #hashFeature(String)}
+   * @return the feature name
+   */
+  public static String getFeature(int id) {
+    return current().idToName[id];
+  }
+
+  /**
+   * @return the number of registered features
+   */
+  public static int size() {
+    final FeatureMap features = current();
+    synchronized (features) {
+      return features.size;
+    }
+  }
+
+  public static void clear() {
+    final FeatureMap features = current();
+    synchronized (features) {
+      features.nameToId.clear();
+      features.idToName = new String[64];
+      features.size = 0;
+    }
+  }
+}
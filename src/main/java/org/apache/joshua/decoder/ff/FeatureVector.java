@@ -19,9 +19,11 @@
 package org.apache.joshua.decoder.ff;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,30 +41,51 @@ import java.util.Set;
  * {@link org.apache.joshua.decoder.ff.FeatureVector#getSparse(String)} when asking for the feature
  * values later on.
  *
+ * Dense features are stored in a primitive float array. Sparse features are stored in an
+ * open-addressing hash table (linear probing) that maps the feature IDs assigned by
+ * {@link FeatureMap} to primitive floats, so that merging and multiplying vectors never boxes
+ * values or hashes feature names.
+ *
  * @author Matt Post post@cs.jhu.edu
  */
 
 public class FeatureVector {
+  /* Marks an unused slot in the sparse feature table. Feature IDs are never negative. */
+  private static final int EMPTY = -1;
+
+  private static final int INITIAL_SPARSE_CAPACITY = 8;
+
   /*
-   * A list of the dense feature names. Increased via calls to registerDenseFeatures()
+   * The values of each of the dense features, defaulting to 0. Only the first denseSize entries
+   * are in use.
    */
-  public static final ArrayList<String> DENSE_FEATURE_NAMES = new ArrayList<>();
+  private float[] denseFeatures;
+  private int denseSize;
 
   /*
-   * The values of each of the dense features, defaulting to 0.
+   * Value of sparse features, as parallel key and value tables. Allocated lazily, since most
+   * feature vectors built during k-best extraction never see a sparse feature.
    */
-  private ArrayList<Float> denseFeatures = null;
+  private int[] sparseIds = null;
+  private float[] sparseValues = null;
+  private int sparseSize = 0;
 
   /*
-   * Value of sparse features.
+   * The sparse values indexed directly by feature ID (see getSparseTable()). It is built on demand,
+   * which in practice only happens for weight vectors, and dropped whenever a sparse value changes.
    */
-  private final HashMap<String, Float> sparseFeatures;
+  private volatile float[] sparseTable = null;
+
+  /**
+   * Callback used to visit the sparse features of a vector without boxing them.
+   */
+  public interface SparseFeatureConsumer {
+    void accept(int featureId, float value);
+  }
 
   public FeatureVector() {
-    sparseFeatures = new HashMap<>();
-    denseFeatures = new ArrayList<>(DENSE_FEATURE_NAMES.size());
-    for (int i = 0; i < denseFeatures.size(); i++)
-      denseFeatures.set(i, 0.0f);
+    denseFeatures = new float[FeatureMap.current().denseFeatureNames.size()];
+    denseSize = 0;
   }
 
   /**
@@ -86,8 +109,6 @@ public class FeatureVector {
    */
   public FeatureVector(String featureString, String prefix) {
 
-//    System.err.println(String.format("FEATURES_OF(%s, %s)", featureString, prefix));
-
     /*
      * Read through the features on this rule, adding them to the feature vector. Unlabeled features
      * are converted to a canonical form.
@@ -108,9 +129,7 @@ public class FeatureVector {
           /*
            * If we encounter an unlabeled feature, it is the next dense feature
            */
-          while (denseFeatures.size() <= denseFeatureIndex)
-            denseFeatures.add(0.0f);
-          denseFeatures.set(denseFeatureIndex, -Float.parseFloat(token));
+          set(denseFeatureIndex, -Float.parseFloat(token));
           denseFeatureIndex++;
         } else {
           /*
@@ -119,14 +138,10 @@ public class FeatureVector {
            */
           int splitPoint = token.indexOf('=');
           if (token.startsWith(prefix)) {
-//            System.err.println(String.format("  PREFIX=%s '%s'.substring(%d,%d) = %s", prefix, token, prefix.length(), splitPoint,
-//                token.substring(prefix.length(), splitPoint)));
             int index = Integer.parseInt(token.substring(prefix.length(), splitPoint));
-            while (denseFeatures.size() <= index)
-              denseFeatures.add(0.0f);
-            denseFeatures.set(index, 1.0f * Float.parseFloat(token.substring(splitPoint + 1)));
+            set(index, 1.0f * Float.parseFloat(token.substring(splitPoint + 1)));
           } else {
-            sparseFeatures.put(token.substring(0, splitPoint),
+            putSparse(FeatureMap.hashFeature(token.substring(0, splitPoint)),
                 Float.parseFloat(token.substring(splitPoint + 1)));
           }
         }
@@ -143,38 +158,76 @@ public class FeatureVector {
    * @param featureFunctions {@link java.util.ArrayList} of {@link org.apache.joshua.decoder.ff.FeatureFunction}'s
    */
   public void registerDenseFeatures(ArrayList<FeatureFunction> featureFunctions) {
+    final FeatureMap featureMap = FeatureMap.current();
     for (FeatureFunction feature: featureFunctions) {
-      ArrayList<String> names = feature.reportDenseFeatures(denseFeatures.size());
+      ArrayList<String> names = feature.reportDenseFeatures(denseSize);
       for (String name: names) {
-        DENSE_FEATURE_NAMES.add(name);
-        denseFeatures.add(getSparse(name));
-        sparseFeatures.remove(name);
+        featureMap.denseFeatureIndices.put(name, featureMap.denseFeatureNames.size());
+        featureMap.denseFeatureNames.add(name);
+        set(denseSize, getSparse(name));
+        removeSparse(FeatureMap.getId(name));
       }
     }
   }
 
-  public ArrayList<Float> getDenseFeatures() {
-    return denseFeatures;
+  /**
+   * Forgets all registered dense feature names. Called when resetting the decoder's global state.
+   */
+  public static void clearDenseFeatures() {
+    final FeatureMap featureMap = FeatureMap.current();
+    featureMap.denseFeatureNames.clear();
+    featureMap.denseFeatureIndices.clear();
   }
 
-  public HashMap<String,Float> getSparseFeatures() {
-    return sparseFeatures;
+  /**
+   * @return the registered dense feature names, in index order
+   */
+  public static List<String> getDenseFeatureNames() {
+    return Collections.unmodifiableList(FeatureMap.current().denseFeatureNames);
+  }
+
+  /**
+   * @param name a feature name
+   * @return the dense index of the feature, or -1 if it is not a registered dense feature
+   */
+  public static int getDenseFeatureIndex(String name) {
+    Integer index = FeatureMap.current().denseFeatureIndices.get(name);
+    return (index == null) ? -1 : index;
+  }
+
+  /**
+   * @return a copy of the dense feature values
+   */
+  public float[] getDenseFeatures() {
+    return Arrays.copyOf(denseFeatures, denseSize);
+  }
+
+  /**
+   * @return the number of dense feature values stored in this vector
+   */
+  public int getDenseSize() {
+    return denseSize;
   }
 
   public Set<String> keySet() {
-    return sparseFeatures.keySet();
+    Set<String> keys = new HashSet<>(sparseSize);
+    forEachSparse((id, value) -> keys.add(FeatureMap.getFeature(id)));
+    return keys;
   }
 
   public int size() {
-    return sparseFeatures.size() + denseFeatures.size();
+    return sparseSize + denseSize;
   }
 
   public FeatureVector clone() {
     FeatureVector newOne = new FeatureVector();
-    for (String key : this.sparseFeatures.keySet())
-      newOne.set(key, this.sparseFeatures.get(key));
-    for (int i = 0; i < denseFeatures.size(); i++)
-      newOne.set(i, getDense(i));
+    newOne.denseFeatures = Arrays.copyOf(denseFeatures, denseFeatures.length);
+    newOne.denseSize = denseSize;
+    if (sparseIds != null) {
+      newOne.sparseIds = sparseIds.clone();
+      newOne.sparseValues = sparseValues.clone();
+      newOne.sparseSize = sparseSize;
+    }
     return newOne;
   }
 
@@ -186,12 +239,14 @@ public class FeatureVector {
    * @param other another {@link org.apache.joshua.decoder.ff.FeatureVector} from which to subtract its score
    */
   public void subtract(FeatureVector other) {
-    for (int i = 0; i < denseFeatures.size(); i++)
-      denseFeatures.set(i, getDense(i) - other.getDense(i));
-
-    for (String key : other.keySet()) {
-      float oldValue = (sparseFeatures.containsKey(key)) ? sparseFeatures.get(key) : 0.0f;
-      sparseFeatures.put(key, oldValue - other.getSparse(key));
+    ensureDense(other.denseSize);
+    for (int i = 0; i < other.denseSize; i++)
+      denseFeatures[i] -= other.denseFeatures[i];
+
+    if (other.sparseIds != null) {
+      for (int slot = 0; slot < other.sparseIds.length; slot++)
+        if (other.sparseIds[slot] != EMPTY)
+          incrementSparse(other.sparseIds[slot], -other.sparseValues[slot]);
     }
   }
 
@@ -202,17 +257,14 @@ public class FeatureVector {
    * @param other another {@link org.apache.joshua.decoder.ff.FeatureVector} from which to add its score
    */
   public void add(FeatureVector other) {
-    while (denseFeatures.size() < other.denseFeatures.size())
-      denseFeatures.add(0.0f);
-
-    for (int i = 0; i < other.denseFeatures.size(); i++)
-      increment(i, other.getDense(i));
-
-    for (String key : other.keySet()) {
-      if (!sparseFeatures.containsKey(key))
-        sparseFeatures.put(key, other.getSparse(key));
-      else
-        sparseFeatures.put(key, sparseFeatures.get(key) + other.getSparse(key));
+    ensureDense(other.denseSize);
+    for (int i = 0; i < other.denseSize; i++)
+      denseFeatures[i] += other.denseFeatures[i];
+
+    if (other.sparseIds != null) {
+      for (int slot = 0; slot < other.sparseIds.length; slot++)
+        if (other.sparseIds[slot] != EMPTY)
+          incrementSparse(other.sparseIds[slot], other.sparseValues[slot]);
     }
   }
 
@@ -223,11 +275,9 @@ public class FeatureVector {
    * @return the feature's weight
    */
   public float getWeight(String feature) {
-    for (int i = 0; i < DENSE_FEATURE_NAMES.size(); i++) {
-      if (DENSE_FEATURE_NAMES.get(i).equals(feature)) {
-        return getDense(i);
-      }
-    }
+    int index = getDenseFeatureIndex(feature);
+    if (index != -1)
+      return getDense(index);
     return getSparse(feature);
   }
 
@@ -238,13 +288,48 @@ public class FeatureVector {
    * @return the sparse feature's weight, or 0 if not found.
    */
   public float getSparse(String feature) {
-    if (sparseFeatures.containsKey(feature))
-      return sparseFeatures.get(feature);
-    return 0.0f;
+    return getSparse(FeatureMap.getId(feature));
+  }
+
+  /**
+   * Return the weight of a sparse feature, indexed by its {@link FeatureMap} ID.
+   *
+   * @param featureId the feature ID
+   * @return the sparse feature's weight, or 0 if not found.
+   */
+  public float getSparse(int featureId) {
+    if (featureId == EMPTY || sparseIds == null)
+      return 0.0f;
+    int slot = findSlot(featureId);
+    return (sparseIds[slot] == EMPTY) ? 0.0f : sparseValues[slot];
+  }
+
+  /**
+   * Returns the sparse values as an array indexed by {@link FeatureMap} ID, so that the value of a
+   * feature whose ID is already known is read with one array access instead of a probe of the hash
+   * table. Features with an ID beyond the end of the array have the value 0. The array is built
+   * once and kept until a sparse value of this vector changes; it must not be modified.
+   *
+   * @return the sparse values by feature ID
+   */
+  public float[] getSparseTable() {
+    float[] table = sparseTable;
+    if (table == null) {
+      int length = 0;
+      if (sparseIds != null)
+        for (int id : sparseIds)
+          length = Math.max(length, id + 1);
+      final float[] values = new float[length];
+      forEachSparse((id, value) -> values[id] = value);
+      table = values;
+      sparseTable = table;
+    }
+    return table;
   }
 
   public boolean hasValue(String name) {
-    return sparseFeatures.containsKey(name);
+    int featureId = FeatureMap.getId(name);
+    return featureId != EMPTY && sparseIds != null && sparseIds[findSlot(featureId)] != EMPTY;
   }
 
   /**
@@ -255,19 +340,37 @@ public class FeatureVector {
    * @return the dense feature's value, or 0 if not found.
    */
   public float getDense(int id) {
-    if (id < denseFeatures.size())
-      return denseFeatures.get(id);
+    if (id < denseSize)
+      return denseFeatures[id];
     return 0.0f;
   }
 
   public void increment(String feature, float value) {
-    sparseFeatures.put(feature, getSparse(feature) + value);
+    incrementSparse(FeatureMap.hashFeature(feature), value);
   }
 
   public void increment(int id, float value) {
-    while (id >= denseFeatures.size())
-      denseFeatures.add(0.0f);
-    denseFeatures.set(id, getDense(id) + value);
+    ensureDense(id + 1);
+    denseFeatures[id] += value;
+  }
+
+  /**
+   * Adds to the value of a sparse feature, indexed by its {@link FeatureMap} ID.
+   *
+   * @param featureId the feature ID
+   * @param value the amount to add
+   */
+  public void incrementSparse(int featureId, float value) {
+    dropSparseTable();
+    ensureSparseCapacity();
+    int slot = findSlot(featureId);
+    if (sparseIds[slot] == EMPTY) {
+      sparseIds[slot] = featureId;
+      sparseValues[slot] = value;
+      sparseSize++;
+    } else {
+      sparseValues[slot] += value;
+    }
   }
 
   /**
@@ -278,27 +381,26 @@ public class FeatureVector {
    * @param value float value to set to the featue with the associated name
    */
   public void set(String feature, float value) {
-    for (int i = 0; i < DENSE_FEATURE_NAMES.size(); i++) {
-      if (DENSE_FEATURE_NAMES.get(i).equals(feature)) {
-        denseFeatures.set(i, value);
-        return;
-      }
+    int index = getDenseFeatureIndex(feature);
+    if (index != -1) {
+      set(index, value);
+      return;
     }
     // No dense feature was found; assume it's sparse
-    sparseFeatures.put(feature, value);
+    putSparse(FeatureMap.hashFeature(feature), value);
   }
 
   public void set(int id, float value) {
-    while (id >= denseFeatures.size())
-      denseFeatures.add(0.0f);
-    denseFeatures.set(id, value);
+    ensureDense(id + 1);
+    denseFeatures[id] = value;
   }
 
   public Map<String, Float> getMap() {
-    Map<String, Float> allFeatures = new HashMap<>(sparseFeatures.size() + denseFeatures.size());
-    allFeatures.putAll(sparseFeatures);
-    for (int i = 0; i < DENSE_FEATURE_NAMES.size(); i++) {
-      allFeatures.put(DENSE_FEATURE_NAMES.get(i), getDense(i));
+    final List<String> denseNames = FeatureMap.current().denseFeatureNames;
+    Map<String, Float> allFeatures = new HashMap<>(sparseSize + denseSize);
+    forEachSparse((id, value) -> allFeatures.put(FeatureMap.getFeature(id), value));
+    for (int i = 0; i < denseNames.size(); i++) {
+      allFeatures.put(denseNames.get(i), getDense(i));
     }
     return allFeatures;
   }
@@ -310,19 +412,52 @@ public class FeatureVector {
    * @return float value representing the computation
    */
   public float innerProduct(FeatureVector other) {
+    final List<String> denseNames = FeatureMap.current().denseFeatureNames;
     float cost = 0.0f;
-    for (int i = 0; i < DENSE_FEATURE_NAMES.size(); i++)
-      cost += getDense(i) * other.getDense(i);
+    int numDense = Math.min(denseNames.size(), Math.min(denseSize, other.denseSize));
+    for (int i = 0; i < numDense; i++)
+      cost += denseFeatures[i] * other.denseFeatures[i];
 
-    for (String key : sparseFeatures.keySet())
-      cost += sparseFeatures.get(key) * other.getSparse(key);
+    return cost + sparseInnerProduct(other);
+  }
 
+  /**
+   * Computes the inner product between the sparse features of this vector and another one,
+   * ignoring dense features.
+   *
+   * @param other a {@link org.apache.joshua.decoder.ff.FeatureVector} with which to compute the inner product
+   * @return float value representing the computation
+   */
+  public float sparseInnerProduct(FeatureVector other) {
+    float cost = 0.0f;
+    if (sparseIds != null && other.sparseSize != 0) {
+      for (int slot = 0; slot < sparseIds.length; slot++)
+        if (sparseIds[slot] != EMPTY)
+          cost += sparseValues[slot] * other.getSparse(sparseIds[slot]);
+    }
     return cost;
   }
 
   public void times(float value) {
-    for (String key : sparseFeatures.keySet())
-      sparseFeatures.put(key, sparseFeatures.get(key) * value);
+    dropSparseTable();
+    if (sparseIds != null) {
+      for (int slot = 0; slot < sparseIds.length; slot++)
+        if (sparseIds[slot] != EMPTY)
+          sparseValues[slot] *= value;
+    }
+  }
+
+  /**
+   * Visits each sparse feature of this vector, in no particular order.
+   *
+   * @param consumer the callback receiving each (feature ID, value) pair
+   */
+  public void forEachSparse(SparseFeatureConsumer consumer) {
+    if (sparseIds == null)
+      return;
+    for (int slot = 0; slot < sparseIds.length; slot++)
+      if (sparseIds[slot] != EMPTY)
+        consumer.accept(sparseIds[slot], sparseValues[slot]);
   }
 
   /***
@@ -332,27 +467,21 @@ public class FeatureVector {
    * @return trimmed Moses output string
    */
   public String mosesString() {
+    final List<String> denseNames = FeatureMap.current().denseFeatureNames;
     StringBuilder outputString = new StringBuilder();
 
-    HashSet<String> printed_keys = new HashSet<>();
-
     // First print all the dense feature names in order
-    for (int i = 0; i < DENSE_FEATURE_NAMES.size(); i++) {
-      outputString.append(String.format("%s=%.3f ", DENSE_FEATURE_NAMES.get(i).replaceAll("_", "-"), getDense(i)));
-      printed_keys.add(DENSE_FEATURE_NAMES.get(i));
+    for (int i = 0; i < denseNames.size(); i++) {
+      outputString.append(String.format("%s=%.3f ", denseNames.get(i).replace('_', '-'), getDense(i)));
     }
 
     // Now print the sparse features
-    ArrayList<String> keys = new ArrayList<>(sparseFeatures.keySet());
-    Collections.sort(keys);
-    for (String key: keys) {
-      if (! printed_keys.contains(key)) {
-        float value = sparseFeatures.get(key);
-        if (key.equals("OOVPenalty"))
-          // force moses to see it as sparse
-          key = "OOV_Penalty";
-        outputString.append(String.format("%s=%.3f ", key, value));
-      }
+    for (int slot : sortedSparseSlots()) {
+      String key = FeatureMap.getFeature(sparseIds[slot]);
+      if (key.equals("OOVPenalty"))
+        // force moses to see it as sparse
+        key = "OOV_Penalty";
+      outputString.append(String.format("%s=%.3f ", key, sparseValues[slot]));
     }
     return outputString.toString().trim();
   }
@@ -363,22 +492,137 @@ public class FeatureVector {
    */
   @Override
   public String toString() {
+    final List<String> denseNames = FeatureMap.current().denseFeatureNames;
     StringBuilder outputString = new StringBuilder();
 
-    HashSet<String> printed_keys = new HashSet<>();
-
     // First print all the dense feature names in order
-    for (int i = 0; i < DENSE_FEATURE_NAMES.size(); i++) {
-      outputString.append(String.format("%s=%.3f ", DENSE_FEATURE_NAMES.get(i), getDense(i)));
-      printed_keys.add(DENSE_FEATURE_NAMES.get(i));
+    for (int i = 0; i < denseNames.size(); i++) {
+      outputString.append(String.format("%s=%.3f ", denseNames.get(i), getDense(i)));
     }
 
     // Now print the rest of the features
-    ArrayList<String> keys = new ArrayList<>(sparseFeatures.keySet());
-    Collections.sort(keys);
-    keys.stream().filter(key -> !printed_keys.contains(key)).forEach(
-        key -> outputString.append(String.format("%s=%.3f ", key, sparseFeatures.get(key))));
+    for (int slot : sortedSparseSlots())
+      outputString.append(String.format("%s=%.3f ", FeatureMap.getFeature(sparseIds[slot]), sparseValues[slot]));
 
     return outputString.toString().trim();
   }
+
+  /**
+   * Returns the table slots of the sparse features, sorted by feature name. Features whose names
+   * collide with a dense feature name have already been printed with the dense features and are
+   * skipped.
+   */
+  private int[] sortedSparseSlots() {
+    if (sparseSize == 0)
+      return new int[0];
+
+    Integer[] slots = new Integer[sparseSize];
+    int n = 0;
+    for (int slot = 0; slot < sparseIds.length; slot++)
+      if (sparseIds[slot] != EMPTY && getDenseFeatureIndex(FeatureMap.getFeature(sparseIds[slot])) == -1)
+        slots[n++] = slot;
+    Arrays.sort(slots, 0, n, (a, b) -> FeatureMap.getFeature(sparseIds[a]).compareTo(
+        FeatureMap.getFeature(sparseIds[b])));
+
+    int[] sorted = new int[n];
+    for (int i = 0; i < n; i++)
+      sorted[i] = slots[i];
+    return sorted;
+  }
+
+  private void ensureDense(int size) {
+    if (size > denseFeatures.length)
+      denseFeatures = Arrays.copyOf(denseFeatures, Math.max(size, 2 * denseFeatures.length));
+    if (size > denseSize)
+      denseSize = size;
+  }
+
+  private void putSparse(int featureId, float value) {
+    dropSparseTable();
+    ensureSparseCapacity();
+    int slot = findSlot(featureId);
+    if (sparseIds[slot] == EMPTY) {
+      sparseIds[slot] = featureId;
+      sparseSize++;
+    }
+    sparseValues[slot] = value;
+  }
+
+  /**
+   * Removes a sparse feature, shifting back any entries of the probe sequence that follow it so
+   * that lookups never stop early at the freed slot.
+   */
+  private void removeSparse(int featureId) {
+    if (featureId == EMPTY || sparseIds == null)
+      return;
+    int slot = findSlot(featureId);
+    if (sparseIds[slot] == EMPTY)
+      return;
+    dropSparseTable();
+
+    int mask = sparseIds.length - 1;
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while (sparseIds[next] != EMPTY) {
+      int home = mix(sparseIds[next]) & mask;
+      // Move the entry into the hole unless its home slot lies cyclically in (hole, next]
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        sparseIds[hole] = sparseIds[next];
+        sparseValues[hole] = sparseValues[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    sparseIds[hole] = EMPTY;
+    sparseValues[hole] = 0.0f;
+    sparseSize--;
+  }
+
+  private void dropSparseTable() {
+    if (sparseTable != null)
+      sparseTable = null;
+  }
+
+  /**
+   * Returns the slot holding the given feature ID, or the empty slot where it would be inserted.
+   */
+  private int findSlot(int featureId) {
+    int mask = sparseIds.length - 1;
+    int slot = mix(featureId) & mask;
+    while (sparseIds[slot] != EMPTY && sparseIds[slot] != featureId)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  /**
+   * Makes room for one more sparse feature, keeping the table at most 3/4 full.
+   */
+  private void ensureSparseCapacity() {
+    if (sparseIds == null) {
+      sparseIds = new int[INITIAL_SPARSE_CAPACITY];
+      sparseValues = new float[INITIAL_SPARSE_CAPACITY];
+      Arrays.fill(sparseIds, EMPTY);
+      return;
+    }
+    if (4 * (sparseSize + 1) <= 3 * sparseIds.length)
+      return;
+
+    int[] oldIds = sparseIds;
+    float[] oldValues = sparseValues;
+    sparseIds = new int[2 * oldIds.length];
+    sparseValues = new float[2 * oldIds.length];
+    Arrays.fill(sparseIds, EMPTY);
+    for (int i = 0; i < oldIds.length; i++) {
+      if (oldIds[i] != EMPTY) {
+        int slot = findSlot(oldIds[i]);
+        sparseIds[slot] = oldIds[i];
+        sparseValues[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static int mix(int featureId) {
+    int h = featureId * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
 }
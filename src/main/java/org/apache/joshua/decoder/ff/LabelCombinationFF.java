@@ -22,7 +22,9 @@ package org.apache.joshua.decoder.ff;
  * @author Gideon Wenniger
  */
 
-import java.util.List;	
+import static com.google.common.cache.CacheBuilder.newBuilder;
+
+import java.util.List;
 
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.chart_parser.SourcePath;
@@ -31,10 +33,20 @@ import org.apache.joshua.decoder.ff.tm.Rule;
 import org.apache.joshua.decoder.hypergraph.HGNode;
 import org.apache.joshua.decoder.segment_file.Sentence;
 
+import com.google.common.cache.Cache;
+
 public class LabelCombinationFF extends StatelessFF {
 
+  // feature ids of the label combination descriptors, cached per rule
+  private final Cache<Rule, Integer> featureCache;
+
   public LabelCombinationFF(FeatureVector weights, String[] args, JoshuaConfiguration config) {
     super(weights, "LabelCombination", args, config);
+    if (parsedArgs.containsKey("cacheSize")) {
+      featureCache = newBuilder().maximumSize(Integer.parseInt(parsedArgs.get("cacheSize"))).build();
+    } else {
+      featureCache = newBuilder().maximumSize(config.cachedRuleSize).build();
+    }
   }
 
   public String getLowerCasedFeatureName() {
@@ -55,8 +67,17 @@ public class LabelCombinationFF extends StatelessFF {
   public DPState compute(Rule rule, List<HGNode> tailNodes, int i, int j, SourcePath sourcePath,
       Sentence sentence, Accumulator acc) {
     if (rule != null)
-      acc.add(computeRuleLabelCombinationDescriptor(rule), 1);
+      acc.addSparse(getFeatureId(rule), 1);
 
     return null;
   }
+
+  private int getFeatureId(Rule rule) {
+    Integer featureId = featureCache.getIfPresent(rule);
+    if (featureId == null) {
+      featureId = FeatureMap.hashFeature(computeRuleLabelCombinationDescriptor(rule));
+      featureCache.put(rule, featureId);
+    }
+    return featureId;
+  }
 }
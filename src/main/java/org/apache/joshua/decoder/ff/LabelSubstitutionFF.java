@@ -22,8 +22,12 @@ package org.apache.joshua.decoder.ff;
  * @author Gideon Wenniger
  */
 
+import static com.google.common.cache.CacheBuilder.newBuilder;
+
+import java.util.Arrays;
 import java.util.List;
 
+import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.chart_parser.SourcePath;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
@@ -32,12 +36,32 @@ import org.apache.joshua.decoder.hypergraph.HGNode;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.apache.joshua.util.ListUtil;
 
+import com.google.common.cache.Cache;
+
 public class LabelSubstitutionFF extends StatelessFF {
   private static final String MATCH_SUFFIX = "MATCH";
   private static final String NO_MATCH_SUFFIX = "NOMATCH";
 
+  // feature ids of the two label matching features
+  private final int matchFeatureId;
+  private final int noMatchFeatureId;
+
+  // feature ids of the substitution features, keyed by the packed (rule, substitution) label ids
+  private final Cache<Long, Integer> substitutionFeatureCache;
+
+  // feature ids of the gap label features, keyed by the rule and substitution labels
+  private final Cache<GapLabels, Integer> gapLabelsFeatureCache;
+
   public LabelSubstitutionFF(FeatureVector weights, String[] args, JoshuaConfiguration config) {
     super(weights, "LabelSubstitution", args, config);
+
+    matchFeatureId = FeatureMap.hashFeature(getLowerCasedFeatureName() + "_" + MATCH_SUFFIX);
+    noMatchFeatureId = FeatureMap.hashFeature(getLowerCasedFeatureName() + "_" + NO_MATCH_SUFFIX);
+
+    final long cacheSize = parsedArgs.containsKey("cacheSize")
+        ? Integer.parseInt(parsedArgs.get("cacheSize")) : config.cachedRuleSize;
+    substitutionFeatureCache = newBuilder().maximumSize(cacheSize).build();
+    gapLabelsFeatureCache = newBuilder().maximumSize(cacheSize).build();
   }
 
   public String getLowerCasedFeatureName() {
@@ -113,19 +137,72 @@ public class LabelSubstitutionFF extends StatelessFF {
       Sentence sentence, Accumulator acc) {
     if (rule != null && (tailNodes != null)) {
 
-      List<String> ruleSourceNonterminals = RulePropertiesQuerying
-          .getRuleSourceNonterminalStrings(rule);
-      List<String> substitutionNonterminals = RulePropertiesQuerying
-          .getSourceNonterminalStrings(tailNodes);
-      // Assert.assertEquals(ruleSourceNonterminals.size(), substitutionNonterminals.size());
-      for (int nonterinalIndex = 0; nonterinalIndex < ruleSourceNonterminals.size(); nonterinalIndex++) {
-        String ruleNonterminal = ruleSourceNonterminals.get(nonterinalIndex);
-        String substitutionNonterminal = substitutionNonterminals.get(nonterinalIndex);
-        acc.add(computeLabelMatchingFeature(ruleNonterminal, substitutionNonterminal), 1);
-        acc.add(computeLabelSubstitutionFeature(ruleNonterminal, substitutionNonterminal), 1);
+      // Vocabulary.word() ignores the sign of nonterminal ids, so labels are compared by magnitude
+      int[] ruleSourceNonterminals = rule.getForeignNonTerminals();
+      int[] substitutionNonterminals = new int[tailNodes.size()];
+      for (int k = 0; k < substitutionNonterminals.length; k++)
+        substitutionNonterminals[k] = Math.abs(tailNodes.get(k).lhs);
+
+      for (int nonterinalIndex = 0; nonterinalIndex < ruleSourceNonterminals.length; nonterinalIndex++) {
+        int ruleNonterminal = Math.abs(ruleSourceNonterminals[nonterinalIndex]);
+        int substitutionNonterminal = substitutionNonterminals[nonterinalIndex];
+        acc.addSparse(ruleNonterminal == substitutionNonterminal ? matchFeatureId : noMatchFeatureId, 1);
+        acc.addSparse(getLabelSubstitutionFeatureId(ruleNonterminal, substitutionNonterminal), 1);
       }
-      acc.add(getGapLabelsForRuleSubstitutionSuffix(rule, tailNodes), 1);
+      acc.addSparse(getGapLabelsFeatureId(rule, tailNodes, substitutionNonterminals), 1);
     }
     return null;
   }
+
+  private int getLabelSubstitutionFeatureId(int ruleNonterminal, int substitutionNonterminal) {
+    final long key = ((long) ruleNonterminal << 32) | (substitutionNonterminal & 0xffffffffL);
+    Integer featureId = substitutionFeatureCache.getIfPresent(key);
+    if (featureId == null) {
+      featureId = FeatureMap.hashFeature(computeLabelSubstitutionFeature(
+          Vocabulary.word(ruleNonterminal), Vocabulary.word(substitutionNonterminal)));
+      substitutionFeatureCache.put(key, featureId);
+    }
+    return featureId;
+  }
+
+  private int getGapLabelsFeatureId(Rule rule, List<HGNode> tailNodes, int[] substitutionNonterminals) {
+    final GapLabels key = new GapLabels(rule, substitutionNonterminals);
+    Integer featureId = gapLabelsFeatureCache.getIfPresent(key);
+    if (featureId == null) {
+      featureId = FeatureMap.hashFeature(getGapLabelsForRuleSubstitutionSuffix(rule, tailNodes));
+      gapLabelsFeatureCache.put(key, featureId);
+    }
+    return featureId;
+  }
+
+  /**
+   * The labels that determine the gap labels feature: the rule's left-hand side, its source
+   * nonterminals and orientation, and the labels of the substituted tail nodes.
+   */
+  private static final class GapLabels {
+    private final int[] labels;
+    private final int hash;
+
+    GapLabels(Rule rule, int[] substitutionNonterminals) {
+      int[] ruleNonterminals = rule.getForeignNonTerminals();
+      labels = new int[2 + ruleNonterminals.length + substitutionNonterminals.length];
+      labels[0] = Math.abs(rule.getLHS());
+      labels[1] = rule.isInverting() ? 1 : 0;
+      for (int k = 0; k < ruleNonterminals.length; k++)
+        labels[2 + k] = Math.abs(ruleNonterminals[k]);
+      System.arraycopy(substitutionNonterminals, 0, labels, 2 + ruleNonterminals.length,
+          substitutionNonterminals.length);
+      hash = Arrays.hashCode(labels);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof GapLabels && Arrays.equals(labels, ((GapLabels) other).labels);
+    }
+  }
 }
@@ -55,7 +55,8 @@ public class LexicalFeatures extends StatelessFF {
   // Strings separating words
   private static final String SEPARATOR = "~";
   
-  private final Cache<Rule, List<String>> featureCache;
+  // the fired features of each rule, resolved to feature ids
+  private final Cache<Rule, int[]> featureCache;
   
   public LexicalFeatures(FeatureVector weights, String[] args, JoshuaConfiguration config) {
     super(weights, NAME, args, config);
@@ -83,13 +84,13 @@ public class LexicalFeatures extends StatelessFF {
       return null;
     }
 
-    List<String> featureNames = featureCache.getIfPresent(rule);
-    if (featureNames == null) {
-      featureNames = getFeatures(rule);
-      featureCache.put(rule, featureNames);
+    int[] featureIds = featureCache.getIfPresent(rule);
+    if (featureIds == null) {
+      featureIds = getFeatureIds(rule);
+      featureCache.put(rule, featureIds);
     }
-    for (String feature : featureNames) {
-      acc.add(feature, VALUE);
+    for (int featureId : featureIds) {
+      acc.addSparse(featureId, VALUE);
     }
     
     return null;
@@ -98,6 +99,20 @@ public class LexicalFeatures extends StatelessFF {
   /**
    * Obtains the feature ids for the given rule.
    * @param rule
+   * @return the ids of the features fired by the rule
+   */
+  private int[] getFeatureIds(final Rule rule) {
+    final List<String> names = getFeatures(rule);
+    final int[] ids = new int[names.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = FeatureMap.hashFeature(names.get(i));
+    }
+    return ids;
+  }
+
+  /**
+   * Obtains the feature names for the given rule.
+   * @param rule
    * @return String representing the feature name.s
    */
   private List<String> getFeatures(final Rule rule) {
@@ -121,8 +121,7 @@ public class PhraseModel extends StatelessFF {
         acc.add(k + denseFeatureIndex, rule.getDenseFeature(k));
       }
       
-      for (String key: rule.getFeatureVector().keySet())
-        acc.add(key, rule.getFeatureVector().getSparse(key));
+      rule.getFeatureVector().forEachSparse((id, value) -> acc.addSparse(id, value));
     }
 
     return null;
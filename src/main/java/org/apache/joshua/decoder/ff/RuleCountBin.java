@@ -41,11 +41,24 @@ public class RuleCountBin extends StatelessFF {
   private int field = -1;
   private final OwnerId owner;
 
+  private static final int[] BINS = { 1, 2, 4, 8, 16, 32, 64, 128, 1000, 10000 };
+
+  // feature ids of the rarity penalty field, each bin, and the overflow bin
+  private final int rarityPenaltyId;
+  private final int[] binIds;
+  private final int infBinId;
+
   public RuleCountBin(FeatureVector weights, String[] args, JoshuaConfiguration config) {
     super(weights, "RuleCountBin", args, config);
     owner = OwnerMap.register("pt");
 
     field = Integer.parseInt(parsedArgs.get("field"));
+
+    rarityPenaltyId = FeatureMap.hashFeature(String.format("tm_pt_%d", field));
+    binIds = new int[BINS.length];
+    for (int b = 0; b < BINS.length; b++)
+      binIds[b] = FeatureMap.hashFeature(String.format("RuleCountBin_%d", BINS[b]));
+    infBinId = FeatureMap.hashFeature("RuleCountBin_inf");
   }
 
   @Override
@@ -55,22 +68,21 @@ public class RuleCountBin extends StatelessFF {
     if (rule.getOwner().equals(owner))
       return null;
     
-    float rarityPenalty = -rule.getFeatureVector().getSparse(String.format("tm_pt_%d", field));
+    float rarityPenalty = -rule.getFeatureVector().getSparse(rarityPenaltyId);
     int count = (int) (1.0 - Math.log(rarityPenalty));
 
-    String feature = "RuleCountBin_inf";
+    int feature = infBinId;
 
-    int[] bins = { 1, 2, 4, 8, 16, 32, 64, 128, 1000, 10000 };
-    for (int k : bins) {
-      if (count <= k) {
-        feature = String.format("RuleCountBin_%d", k);
+    for (int b = 0; b < BINS.length; b++) {
+      if (count <= BINS[b]) {
+        feature = binIds[b];
         break;
       }
     }
 
-    LOG.debug("RuleCountBin({}) = {} ==> {}", rarityPenalty, count, feature);
+    LOG.debug("RuleCountBin({}) = {} ==> {}", rarityPenalty, count, FeatureMap.getFeature(feature));
     
-    acc.add(feature, 1.0f);
+    acc.addSparse(feature, 1.0f);
 
     return null;
   }
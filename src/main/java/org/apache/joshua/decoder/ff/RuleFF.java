@@ -57,7 +57,8 @@ public class RuleFF extends StatelessFF {
   private static final String SEPARATOR = "~";
   private static final String SIDES_SEPARATOR = "->";
   
-  private final Cache<Rule, String> featureCache;
+  // the feature fired by each rule, resolved to its feature id
+  private final Cache<Rule, Integer> featureCache;
   
   public RuleFF(FeatureVector weights, String[] args, JoshuaConfiguration config) {
     super(weights, NAME, args, config);
@@ -96,12 +97,12 @@ public class RuleFF extends StatelessFF {
       return null;
     }
 
-    String featureName = featureCache.getIfPresent(rule);
-    if (featureName == null) {
-      featureName = getRuleString(rule);
-      featureCache.put(rule, featureName);
+    Integer featureId = featureCache.getIfPresent(rule);
+    if (featureId == null) {
+      featureId = FeatureMap.hashFeature(getRuleString(rule));
+      featureCache.put(rule, featureId);
     }
-    acc.add(featureName, VALUE);
+    acc.addSparse(featureId, VALUE);
     
     return null;
   }
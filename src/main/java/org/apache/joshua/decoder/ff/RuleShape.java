@@ -18,6 +18,8 @@
  */
 package org.apache.joshua.decoder.ff;
 
+import static com.google.common.cache.CacheBuilder.newBuilder;
+
 import java.util.List;
 
 import org.apache.joshua.decoder.JoshuaConfiguration;
@@ -28,13 +30,25 @@ import org.apache.joshua.decoder.hypergraph.HGNode;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.apache.joshua.util.FormatUtils;
 
+import com.google.common.cache.Cache;
+
 /*
  * Implements the RuleShape feature for source, target, and paired source+target sides.
  */
 public class RuleShape extends StatelessFF {
 
+  // the source, target, and paired shape features of each rule, resolved to feature ids
+  private final Cache<Rule, int[]> featureCache;
+
   public RuleShape(FeatureVector weights, String[] args, JoshuaConfiguration config) {
     super(weights, "RuleShape", args, config);
+
+    // initialize cache
+    if (parsedArgs.containsKey("cacheSize")) {
+      featureCache = newBuilder().maximumSize(Integer.parseInt(parsedArgs.get("cacheSize"))).build();
+    } else {
+      featureCache = newBuilder().maximumSize(config.cachedRuleSize).build();
+    }
   }
 
   private enum WordType {
@@ -89,11 +103,23 @@ public class RuleShape extends StatelessFF {
   @Override
   public DPState compute(Rule rule, List<HGNode> tailNodes, int i_, int j, SourcePath sourcePath,
       Sentence sentence, Accumulator acc) {
+    int[] featureIds = featureCache.getIfPresent(rule);
+    if (featureIds == null) {
+      featureIds = getFeatureIds(rule);
+      featureCache.put(rule, featureIds);
+    }
+    for (int featureId : featureIds) {
+      acc.addSparse(featureId, 1);
+    }
+    return null;
+  }
+
+  private int[] getFeatureIds(Rule rule) {
     final String sourceShape = getRulePattern(rule.getFrench());
     final String targetShape = getRulePattern(rule.getEnglish());
-    acc.add(name + "_source_" + sourceShape, 1);
-    acc.add(name + "_target_" + sourceShape, 1);
-    acc.add(name + "_sourceTarget_" + sourceShape + "_" + targetShape, 1);
-    return null;
+    return new int[] {
+        FeatureMap.hashFeature(name + "_source_" + sourceShape),
+        FeatureMap.hashFeature(name + "_target_" + sourceShape),
+        FeatureMap.hashFeature(name + "_sourceTarget_" + sourceShape + "_" + targetShape) };
   }
 }
@@ -20,6 +20,7 @@ package org.apache.joshua.decoder.ff;
 
 import java.util.List;
 
+import org.apache.joshua.decoder.DecoderContext;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.chart_parser.SourcePath;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
@@ -42,21 +43,19 @@ import org.slf4j.LoggerFactory;
 public abstract class StatefulFF extends FeatureFunction {
 
   private static final Logger LOG = LoggerFactory.getLogger(StatefulFF.class);
-  /* Every stateful FF takes a unique index value and increments this. */
-  static int GLOBAL_STATE_INDEX = 0;
-
   /* This records the state index for each instantiated stateful feature function. */
   protected int stateIndex = 0;
 
   public StatefulFF(FeatureVector weights, String name, String[] args, JoshuaConfiguration config) {
     super(weights, name, args, config);
 
-    LOG.info("Stateful object with state index {}",  GLOBAL_STATE_INDEX);
-    stateIndex = GLOBAL_STATE_INDEX++;
+    /* Every stateful FF takes a unique index value from the decoder's context. */
+    stateIndex = DecoderContext.current().getStateIndex().getAndIncrement();
+    LOG.info("Stateful object with state index {}",  stateIndex);
   }
 
   public static void resetGlobalStateIndex() {
-    GLOBAL_STATE_INDEX = 0;
+    DecoderContext.current().getStateIndex().set(0);
   }
 
   public final boolean isStateful() {
@@ -18,9 +18,10 @@
  */
 package org.apache.joshua.decoder.ff;
 
+import static com.google.common.cache.CacheBuilder.newBuilder;
+
 import java.io.IOException;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.joshua.corpus.Vocabulary;
@@ -34,6 +35,8 @@ import org.apache.joshua.decoder.segment_file.Sentence;
 import org.apache.joshua.util.FormatUtils;
 import org.apache.joshua.util.io.LineReader;
 
+import com.google.common.cache.Cache;
+
 /***
  * The RuleBigram feature is an indicator feature that counts target word bigrams that are created when
  * a rule is applied. It accepts three parameters:
@@ -57,6 +60,9 @@ public class TargetBigram extends StatefulFF {
   private int maxTerms = 1000000;
   private int threshold = 0;
 
+  // feature ids of the bigrams seen so far, keyed by the two packed word ids
+  private final Cache<Long, Integer> featureCache;
+
   public TargetBigram(FeatureVector weights, String[] args, JoshuaConfiguration config) {
     super(weights, "TargetBigram", args, config);
 
@@ -69,6 +75,13 @@ public class TargetBigram extends StatefulFF {
     if (parsedArgs.containsKey("vocab")) {
       loadVocab(parsedArgs.get("vocab"));
     }
+
+    // initialize cache
+    if (parsedArgs.containsKey("cacheSize")) {
+      featureCache = newBuilder().maximumSize(Integer.parseInt(parsedArgs.get("cacheSize"))).build();
+    } else {
+      featureCache = newBuilder().maximumSize(config.cachedRuleSize).build();
+    }
   }
 
   /**
@@ -108,7 +121,9 @@ public class TargetBigram extends StatefulFF {
     int left = -1;
     int right = -1;
 
-    List<String> currentNgram = new LinkedList<>();
+    // The previous target word, which forms a bigram with the next one
+    int previous = -1;
+    boolean hasPrevious = false;
     for (int curID : enWords) {
       if (FormatUtils.isNonterminal(curID)) {
         int index = -(curID + 1);
@@ -118,33 +133,26 @@ public class TargetBigram extends StatefulFF {
 
         // Left context.
         for (int token : leftContext) {
-          currentNgram.add(getWord(token));
+          if (hasPrevious)
+            acc.addSparse(getBigramFeatureId(previous, token), 1);
+          previous = token;
+          hasPrevious = true;
           if (left == -1)
             left = token;
           right = token;
-          if (currentNgram.size() == 2) {
-            String ngram = join(currentNgram);
-            acc.add(String.format("%s_%s", name, ngram), 1);
-            //            System.err.println(String.format("ADDING %s_%s", name, ngram));
-            currentNgram.remove(0);
-          }
         }
         // Replace right context.
-        int tSize = currentNgram.size();
-        for (int i = 0; i < rightContext.length; i++)
-          currentNgram.set(tSize - rightContext.length + i, getWord(rightContext[i]));
+        if (rightContext.length > 0)
+          previous = rightContext[rightContext.length - 1];
 
       } else { // terminal words
-        currentNgram.add(getWord(curID));
+        if (hasPrevious)
+          acc.addSparse(getBigramFeatureId(previous, curID), 1);
+        previous = curID;
+        hasPrevious = true;
         if (left == -1)
           left = curID;
         right = curID;
-        if (currentNgram.size() == 2) {
-          String ngram = join(currentNgram);
-          acc.add(String.format("%s_%s", name, ngram), 1);
-          //          System.err.println(String.format("ADDING %s_%s", name, ngram));
-          currentNgram.remove(0);
-        }
       }
     }
 
@@ -152,6 +160,20 @@ public class TargetBigram extends StatefulFF {
     return new NgramDPState(new int[] { left }, new int[] { right });
   }
 
+  /**
+   * Returns the feature id of the bigram of the two given word ids, building the feature name only
+   * the first time a bigram is seen.
+   */
+  private int getBigramFeatureId(int first, int second) {
+    final long key = ((long) first << 32) | (second & 0xffffffffL);
+    Integer featureId = featureCache.getIfPresent(key);
+    if (featureId == null) {
+      featureId = FeatureMap.hashFeature(String.format("%s_%s_%s", name, getWord(first), getWord(second)));
+      featureCache.put(key, featureId);
+    }
+    return featureId;
+  }
+
   /**
    * Returns the word after comparing against the private vocabulary (if set).
    *
@@ -194,19 +216,4 @@ public class TargetBigram extends StatefulFF {
   public float estimateCost(Rule rule) {
     return 0.0f;
   }
-
-  /**
-   * Join a list with the _ character. I am sure this is in a library somewhere.
-   *
-   * @param list a list of strings
-   * @return the joined String
-   */
-  private String join(List<String> list) {
-    StringBuilder sb = new StringBuilder();
-    for (String item : list) {
-      sb.append(item).append("_");
-    }
-
-    return sb.substring(0, sb.length() - 1);
-  }
 }
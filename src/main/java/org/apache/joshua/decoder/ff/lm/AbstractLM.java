@@ -33,7 +33,7 @@ import java.util.List;
 public abstract class AbstractLM extends DefaultNGramLanguageModel { 
 
   public AbstractLM(int symbolTable, int order) { 
-    super(symbolTable, order); 
+    super(order); 
   } 
 
   @SuppressWarnings("null")
@@ -83,7 +83,7 @@ public abstract class AbstractLM extends DefaultNGramLanguageModel {
     if (ngram.length > order) { 
       throw new RuntimeException("ngram length is greather than the max order"); 
     } 
-    if (ngram[ngram.length-1] != LanguageModelFF.LM_INDEX) { 
+    if (ngram[ngram.length-1] != LanguageModelFF.getLmIndex()) { 
       throw new RuntimeException("last wrd is not <bow>"); 
     } 
     if (qtyAdditionalBackoffWeight > 0) { 
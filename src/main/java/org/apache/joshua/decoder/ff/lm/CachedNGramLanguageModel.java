@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.lm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches n-gram probabilities in front of another {@link NGramLanguageModel}. Cube pruning asks
+ * for the same n-grams over and over, and for KenLM every query crosses JNI.
+ *
+ * Each thread has its own fixed-size, direct-mapped table, so lookups take no locks. A slot is
+ * chosen by a hash of the word ids and the requested order, holds a single n-gram, and is
+ * overwritten by the next n-gram that maps to it; hits are verified against the stored words, so
+ * the cache never changes a probability. Whole-sentence scoring is passed through.
+ *
+ * Enabled with the language model feature's cache_size argument, e.g.
+ * <code>LanguageModel -lm_type kenlm -lm_order 5 -lm_file lm.kenlm -cache_size 65536</code>.
+ */
+public class CachedNGramLanguageModel implements NGramLanguageModel {
+
+  private final NGramLanguageModel languageModel;
+  private final int size;
+  private final int width;
+
+  private final ThreadLocal<Table> tables;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * @param languageModel the language model to query on a miss
+   * @param cacheSize the number of n-grams each thread caches, rounded up to a power of two
+   */
+  public CachedNGramLanguageModel(NGramLanguageModel languageModel, int cacheSize) {
+    if (cacheSize <= 0)
+      throw new IllegalArgumentException("cache size must be positive: " + cacheSize);
+    this.languageModel = languageModel;
+    int size = 1;
+    while (size < cacheSize)
+      size <<= 1;
+    this.size = size;
+    this.width = languageModel.getOrder();
+    this.tables = ThreadLocal.withInitial(Table::new);
+  }
+
+  /**
+   * One thread's cache. Slot s holds the n-gram words[s * width .. s * width + lengths[s]), which
+   * was queried with order orders[s] and has probability probs[s]. A length of 0 marks an empty
+   * slot.
+   */
+  private class Table {
+    final int[] words = new int[size * width];
+    final int[] lengths = new int[size];
+    final int[] orders = new int[size];
+    final float[] probs = new float[size];
+  }
+
+  public NGramLanguageModel getLanguageModel() {
+    return languageModel;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public String getStatistics() {
+    return formatStatistics(getHits(), getMisses());
+  }
+
+  public static String formatStatistics(long hits, long misses) {
+    return String.format("%d hits, %d misses, hit rate %.3f", hits, misses,
+        (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses));
+  }
+
+  @Override
+  public int getOrder() {
+    return languageModel.getOrder();
+  }
+
+  @Override
+  public boolean registerWord(String token, int id) {
+    return languageModel.registerWord(token, id);
+  }
+
+  @Override
+  public float sentenceLogProbability(int[] sentence, int order, int startIndex) {
+    return languageModel.sentenceLogProbability(sentence, order, startIndex);
+  }
+
+  @Override
+  public float ngramLogProbability(int[] ngram, int order) {
+    return lookup(ngram, order);
+  }
+
+  @Override
+  public float ngramLogProbability(int[] ngram) {
+    // The one-argument query is cached apart from all explicit orders
+    return lookup(ngram, 0);
+  }
+
+  @Override
+  public boolean isOov(int id) {
+    return languageModel.isOov(id);
+  }
+
+  private float lookup(int[] ngram, int order) {
+    if (ngram.length == 0 || ngram.length > width)
+      return query(ngram, order);
+
+    final Table table = tables.get();
+    final int slot = hash(ngram, order) & (size - 1);
+    final int start = slot * width;
+
+    if (table.lengths[slot] == ngram.length && table.orders[slot] == order) {
+      int i = 0;
+      while (i < ngram.length && table.words[start + i] == ngram[i])
+        i++;
+      if (i == ngram.length) {
+        hits.increment();
+        return table.probs[slot];
+      }
+    }
+
+    misses.increment();
+    float prob = query(ngram, order);
+    System.arraycopy(ngram, 0, table.words, start, ngram.length);
+    table.lengths[slot] = ngram.length;
+    table.orders[slot] = order;
+    table.probs[slot] = prob;
+    return prob;
+  }
+
+  private float query(int[] ngram, int order) {
+    return (order == 0) ? languageModel.ngramLogProbability(ngram)
+        : languageModel.ngramLogProbability(ngram, order);
+  }
+
+  private static int hash(int[] ngram, int order) {
+    long h = order;
+    for (int word : ngram)
+      h = (h ^ word) * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
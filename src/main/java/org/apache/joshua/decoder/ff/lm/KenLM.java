@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.apache.joshua.util.Constants.INT_SIZE_IN_BYTES;
 import static org.apache.joshua.util.Constants.LONG_SIZE_IN_BYTES;
 
 /**
@@ -49,6 +50,13 @@ public class KenLM implements NGramLanguageModel, Comparable<KenLM> {
 
   private final long pointer;
 
+  /* Per-thread direct buffers that carry batches of n-grams to KenLM, see ngramLogProbabilities() */
+  private final ThreadLocal<ByteBuffer> ngramBuffers = ThreadLocal.withInitial(
+      () -> ByteBuffer.allocateDirect(MAX_TARGET_LENGTH * INT_SIZE_IN_BYTES).order(LITTLE_ENDIAN));
+
+  /* Cleared if the native library predates probNgrams() */
+  private volatile boolean hasBatchScoring = true;
+
   // this is read from the config file, used to set maximum order
   private final int ngramOrder;
   // inferred from model file (may be larger than ngramOrder)
@@ -94,6 +102,8 @@ public class KenLM implements NGramLanguageModel, Comparable<KenLM> {
 
   private static native float probString(long ptr, int words[], int start);
 
+  private static native float probNgrams(long ptr, ByteBuffer ngrams, int count, int order);
+
   private static native long createPool(ByteBuffer wordsBuffer);
 
   private static native void destroyPool(long pointer);
@@ -159,6 +169,10 @@ public class KenLM implements NGramLanguageModel, Comparable<KenLM> {
    * needed so KenLM knows which memory pool to use. When finished, it returns the updated KenLM
    * state and the LM probability incurred along this rule.
    *
+   * The states of a sentence are indices into its pool, so all threads decoding the sentence must
+   * share the pool. Calls on one pool are serialized, since the pool's word buffer and its table
+   * of states are not thread-safe.
+   *
    * @param words       array of words
    * @param poolWrapper an object that wraps a pool reference returned from KenLM createPool
    * @return the updated {@link org.apache.joshua.decoder.ff.lm.KenLM.StateProbPair} e.g.
@@ -166,12 +180,15 @@ public class KenLM implements NGramLanguageModel, Comparable<KenLM> {
    */
   public StateProbPair probRule(long[] words, LmPool poolWrapper) {
 
-    poolWrapper.setBufferLength(words.length);
-    for (int i = 0; i < words.length; i++) {
-      poolWrapper.writeIdToBuffer(i, words[i]);
-    }
+    long packedResult;
+    synchronized (poolWrapper) {
+      poolWrapper.setBufferLength(words.length);
+      for (int i = 0; i < words.length; i++) {
+        poolWrapper.writeIdToBuffer(i, words[i]);
+      }
 
-    long packedResult = probRule(pointer, poolWrapper.getPool());
+      packedResult = probRule(pointer, poolWrapper.getPool());
+    }
     int state = (int) (packedResult >> 32);
     float probVal = Float.intBitsToFloat((int) packedResult);
 
@@ -250,6 +267,36 @@ public class KenLM implements NGramLanguageModel, Comparable<KenLM> {
     return prob(ngram);
   }
 
+  /**
+   * Scores all of the n-grams with a single call into KenLM. The n-grams are written to a direct
+   * buffer that belongs to the calling thread and is reused from call to call.
+   */
+  @Override
+  public float ngramLogProbabilities(int[] ngrams, int count, int order) {
+    if (count == 0)
+      return 0.0f;
+    if (!hasBatchScoring)
+      return NGramLanguageModel.super.ngramLogProbabilities(ngrams, count, order);
+
+    int length = count * order;
+    ByteBuffer buffer = ngramBuffers.get();
+    if (buffer.capacity() < length * INT_SIZE_IN_BYTES) {
+      buffer = ByteBuffer.allocateDirect(2 * length * INT_SIZE_IN_BYTES).order(LITTLE_ENDIAN);
+      ngramBuffers.set(buffer);
+    }
+    buffer.clear();
+    buffer.asIntBuffer().put(ngrams, 0, length);
+
+    try {
+      return probNgrams(pointer, buffer, count, order);
+    } catch (UnsatisfiedLinkError e) {
+      LOG.warn("libken does not support batch scoring, scoring one n-gram at a time: {}",
+          e.getMessage());
+      hasBatchScoring = false;
+      return NGramLanguageModel.super.ngramLogProbabilities(ngrams, count, order);
+    }
+  }
+
   public static class KenLMLoadException extends RuntimeException {
 
     public KenLMLoadException(UnsatisfiedLinkError e) {
@@ -23,12 +23,12 @@ import static org.apache.joshua.util.FormatUtils.isNonterminal;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.DecoderContext;
 import org.apache.joshua.decoder.JoshuaConfiguration;
-import org.apache.joshua.decoder.Support;
+import org.apache.joshua.decoder.ModelLoader;
 import org.apache.joshua.decoder.chart_parser.SourcePath;
 import org.apache.joshua.decoder.ff.FeatureVector;
 import org.apache.joshua.decoder.ff.StatefulFF;
@@ -62,7 +62,6 @@ public class LanguageModelFF extends StatefulFF {
 
   static final Logger LOG = LoggerFactory.getLogger(LanguageModelFF.class);
 
-  public static int LM_INDEX = 0;
   private int startSymbolId;
 
   /**
@@ -81,6 +80,9 @@ public class LanguageModelFF extends StatefulFF {
    * </ol>
    */
   protected NGramLanguageModel languageModel;
+
+  /* Each thread's buffer for the n-grams of the edge being scored, see computeTransition() */
+  private static final ThreadLocal<int[]> NGRAM_BATCH = ThreadLocal.withInitial(() -> new int[256]);
   
   protected final static String NAME_PREFIX = "lm_";
   protected final static String OOV_SUFFIX = "_oov";
@@ -103,14 +105,17 @@ public class LanguageModelFF extends StatefulFF {
   protected boolean isClassLM;
   private ClassMap classMap;
   
+  /** The number of n-gram probabilities each thread caches (0 for no cache) */
+  protected int cacheSize = 0;
+
   /** Whether this feature function fires LM oov indicators */ 
   protected boolean withOovFeature;
   protected int oovDenseFeatureIndex = -1;
 
   public LanguageModelFF(FeatureVector weights, String[] args, JoshuaConfiguration config) {
-    super(weights, NAME_PREFIX + LM_INDEX, args, config);
-    this.oovFeatureName = NAME_PREFIX + LM_INDEX + OOV_SUFFIX;
-    LM_INDEX++;
+    super(weights, NAME_PREFIX + getLmIndex(), args, config);
+    this.oovFeatureName = NAME_PREFIX + getLmIndex() + OOV_SUFFIX;
+    DecoderContext.current().getLanguageModelIndex().incrementAndGet();
 
     this.type = parsedArgs.get("lm_type");
     this.ngramOrder = Integer.parseInt(parsedArgs.get("lm_order"));
@@ -125,6 +130,10 @@ public class LanguageModelFF extends StatefulFF {
       this.withOovFeature = true;
     }
 
+    if (parsedArgs.containsKey("cache_size")) {
+      this.cacheSize = Integer.parseInt(parsedArgs.get("cache_size"));
+    }
+
     // The dense feature initialization hasn't happened yet, so we have to retrieve this as sparse
     this.weight = weights.getSparse(name);
     this.oovWeight = weights.getSparse(oovFeatureName);
@@ -149,25 +158,57 @@ public class LanguageModelFF extends StatefulFF {
    * Initializes the underlying language model.
    */
   protected void initializeLM() {
+    this.languageModel = loadLanguageModel(type, ngramOrder, path);
+
+    if (cacheSize > 0)
+      this.languageModel = new CachedNGramLanguageModel(this.languageModel, cacheSize);
+
+    Vocabulary.registerLanguageModel(this.languageModel);
+    Vocabulary.id(config.default_non_terminal);
+
+    startSymbolId = Vocabulary.id(Vocabulary.START_SYM);
+  }
+
+  /**
+   * Creates a language model backend. Backends do not touch the vocabulary until they are
+   * registered with it, so they can be created on any thread.
+   *
+   * @param type the lm_type: 'kenlm', 'berkeleylm' or 'mapped'
+   * @param order the order of the n-grams that are scored
+   * @param path the model file
+   * @return the language model
+   */
+  public static NGramLanguageModel createLanguageModel(String type, int order, String path) {
     switch (type) {
     case "kenlm":
-      this.languageModel = new KenLM(ngramOrder, path);
-
-      break;
+      return new KenLM(order, path);
     case "berkeleylm":
-      this.languageModel = new LMGrammarBerkeley(ngramOrder, path);
-
-      break;
+      return new LMGrammarBerkeley(order, path);
+    case "mapped":
+      return new MappedNGramLanguageModel(order, path);
     default:
       String msg = String.format("* FATAL: Invalid backend lm_type '%s' for LanguageModel", type)
-          + "*        Permissible values for 'lm_type' are 'kenlm' and 'berkeleylm'";
+          + "*        Permissible values for 'lm_type' are 'kenlm', 'berkeleylm' and 'mapped'";
       throw new RuntimeException(msg);
     }
+  }
 
-    Vocabulary.registerLanguageModel(this.languageModel);
-    Vocabulary.id(config.default_non_terminal);
+  /**
+   * @return the name under which a backend is submitted to the {@link ModelLoader}
+   */
+  public static String getLoadingKey(String type, int order, String path) {
+    return String.format("%s %d-gram language model %s", type, order, path);
+  }
 
-    startSymbolId = Vocabulary.id(Vocabulary.START_SYM);
+  /**
+   * Returns a language model backend, which the decoder may have started loading in the
+   * background (see {@link ModelLoader}), or else creates it.
+   */
+  protected static NGramLanguageModel loadLanguageModel(String type, int order, String path) {
+    final ModelLoader loader = DecoderContext.current().getModelLoader();
+    if (loader == null)
+      return createLanguageModel(type, order, path);
+    return loader.get(getLoadingKey(type, order, path), () -> createLanguageModel(type, order, path));
   }
 
   public NGramLanguageModel getLM() {
@@ -395,9 +436,19 @@ public class LanguageModelFF extends StatefulFF {
     int[] current = new int[this.ngramOrder];
     int[] shadow = new int[this.ngramOrder];
     int ccount = 0;
-    float transitionLogP = 0.0f;
     int[] left_context = null;
 
+    /*
+     * The complete n-grams are collected and scored with a single call. Every word (a terminal, or
+     * one of the at most ngramOrder - 1 left-state words of a nonterminal) completes at most one.
+     */
+    int[] ngrams = NGRAM_BATCH.get();
+    if (ngrams.length < enWords.length * this.ngramOrder * this.ngramOrder) {
+      ngrams = new int[enWords.length * this.ngramOrder * this.ngramOrder];
+      NGRAM_BATCH.set(ngrams);
+    }
+    int ngramCount = 0;
+
     for (int curID : enWords) {
       if (FormatUtils.isNonterminal(curID)) {
         int index = -(curID + 1);
@@ -414,10 +465,8 @@ public class LanguageModelFF extends StatefulFF {
             left_context = Arrays.copyOf(current, ccount);
 
           if (ccount == this.ngramOrder) {
-            // Compute the current word probability, and remove it.
-            float prob = this.languageModel.ngramLogProbability(current, this.ngramOrder);
-            //            System.err.println(String.format("-> prob(%s) = %f", Vocabulary.getWords(current), prob));
-            transitionLogP += prob;
+            // Queue the current word's n-gram for scoring, and remove it.
+            System.arraycopy(current, 0, ngrams, ngramCount++ * this.ngramOrder, this.ngramOrder);
             System.arraycopy(current, 1, shadow, 0, this.ngramOrder - 1);
             int[] tmp = current;
             current = shadow;
@@ -433,10 +482,8 @@ public class LanguageModelFF extends StatefulFF {
           left_context = Arrays.copyOf(current, ccount);
 
         if (ccount == this.ngramOrder) {
-          // Compute the current word probability, and remove it.s
-          float prob = this.languageModel.ngramLogProbability(current, this.ngramOrder);
-          //          System.err.println(String.format("-> prob(%s) = %f", Vocabulary.getWords(current), prob));
-          transitionLogP += prob;
+          // Queue the current word's n-gram for scoring, and remove it.
+          System.arraycopy(current, 0, ngrams, ngramCount++ * this.ngramOrder, this.ngramOrder);
           System.arraycopy(current, 1, shadow, 0, this.ngramOrder - 1);
           int[] tmp = current;
           current = shadow;
@@ -445,6 +492,8 @@ public class LanguageModelFF extends StatefulFF {
         }
       }
     }
+    float transitionLogP = this.languageModel.ngramLogProbabilities(ngrams, ngramCount,
+        this.ngramOrder);
     //    acc.add(name, transitionLogP);
     acc.add(denseFeatureIndex, transitionLogP);
 
@@ -469,22 +518,14 @@ public class LanguageModelFF extends StatefulFF {
 
     //    System.err.println(String.format("LanguageModel::computeFinalTransition()"));
 
-    float res = 0.0f;
-    LinkedList<Integer> currentNgram = new LinkedList<>();
     int[] leftContext = state.getLeftLMStateWords();
     int[] rightContext = state.getRightLMStateWords();
 
-    for (int t : leftContext) {
-      currentNgram.add(t);
-
-      if (currentNgram.size() >= 2) { // start from bigram
-        float prob = this.languageModel
-            .ngramLogProbability(Support.toArray(currentNgram), currentNgram.size());
-        res += prob;
-      }
-      if (currentNgram.size() == this.ngramOrder)
-        currentNgram.removeFirst();
-    }
+    /*
+     * Score the left context from the bigram on: its incomplete n-grams, followed by the complete
+     * ones, which is exactly what sentence scoring does from the second word.
+     */
+    float res = this.languageModel.sentenceLogProbability(leftContext, this.ngramOrder, 2);
 
     // Tell the accumulator
     //    acc.add(name, res);
@@ -533,10 +574,16 @@ public class LanguageModelFF extends StatefulFF {
   }
 
   /**
-   * Public method to set LM_INDEX back to 0.
-   * Required if multiple instances of the JoshuaDecoder live in the same JVM.
+   * @return the index the next language model of the current decoder will be created with
+   */
+  public static int getLmIndex() {
+    return DecoderContext.current().getLanguageModelIndex().get();
+  }
+
+  /**
+   * Public method to set the language model index of the current decoder back to 0.
    */
   public static void resetLmIndex() {
-    LM_INDEX = 0;
+    DecoderContext.current().getLanguageModelIndex().set(0);
   }
 }
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.lm;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A backoff n-gram language model that is served straight from a memory-mapped binary file, so
+ * that it loads in the time it takes to read its vocabulary, takes no heap per n-gram, and shares
+ * the page cache with every other JVM that maps the same file. The file is built from an ARPA file
+ * by {@link MappedNGramLanguageModelBuilder}.
+ *
+ * The unigrams are an array indexed by the model's own word ids, in which id 0 is &lt;unk&gt;.
+ * Each higher order is an open-addressing hash table with linear probing, like KenLM's probing
+ * structure: an entry holds a 64-bit hash of the n-gram's words, taken from the last word to the
+ * first, followed by its log probability and, below the highest order, its backoff weight. The
+ * values are either 32-bit floats or 8-bit codes into a per-order table of 256 values. Hashing the
+ * words in reverse lets a query find the longest matching suffix, and then the backoff weights of
+ * the longer contexts, by extending one hash a word at a time.
+ *
+ * Enabled with <code>LanguageModel -lm_type mapped -lm_order 5 -lm_file lm.mapped</code>.
+ */
+public class MappedNGramLanguageModel extends DefaultNGramLanguageModel {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MappedNGramLanguageModel.class);
+
+  static final long MAGIC = 0x4a4f53484c4d3031L; // "JOSHLM01"
+  static final int VERSION = 1;
+
+  /* The byte size of the header fields ahead of the per-order fields */
+  static final int HEADER_SIZE = 32;
+  /* The byte size of the count, bucket count, and offset of each order */
+  static final int ORDER_HEADER_SIZE = 24;
+  /* The number of values in the table of each order and kind of a quantized model */
+  static final int CODEBOOK_SIZE = 256;
+
+  static final String UNKNOWN_WORD = "<unk>";
+  /* The log probability of <unk> when the ARPA file does not have one, as in KenLM */
+  static final float UNKNOWN_LOG_PROB = -100.0f;
+
+  /* The hash of the empty n-gram; a hash of 0 marks an empty entry */
+  static final long SEED = 0x2545F4914F6CDD1DL;
+
+  /* The largest segment a table is mapped in; a MappedByteBuffer is limited to 2 GB */
+  private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+  private final int fileOrder;
+  private final boolean quantized;
+
+  private final Table[] tables;
+
+  /* The model's id of every word in the file, for registerWord() */
+  private final HashMap<String, Integer> words;
+
+  /*
+   * The model's id of every Joshua vocabulary id. Words are registered under the vocabulary's lock,
+   * and a grown array is published through the volatile field.
+   */
+  private volatile int[] vocabIdToMyId = new int[16];
+
+  /**
+   * @param order the order that the feature asks for
+   * @param lmFile a file written by {@link MappedNGramLanguageModelBuilder}
+   */
+  public MappedNGramLanguageModel(int order, String lmFile) {
+    super(order);
+
+    try (RandomAccessFile file = new RandomAccessFile(lmFile, "r")) {
+      FileChannel channel = file.getChannel();
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          Math.min(channel.size(), MAX_SEGMENT_SIZE));
+
+      if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION)
+        throw new RuntimeException(String.format("'%s' is not a mapped language model", lmFile));
+      this.fileOrder = header.getInt(12);
+      this.quantized = header.getInt(16) != 0;
+      int vocabSize = header.getInt(20);
+      long vocabOffset = header.getLong(24);
+
+      int codebooks = HEADER_SIZE + fileOrder * ORDER_HEADER_SIZE;
+      this.tables = new Table[fileOrder + 1];
+      for (int n = 1; n <= fileOrder; n++) {
+        int position = HEADER_SIZE + (n - 1) * ORDER_HEADER_SIZE;
+        long buckets = header.getLong(position + 8);
+        long offset = header.getLong(position + 16);
+
+        float[] probs = null, backoffs = null;
+        if (quantized) {
+          probs = new float[CODEBOOK_SIZE];
+          backoffs = new float[CODEBOOK_SIZE];
+          int start = codebooks + (n - 1) * 2 * CODEBOOK_SIZE * 4;
+          for (int i = 0; i < CODEBOOK_SIZE; i++) {
+            probs[i] = header.getFloat(start + 4 * i);
+            backoffs[i] = header.getFloat(start + 4 * (CODEBOOK_SIZE + i));
+          }
+        }
+        tables[n] = new Table(channel, offset, buckets, entrySize(n, fileOrder, quantized),
+            n > 1, probs, backoffs);
+      }
+
+      this.words = readVocabulary(lmFile, vocabOffset, vocabSize);
+
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("Can't read lm_file '%s'", lmFile), e);
+    }
+
+    LOG.info("Mapped {}-gram language model {} ({} words{})", fileOrder, lmFile, words.size(),
+        quantized ? ", quantized" : "");
+  }
+
+  /**
+   * @return the size in bytes of one entry of the table of order n
+   */
+  static int entrySize(int n, int order, boolean quantized) {
+    int valueSize = quantized ? 1 : 4;
+    return (n > 1 ? 8 : 0) + valueSize + (n < order ? valueSize : 0);
+  }
+
+  /**
+   * Extends the hash of an n-gram by the word in front of it.
+   */
+  static long extend(long hash, int word) {
+    long h = hash + (word + 1) * 0x9E3779B97F4A7C15L;
+    // The finalizer of MurmurHash3
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (h == 0) ? 1 : h;
+  }
+
+  private static HashMap<String, Integer> readVocabulary(String lmFile, long offset, int size)
+      throws IOException {
+    HashMap<String, Integer> words = new HashMap<>(2 * size);
+    try (FileInputStream stream = new FileInputStream(lmFile)) {
+      stream.getChannel().position(offset);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+      byte[] bytes = new byte[64];
+      for (int id = 0; id < size; id++) {
+        int length = in.readInt();
+        if (length > bytes.length)
+          bytes = new byte[Math.max(length, 2 * bytes.length)];
+        in.readFully(bytes, 0, length);
+        words.put(new String(bytes, 0, length, StandardCharsets.UTF_8), id);
+      }
+    }
+    return words;
+  }
+
+  public int getFileOrder() {
+    return fileOrder;
+  }
+
+  public boolean isQuantized() {
+    return quantized;
+  }
+
+  @Override
+  public boolean registerWord(String token, int id) {
+    Integer myId = words.get(token);
+    if (myId == null)
+      return false;
+
+    int[] mapping = vocabIdToMyId;
+    if (id >= mapping.length) {
+      mapping = Arrays.copyOf(mapping, Math.max(id + 1, 2 * mapping.length));
+      mapping[id] = myId;
+      vocabIdToMyId = mapping;
+    } else {
+      mapping[id] = myId;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isOov(int id) {
+    return myId(vocabIdToMyId, id) == 0;
+  }
+
+  private static int myId(int[] mapping, int id) {
+    return (id >= 0 && id < mapping.length) ? mapping[id] : 0;
+  }
+
+  @Override
+  protected float ngramLogProbability_helper(int[] ngram, int order) {
+    final int[] mapping = vocabIdToMyId;
+    final int length = ngram.length;
+    final int last = length - 1;
+
+    // The longest suffix of the n-gram that is in the model. Pruned models can have an n-gram
+    // without its shorter suffixes, so a missing suffix does not end the search.
+    int word = myId(mapping, ngram[last]);
+    float prob = tables[1].prob(word);
+    long hash = extend(SEED, word);
+    int matched = 1;
+    for (int n = 2; n <= length && n <= fileOrder; n++) {
+      hash = extend(hash, myId(mapping, ngram[last - n + 1]));
+      long entry = tables[n].find(hash);
+      if (entry >= 0) {
+        prob = tables[n].prob(entry);
+        matched = n;
+      }
+    }
+
+    // Plus the backoff weights of the contexts that are longer than the matched one; a context
+    // that is not in the model has a weight of 0
+    if (matched < length) {
+      long context = SEED;
+      for (int c = 1; c < length && c < fileOrder; c++) {
+        word = myId(mapping, ngram[last - c]);
+        context = extend(context, word);
+        if (c < matched)
+          continue;
+        if (c == 1) {
+          prob += tables[1].backoff(word);
+        } else {
+          long entry = tables[c].find(context);
+          if (entry >= 0)
+            prob += tables[c].backoff(entry);
+        }
+      }
+    }
+
+    return prob;
+  }
+
+  /**
+   * The entries of one order, mapped in segments that each hold a whole number of entries. The
+   * unigram table is indexed by word id and has no hashes.
+   */
+  private static final class Table {
+    private final long buckets;
+    private final int entrySize;
+    private final boolean hashed;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final MappedByteBuffer[] segments;
+
+    /* The values of the 8-bit codes, or null if the values are floats */
+    private final float[] probs;
+    private final float[] backoffs;
+
+    Table(FileChannel channel, long offset, long buckets, int entrySize, boolean hashed,
+        float[] probs, float[] backoffs) throws IOException {
+      this.buckets = buckets;
+      this.entrySize = entrySize;
+      this.hashed = hashed;
+      this.probs = probs;
+      this.backoffs = backoffs;
+
+      this.segmentShift = 31 - Integer.numberOfLeadingZeros(MAX_SEGMENT_SIZE / entrySize);
+      this.segmentMask = (1L << segmentShift) - 1;
+      long entriesPerSegment = 1L << segmentShift;
+
+      int numSegments = (int) ((buckets + entriesPerSegment - 1) / entriesPerSegment);
+      this.segments = new MappedByteBuffer[numSegments];
+      for (int s = 0; s < numSegments; s++) {
+        long first = s * entriesPerSegment;
+        long count = Math.min(entriesPerSegment, buckets - first);
+        segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * entrySize,
+            count * entrySize);
+      }
+    }
+
+    /**
+     * @return the index of the entry with the given hash, or -1 if there is none
+     */
+    long find(long hash) {
+      long entry = Long.remainderUnsigned(hash, buckets);
+      for (;;) {
+        long key = segments[(int) (entry >>> segmentShift)]
+            .getLong((int) (entry & segmentMask) * entrySize);
+        if (key == hash)
+          return entry;
+        if (key == 0)
+          return -1;
+        if (++entry == buckets)
+          entry = 0;
+      }
+    }
+
+    float prob(long entry) {
+      return value(entry, hashed ? 8 : 0, probs);
+    }
+
+    float backoff(long entry) {
+      int valueSize = (probs != null) ? 1 : 4;
+      return value(entry, (hashed ? 8 : 0) + valueSize, backoffs);
+    }
+
+    private float value(long entry, int field, float[] codebook) {
+      MappedByteBuffer segment = segments[(int) (entry >>> segmentShift)];
+      int position = (int) (entry & segmentMask) * entrySize + field;
+      if (codebook != null)
+        return codebook[segment.get(position) & 0xff];
+      return segment.getFloat(position);
+    }
+  }
+}
@@ -0,0 +1,409 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.lm;
+
+import static org.apache.joshua.decoder.ff.lm.MappedNGramLanguageModel.CODEBOOK_SIZE;
+import static org.apache.joshua.decoder.ff.lm.MappedNGramLanguageModel.HEADER_SIZE;
+import static org.apache.joshua.decoder.ff.lm.MappedNGramLanguageModel.ORDER_HEADER_SIZE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.DecoderContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the binary file of a {@link MappedNGramLanguageModel} from an ARPA file, which is read
+ * with {@link ArpaFile}. The ARPA file is read once to count the n-grams and collect the
+ * vocabulary, once more to choose the quantization codes if the values are quantized, and once to
+ * fill the tables, which are written through a memory map of the output file so that the model
+ * never has to fit in the heap.
+ *
+ * Quantization replaces each log probability and backoff weight by one of 256 values per order,
+ * chosen so that each value stands for about as many n-grams. It shrinks the model by more than
+ * half at the cost of a small error in every score.
+ *
+ * Usage: java MappedNGramLanguageModelBuilder [-quantize] ARPA_FILE OUTPUT_FILE
+ */
+public class MappedNGramLanguageModelBuilder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MappedNGramLanguageModelBuilder.class);
+
+  /* The fraction of the buckets of a hash table that are filled */
+  private static final double LOAD_FACTOR = 0.66;
+
+  /* The largest segment of the output that is mapped at a time */
+  private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+  private final String arpaFileName;
+  private final boolean quantize;
+
+  /* The model's id of every Joshua vocabulary id that is a unigram of the ARPA file, plus one */
+  private int[] vocabIdToMyId = new int[1024];
+  private final List<String> words = new ArrayList<>();
+
+  private int order = 0;
+  private long[] counts = new long[0];
+
+  private Codebook[] probCodebooks;
+  private Codebook[] backoffCodebooks;
+
+  public MappedNGramLanguageModelBuilder(String arpaFileName, boolean quantize) {
+    this.arpaFileName = arpaFileName;
+    this.quantize = quantize;
+  }
+
+  /**
+   * Writes the model to a file, replacing it if it exists.
+   *
+   * @param outputFileName the file to write the model to
+   * @throws IOException if the ARPA file cannot be read or the output cannot be written
+   */
+  public void build(String outputFileName) throws IOException {
+    ArpaFile arpaFile = new ArpaFile(arpaFileName, DecoderContext.current().getVocabulary());
+
+    countNgrams(arpaFile);
+    LOG.info("Read {}-gram language model {}: {} n-grams per order, {} words", order,
+        arpaFileName, Arrays.toString(counts), words.size());
+
+    if (quantize)
+      chooseCodes(arpaFile);
+
+    writeModel(arpaFile, outputFileName);
+    LOG.info("Wrote mapped language model {}", outputFileName);
+  }
+
+  /**
+   * Counts the n-grams of each order and numbers the unigrams, with &lt;unk&gt; as word 0.
+   */
+  private void countNgrams(ArpaFile arpaFile) {
+    words.add(MappedNGramLanguageModel.UNKNOWN_WORD);
+    setMyId(Vocabulary.id(MappedNGramLanguageModel.UNKNOWN_WORD), 0);
+    probCodebooks = new Codebook[] { null, new Codebook() };
+    backoffCodebooks = new Codebook[] { null, new Codebook() };
+    // An unknown word that is not in the ARPA file still needs a code
+    probCodebooks[1].range(MappedNGramLanguageModel.UNKNOWN_LOG_PROB);
+
+    for (ArpaNgram ngram : arpaFile) {
+      int n = ngram.order();
+      if (n > order) {
+        order = n;
+        counts = Arrays.copyOf(counts, order);
+        probCodebooks = Arrays.copyOf(probCodebooks, order + 1);
+        backoffCodebooks = Arrays.copyOf(backoffCodebooks, order + 1);
+        for (int m = 1; m <= order; m++) {
+          if (probCodebooks[m] == null) {
+            probCodebooks[m] = new Codebook();
+            backoffCodebooks[m] = new Codebook();
+          }
+        }
+      }
+      counts[n - 1]++;
+      probCodebooks[n].range(ngram.getValue());
+      backoffCodebooks[n].range(ngram.getBackoff());
+
+      if (n == 1 && myId(ngram.getWord()) < 0) {
+        setMyId(ngram.getWord(), words.size());
+        words.add(Vocabulary.word(ngram.getWord()));
+      }
+    }
+    counts[0] = words.size();
+  }
+
+  private void setMyId(int vocabId, int myId) {
+    if (vocabId >= vocabIdToMyId.length)
+      vocabIdToMyId = Arrays.copyOf(vocabIdToMyId, Math.max(vocabId + 1, 2 * vocabIdToMyId.length));
+    vocabIdToMyId[vocabId] = myId + 1;
+  }
+
+  /**
+   * @return the model's id of a word, or -1 if it is not a unigram
+   */
+  private int myId(int vocabId) {
+    return (vocabId < vocabIdToMyId.length) ? vocabIdToMyId[vocabId] - 1 : -1;
+  }
+
+  private void chooseCodes(ArpaFile arpaFile) {
+    for (ArpaNgram ngram : arpaFile) {
+      probCodebooks[ngram.order()].add(ngram.getValue());
+      if (ngram.order() < order)
+        backoffCodebooks[ngram.order()].add(ngram.getBackoff());
+    }
+    probCodebooks[1].add(MappedNGramLanguageModel.UNKNOWN_LOG_PROB);
+
+    for (int n = 1; n <= order; n++) {
+      probCodebooks[n].build();
+      backoffCodebooks[n].build();
+    }
+  }
+
+  private void writeModel(ArpaFile arpaFile, String outputFileName) throws IOException {
+    byte[] vocabulary = encodeVocabulary();
+
+    // Header, codebooks, vocabulary, and then the tables of each order
+    long[] buckets = new long[order + 1];
+    long[] offsets = new long[order + 1];
+    long position = HEADER_SIZE + order * ORDER_HEADER_SIZE;
+    if (quantize)
+      position += order * 2 * CODEBOOK_SIZE * 4;
+    long vocabOffset = position;
+    position += vocabulary.length;
+    for (int n = 1; n <= order; n++) {
+      buckets[n] = (n == 1) ? counts[0] : Math.max(1, (long) Math.ceil(counts[n - 1] / LOAD_FACTOR));
+      position = (position + 7) & ~7L;
+      offsets[n] = position;
+      position += buckets[n] * MappedNGramLanguageModel.entrySize(n, order, quantize);
+    }
+
+    try (RandomAccessFile file = new RandomAccessFile(outputFileName, "rw")) {
+      // A fresh file of the full size, so that every hash table starts out empty
+      file.setLength(0);
+      file.setLength(position);
+      FileChannel channel = file.getChannel();
+
+      ByteBuffer header = ByteBuffer.allocate((int) vocabOffset);
+      header.putLong(MappedNGramLanguageModel.MAGIC);
+      header.putInt(MappedNGramLanguageModel.VERSION);
+      header.putInt(order);
+      header.putInt(quantize ? 1 : 0);
+      header.putInt(words.size());
+      header.putLong(vocabOffset);
+      for (int n = 1; n <= order; n++) {
+        header.putLong(counts[n - 1]);
+        header.putLong(buckets[n]);
+        header.putLong(offsets[n]);
+      }
+      if (quantize) {
+        for (int n = 1; n <= order; n++) {
+          for (float value : probCodebooks[n].values)
+            header.putFloat(value);
+          for (float value : backoffCodebooks[n].values)
+            header.putFloat(value);
+        }
+      }
+      header.flip();
+      channel.write(header, 0);
+      channel.write(ByteBuffer.wrap(vocabulary), vocabOffset);
+
+      Table[] tables = new Table[order + 1];
+      for (int n = 1; n <= order; n++)
+        tables[n] = new Table(channel, offsets[n], buckets[n], n);
+
+      // The default for <unk>, which the ARPA file may replace
+      tables[1].putValues(0, MappedNGramLanguageModel.UNKNOWN_LOG_PROB, 0.0f);
+
+      for (ArpaNgram ngram : arpaFile) {
+        int n = ngram.order();
+        int word = myId(ngram.getWord());
+        if (word < 0) {
+          LOG.warn("Skipping {}-gram whose last word is not a unigram", n);
+          continue;
+        }
+        if (n == 1) {
+          tables[1].putValues(word, ngram.getValue(), ngram.getBackoff());
+          continue;
+        }
+
+        long hash = MappedNGramLanguageModel.extend(MappedNGramLanguageModel.SEED, word);
+        int[] context = ngram.getContext();
+        for (int i = context.length - 1; i >= 0; i--)
+          hash = MappedNGramLanguageModel.extend(hash, Math.max(0, myId(context[i])));
+        tables[n].put(hash, ngram.getValue(), ngram.getBackoff());
+      }
+
+      for (int n = 1; n <= order; n++)
+        tables[n].force();
+    }
+  }
+
+  private byte[] encodeVocabulary() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (String word : words) {
+      byte[] utf8 = word.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * The output table of one order, in the layout read by {@link MappedNGramLanguageModel}.
+   */
+  private class Table {
+    private final int n;
+    private final long buckets;
+    private final int entrySize;
+    private final long entriesPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    Table(FileChannel channel, long offset, long buckets, int n) throws IOException {
+      this.n = n;
+      this.buckets = buckets;
+      this.entrySize = MappedNGramLanguageModel.entrySize(n, order, quantize);
+      this.entriesPerSegment = Integer.highestOneBit(MAX_SEGMENT_SIZE / entrySize);
+
+      int numSegments = (int) ((buckets + entriesPerSegment - 1) / entriesPerSegment);
+      this.segments = new MappedByteBuffer[numSegments];
+      for (int s = 0; s < numSegments; s++) {
+        long first = s * entriesPerSegment;
+        long count = Math.min(entriesPerSegment, buckets - first);
+        segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, offset + first * entrySize,
+            count * entrySize);
+      }
+    }
+
+    void put(long hash, float prob, float backoff) {
+      long entry = Long.remainderUnsigned(hash, buckets);
+      for (;;) {
+        long key = segment(entry).getLong(position(entry));
+        if (key == 0)
+          break;
+        if (key == hash) {
+          LOG.warn("Replacing a duplicate {}-gram", n);
+          break;
+        }
+        if (++entry == buckets)
+          entry = 0;
+      }
+      segment(entry).putLong(position(entry), hash);
+      putValues(entry, prob, backoff);
+    }
+
+    void putValues(long entry, float prob, float backoff) {
+      MappedByteBuffer segment = segment(entry);
+      int position = position(entry) + (n > 1 ? 8 : 0);
+      if (quantize) {
+        segment.put(position, probCodebooks[n].encode(prob));
+        if (n < order)
+          segment.put(position + 1, backoffCodebooks[n].encode(backoff));
+      } else {
+        segment.putFloat(position, prob);
+        if (n < order)
+          segment.putFloat(position + 4, backoff);
+      }
+    }
+
+    void force() {
+      for (MappedByteBuffer segment : segments)
+        segment.force();
+    }
+
+    private MappedByteBuffer segment(long entry) {
+      return segments[(int) (entry / entriesPerSegment)];
+    }
+
+    private int position(long entry) {
+      return (int) (entry % entriesPerSegment) * entrySize;
+    }
+  }
+
+  /**
+   * Chooses 256 codes for the values of one order and kind. The range of the values is found while
+   * counting the n-grams, the values are then counted in a fine histogram over that range, runs of
+   * consecutive bins that hold about 1/256th of the values each become one code, and a code stands
+   * for the mean of its values.
+   */
+  private static class Codebook {
+    private static final int BINS = 1 << 16;
+
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+    private long[] counts;
+    private double[] sums;
+
+    private final float[] values = new float[CODEBOOK_SIZE];
+    private final byte[] binCodes = new byte[BINS];
+
+    void range(float value) {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+
+    void add(float value) {
+      if (counts == null) {
+        counts = new long[BINS];
+        sums = new double[BINS];
+      }
+      counts[bin(value)]++;
+      sums[bin(value)] += value;
+    }
+
+    void build() {
+      if (counts == null)
+        return;
+      long total = 0;
+      for (long count : counts)
+        total += count;
+
+      int code = 0;
+      long seen = 0, codeCount = 0;
+      double codeSum = 0.0;
+      for (int b = 0; b < BINS; b++) {
+        binCodes[b] = (byte) code;
+        seen += counts[b];
+        codeCount += counts[b];
+        codeSum += sums[b];
+        if (codeCount > 0 && code < CODEBOOK_SIZE - 1
+            && seen * CODEBOOK_SIZE >= (code + 1) * total) {
+          values[code++] = (float) (codeSum / codeCount);
+          codeCount = 0;
+          codeSum = 0.0;
+        }
+      }
+      if (codeCount > 0)
+        values[code] = (float) (codeSum / codeCount);
+      counts = null;
+      sums = null;
+    }
+
+    byte encode(float value) {
+      return binCodes[bin(value)];
+    }
+
+    private int bin(float value) {
+      if (!(max > min))
+        return 0;
+      int bin = (int) ((value - min) / (max - min) * BINS);
+      return Math.max(0, Math.min(BINS - 1, bin));
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    boolean quantize = args.length > 0 && args[0].equals("-quantize");
+    int first = quantize ? 1 : 0;
+    if (args.length != first + 2) {
+      System.err.println("Usage: java MappedNGramLanguageModelBuilder [-quantize] ARPA_FILE OUTPUT_FILE");
+      System.exit(1);
+    }
+    new MappedNGramLanguageModelBuilder(args[first], quantize).build(args[first + 1]);
+  }
+}
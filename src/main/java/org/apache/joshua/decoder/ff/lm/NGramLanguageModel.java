@@ -70,6 +70,29 @@ public interface NGramLanguageModel {
   float ngramLogProbability(int[] ngram, int order);
 
   float ngramLogProbability(int[] ngram);
+
+  /**
+   * Computes the summed log probability of a batch of n-grams, such as all of the complete n-grams
+   * created by applying a rule. Language models that are expensive to call (e.g., across JNI)
+   * should score the whole batch at once; the default queries
+   * {@link #ngramLogProbability(int[], int)} for each n-gram in turn.
+   * 
+   * @param ngrams the n-grams one after another: n-gram k is ngrams[k * order .. (k + 1) * order)
+   * @param count the number of n-grams
+   * @param order the length of each n-gram
+   * @return the sum of the n-grams' log probabilities, added up in order
+   */
+  default float ngramLogProbabilities(int[] ngrams, int count, int order) {
+    float prob = 0.0f;
+    if (count > 0) {
+      int[] ngram = new int[order];
+      for (int k = 0; k < count; k++) {
+        System.arraycopy(ngrams, k * order, ngram, 0, order);
+        prob += ngramLogProbability(ngram, order);
+      }
+    }
+    return prob;
+  }
   
   /**
    * Check whether a word corresponding to the given id is OOV to the language model.
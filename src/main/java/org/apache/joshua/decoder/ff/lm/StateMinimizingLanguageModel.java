@@ -60,7 +60,7 @@ public class StateMinimizingLanguageModel extends LanguageModelFF {
   public void initializeLM() {
 
     // Override type (only KenLM supports left-state minimization)
-    this.languageModel = new KenLM(ngramOrder, path);
+    this.languageModel = loadLanguageModel("kenlm", ngramOrder, path);
 
     Vocabulary.registerLanguageModel(this.languageModel);
     Vocabulary.id(config.default_non_terminal);
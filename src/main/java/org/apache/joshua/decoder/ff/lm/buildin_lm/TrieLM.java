@@ -21,12 +21,10 @@ package org.apache.joshua.decoder.ff.lm.buildin_lm;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.Scanner;
 
 import org.apache.joshua.corpus.Vocabulary;
@@ -34,7 +32,10 @@ import org.apache.joshua.decoder.ff.lm.AbstractLM;
 import org.apache.joshua.decoder.ff.lm.ArpaFile;
 import org.apache.joshua.decoder.ff.lm.ArpaNgram;
 import org.apache.joshua.util.Bits;
+import org.apache.joshua.util.LongIntHashMap;
 import org.apache.joshua.util.Regex;
+import org.apache.joshua.util.quantization.Quantizer;
+import org.apache.joshua.util.quantization.QuantizerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +50,11 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Additionally, each node in the trie stores
  * the backoff weight for that context.
+ * <p>
+ * The trie is kept in primitive arrays: two {@link LongIntHashMap}s keyed by
+ * (node id, word id), and arrays of values indexed by n-gram and by node. The
+ * values are floats, or one byte each when they are quantized with an 8-bit
+ * {@link Quantizer}.
  *
  * @author Lane Schwartz
  * @see <a href="http://www.speech.sri.com/projects/srilm/manpages/ngram-discount.7.html">SRILM ngram-discount documentation</a>
@@ -62,27 +68,40 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
    */
   private static final int ROOT_NODE_ID = 0;
 
+  /**
+   * Log probability of a word that is not in the model
+   * and has no &lt;unk&gt; entry either.
+   */
+  private static final float UNKNOWN_LOG_PROB = -100.0f;
 
   /**
    * Maps from (node id, word id for child) --> node id of child.
    */
-  private final Map<Long,Integer> children;
+  private final LongIntHashMap children;
 
   /**
    * Maps from (node id, word id for lookup word) -->
-   * log prob of lookup word given context
+   * index in logProbs of the log prob of lookup word given context
    *
    * (the context is defined by where you are in the tree).
    */
-  private final Map<Long,Float> logProbs;
+  private final LongIntHashMap logProbIndex;
+
+  /**
+   * Log probs, indexed by the values of logProbIndex.
+   */
+  private final Values logProbs;
 
   /**
    * Maps from (node id) -->
    * backoff weight for that context
    *
    * (the context is defined by where you are in the tree).
+   * Nodes without a backoff weight have weight 0.
    */
-  private final Map<Integer,Float> backoffs;
+  private final Values backoffs;
+
+  private final int unknownWordId;
 
   public TrieLM(Vocabulary vocab, String file) throws FileNotFoundException {
     this(new ArpaFile(file,vocab));
@@ -95,14 +114,42 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
    * @throws FileNotFoundException if the input file cannot be located
    */
   public TrieLM(ArpaFile arpaFile) throws FileNotFoundException {
+    this(arpaFile, false);
+  }
+
+  /**
+   * Constructs a language model object from the specified ARPA file.
+   *
+   * @param arpaFile input ARPA file
+   * @param quantize whether to store log probs and backoff weights in 8 bits each
+   * @throws FileNotFoundException if the input file cannot be located
+   */
+  public TrieLM(ArpaFile arpaFile, boolean quantize) throws FileNotFoundException {
     super(Vocabulary.size(), arpaFile.getOrder());
 
-    int ngramCounts = arpaFile.size();
+    Quantizer logProbQuantizer = null, backoffQuantizer = null;
+    if (quantize) {
+      logProbQuantizer = QuantizerFactory.get("8bit");
+      backoffQuantizer = QuantizerFactory.get("8bit");
+      logProbQuantizer.initialize();
+      backoffQuantizer.initialize();
+    }
+
+    // One pass to size the tables and, if quantizing, to learn the buckets
+    int ngramCounts = 0;
+    for (ArpaNgram ngram : arpaFile) {
+      ngramCounts++;
+      if (quantize) {
+        logProbQuantizer.add(ngram.getValue());
+        backoffQuantizer.add(ngram.getBackoff());
+      }
+    }
     LOG.debug("ARPA file contains {} n-grams", ngramCounts);
 
-    this.children = new HashMap<>(ngramCounts);
-    this.logProbs = new HashMap<>(ngramCounts);
-    this.backoffs = new HashMap<>(ngramCounts);
+    this.children = new LongIntHashMap(2 * ngramCounts);
+    this.logProbIndex = new LongIntHashMap(ngramCounts);
+    this.logProbs = new Values(logProbQuantizer, ngramCounts);
+    this.backoffs = new Values(backoffQuantizer, 2 * ngramCounts);
 
     int nodeCounter = 0;
 
@@ -125,10 +172,8 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
         {
           for (int i=context.length-1; i>=0; i--) {
             long key = Bits.encodeAsLong(contextNodeID, context[i]);
-            int childID;
-            if (children.containsKey(key)) {
-              childID = children.get(key);
-            } else {
+            int childID = children.get(key, -1);
+            if (childID < 0) {
               childID = ++nodeCounter;
               LOG.debug("children.put({}:{}, {})", contextNodeID, context[i], childID);
               children.put(key, childID);
@@ -142,7 +187,12 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
           long key = Bits.encodeAsLong(contextNodeID, word);
           float logProb = ngram.getValue();
           LOG.debug("logProbs.put({}:{}, {}", contextNodeID, word, logProb);
-          this.logProbs.put(key, logProb);
+          int index = logProbIndex.get(key, -1);
+          if (index < 0) {
+            index = logProbIndex.size();
+            logProbIndex.put(key, index);
+          }
+          this.logProbs.set(index, logProb);
         }
       }
 
@@ -151,10 +201,8 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
         int backoffNodeID = ROOT_NODE_ID;
         {
           long backoffNodeKey = Bits.encodeAsLong(backoffNodeID, word);
-          int wordChildID;
-          if (children.containsKey(backoffNodeKey)) {
-            wordChildID = children.get(backoffNodeKey);
-          } else {
+          int wordChildID = children.get(backoffNodeKey, -1);
+          if (wordChildID < 0) {
             wordChildID = ++nodeCounter;
             LOG.debug("children.put({}: {}, {})", backoffNodeID, word, wordChildID);
             children.put(backoffNodeKey, wordChildID);
@@ -163,10 +211,8 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
 
           for (int i=context.length-1; i>=0; i--) {
             long key = Bits.encodeAsLong(backoffNodeID, context[i]);
-            int childID;
-            if (children.containsKey(key)) {
-              childID = children.get(key);
-            } else {
+            int childID = children.get(key, -1);
+            if (childID < 0) {
               childID = ++nodeCounter;
               LOG.debug("children.put({}:{}, {})", backoffNodeID, context[i], childID);
               children.put(key, childID);
@@ -179,11 +225,59 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
         {
           float backoff = ngram.getBackoff();
           LOG.debug("backoffs.put({}:{}, {})", backoffNodeID, word, backoff);
-          this.backoffs.put(backoffNodeID, backoff);
+          this.backoffs.set(backoffNodeID, backoff);
         }
       }
 
     }
+
+    this.logProbs.trim(logProbIndex.size());
+    this.backoffs.trim(nodeCounter + 1);
+    this.unknownWordId = Vocabulary.id(Vocabulary.getUnknownWord());
+  }
+
+  /**
+   * Floats, or 8-bit codes of a {@link Quantizer}, in an array that grows as they are set.
+   * Values that were never set are 0, or the code of 0 (which 8-bit quantizers store exactly).
+   */
+  private static final class Values {
+    private final Quantizer quantizer;
+    private float[] floats;
+    private ByteBuffer codes;
+
+    Values(Quantizer quantizer, int capacity) {
+      this.quantizer = quantizer;
+      if (quantizer == null)
+        floats = new float[capacity];
+      else
+        codes = ByteBuffer.allocate(capacity);
+    }
+
+    float get(int index) {
+      if (quantizer == null)
+        return (index < floats.length) ? floats[index] : 0.0f;
+      return (index < codes.capacity()) ? quantizer.read(codes, index) : 0.0f;
+    }
+
+    void set(int index, float value) {
+      if (quantizer == null) {
+        if (index >= floats.length)
+          floats = Arrays.copyOf(floats, Math.max(index + 1, 2 * floats.length));
+        floats[index] = value;
+      } else {
+        if (index >= codes.capacity())
+          codes = ByteBuffer.wrap(Arrays.copyOf(codes.array(), Math.max(index + 1, 2 * codes.capacity())));
+        codes.position(index);
+        quantizer.write(codes, value);
+      }
+    }
+
+    void trim(int size) {
+      if (quantizer == null)
+        floats = Arrays.copyOf(floats, size);
+      else
+        codes = ByteBuffer.wrap(Arrays.copyOf(codes.array(), size));
+    }
   }
 
 
@@ -194,10 +288,39 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
 
   @Override
   protected float ngramLogProbability_helper(int[] ngram, int order) {
-    throw new UnsupportedOperationException();
+    final int last = ngram.length - 1;
+
+    // A word without a unigram is looked up as <unk>
+    int word = ngram[last];
+    int index = logProbIndex.get(Bits.encodeAsLong(ROOT_NODE_ID, word), -1);
+    if (index < 0) {
+      word = unknownWordId;
+      index = logProbIndex.get(Bits.encodeAsLong(ROOT_NODE_ID, word), -1);
+    }
+    float logProb = (index < 0) ? UNKNOWN_LOG_PROB : logProbs.get(index);
+    // The backoff weights of the contexts longer than the one the log prob was found in
+    float backoff = 0.0f;
+
+    // Walk down the contexts, from the previous word backwards. A pruned model
+    // can lack the log prob of a shorter context while having a longer one.
+    int node = ROOT_NODE_ID;
+    for (int i = last - 1; i >= 0; i--) {
+      node = children.get(Bits.encodeAsLong(node, ngram[i]), -1);
+      if (node < 0)
+        break;
+      backoff += backoffs.get(node);
+
+      index = logProbIndex.get(Bits.encodeAsLong(node, word), -1);
+      if (index >= 0) {
+        logProb = logProbs.get(index);
+        backoff = 0.0f;
+      }
+    }
+
+    return logProb + backoff;
   }
 
-  public Map<Long,Integer> getChildren() {
+  public LongIntHashMap getChildren() {
     return this.children;
   }
 
@@ -233,11 +356,12 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
         Collections.addAll(wordList, words);
         wordList.add("</s>");
 
-        ArrayList<Integer> sentence = new ArrayList<>();
-        // int[] ids = new int[wordList.size()];
-        for (String aWordList : wordList) {
-          sentence.add(Vocabulary.id(aWordList));
-          // ids[i] = ;
+        int[] sentence = new int[wordList.size()];
+        {
+          int i = 0;
+          for (String aWordList : wordList) {
+            sentence[i++] = Vocabulary.id(aWordList);
+          }
         }
 
         while (!wordList.isEmpty()) {
@@ -266,8 +390,7 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
           }
         }
 
-        double logProb = lm.sentenceLogProbability(sentence, n, 2);// .ngramLogProbability(ids,
-                                                                   // n);
+        double logProb = lm.sentenceLogProbability(sentence, n, 2);
         double prob = Math.exp(logProb);
 
         LOG.info("Total logProb = {}", logProb);
@@ -278,7 +401,7 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
 
   @Override
   public boolean isOov(int id) {
-    throw new RuntimeException("Not implemented!");
+    return !logProbIndex.containsKey(Bits.encodeAsLong(ROOT_NODE_ID, id));
   }
 
 }
\ No newline at end of file
@@ -33,6 +33,7 @@ import com.google.common.base.Throwables;
 import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.chart_parser.SourcePath;
+import org.apache.joshua.decoder.ff.FeatureMap;
 import org.apache.joshua.decoder.ff.FeatureVector;
 import org.apache.joshua.decoder.ff.StatefulFF;
 import org.apache.joshua.decoder.ff.SourceDependentFF;
@@ -61,11 +62,14 @@ public class EdgePhraseSimilarityFF extends StatefulFF implements SourceDependen
 
   private final int MAX_PHRASE_LENGTH = 4;
 
+  private final int featureId;
+
   public EdgePhraseSimilarityFF(FeatureVector weights, String[] args, JoshuaConfiguration config) throws NumberFormatException, UnknownHostException, IOException {
     super(weights, "EdgePhraseSimilarity", args, config);
 
     this.host = parsedArgs.get("host");
     this.port = Integer.parseInt(parsedArgs.get("port"));
+    this.featureId = FeatureMap.hashFeature(name);
 
     initializeConnection();
   }
@@ -82,7 +86,7 @@ public class EdgePhraseSimilarityFF extends StatefulFF implements SourceDependen
       Sentence sentence, Accumulator acc) {
 
     float value = computeScore(rule, tailNodes);
-    acc.add(name, value);
+    acc.addSparse(featureId, value);
 
     // TODO 07/2013: EdgePhraseSimilarity needs to know its order rather than inferring it from tail
     // nodes.
@@ -260,8 +264,12 @@ public class EdgePhraseSimilarityFF extends StatefulFF implements SourceDependen
     }
     if (!to_cache.isEmpty()) {
       try {
-        serverAsk.println(query.toString());
-        String response = serverReply.readLine();
+        String response;
+        // Spans of a sentence may be scored in parallel, and they share this connection
+        synchronized (this) {
+          serverAsk.println(query.toString());
+          response = serverReply.readLine();
+        }
         String[] scores = response.split("\\s+");
         for (int i = 0; i < scores.length; i++) {
           Float score = Float.parseFloat(scores[i]);
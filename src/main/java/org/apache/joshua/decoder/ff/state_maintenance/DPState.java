@@ -31,4 +31,28 @@ public abstract class DPState {
   public abstract int hashCode();
 
   public abstract boolean equals(Object other);
+
+  /**
+   * A 64-bit hash of the state, used when recombining hypergraph nodes. Equal states must have
+   * equal fingerprints; nodes whose fingerprints agree are still compared with
+   * {@link #equals(Object)}, so collisions only cost time. States that are created for every
+   * hyperedge should compute their fingerprint once, when they are created.
+   * 
+   * @return the fingerprint of this state
+   */
+  public long fingerprint() {
+    return hashCode();
+  }
+
+  /**
+   * Mixes a value into a 64-bit fingerprint.
+   * 
+   * @param fingerprint the fingerprint so far
+   * @param value the value to add
+   * @return the new fingerprint
+   */
+  public static long mix(long fingerprint, long value) {
+    long h = (fingerprint ^ value) * 0x9E3779B97F4A7C15L;
+    return h ^ (h >>> 32);
+  }
 }
@@ -44,6 +44,11 @@ public class KenLMState extends DPState {
     return (int) ((getState() >> 32) ^ getState());
   }
 
+  @Override
+  public long fingerprint() {
+    return mix(0, getState());
+  }
+
   @Override
   public boolean equals(Object other) {
     return (other instanceof KenLMState && this.getState() == ((KenLMState) other).getState());
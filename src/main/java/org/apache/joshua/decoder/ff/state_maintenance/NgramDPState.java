@@ -33,15 +33,19 @@ public class NgramDPState extends DPState {
 
   private int hash = 0;
 
+  private long fingerprint;
+
   public NgramDPState(int[] l, int[] r) {
     left = l;
     right = r;
     assertLengths();
+    updateFingerprint();
   }
 
   public void setLeftLMStateWords(int[] words) {
     left = words;
     assertLengths();
+    updateFingerprint();
   }
 
   public int[] getLeftLMStateWords() {
@@ -51,6 +55,7 @@ public class NgramDPState extends DPState {
   public void setRightLMStateWords(int[] words) {
     right = words;
     assertLengths();
+    updateFingerprint();
   }
 
   public int[] getRightLMStateWords() {
@@ -63,6 +68,14 @@ public class NgramDPState extends DPState {
           + Vocabulary.getWords(left) + " | " + Vocabulary.getWords(right) + " >");
   }
 
+  /* Called whenever the words change, so that recombination never has to walk them */
+  private void updateFingerprint() {
+    hash = 0;
+    fingerprint = left.length;
+    for (int i = 0; i < left.length; i++)
+      fingerprint = mix(fingerprint, ((long) left[i] << 32) | (right[i] & 0xffffffffL));
+  }
+
   @Override
   public int hashCode() {
     if (hash == 0) {
@@ -72,6 +85,11 @@ public class NgramDPState extends DPState {
     return hash;
   }
 
+  @Override
+  public long fingerprint() {
+    return fingerprint;
+  }
+
   @Override
   public boolean equals(Object other) {
     if (other instanceof NgramDPState) {
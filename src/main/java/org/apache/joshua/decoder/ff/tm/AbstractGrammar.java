@@ -66,6 +66,9 @@ public abstract class AbstractGrammar implements Grammar {
    * The maximum length of a source-side phrase. Mostly used by the phrase-based decoder.
    */
   protected int maxSourcePhraseLength = -1;
+
+  /* The terminals that start a rule, built on demand; see getTerminalVocabulary() */
+  private volatile TerminalVocabulary terminalVocabulary = null;
   
     /**
    * Returns the longest source phrase read.
@@ -108,6 +111,29 @@ public abstract class AbstractGrammar implements Grammar {
 
   public static final int OOV_RULE_ID = 0;
 
+  @Override
+  public TerminalVocabulary getTerminalVocabulary() {
+    TerminalVocabulary terminals = terminalVocabulary;
+    if (terminals == null) {
+      synchronized (this) {
+        terminals = terminalVocabulary;
+        if (terminals == null) {
+          terminals = TerminalVocabulary.of(getTrieRoot());
+          terminalVocabulary = terminals;
+        }
+      }
+    }
+    return terminals;
+  }
+
+  /**
+   * Discards the terminal vocabulary, so that it is built again when next asked for. Called when a
+   * rule with a new first symbol is added.
+   */
+  protected void clearTerminalVocabulary() {
+    terminalVocabulary = null;
+  }
+
   /**
    * Cube-pruning requires that the grammar be sorted based on the latest feature functions. To
    * avoid synchronization, this method should be called before multiple threads are initialized for
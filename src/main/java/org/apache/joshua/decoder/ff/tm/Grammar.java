@@ -39,6 +39,15 @@ public interface Grammar {
    */
   Trie getTrieRoot();
 
+  /**
+   * Returns the terminals that can start a rule of this grammar, that is, the terminal extensions
+   * of the root of its trie. It is built the first time it is asked for and then kept, until rules
+   * are added to the grammar.
+   *
+   * @return the terminal vocabulary of this grammar
+   */
+  TerminalVocabulary getTerminalVocabulary();
+
   /**
    * After calling this method, the rules in this grammar are guaranteed to be sorted based on the
    * latest feature function values.
@@ -18,10 +18,9 @@
  */
 package org.apache.joshua.decoder.ff.tm;
 
-import java.util.concurrent.locks.StampedLock;
+import org.apache.joshua.decoder.DecoderContext;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableBiMap;
 
 /**
  * OwnerMap maintains a decoder-wide mapping between 'owner' strings and
@@ -29,23 +28,33 @@ import com.google.common.collect.HashBiMap;
  * we can separate wordIDs in {@link org.apache.joshua.corpus.Vocabulary} from 
  * {@link org.apache.joshua.decoder.ff.tm.OwnerId}s. For example, this prevents 
  * packed grammars to overwrite the owner mappings from previously loaded packaged 
- * grammars.
+ * grammars. The static methods operate on the map of the current
+ * {@link DecoderContext}.
  * 
  * @author fhieber
  *
  */
 public class OwnerMap {
 
-  // bi-directional mapping between OwnerId and Owner strings
-  private static final BiMap<OwnerId, String> map = HashBiMap.create();
+  /*
+   * Bi-directional mapping between OwnerId and Owner strings. Registration is rare, so the map is
+   * copied on write and read without locking.
+   */
+  private volatile ImmutableBiMap<OwnerId, String> map;
 
   public static final OwnerId UNKNOWN_OWNER_ID = new OwnerId(0);
   public static final String UNKNOWN_OWNER = "<unowned>";
 
-  private static final StampedLock lock = new StampedLock();
+  /**
+   * Creates an empty owner map. Use {@link DecoderContext} to obtain the one the static methods
+   * operate on.
+   */
+  public OwnerMap() {
+    map = ImmutableBiMap.of(UNKNOWN_OWNER_ID, UNKNOWN_OWNER);
+  }
 
-  static {
-    clear();
+  private static OwnerMap current() {
+    return DecoderContext.current().getOwnerMap();
   }
 
   /**
@@ -55,32 +64,34 @@ public class OwnerMap {
    * @param ownerString the OwnerId to register or get
    * @return the registered or existing OwnerId
    */
-  public static synchronized OwnerId register(String ownerString) {
-    if (map.inverse().containsKey(ownerString)) {
-      return map.inverse().get(ownerString);
-    }
+  public static OwnerId register(String ownerString) {
+    final OwnerMap owners = current();
+    synchronized (owners) {
+      if (owners.map.inverse().containsKey(ownerString)) {
+        return owners.map.inverse().get(ownerString);
+      }
 
-    final OwnerId newId = new OwnerId(map.size());
-    map.put(newId, ownerString);
-    return newId;
+      final OwnerId newId = new OwnerId(owners.map.size());
+      owners.map = ImmutableBiMap.<OwnerId, String>builder()
+          .putAll(owners.map).put(newId, ownerString).build();
+      return newId;
+    }
   }
 
   public static String getOwner(final OwnerId id) {
-    long lock_stamp = lock.readLock();
-    try {
-      if (map.containsKey(id)) {
-        return map.get(id);
-      }
-      throw new IllegalArgumentException(
-          String.format("OwnerMap does not contain mapping for %s", id));
-    } finally {
-      lock.unlockRead(lock_stamp);
+    final String owner = current().map.get(id);
+    if (owner != null) {
+      return owner;
     }
+    throw new IllegalArgumentException(
+        String.format("OwnerMap does not contain mapping for %s", id));
   }
 
-  public static synchronized void clear() {
-    map.clear();
-    map.put(UNKNOWN_OWNER_ID, UNKNOWN_OWNER);
+  public static void clear() {
+    final OwnerMap owners = current();
+    synchronized (owners) {
+      owners.map = ImmutableBiMap.of(UNKNOWN_OWNER_ID, UNKNOWN_OWNER);
+    }
   }
 
 }
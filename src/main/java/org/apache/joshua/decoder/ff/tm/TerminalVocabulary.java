@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.util.LongIntHashMap;
+
+/**
+ * The terminals that can start a rule of a grammar, that is, the terminal extensions of its trie
+ * root. It is a bitmap over vocabulary ids, together with a trie over the characters of the
+ * terminals, so that all the terminals that start at a position of a word can be found in one walk.
+ * It is used to segment out-of-vocabulary words into words the grammar knows (see
+ * {@link org.apache.joshua.decoder.segment_file.Sentence#segmentOOVs(Grammar[])}).
+ *
+ * A terminal vocabulary is immutable; a grammar builds one when it is first asked for it, and builds
+ * a new one if rules are added to it later (see {@link Grammar#getTerminalVocabulary()}).
+ */
+public final class TerminalVocabulary {
+
+  public static final TerminalVocabulary EMPTY = new TerminalVocabulary(new long[0],
+      new LongIntHashMap(), new BitSet(), 0);
+
+  /* Bit i is set if the word with vocabulary id i is a terminal */
+  private final long[] ids;
+
+  /* The character trie: node 0 is the root, and the child of node n for character c has the key
+   * (n << 32 | c) */
+  private final LongIntHashMap children;
+  /* The nodes of the character trie at which a terminal ends */
+  private final BitSet wordEnds;
+
+  private final int size;
+
+  private TerminalVocabulary(long[] ids, LongIntHashMap children, BitSet wordEnds, int size) {
+    this.ids = ids;
+    this.children = children;
+    this.wordEnds = wordEnds;
+    this.size = size;
+  }
+
+  /**
+   * @param root the root of a grammar's trie
+   * @return the terminal extensions of the root
+   */
+  public static TerminalVocabulary of(Trie root) {
+    if (root == null || !root.hasExtensions())
+      return EMPTY;
+
+    long[] ids = new long[Math.max(1, Vocabulary.size() >> 6)];
+    LongIntHashMap children = new LongIntHashMap();
+    BitSet wordEnds = new BitSet();
+    int numNodes = 1;
+    int size = 0;
+
+    Iterator<Integer> iterator = root.getTerminalExtensionIterator();
+    while (iterator.hasNext()) {
+      int id = iterator.next();
+      if (id < 0)
+        continue;
+      if ((id >> 6) >= ids.length)
+        ids = Arrays.copyOf(ids, Math.max((id >> 6) + 1, 2 * ids.length));
+      if ((ids[id >> 6] & (1L << id)) != 0)
+        continue;
+      ids[id >> 6] |= 1L << id;
+      size++;
+
+      int node = 0;
+      for (char c : Vocabulary.word(id).toCharArray()) {
+        long key = ((long) node << 32) | c;
+        int child = children.get(key, -1);
+        if (child < 0) {
+          child = numNodes++;
+          children.put(key, child);
+        }
+        node = child;
+      }
+      wordEnds.set(node);
+    }
+
+    return new TerminalVocabulary(ids, children, wordEnds, size);
+  }
+
+  /**
+   * @param id a vocabulary id
+   * @return whether the word is a terminal of the grammar
+   */
+  public boolean contains(int id) {
+    return id >= 0 && (id >> 6) < ids.length && (ids[id >> 6] & (1L << id)) != 0;
+  }
+
+  /**
+   * @return the number of terminals
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Finds the terminals that start at a position of a word, walking the character trie once.
+   *
+   * @param chars the characters of the word
+   * @param start the position in the word
+   * @param ends is set to true at every position j such that chars[start, j) is a terminal
+   */
+  public void findWords(char[] chars, int start, boolean[] ends) {
+    int node = 0;
+    for (int j = start; j < chars.length; j++) {
+      node = children.get(((long) node << 32) | chars[j], -1);
+      if (node < 0)
+        return;
+      if (wordEnds.get(node))
+        ends[j + 1] = true;
+    }
+  }
+}
@@ -189,7 +189,7 @@ public class MemoryBasedBatchGrammar extends AbstractGrammar {
     rule.setOwner(owner);
 
     if (numDenseFeatures == 0)
-      numDenseFeatures = rule.getFeatureVector().getDenseFeatures().size();
+      numDenseFeatures = rule.getFeatureVector().getDenseSize();
 
     // === identify the position, and insert the trie nodes as necessary
     MemoryBasedTrie pos = root;
@@ -213,6 +213,8 @@ public class MemoryBasedBatchGrammar extends AbstractGrammar {
           pos.childrenTbl = new HashMap<>();
         }
         pos.childrenTbl.put(curSymID, nextLayer);
+        if (pos == root)
+          clearTerminalVocabulary();
       }
       pos = nextLayer;
     }
@@ -56,8 +56,11 @@ package org.apache.joshua.decoder.ff.tm.packed;
 
 import static java.util.Collections.sort;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.BufferUnderflowException;
@@ -65,8 +68,9 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -76,10 +80,16 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.DecoderContext;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.ff.FeatureFunction;
+import org.apache.joshua.decoder.ff.FeatureMap;
 import org.apache.joshua.decoder.ff.FeatureVector;
 import org.apache.joshua.decoder.ff.tm.AbstractGrammar;
 import org.apache.joshua.decoder.ff.tm.BasicRuleCollection;
@@ -99,26 +109,46 @@ import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.Striped;
 
 public class PackedGrammar extends AbstractGrammar {
 
   private static final Logger LOG = LoggerFactory.getLogger(PackedGrammar.class);
   public static final String VOCABULARY_FILENAME = "vocabulary";
+  public static final String SORTED_SUFFIX = ".sorted";
 
   private EncoderConfiguration encoding;
+
+  /*
+   * For each feature in the encoding (indexed by its inner ID), the dense feature index it is
+   * stored under, or -1 for a sparse feature, in which case featureIds holds its FeatureMap ID.
+   * Resolved once at load time so that loading a rule's features does no string work.
+   */
+  private int[] denseIndices;
+  private int[] featureIds;
   private PackedRoot root;
   private ArrayList<PackedSlice> slices;
 
   private final File vocabFile; // store path to vocabulary file
 
-  // A rule cache for commonly used tries to avoid excess object allocations
+  // A rule cache for commonly used tries to avoid excess object allocations. It is keyed by slice
+  // and node position rather than by trie object, since the trie caches of the slices evict and
+  // recreate trie objects.
   // Testing shows there's up to ~95% hit rate when cache size is 5000 Trie nodes.
-  private final Cache<Trie, List<Rule>> cached_rules;
+  private final Cache<Long, List<Rule>> cached_rules;
 
   private final String grammarDir;
   
   private JoshuaConfiguration config;
 
+  /*
+   * Identifies the feature functions, weights and vocabulary that rule sorting depends on. Each
+   * slice adds its own rules to it; slices whose rules were sorted offline under the same
+   * fingerprint (see writeSortedRules) skip sorting.
+   */
+  private final byte[] sortingFingerprint;
+
   public PackedGrammar(String grammar_dir, int span_limit, String owner, String type,
       JoshuaConfiguration joshuaConfiguration) throws IOException {
     super(owner, joshuaConfiguration, span_limit);
@@ -132,6 +162,7 @@ public class PackedGrammar extends AbstractGrammar {
     if (!Vocabulary.read(vocabFile)) {
       throw new RuntimeException("mismatches or collisions while reading on-disk vocabulary");
     }
+    this.sortingFingerprint = computeSortingFingerprint(owner);
 
     // Read the config
     String configFile = grammar_dir + File.separator + "config";
@@ -144,24 +175,147 @@ public class PackedGrammar extends AbstractGrammar {
     LOG.info("Reading encoder configuration: {}{}encoding", grammar_dir, File.separator);
     encoding = new EncoderConfiguration();
     encoding.load(grammar_dir + File.separator + "encoding");
+    resolveFeatureIds();
 
     final List<String> listing = Arrays.asList(new File(grammar_dir).list());
     sort(listing); // File.list() has arbitrary sort order
     slices = new ArrayList<>();
     for (String prefix : listing) {
       if (prefix.startsWith("slice_") && prefix.endsWith(".source"))
-        slices.add(new PackedSlice(grammar_dir + File.separator + prefix.substring(0, 11)));
+        slices.add(new PackedSlice(grammar_dir + File.separator + prefix.substring(0, 11),
+            slices.size()));
     }
 
     long count = 0;
     for (PackedSlice s : slices)
       count += s.estimated.length;
     root = new PackedRoot(slices);
-    cached_rules = CacheBuilder.newBuilder().maximumSize(joshuaConfiguration.cachedRuleSize).build();
+    cached_rules = CacheBuilder.newBuilder().maximumSize(joshuaConfiguration.cachedRuleSize)
+        .recordStats().build();
 
     LOG.info("Loaded {} rules", count);
   }
 
+  /**
+   * Maps each feature in the encoding to either its dense index (dense features are named with
+   * their integer index in the vocabulary) or its {@link FeatureMap} ID.
+   */
+  private void resolveFeatureIds() {
+    final int numFeatures = encoding.getNumFeatures();
+    denseIndices = new int[numFeatures];
+    featureIds = new int[numFeatures];
+    for (int innerId = 0; innerId < numFeatures; innerId++) {
+      // TODO (fhieber): why on earth are dense feature ids (ints) encoded in the vocabulary?
+      final String featureName = Vocabulary.word(encoding.outerId(innerId));
+      try {
+        denseIndices[innerId] = Integer.parseInt(featureName);
+        featureIds[innerId] = -1;
+      } catch (NumberFormatException e) {
+        denseIndices[innerId] = -1;
+        featureIds[innerId] = FeatureMap.hashFeature(featureName);
+      }
+    }
+  }
+
+  /**
+   * @return the hit, miss and eviction counts of the trie node caches of all slices
+   */
+  public CacheStats getTrieCacheStats() {
+    CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+    for (PackedSlice slice : slices)
+      stats = stats.plus(slice.tries.stats());
+    return stats;
+  }
+
+  /**
+   * @return the hit, miss and eviction counts of the rule cache
+   */
+  public CacheStats getRuleCacheStats() {
+    return cached_rules.stats();
+  }
+
+  /* The number of trie nodes whose rules are cached */
+  long getRuleCacheSize() {
+    cached_rules.cleanUp();
+    return cached_rules.size();
+  }
+
+  /**
+   * Computes the MD5 digest of what the order of the rules depends on, apart from the rules
+   * themselves: the owner of this grammar, the feature function lines of the configuration, the
+   * weights, and the identity of the vocabulary and feature encoding files of the grammar.
+   */
+  private byte[] computeSortingFingerprint(String owner) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Unknown checksum algorithm");
+    }
+    md.update(owner.getBytes(StandardCharsets.UTF_8));
+    for (String feature : config.features)
+      md.update(("\n" + feature).getBytes(StandardCharsets.UTF_8));
+    final FeatureVector weights = DecoderContext.current().getWeights();
+    if (weights != null) {
+      for (Map.Entry<String, Float> weight : new TreeMap<>(weights.getMap()).entrySet())
+        md.update(String.format("\n%s %s", weight.getKey(), weight.getValue())
+            .getBytes(StandardCharsets.UTF_8));
+    }
+    try {
+      digestIdentity(md, vocabFile);
+      digestIdentity(md, new File(grammarDir + File.separator + "encoding"));
+    } catch (IOException e) {
+      throw new RuntimeException("Can not read the vocabulary or encoding of " + grammarDir, e);
+    }
+    return md.digest();
+  }
+
+  /*
+   * Adds the size and modification time of a file to the digest. Packing writes every file anew,
+   * so this identifies a grammar without reading it; copying a grammar without preserving the
+   * times only costs a re-sort.
+   */
+  private static void digestIdentity(MessageDigest md, File file) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    md.update(String.format("\n%s %d %d", file.getName(), attributes.size(),
+        attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void digestFile(MessageDigest md, File file) throws IOException {
+    byte[] buffer = new byte[1 << 16];
+    try (final InputStream is = Files.newInputStream(file.toPath());
+        DigestInputStream dis = new DigestInputStream(is, md)) {
+      while (dis.read(buffer) != -1) {}
+    }
+  }
+
+  /**
+   * @return whether the rules of all slices were read in sorted order from files written by
+   * {@link #writeSortedRules(List)}, so that they are not sorted while decoding
+   */
+  public boolean isPresorted() {
+    for (PackedSlice slice : slices)
+      if (!slice.presorted)
+        return false;
+    return true;
+  }
+
+  /**
+   * Sorts all rules of the grammar with the given feature functions and stores the order, along
+   * with the estimated costs, next to each slice. Later loads of the grammar with the same
+   * feature functions and weights read the sorted order instead of sorting at decoding time.
+   *
+   * @param models the feature functions to sort with
+   * @throws IOException if a slice cannot be written
+   */
+  public void writeSortedRules(List<FeatureFunction> models) throws IOException {
+    sortGrammar(models);
+    for (PackedSlice slice : slices) {
+      slice.writeSorted();
+      LOG.info("Wrote sorted rules to {}{}", slice.name, SORTED_SUFFIX);
+    }
+  }
+
   @Override
   public Trie getTrieRoot() {
     return root;
@@ -197,10 +351,8 @@ public class PackedGrammar extends AbstractGrammar {
     } catch (NoSuchAlgorithmException e) {
       throw new RuntimeException("Unknown checksum algorithm");
     }
-    byte[] buffer = new byte[1024];
-    try (final InputStream is = Files.newInputStream(Paths.get(vocabFile.toString()));
-        DigestInputStream dis = new DigestInputStream(is, md)) {
-      while (dis.read(buffer) != -1) {}
+    try {
+      digestFile(md, vocabFile);
     } catch (IOException e) {
       throw new RuntimeException("Can not find vocabulary file. This should not happen.");
     }
@@ -332,8 +484,9 @@ public class PackedGrammar extends AbstractGrammar {
 
   public final class PackedSlice {
     private final String name;
+    private final int index;
 
-    private final int[] source;
+    private int[] source;
     private final IntBuffer target;
     private final ByteBuffer features;
     private final ByteBuffer alignments;
@@ -346,12 +499,25 @@ public class PackedGrammar extends AbstractGrammar {
     private final static int BUFFER_HEADER_POSITION = 8;
 
     /**
-     * Provides a cache of packedTrie nodes to be used in getTrie.
+     * Provides a cache of packedTrie nodes to be used in getTrie. Lookups do not lock, since
+     * every decoding thread goes through here on each match(). The cache is bounded by
+     * cachedTrieSize; evicted nodes are simply created again, so no state may live only in a
+     * PackedTrie object.
      */
-    private HashMap<Integer, PackedTrie> tries;
+    private final Cache<Integer, PackedTrie> tries;
+
+    /* One bit per source position, set once the rules of the trie node there have been sorted */
+    private final AtomicLongArray sortedNodes;
+
+    /* Serializes sorting of the same node by different PackedTrie objects for it */
+    private final Striped<Lock> sortLocks = Striped.lock(64);
+
+    /* Whether all rules were sorted offline for these rules and the current features and weights */
+    private boolean presorted = false;
 
-    public PackedSlice(String prefix) throws IOException {
+    public PackedSlice(String prefix, int index) throws IOException {
       name = prefix;
+      this.index = index;
 
       File source_file = new File(prefix + ".source");
       File target_file = new File(prefix + ".target");
@@ -359,7 +525,6 @@ public class PackedGrammar extends AbstractGrammar {
       File feature_file = new File(prefix + ".features");
       File alignment_file = new File(prefix + ".alignments");
 
-      source = fullyLoadFileToArray(source_file);
       // First int specifies the size of this file, load from 1st int on
       targetLookup = fullyLoadFileToArray(target_lookup_file, 1);
 
@@ -367,13 +532,23 @@ public class PackedGrammar extends AbstractGrammar {
       features = associateMemoryMappedFile(feature_file);
       initializeFeatureStructures();
 
+      File sorted_file = new File(prefix + SORTED_SUFFIX);
+      if (sorted_file.exists())
+        presorted = readSorted(sorted_file);
+      if (!presorted)
+        source = fullyLoadFileToArray(source_file);
+
       if (alignment_file.exists()) {
         alignments = associateMemoryMappedFile(alignment_file);
       } else {
         alignments = null;
       }
 
-      tries = new HashMap<>();
+      tries = CacheBuilder.newBuilder()
+          .maximumSize(config.cachedTrieSize)
+          .recordStats()
+          .build();
+      sortedNodes = new AtomicLongArray((source.length >>> 6) + 1);
     }
 
     /**
@@ -389,6 +564,73 @@ public class PackedGrammar extends AbstractGrammar {
       featureSize = features.getInt(4);
     }
 
+    /**
+     * Loads the source array, and the estimated costs, from a file written by writeSorted(), if
+     * the rules in it were sorted under the current fingerprint.
+     *
+     * @return whether the file was loaded
+     */
+    private boolean readSorted(File file) throws IOException {
+      ByteBuffer buffer = associateMemoryMappedFile(file);
+      byte[] fingerprint = new byte[sortingFingerprint.length];
+      buffer.get(fingerprint);
+      if (!Arrays.equals(fingerprint, computeFingerprint())) {
+        LOG.info("Ignoring {}: it was sorted for different rules, features or weights", file);
+        return false;
+      }
+
+      source = new int[buffer.getInt()];
+      buffer.asIntBuffer().get(source);
+      buffer.position(buffer.position() + 4 * source.length);
+      int num_blocks = buffer.getInt();
+      if (num_blocks != estimated.length)
+        throw new RuntimeException(String.format("%s has %d rules, expected %d", file, num_blocks,
+            estimated.length));
+      buffer.asFloatBuffer().get(estimated);
+      buffer.position(buffer.position() + 4 * num_blocks);
+      buffer.asFloatBuffer().get(precomputable);
+      LOG.info("Read sorted rules from {}", file);
+      return true;
+    }
+
+    /**
+     * Writes the source array, whose rules must all have been sorted, and the estimated costs,
+     * in the format read by readSorted().
+     */
+    private void writeSorted() throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(name + SORTED_SUFFIX)))) {
+        out.write(computeFingerprint());
+        out.writeInt(source.length);
+        for (int value : source)
+          out.writeInt(value);
+        out.writeInt(estimated.length);
+        for (float cost : estimated)
+          out.writeFloat(cost);
+        for (float cost : precomputable)
+          out.writeFloat(cost);
+      }
+    }
+
+    /**
+     * Extends the grammar's sorting fingerprint with the identity of the files of this slice that
+     * determine the rules and their costs, so that a sorted file does not outlive a re-pack of the
+     * grammar.
+     */
+    private byte[] computeFingerprint() throws IOException {
+      MessageDigest md;
+      try {
+        md = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException("Unknown checksum algorithm");
+      }
+      md.update(sortingFingerprint);
+      digestIdentity(md, new File(name + ".source"));
+      digestIdentity(md, new File(name + ".target"));
+      digestIdentity(md, new File(name + ".features"));
+      return md.digest();
+    }
+
     private int getIntFromByteBuffer(int position, ByteBuffer buffer) {
       return buffer.getInt(BUFFER_HEADER_POSITION + (4 * position));
     }
@@ -443,21 +685,26 @@ public class PackedGrammar extends AbstractGrammar {
       return tgt;
     }
 
-    private synchronized PackedTrie getTrie(final int node_address) {
-      PackedTrie t = tries.get(node_address);
+    private PackedTrie getTrie(final int node_address) {
+      PackedTrie t = tries.getIfPresent(node_address);
       if (t == null) {
-        t = new PackedTrie(node_address);
-        tries.put(node_address, t);
+        PackedTrie created = new PackedTrie(node_address);
+        t = tries.asMap().putIfAbsent(node_address, created);
+        if (t == null)
+          t = created;
       }
       return t;
     }
 
-    private synchronized PackedTrie getTrie(int node_address, int[] parent_src, int parent_arity,
+    private PackedTrie getTrie(int node_address, int[] parent_src, int parent_arity,
         int symbol) {
-      PackedTrie t = tries.get(node_address);
+      PackedTrie t = tries.getIfPresent(node_address);
       if (t == null) {
-        t = new PackedTrie(node_address, parent_src, parent_arity, symbol);
-        tries.put(node_address, t);
+        // Threads racing to create the same node all end up with the one that was put first
+        PackedTrie created = new PackedTrie(node_address, parent_src, parent_arity, symbol);
+        t = tries.asMap().putIfAbsent(node_address, created);
+        if (t == null)
+          t = created;
       }
       return t;
     }
@@ -477,20 +724,15 @@ public class PackedGrammar extends AbstractGrammar {
       featurePosition += EncoderConfiguration.ID_SIZE;
       final FeatureVector featureVector = new FeatureVector();
       FloatEncoder encoder;
-      String featureName;
 
       for (int i = 0; i < numFeatures; i++) {
         final int innerId = encoding.readId(features, featurePosition);
-        final int outerId = encoding.outerId(innerId);
         encoder = encoding.encoder(innerId);
-        // TODO (fhieber): why on earth are dense feature ids (ints) encoded in the vocabulary?
-        featureName = Vocabulary.word(outerId);
         final float value = encoder.read(features, featurePosition);
-        try {
-          int index = Integer.parseInt(featureName);
-          featureVector.increment(index, -value);
-        } catch (NumberFormatException e) {
-          featureVector.increment(featureName, value);
+        if (denseIndices[innerId] != -1) {
+          featureVector.increment(denseIndices[innerId], -value);
+        } else {
+          featureVector.incrementSparse(featureIds[innerId], value);
         }
         featurePosition += EncoderConfiguration.ID_SIZE + encoder.size();
       }
@@ -499,27 +741,27 @@ public class PackedGrammar extends AbstractGrammar {
     }
 
     /**
-     * We need to synchronize this method as there is a many to one ratio between
-     * PackedRule/PhrasePair and this class (PackedSlice). This means during concurrent first
-     * getAlignments calls to PackedRule objects they could alter each other's positions within the
-     * buffer before calling read on the buffer.
+     * There is a many to one ratio between PackedRule/PhrasePair and this class (PackedSlice), so
+     * concurrent first getAlignments calls must not move each other's position within the shared
+     * buffer. The bulk read therefore goes through a duplicate of the buffer, which has its own
+     * position, and the shared buffer is only read at absolute positions.
      */
-    private synchronized byte[] getAlignmentArray(int block_id) {
+    private byte[] getAlignmentArray(int block_id) {
       if (alignments == null)
         throw new RuntimeException("No alignments available.");
       int alignment_position = getIntFromByteBuffer(block_id, alignments);
       int num_points = alignments.get(alignment_position);
       byte[] alignment = new byte[num_points * 2];
 
-      alignments.position(alignment_position + 1);
+      ByteBuffer reader = alignments.duplicate();
+      reader.position(alignment_position + 1);
       try {
-        alignments.get(alignment, 0, num_points * 2);
+        reader.get(alignment, 0, num_points * 2);
       } catch (BufferUnderflowException bue) {
         LOG.warn("Had an exception when accessing alignment mapped byte buffer");
         LOG.warn("Attempting to access alignments at position: {}",  alignment_position + 1);
         LOG.warn("And to read this many bytes: {}",  num_points * 2);
         LOG.warn("Buffer capacity is : {}", alignments.capacity());
-        LOG.warn("Buffer position is : {}", alignments.position());
         LOG.warn("Buffer limit is : {}", alignments.limit());
         throw bue;
       }
@@ -545,20 +787,21 @@ public class PackedGrammar extends AbstractGrammar {
     public class PackedTrie implements Trie, RuleCollection {
 
       private final int position;
-
-      private boolean sorted = false;
+      private final long ruleKey;
 
       private final int[] src;
       private int arity;
 
       private PackedTrie(int position) {
         this.position = position;
+        ruleKey = ((long) index << 32) | position;
         src = new int[0];
         arity = 0;
       }
 
       private PackedTrie(int position, int[] parent_src, int parent_arity, int symbol) {
         this.position = position;
+        ruleKey = ((long) index << 32) | position;
         src = new int[parent_src.length + 1];
         System.arraycopy(parent_src, 0, src, 0, parent_src.length);
         src[src.length - 1] = symbol;
@@ -638,7 +881,7 @@ public class PackedGrammar extends AbstractGrammar {
 
       @Override
       public List<Rule> getRules() {
-        List<Rule> rules = cached_rules.getIfPresent(this);
+        List<Rule> rules = cached_rules.getIfPresent(ruleKey);
         if (rules != null) {
           return rules;
         }
@@ -652,27 +895,37 @@ public class PackedGrammar extends AbstractGrammar {
           rules.add(new PackedRule(rule_position + 3 * i));
         }
 
-        cached_rules.put(this, rules);
+        cached_rules.put(ruleKey, rules);
         return rules;
       }
 
       /**
-       * We determine if the Trie is sorted by checking if the estimated cost of the first rule in
-       * the trie has been set.
+       * Whether the rules have been sorted is recorded in the slice rather than in this object,
+       * since the object may have been evicted from the trie cache and recreated since.
        */
       @Override
       public boolean isSorted() {
-        return sorted;
+        return presorted || (sortedNodes.get(position >>> 6) & (1L << position)) != 0;
       }
 
-      private synchronized void sortRules(List<FeatureFunction> models) {
+      private void sortRules(List<FeatureFunction> models) {
+        Lock lock = sortLocks.get(position);
+        lock.lock();
+        try {
+          if (!isSorted())
+            sortRulesInPlace(models);
+          sortedNodes.accumulateAndGet(position >>> 6, 1L << position, (a, b) -> a | b);
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      private void sortRulesInPlace(List<FeatureFunction> models) {
         int num_children = source[position];
         int rule_position = position + 2 * (num_children + 1);
         int num_rules = source[rule_position - 1];
-        if (num_rules == 0) {
-          this.sorted = true;
+        if (num_rules == 0)
           return;
-        }
         Integer[] rules = new Integer[num_rules];
 
         int target_address;
@@ -706,8 +959,7 @@ public class PackedGrammar extends AbstractGrammar {
         System.arraycopy(sorted, 0, source, rule_position + 0, sorted.length);
 
         // Replace rules in cache with their sorted values on next getRules()
-        cached_rules.invalidate(this);
-        this.sorted = true;
+        cached_rules.invalidate(ruleKey);
       }
 
       @Override
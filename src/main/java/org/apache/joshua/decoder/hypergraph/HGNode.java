@@ -55,6 +55,10 @@ public class HGNode {
   private Signature signature = null;
 //  private int hash = 0;
 
+  // Cached 64-bit hash of the lhs and DP states, see fingerprint()
+  private long fingerprint = 0;
+  private boolean hasFingerprint = false;
+
   protected float score = 0.0f;
 
   // ===============================================================
@@ -143,6 +147,50 @@ public class HGNode {
       signature = new Signature();
     return signature;
   }
+
+  /**
+   * A 64-bit hash of the dynamic programming state (the lhs and the fingerprints of the DP
+   * states). Nodes that can be recombined have equal fingerprints; whether nodes with equal
+   * fingerprints really can be recombined is decided by {@link #hasSameState(HGNode)}.
+   * 
+   * @return the fingerprint of this node's state
+   */
+  public long fingerprint() {
+    if (!hasFingerprint) {
+      long h = DPState.mix(0, lhs);
+      if (null != dpStates)
+        for (DPState dps : dpStates)
+          h = DPState.mix(h, dps.fingerprint());
+      fingerprint = h;
+      hasFingerprint = true;
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Compares the dynamic programming state of two nodes, i.e., whether they can be recombined.
+   * This is the equality of their {@link Signature}s.
+   * 
+   * @param that the other node
+   * @return true if the nodes have the same span, lhs, and DP states
+   */
+  public boolean hasSameState(HGNode that) {
+    if (lhs != that.lhs)
+      return false;
+    if (i != that.i || j != that.j)
+      return false;
+    if (dpStates == null)
+      return (that.dpStates == null);
+    if (that.dpStates == null)
+      return false;
+    if (dpStates.size() != that.dpStates.size())
+      return false;
+    for (int i = 0; i < dpStates.size(); i++) {
+      if (!dpStates.get(i).equals(that.dpStates.get(i)))
+        return false;
+    }
+    return true;
+  }
   
   /*
    * Including hashCode() and equals() directly in the class causes problems, because the 
@@ -211,24 +259,8 @@ public class HGNode {
 
     @Override
     public boolean equals(Object other) {
-      if (other instanceof Signature) {
-        HGNode that = ((Signature) other).node();
-        if (lhs != that.lhs)
-          return false;
-        if (i != that.i || j != that.j)
-          return false;
-        if (dpStates == null)
-          return (that.dpStates == null);
-        if (that.dpStates == null)
-          return false;
-        if (dpStates.size() != that.dpStates.size())
-          return false;
-        for (int i = 0; i < dpStates.size(); i++) {
-          if (!dpStates.get(i).equals(that.dpStates.get(i)))
-            return false;
-        }
-        return true;
-      }
+      if (other instanceof Signature)
+        return hasSameState(((Signature) other).node());
       return false;
     }
 
@@ -25,6 +25,7 @@ import static java.util.Collections.emptyList;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -42,9 +43,11 @@ import org.apache.joshua.decoder.ff.fragmentlm.Tree;
 import org.apache.joshua.decoder.ff.state_maintenance.DPState;
 import org.apache.joshua.decoder.ff.tm.Rule;
 import org.apache.joshua.decoder.io.DeNormalize;
+import org.apache.joshua.decoder.io.OutputFormat;
 import org.apache.joshua.decoder.segment_file.Sentence;
 import org.apache.joshua.decoder.segment_file.Token;
 import org.apache.joshua.util.FormatUtils;
+import org.apache.joshua.util.LongHashSet;
 import org.apache.joshua.decoder.StructuredTranslation;
 import org.apache.joshua.decoder.StructuredTranslationFactory;
 
@@ -95,7 +98,7 @@ import org.apache.joshua.decoder.StructuredTranslationFactory;
  */
 public class KBestExtractor {
   private final JoshuaConfiguration joshuaConfiguration;
-  private final String outputFormat;
+  private final OutputFormat outputFormat;
   private final HashMap<HGNode, VirtualNode> virtualNodesTable = new HashMap<>();
 
   // static final String rootSym = JoshuaConfiguration.goal_symbol;
@@ -134,7 +137,7 @@ public class KBestExtractor {
     this.featureFunctions = featureFunctions;
 
     this.joshuaConfiguration = joshuaConfiguration;
-    this.outputFormat = this.joshuaConfiguration.outputFormat;
+    this.outputFormat = this.joshuaConfiguration.getOutputFormat();
     this.extractUniqueNbest = joshuaConfiguration.use_unique_nbest;
 
     this.weights = weights;
@@ -213,57 +216,62 @@ public class KBestExtractor {
    * @return todo
    */
   public String getKthHyp(HGNode node, int k) {
+    final DerivationState derivationState = getKthDerivation(node, k);
+    if (derivationState == null)
+      return null;
+    return outputFormat.format(getOutputValues(derivationState, k));
+  }
 
-    String outputString = null;
-    DerivationState derivationState = getKthDerivation(node, k);
-    if (derivationState != null) {
-      // ==== read the kbest from each hgnode and convert to output format
-      String hypothesis = maybeProjectCase(
-                            unescapeSpecialSymbols(
-                              removeSentenceMarkers(
-                                derivationState.getHypothesis())), derivationState);
-      
-      
-      /*
-       * To save space, the decoder only stores the model cost,
-       * no the individual feature values.
-       * If you want to output them, you have to replay them.
-       */
-
-      FeatureVector features = new FeatureVector();
-      if (outputFormat.contains("%f") || outputFormat.contains("%d"))
-        features = derivationState.getFeatures();
-
-      outputString = outputFormat
-          .replace("%k", Integer.toString(k))
-          .replace("%s", hypothesis)
-          .replace("%S", DeNormalize.processSingleLine(hypothesis))
-          // TODO (kellens): Fix the recapitalization here
-          .replace("%i", Integer.toString(sentence.id()))
-          .replace("%f", joshuaConfiguration.moses ? features.mosesString() : features.toString())
-          .replace("%c", String.format("%.3f", derivationState.cost));
-
-      if (outputFormat.contains("%t")) {
-        outputString = outputString.replace("%t", derivationState.getTree());
-      }
-
-      if (outputFormat.contains("%e")) {
-        outputString = outputString.replace("%e", removeSentenceMarkers(derivationState.getHypothesis(Side.SOURCE)));
-      }
-
-      /* %d causes a derivation with rules one per line to be output */
-      if (outputFormat.contains("%d")) {
-        outputString = outputString.replace("%d", derivationState.getDerivation());
-      }
-      
-      /* %a causes output of word level alignments between input and output hypothesis */
-      if (outputFormat.contains("%a")) {
-        outputString = outputString.replace("%a",  derivationState.getWordAlignment());
+  /**
+   * Returns the values of the "output-format" variables for a derivation. Apart from the
+   * hypothesis itself, each value is only computed if the template uses it.
+   * 
+   * @param derivationState the derivation
+   * @param k its (1-indexed) rank
+   * @return the values of the variables
+   */
+  private OutputFormat.Values getOutputValues(final DerivationState derivationState, final int k) {
+    // ==== read the kbest from each hgnode and convert to output format
+    final String hypothesis = maybeProjectCase(
+                                unescapeSpecialSymbols(
+                                  removeSentenceMarkers(
+                                    derivationState.getHypothesis())), derivationState);
+
+    return variable -> {
+      switch (variable) {
+      case 'k':
+        return Integer.toString(k);
+      case 's':
+        return hypothesis;
+      case 'S':
+        // TODO (kellens): Fix the recapitalization here
+        return DeNormalize.processSingleLine(hypothesis);
+      case 'i':
+        return Integer.toString(sentence.id());
+      case 'f':
+        /*
+         * To save space, the decoder only stores the model cost,
+         * no the individual feature values.
+         * If you want to output them, you have to replay them.
+         */
+        final FeatureVector features = derivationState.getFeatures();
+        return joshuaConfiguration.moses ? features.mosesString() : features.toString();
+      case 'c':
+        return String.format("%.3f", derivationState.cost);
+      case 't':
+        return derivationState.getTree();
+      case 'e':
+        return removeSentenceMarkers(derivationState.getHypothesis(Side.SOURCE));
+      case 'd':
+        /* %d causes a derivation with rules one per line to be output */
+        return derivationState.getDerivation();
+      case 'a':
+        /* %a causes output of word level alignments between input and output hypothesis */
+        return derivationState.getWordAlignment();
+      default:
+        return null;
       }
-      
-    }
-
-    return outputString;
+    };
   }
 
   // =========================== end kbestHypergraph
@@ -314,8 +322,9 @@ public class KBestExtractor {
 
   /**
    * This is the entry point for extracting k-best hypotheses. It computes all of them, writing
-   * the results to the BufferedWriter passed in. If you want intermediate access to the k-best
-   * derivations, you'll want to call getKthHyp() or getKthDerivation() directly.
+   * each one to the Writer passed in as soon as it is found, without building its output line. If
+   * you want intermediate access to the k-best derivations, you'll want to call getKthHyp() or
+   * getKthDerivation() directly.
    * 
    * The number of derivations that are looked for is controlled by the `top-n` parameter.
    * Note that when `top-n` is set to 0, k-best extraction is disabled entirely, and only things 
@@ -328,7 +337,7 @@ public class KBestExtractor {
    * @param out object to write to
    * @throws IOException if there is an error writing the extraction
    */
-  public void lazyKBestExtractOnHG(HyperGraph hg, int topN, BufferedWriter out) throws IOException {
+  public void lazyKBestExtractOnHG(HyperGraph hg, int topN, Writer out) throws IOException {
 
     resetState();
 
@@ -336,14 +345,14 @@ public class KBestExtractor {
       return;
 
     for (int k = 1; k <= topN; k++) {
-      String hypStr = getKthHyp(hg.goalNode, k);
-      if (null == hypStr)
+      final DerivationState derivationState = getKthDerivation(hg.goalNode, k);
+      if (null == derivationState)
         break;
 
-      out.write(hypStr);
+      outputFormat.write(out, getOutputValues(derivationState, k));
       out.write("\n");
-      out.flush();
     }
+    out.flush();
   }
 
   /**
@@ -395,8 +404,9 @@ public class KBestExtractor {
     // position (2,2) can be reached be extending (1,2) and (2,1).
     private HashSet<DerivationState> derivationTable = null;
 
-    // This records unique *strings* at each item, used for unique-nbest-string extraction.
-    private HashSet<String> uniqueStringsTable = null;
+    // This records the hashes of the unique output strings at each item (see
+    // DerivationState.getHypothesisHash()), used for unique-nbest-string extraction.
+    private LongHashSet uniqueStringsTable = null;
 
     public VirtualNode(HGNode it) {
       this.node = it;
@@ -437,13 +447,12 @@ public class KBestExtractor {
           // derivation_tbl.remove(res.get_signature());//TODO: should remove? note that two state
           // may be tied because the cost is the same
           if (extractUniqueNbest) {
-            // We pass false for extract_nbest_tree because we want; to check that the hypothesis
-            // *strings* are unique, not the trees.
-            final String res_str = derivationState.getHypothesis();
-            
-            if (!uniqueStringsTable.contains(res_str)) {
+            // We want to check that the hypothesis *strings* are unique, not the trees. Their
+            // hashes are built from those of the sub-derivations, so no string is built here.
+            final long hash = derivationState.getHypothesisHash();
+
+            if (uniqueStringsTable.add(hash)) {
               nbests.add(derivationState);
-              uniqueStringsTable.add(res_str);
             }
           } else {
             nbests.add(derivationState);
@@ -554,7 +563,7 @@ public class KBestExtractor {
        * case, we keep an list of the frontiers of derivation states extending from this node.
        */
       if (extractUniqueNbest) {
-        uniqueStringsTable = new HashSet<>();
+        uniqueStringsTable = new LongHashSet();
       }
 
       /*
@@ -681,6 +690,13 @@ public class KBestExtractor {
      */
     BLEU.Stats stats = null;
 
+    /*
+     * A rolling hash of the output words of the derivation, and the hash base raised to the number
+     * of words, which is odd, so 0 means they have not been computed yet (see getHypothesisHash()).
+     */
+    private long hypothesisHash;
+    private long hypothesisPower = 0;
+
     public DerivationState(HGNode pa, HyperEdge e, int[] r, float c, int pos) {
       parentNode = pa;
       edge = e;
@@ -836,6 +852,52 @@ public class KBestExtractor {
       return visit(new OutputStringExtractor(side.equals(Side.SOURCE))).toString();
     }
 
+    /**
+     * Returns a 64-bit hash of the words that {@link #getHypothesis()} outputs, without building
+     * the string. It is a polynomial hash of the word ids, so the hash of a derivation is computed
+     * from the rule's words and the hashes of the sub-derivations that replace its nonterminals,
+     * which are computed once and kept.
+     * 
+     * @return the hash of the output words
+     */
+    public long getHypothesisHash() {
+      if (hypothesisPower != 0)
+        return hypothesisHash;
+
+      long hash = 0;
+      long power = 1;
+      final Rule rule = edge.getRule();
+      if (rule == null) {
+        // As in visit(), an edge without a rule outputs its first tail node
+        final DerivationState child = getChildDerivationState(edge, 0);
+        child.getHypothesisHash();
+        hash = child.hypothesisHash;
+        power = child.hypothesisPower;
+      } else {
+        final boolean source = defaultSide == Side.SOURCE;
+        final int[] words = source ? rule.getFrench() : rule.getEnglish();
+        int nonterminals = 0;
+        for (int word : words) {
+          if (FormatUtils.isNonterminal(word)) {
+            /* Source nonterminals are filled in order, target ones are indexed -1, -2, ... by
+             * their tail node (see OutputStringExtractor) */
+            final int tailNodeIndex = source ? nonterminals++ : -(word + 1);
+            final DerivationState child = getChildDerivationState(edge, tailNodeIndex);
+            child.getHypothesisHash();
+            hash = hash * child.hypothesisPower + child.hypothesisHash;
+            power *= child.hypothesisPower;
+          } else {
+            hash = hash * HYPOTHESIS_HASH_BASE + mix(word);
+            power *= HYPOTHESIS_HASH_BASE;
+          }
+        }
+      }
+
+      hypothesisHash = hash;
+      hypothesisPower = power;
+      return hash;
+    }
+
     public FeatureVector getFeatures() {
       final FeatureVectorExtractor extractor = new FeatureVectorExtractor(featureFunctions, sentence);
       visit(extractor);
@@ -863,6 +925,23 @@ public class KBestExtractor {
 
   } // end of Class DerivationState
 
+  /* The base of the rolling hash of output words, which must be odd */
+  private static final long HYPOTHESIS_HASH_BASE = 0x9E3779B97F4A7C15L;
+
+  /*
+   * Spreads the bits of a word id over 64 bits (the finalizer of MurmurHash3). It is one-to-one and
+   * only maps -1 to 0, so a leading word never hashes like an empty prefix.
+   */
+  private static long mix(int word) {
+    long h = word + 1L;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
   public static class DerivationStateComparator implements Comparator<DerivationState> {
     // natural order by cost
     public int compare(DerivationState one, DerivationState another) {
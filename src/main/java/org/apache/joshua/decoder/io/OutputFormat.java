@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The `output-format` template (see {@link org.apache.joshua.decoder.JoshuaConfiguration#outputFormat}),
+ * split once into literal text and variables such as %s or %c. Each output line is then written
+ * piece by piece, and a variable's value is only computed if the template uses it.
+ *
+ * Values are written as they are, so a variable that happens to occur in a value (say, a "%c" in a
+ * translation) is not substituted again.
+ */
+public class OutputFormat {
+
+  /**
+   * Provides the values of the variables of a template.
+   */
+  @FunctionalInterface
+  public interface Values {
+    /**
+     * @param variable the letter of the variable, e.g. 's' for %s
+     * @return the value of the variable, or null to leave the variable in the output as it is
+     */
+    String get(char variable);
+  }
+
+  private final String format;
+
+  /* The text before, between, and after the variables; there is one more than there are variables */
+  private final String[] literals;
+  private final char[] variables;
+
+  /**
+   * @param format a template in which a '%' followed by a letter is a variable
+   */
+  public OutputFormat(String format) {
+    this.format = format;
+
+    List<String> literals = new ArrayList<>();
+    StringBuilder variables = new StringBuilder();
+    int start = 0;
+    for (int i = 0; i + 1 < format.length(); i++) {
+      if (format.charAt(i) == '%' && Character.isLetter(format.charAt(i + 1))) {
+        literals.add(format.substring(start, i));
+        variables.append(format.charAt(i + 1));
+        start = i + 2;
+        i++;
+      }
+    }
+    literals.add(format.substring(start));
+
+    this.literals = literals.toArray(new String[literals.size()]);
+    this.variables = variables.toString().toCharArray();
+  }
+
+  /**
+   * @param variable the letter of a variable
+   * @return whether the template uses the variable
+   */
+  public boolean contains(char variable) {
+    for (char c : variables)
+      if (c == variable)
+        return true;
+    return false;
+  }
+
+  /**
+   * Writes the template with its variables replaced.
+   *
+   * @param out where to write
+   * @param values the values of the variables
+   * @throws IOException if there is an error writing
+   */
+  public void write(Appendable out, Values values) throws IOException {
+    out.append(literals[0]);
+    for (int i = 0; i < variables.length; i++) {
+      String value = values.get(variables[i]);
+      if (value == null)
+        out.append('%').append(variables[i]);
+      else
+        out.append(value);
+      out.append(literals[i + 1]);
+    }
+  }
+
+  /**
+   * @param values the values of the variables
+   * @return the template with its variables replaced
+   */
+  public String format(Values values) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      write(sb, values);
+    } catch (IOException e) {
+      // A StringBuilder does not throw
+      throw new RuntimeException(e);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the template
+   */
+  @Override
+  public String toString() {
+    return format;
+  }
+}
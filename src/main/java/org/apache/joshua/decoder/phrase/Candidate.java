@@ -268,9 +268,7 @@ public class Candidate implements Comparable<Candidate> {
    * @return the bit vector of this hypothesis
    */
   public Coverage getCoverage() {
-    Coverage cov = new Coverage(getHypothesis().getCoverage());
-    cov.set(getSpan());
-    return cov;
+    return new Coverage(getHypothesis().getCoverage(), phrases.i, phrases.j);
   }
 
   /**
@@ -18,6 +18,7 @@
  */
 package org.apache.joshua.decoder.phrase;
 
+import java.util.Arrays;
 import java.util.BitSet;
 
 import org.apache.joshua.corpus.Span;
@@ -26,6 +27,10 @@ import org.apache.joshua.corpus.Span;
  * Represents a coverage vector. The vector is relative to a hypothesis. {firstZero} denotes the
  * first uncovered word of the sentence, and {bits} contains the coverage vector of all the words
  * after it, with the first zero removed. 
+ *
+ * The bits are kept in an array of longs that only grows when a phrase is placed more than 64
+ * words past the first zero, so range tests and updates work on whole words in place, and the
+ * hash code is cached for the coverage maps of {@link Stack}.
  */
 
 public class Coverage {
@@ -36,19 +41,21 @@ public class Coverage {
   // Bits with the first zero removed.                                                             
   // We also assume anything beyond this is zero due to the reordering window.                     
   // Lowest bits correspond to next word.    
-  private BitSet bits;
+  private long[] bits;
+
+  // The hash code, or 0 if it has not been computed since the last change
+  private int hash = 0;
 
   // Default bit vector length
   private static final int INITIAL_LENGTH = 10;
 
   public Coverage() {
-    firstZero = 0;
-    bits = new BitSet(INITIAL_LENGTH);
+    this(0);
   }
 
   public Coverage(int firstZero) {
     this.firstZero = firstZero;
-    bits = new BitSet(INITIAL_LENGTH);
+    this.bits = new long[1];
   }
 
   /**
@@ -59,8 +66,8 @@ public class Coverage {
     StringBuilder sb = new StringBuilder();
     sb.append(String.format("%d ", firstZero));
 
-    for (int i = 0; i < Math.max(INITIAL_LENGTH, bits.length()); i++) { // only display first 10 bits
-      sb.append(bits.get(i) ? "x" : ".");
+    for (int i = 0; i < Math.max(INITIAL_LENGTH, length()); i++) { // only display first 10 bits
+      sb.append(get(i) ? "x" : ".");
     }
 
     return sb.toString();
@@ -73,7 +80,20 @@ public class Coverage {
    */
   public Coverage(Coverage other) {
     this.firstZero = other.firstZero;
-    this.bits = (BitSet) other.bits.clone();
+    this.bits = other.bits.clone();
+    this.hash = other.hash;
+  }
+
+  /**
+   * Initialize a coverage vector from another one with the range [begin .. end) turned on.
+   * 
+   * @param other an existing coverage vector
+   * @param begin the begin index (absolute)
+   * @param end the end index (absolute)
+   */
+  public Coverage(Coverage other, int begin, int end) {
+    this(other);
+    set(begin, end);
   }
 
   /**
@@ -86,27 +106,17 @@ public class Coverage {
   public void set(int begin, int end) {
     assert compatible(begin, end);
 
-    //    StringBuffer sb = new StringBuffer();
-    //    sb.append(String.format("SET(%d,%d) %s", begin, end, this));
-
     if (begin == firstZero) {
-      // A concatenation. 
-      firstZero = end;
-      bits = bits.get(end - begin, Math.max(end - begin, bits.length()));
-      int firstClear = bits.nextClearBit(0);
-      if (firstClear != 0) {
-        // We might have exactly covered a gap, in which case we need to adjust shift
-        // firstZero and the bits until we reach the new end
-        firstZero += firstClear;
-        bits = bits.get(firstClear,  bits.length());
-      }
+      // A concatenation. We might have exactly covered a gap, in which case the first zero moves
+      // past the words that were already covered after the phrase.
+      int shift = nextClearBit(end - begin);
+      firstZero += shift;
+      shiftRight(shift);
     } else {
-      // Set the bits relative to the currenS
-      bits.or(pattern(begin, end));
+      // Set the bits relative to the current first zero
+      setBits(begin - firstZero, end - firstZero);
     }
-
-    //    sb.append(String.format(" -> %s", this));
-    //    System.err.println(sb);
+    hash = 0;
   }
 
   /**
@@ -127,12 +137,7 @@ public class Coverage {
    * @return true if the span is compatible with the coverage vector
    */
   public boolean compatible(int begin, int end) {
-    if (begin >= firstZero) {
-      BitSet pattern = new BitSet();
-      pattern.set(begin - firstZero, end - firstZero);
-      return ! bits.intersects(pattern);
-    }
-    return false;
+    return begin >= firstZero && ! intersects(begin - firstZero, end - firstZero);
   }
 
   /**
@@ -158,12 +163,11 @@ public class Coverage {
    * @return todo
    */
   public int leftOpening(int begin) {
-    for (int i = begin - firstZero; i > 0; --i) {
-      if (bits.get(i)) {
-        assert compatible(i + firstZero + 1, begin);
-        assert !compatible(i + firstZero, begin);
-        return i + firstZero + 1;
-      }
+    int i = previousSetBit(begin - firstZero);
+    if (i > 0) {
+      assert compatible(i + firstZero + 1, begin);
+      assert !compatible(i + firstZero, begin);
+      return i + firstZero + 1;
     }
 
     assert compatible(firstZero, begin);
@@ -185,24 +189,20 @@ public class Coverage {
    * @return todo
    */
   public int rightOpening(int end, int sentenceLength) {
-    for (int i = end - firstZero; i < Math.min(64, sentenceLength - firstZero); i++) {
-      if (bits.get(i)) {
-        return i + firstZero;
-      }
-    }
-    return sentenceLength;
+    int i = nextSetBit(end - firstZero);
+    return (i >= 0 && i < sentenceLength - firstZero) ? i + firstZero : sentenceLength;
   }
 
   /**
    * Creates a bit vector with the same offset as the current coverage vector, flipping on
-   * bits begin..end.
+   * bits begin..end. This allocates, and is meant for inspection; {@link #compatible(int, int)}
+   * and {@link #set(int, int)} work on the coverage in place.
    * 
    * @param begin the begin index (absolute)
    * @param end the end index (absolute)
    * @return a bit vector (relative) with positions [begin..end) on
    */
   public BitSet pattern(int begin, int end) {
-    //    System.err.println(String.format("pattern(%d,%d) %d %s %s", begin, end, firstZero, begin >= firstZero, toString()));
     assert begin >= firstZero;
     BitSet pattern = new BitSet(INITIAL_LENGTH);
     pattern.set(begin - firstZero, end - firstZero);
@@ -210,19 +210,28 @@ public class Coverage {
   }
 
   /**
-   * Returns the underlying coverage bits.
+   * Returns a copy of the underlying coverage bits.
    * 
    * @return {@link java.util.BitSet} vector of bits
    */
   public BitSet getCoverage() {
-    return bits;
+    return BitSet.valueOf(bits);
   }
 
   @Override
   public boolean equals(Object obj) {
+    if (obj == this)
+      return true;
     if (obj instanceof Coverage) {
       Coverage other = (Coverage) obj;
-      return getCoverage().equals(other.getCoverage()) && firstZero() == other.firstZero();
+      if (firstZero != other.firstZero || hashCode() != other.hashCode())
+        return false;
+      // Words past the end of the shorter array are zero
+      int words = Math.max(bits.length, other.bits.length);
+      for (int i = 0; i < words; i++)
+        if (word(i) != other.word(i))
+          return false;
+      return true;
     }
 
     return false;
@@ -230,6 +239,134 @@ public class Coverage {
 
   @Override
   public int hashCode() {
-    return getCoverage().hashCode() * firstZero();
+    int h = hash;
+    if (h == 0) {
+      long mix = firstZero;
+      for (int i = lastWord(); i >= 0; i--)
+        mix = 31 * mix + bits[i];
+      mix *= 0x9E3779B97F4A7C15L;
+      h = (int) (mix ^ (mix >>> 32));
+      hash = h = (h == 0) ? 1 : h;
+    }
+    return h;
+  }
+
+  /* The word at index i, which is zero past the end of the array */
+  private long word(int i) {
+    return (i < bits.length) ? bits[i] : 0L;
+  }
+
+  /* The index of the last nonzero word, or -1 */
+  private int lastWord() {
+    int i = bits.length - 1;
+    while (i >= 0 && bits[i] == 0)
+      i--;
+    return i;
+  }
+
+  /* One more than the index of the highest set bit */
+  private int length() {
+    int i = lastWord();
+    return (i < 0) ? 0 : 64 * i + 64 - Long.numberOfLeadingZeros(bits[i]);
+  }
+
+  private boolean get(int i) {
+    return (word(i >> 6) & (1L << i)) != 0;
+  }
+
+  /* Whether any bit in the relative range [from, to) is set */
+  private boolean intersects(int from, int to) {
+    if (to <= from)
+      return false;
+    int first = from >> 6;
+    int last = Math.min((to - 1) >> 6, bits.length - 1);
+    for (int i = first; i <= last; i++) {
+      long mask = -1L;
+      if (i == first)
+        mask &= -1L << from;
+      if (i == (to - 1) >> 6)
+        mask &= -1L >>> (63 - ((to - 1) & 63));
+      if ((bits[i] & mask) != 0)
+        return true;
+    }
+    return false;
+  }
+
+  /* Sets the bits in the relative range [from, to) */
+  private void setBits(int from, int to) {
+    if (to <= from)
+      return;
+    int first = from >> 6;
+    int last = (to - 1) >> 6;
+    if (last >= bits.length)
+      bits = Arrays.copyOf(bits, last + 1);
+    for (int i = first; i <= last; i++) {
+      long mask = -1L;
+      if (i == first)
+        mask &= -1L << from;
+      if (i == last)
+        mask &= -1L >>> (63 - ((to - 1) & 63));
+      bits[i] |= mask;
+    }
+  }
+
+  /* The index of the first clear bit at or after from */
+  private int nextClearBit(int from) {
+    int i = from >> 6;
+    if (i >= bits.length)
+      return from;
+    long word = ~bits[i] & (-1L << from);
+    while (word == 0) {
+      if (++i == bits.length)
+        return 64 * i;
+      word = ~bits[i];
+    }
+    return 64 * i + Long.numberOfTrailingZeros(word);
+  }
+
+  /* The index of the first set bit at or after from, or -1 */
+  private int nextSetBit(int from) {
+    if (from < 0)
+      from = 0;
+    int i = from >> 6;
+    if (i >= bits.length)
+      return -1;
+    long word = bits[i] & (-1L << from);
+    while (word == 0) {
+      if (++i == bits.length)
+        return -1;
+      word = bits[i];
+    }
+    return 64 * i + Long.numberOfTrailingZeros(word);
+  }
+
+  /* The index of the last set bit at or before from, or -1 */
+  private int previousSetBit(int from) {
+    if (from < 0)
+      return -1;
+    int i = from >> 6;
+    long word;
+    if (i >= bits.length) {
+      i = bits.length - 1;
+      word = bits[i];
+    } else {
+      word = bits[i] & (-1L >>> (63 - (from & 63)));
+    }
+    while (word == 0) {
+      if (--i < 0)
+        return -1;
+      word = bits[i];
+    }
+    return 64 * i + 63 - Long.numberOfLeadingZeros(word);
+  }
+
+  /* Drops the lowest n bits, moving the others down */
+  private void shiftRight(int n) {
+    int words = n >> 6;
+    int shift = n & 63;
+    for (int i = 0; i < bits.length; i++) {
+      long low = word(i + words);
+      bits[i] = (shift == 0) ? low : (low >>> shift) | (word(i + words + 1) << (64 - shift));
+    }
   }
 }
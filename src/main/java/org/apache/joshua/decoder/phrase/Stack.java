@@ -80,9 +80,7 @@ public class Stack extends ArrayList<Hypothesis> {
   @Override
   public boolean add(Hypothesis hyp) {
     
-    if (! coverages.containsKey((hyp.getCoverage())))
-      coverages.put(hyp.getCoverage(), new ArrayList<>());
-    coverages.get(hyp.getCoverage()).add(hyp);
+    coverages.computeIfAbsent(hyp.getCoverage(), cov -> new ArrayList<>()).add(hyp);
     
     return super.add(hyp);
   }
@@ -96,8 +94,9 @@ public class Stack extends ArrayList<Hypothesis> {
     if (found) {
       Hypothesis item = (Hypothesis) obj;
       Coverage cov = item.getCoverage();
-      assert coverages.get(cov).remove(obj);
-      if (coverages.get(cov).size() == 0)
+      ArrayList<Hypothesis> list = coverages.get(cov);
+      list.remove(obj);
+      if (list.isEmpty())
         coverages.remove(cov);
     }
     return found;
@@ -151,11 +150,10 @@ public class Stack extends ArrayList<Hypothesis> {
         rule = cand.getHypothesis().bestHyperedge.getTailNodes().get(1).bestHyperedge.getRule();
       else if (rule == Hypothesis.INVERTED_RULE)
         rule = cand.getHypothesis().bestHyperedge.getTailNodes().get(0).bestHyperedge.getRule();
-      String oldWords = rule.getEnglishWords();
+      int[] oldWords = rule.getEnglish();
+      int[] newWords = cand.getPhraseRule().getEnglish();
 
-      String newWords = cand.getPhraseRule().getEnglishWords();
-          
-      boolean allowed = sentence.fullTarget().contains(oldWords + " " + newWords);
+      boolean allowed = sentence.targetIndex().contains(oldWords, newWords);
       
       // If the string is not found in the target sentence, explore the cube neighbors
       if (! allowed) {
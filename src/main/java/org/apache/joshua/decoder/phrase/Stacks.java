@@ -39,7 +39,10 @@ import static org.apache.joshua.decoder.ff.tm.OwnerMap.UNKNOWN_OWNER;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import org.apache.joshua.decoder.DecoderContext;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.chart_parser.ComputeNodeResult;
 import org.apache.joshua.decoder.ff.FeatureFunction;
@@ -70,6 +73,13 @@ public class Stacks {
 
   /* Contains all the phrase tables */
   private final PhraseChart chart;
+
+  /*
+   * If not null, the candidates of each stack are built and scored in parallel on this pool. The
+   * context is bound on its threads while they work on this sentence.
+   */
+  private final ForkJoinPool candidatePool;
+  private final DecoderContext context;
   
   /**
    * Entry point. Initialize everything. Create pass-through (OOV) phrase table and glue phrase
@@ -82,10 +92,27 @@ public class Stacks {
    */
   public Stacks(Sentence sentence, List<FeatureFunction> featureFunctions, Grammar[] grammars, 
       JoshuaConfiguration config) {
+    this(sentence, featureFunctions, grammars, config, DecoderContext.current(), null);
+  }
+
+  /**
+   * Creates stacks whose candidates are built in parallel on the given pool (see {@link #search()}).
+   * 
+   * @param sentence input to {@link org.apache.joshua.lattice.Lattice}
+   * @param featureFunctions {@link java.util.List} of {@link org.apache.joshua.decoder.ff.FeatureFunction}'s
+   * @param grammars an array of {@link org.apache.joshua.decoder.ff.tm.Grammar}'s
+   * @param config a populated {@link org.apache.joshua.decoder.JoshuaConfiguration}
+   * @param context the decoder's models, which are bound on the pool's threads
+   * @param candidatePool the pool to build candidates on, or null to build them one at a time
+   */
+  public Stacks(Sentence sentence, List<FeatureFunction> featureFunctions, Grammar[] grammars, 
+      JoshuaConfiguration config, DecoderContext context, ForkJoinPool candidatePool) {
 
     this.sentence = sentence;
     this.featureFunctions = featureFunctions;
     this.config = config;
+    this.candidatePool = candidatePool;
+    this.context = context;
     
     int num_phrase_tables = 0;
     for (Grammar grammar : grammars)
@@ -110,6 +137,12 @@ public class Stacks {
   /**
    * The main algorithm. Returns a hypergraph representing the search space.
    * 
+   * Each stack is filled from the smaller stacks. All the ways of extending their coverage vectors
+   * with a phrase are listed first, in a fixed order. When there is a candidate pool, the
+   * candidates for them, which score the first phrase of each span against the first hypothesis
+   * of each coverage, are then built in parallel. They are added to the stack in the order in which
+   * they were listed, so the stack's cube pruning sees the same queue either way.
+   * 
    * @return a {@link org.apache.joshua.decoder.hypergraph.HyperGraph} representing the search space
    */
   public HyperGraph search() {
@@ -134,6 +167,8 @@ public class Stacks {
       Stack targetStack = new Stack(sentence, config);
       stacks.add(targetStack);
 
+      List<Extension> extensions = new ArrayList<>();
+
       // Iterate over stacks to continue from.
       for (int phrase_length = 1; phrase_length <= Math.min(source_words - 1, chart.MaxSourcePhraseLength());
           phrase_length++) {
@@ -190,12 +225,24 @@ public class Stacks {
              * phrases from that span. The hypotheses are wrapped in HypoState objects, which
              * augment the hypothesis score with a future cost.
              */
-            Candidate cand = new Candidate(featureFunctions, sentence, hypotheses, phrases, future_delta, new int[] {0, 0});
-            targetStack.addCandidate(cand);
+            extensions.add(new Extension(hypotheses, phrases, future_delta));
           }
         }
       }
 
+      /* Build and score the candidates, in parallel if there is a pool, and seed the stack with
+       * them in the order they were found.
+       */
+      Candidate[] candidates = new Candidate[extensions.size()];
+      if (candidatePool != null && candidates.length > 1) {
+        candidatePool.invoke(new CreateCandidates(extensions, candidates, 0, candidates.length));
+      } else {
+        for (int i = 0; i < candidates.length; i++)
+          candidates[i] = extensions.get(i).toCandidate();
+      }
+      for (Candidate cand : candidates)
+        targetStack.addCandidate(cand);
+
       /* At this point, every vertex contains a list of all existing hypotheses that the target
        * phrases in that vertex could extend. Now we need to create the search object, which
        * implements cube pruning. There are up to O(n^2) cubes, n the size of the current stack,
@@ -214,6 +261,56 @@ public class Stacks {
     
     return createGoalNode();
   }
+
+  /**
+   * A set of hypotheses with the same coverage, and the phrases over a span that can extend them.
+   */
+  private class Extension {
+    private final List<Hypothesis> hypotheses;
+    private final PhraseNodes phrases;
+    private final float future_delta;
+
+    Extension(List<Hypothesis> hypotheses, PhraseNodes phrases, float future_delta) {
+      this.hypotheses = hypotheses;
+      this.phrases = phrases;
+      this.future_delta = future_delta;
+    }
+
+    /* The candidate pairing the best hypothesis with the best phrase, which scores the pair */
+    Candidate toCandidate() {
+      return new Candidate(featureFunctions, sentence, hypotheses, phrases, future_delta, new int[] {0, 0});
+    }
+  }
+
+  /**
+   * Builds the candidates of the extensions in [from, to), splitting the range in halves.
+   */
+  private class CreateCandidates extends RecursiveAction {
+    private final List<Extension> extensions;
+    private final Candidate[] candidates;
+    private final int from;
+    private final int to;
+
+    CreateCandidates(List<Extension> extensions, Candidate[] candidates, int from, int to) {
+      this.extensions = extensions;
+      this.candidates = candidates;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        try (DecoderContext.Binding binding = context.bind()) {
+          candidates[from] = extensions.get(from).toCandidate();
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new CreateCandidates(extensions, candidates, from, mid),
+            new CreateCandidates(extensions, candidates, mid, to));
+      }
+    }
+  }
     
   /**
    * Enforces reordering constraints. Our version of Moses' ReorderingConstraint::Check() and
@@ -21,8 +21,7 @@ package org.apache.joshua.decoder.segment_file;
 import static org.apache.joshua.util.FormatUtils.addSentenceMarkers;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
@@ -33,10 +32,10 @@ import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.LanguageModelStateManager;
 import org.apache.joshua.decoder.ff.tm.Grammar;
+import org.apache.joshua.decoder.ff.tm.TerminalVocabulary;
 import org.apache.joshua.lattice.Arc;
 import org.apache.joshua.lattice.Lattice;
 import org.apache.joshua.lattice.Node;
-import org.apache.joshua.util.ChartSpan;
 import org.apache.joshua.util.Regex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,6 +67,7 @@ public class Sentence {
   
   protected String target = null;
   protected String fullTarget = null;
+  protected TargetIndex targetIndex = null;
   protected String[] references = null;
 
   /* Lattice representation of the source sentence. */
@@ -178,93 +178,110 @@ public class Sentence {
    * @param grammars a list of grammars to consult to find in- and out-of-vocabulary items
    */
   public void segmentOOVs(Grammar[] grammars) {
-    Lattice<Token> oldLattice = this.getLattice();
-
-    /* Build a list of terminals across all grammars */
-    HashSet<Integer> vocabulary = new HashSet<>();
-    for (Grammar grammar : grammars) {
-      Iterator<Integer> iterator = grammar.getTrieRoot().getTerminalExtensionIterator();
-      while (iterator.hasNext())
-        vocabulary.add(iterator.next());
-    }
+    /* The terminals of each grammar, which the grammars build once and keep */
+    TerminalVocabulary[] vocabularies = new TerminalVocabulary[grammars.length];
+    for (int i = 0; i < grammars.length; i++)
+      vocabularies[i] = grammars[i].getTerminalVocabulary();
 
-    List<Node<Token>> oldNodes = oldLattice.getNodes();
+    List<Node<Token>> oldNodes = this.getLattice().getNodes();
 
     /* Find all the subwords that appear in the vocabulary, and create the lattice */
     for (int nodeid = oldNodes.size() - 3; nodeid >= 1; nodeid -= 1) {
       if (oldNodes.get(nodeid).getOutgoingArcs().size() == 1) {
         Arc<Token> arc = oldNodes.get(nodeid).getOutgoingArcs().get(0);
-        String word = Vocabulary.word(arc.getLabel().getWord());
-        if (!vocabulary.contains(arc.getLabel())) {
-          // System.err.println(String.format("REPL: '%s'", word));
-          List<Arc<Token>> savedArcs = oldNodes.get(nodeid).getOutgoingArcs();
-
-          char[] chars = word.toCharArray();
-          ChartSpan<Boolean> wordChart = new ChartSpan<>(chars.length + 1, false);
-          ArrayList<Node<Token>> nodes = new ArrayList<>(chars.length + 1);
-          nodes.add(oldNodes.get(nodeid));
-          for (int i = 1; i < chars.length; i++)
-            nodes.add(new Node<>(i));
-          nodes.add(oldNodes.get(nodeid + 1));
-          for (int width = 1; width <= chars.length; width++) {
-            for (int i = 0; i <= chars.length - width; i++) {
-              int j = i + width;
-              if (width != chars.length) {
-                Token token = new Token(word.substring(i, j), config);
-                if (vocabulary.contains(id)) {
-                  nodes.get(i).addArc(nodes.get(j), 0.0f, token);
-                  wordChart.set(i, j, true);
-                  //                    System.err.println(String.format("  FOUND '%s' at (%d,%d)", word.substring(i, j),
-                  //                        i, j));
-                }
-              }
-
-              for (int k = i + 1; k < j; k++) {
-                if (wordChart.get(i, k) && wordChart.get(k, j)) {
-                  wordChart.set(i, j, true);
-                  //                    System.err.println(String.format("    PATH FROM %d-%d-%d", i, k, j));
-                }
-              }
-            }
-          }
-
-          /* If there's a path from beginning to end */
-          if (wordChart.get(0, chars.length)) {
-            // Remove nodes not part of a complete path
-            HashSet<Node<Token>> deletedNodes = new HashSet<>();
-            for (int k = 1; k < nodes.size() - 1; k++)
-              if (!(wordChart.get(0, k) && wordChart.get(k, chars.length)))
-                nodes.set(k, null);
-
-            int delIndex = 1;
-            while (delIndex < nodes.size())
-              if (nodes.get(delIndex) == null) {
-                deletedNodes.add(nodes.get(delIndex));
-                nodes.remove(delIndex);
-              } else
-                delIndex++;
-
-            for (Node<Token> node : nodes) {
-              int arcno = 0;
-              while (arcno != node.getOutgoingArcs().size()) {
-                Arc<Token> delArc = node.getOutgoingArcs().get(arcno);
-                if (deletedNodes.contains(delArc.getHead()))
-                  node.getOutgoingArcs().remove(arcno);
-                else {
-                  arcno++;
-                  //                    System.err.println("           ARC: " + Vocabulary.word(delArc.getLabel()));
-                }
-              }
-            }
-
-            // Insert into the main lattice
+        if (!containsTerminal(vocabularies, arc.getLabel().getWord())) {
+          List<Node<Token>> nodes = segment(Vocabulary.word(arc.getLabel().getWord()), vocabularies,
+              oldNodes.get(nodeid), oldNodes.get(nodeid + 1));
+          if (nodes != null)
             this.getLattice().insert(nodeid, nodeid + 1, nodes);
-          } else {
-            nodes.get(0).setOutgoingArcs(savedArcs);
+        }
+      }
+    }
+  }
+
+  private static boolean containsTerminal(TerminalVocabulary[] vocabularies, int id) {
+    for (TerminalVocabulary vocabulary : vocabularies)
+      if (vocabulary.contains(id))
+        return true;
+    return false;
+  }
+
+  /**
+   * Segments a word into terminals, in time linear in its length times the length of the longest
+   * terminal: the terminals that start at each position are found in one walk of each grammar's
+   * character trie, and a forward and a backward pass over them find the positions that lie on a
+   * complete segmentation.
+   *
+   * @return the nodes from start to end, with an arc for every terminal on a complete
+   *         segmentation, or null if the word cannot be segmented
+   */
+  private List<Node<Token>> segment(String word, TerminalVocabulary[] vocabularies,
+      Node<Token> start, Node<Token> end) {
+    final char[] chars = word.toCharArray();
+    final int length = chars.length;
+    if (length < 2)
+      return null;
+
+    /* The subwords (from[k], to[k]) found, ordered by their start */
+    int[] from = new int[length];
+    int[] to = new int[length];
+    int numSubwords = 0;
+
+    boolean[] ends = new boolean[length + 1];
+    for (int i = 0; i < length; i++) {
+      Arrays.fill(ends, false);
+      for (TerminalVocabulary vocabulary : vocabularies)
+        vocabulary.findWords(chars, i, ends);
+      for (int j = i + 1; j <= length; j++) {
+        // The whole word is not a subword
+        if (ends[j] && j - i != length) {
+          if (numSubwords == from.length) {
+            from = Arrays.copyOf(from, 2 * from.length);
+            to = Arrays.copyOf(to, 2 * to.length);
           }
+          from[numSubwords] = i;
+          to[numSubwords] = j;
+          numSubwords++;
         }
       }
     }
+
+    /* The positions reachable from the start, and those from which the end is reachable */
+    boolean[] forward = new boolean[length + 1];
+    boolean[] backward = new boolean[length + 1];
+    forward[0] = true;
+    backward[length] = true;
+    for (int k = 0; k < numSubwords; k++)
+      if (forward[from[k]])
+        forward[to[k]] = true;
+    if (!forward[length])
+      return null;
+    for (int k = numSubwords - 1; k >= 0; k--)
+      if (backward[to[k]])
+        backward[from[k]] = true;
+
+    /* Keep the positions that are part of a complete path */
+    @SuppressWarnings("unchecked")
+    Node<Token>[] positions = new Node[length + 1];
+    List<Node<Token>> nodes = new ArrayList<>();
+    positions[0] = start;
+    nodes.add(start);
+    for (int i = 1; i < length; i++) {
+      if (forward[i] && backward[i]) {
+        positions[i] = new Node<>(i);
+        nodes.add(positions[i]);
+      }
+    }
+    positions[length] = end;
+    nodes.add(end);
+
+    for (int k = 0; k < numSubwords; k++) {
+      if (forward[from[k]] && backward[to[k]]) {
+        Token token = new Token(word.substring(from[k], to[k]), config);
+        positions[from[k]].addArc(positions[to[k]], 0.0f, token);
+      }
+    }
+    return nodes;
   }
 
   /**
@@ -358,6 +375,19 @@ public class Sentence {
     return fullTarget; 
   }
 
+  /**
+   * The target side with sentence markers, indexed by word id, which constrained decoding uses to
+   * check that partial translations are part of the target. It is built once per sentence.
+   * 
+   * @return the index of {@link #fullTarget()}, or null if there is no target side
+   */
+  public TargetIndex targetIndex() {
+    if (targetIndex == null && target() != null) {
+      targetIndex = new TargetIndex(fullTarget());
+    }
+    return targetIndex;
+  }
+
   public String source(int i, int j) {
     StringTokenizer st = new StringTokenizer(fullSource());
     int index = 0;
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.segment_file;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.util.LongIntHashMap;
+
+/**
+ * The target sentence of constrained decoding, indexed by word id so that the decoder can find
+ * where a sequence of target words occurs without building strings. For each word, the index keeps
+ * its first and last position, and each position links to the next and previous position of the
+ * same word, so a sequence is found by comparing it at the positions of its first word only.
+ *
+ * @see Sentence#targetIndex()
+ */
+public class TargetIndex {
+
+  private static final int[] EMPTY = new int[0];
+
+  /* The ids of the target words */
+  private final int[] words;
+
+  /* The first and the last position of each word id */
+  private final LongIntHashMap first;
+  private final LongIntHashMap last;
+
+  /* The next and the previous position of the word at each position, or -1 */
+  private final int[] next;
+  private final int[] previous;
+
+  /**
+   * @param target the target words, separated by whitespace
+   */
+  public TargetIndex(String target) {
+    String trimmed = target.trim();
+    String[] tokens = trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+
+    this.words = new int[tokens.length];
+    this.first = new LongIntHashMap(tokens.length);
+    this.last = new LongIntHashMap(tokens.length);
+    this.next = new int[tokens.length];
+    this.previous = new int[tokens.length];
+
+    for (int i = 0; i < tokens.length; i++) {
+      words[i] = Vocabulary.id(tokens[i]);
+      next[i] = -1;
+      previous[i] = last.get(words[i], -1);
+      if (previous[i] >= 0)
+        next[previous[i]] = i;
+      else
+        first.put(words[i], i);
+      last.put(words[i], i);
+    }
+  }
+
+  /**
+   * @return the number of target words
+   */
+  public int size() {
+    return words.length;
+  }
+
+  /**
+   * @param sequence word ids
+   * @return the first position at which the sequence occurs in the target, or -1
+   */
+  public int indexOf(int[] sequence) {
+    return indexOf(sequence, EMPTY);
+  }
+
+  /**
+   * Finds the first occurrence of one sequence followed by another, without concatenating them.
+   *
+   * @param prefix word ids
+   * @param suffix the word ids that follow the prefix
+   * @return the first position at which prefix and suffix occur in the target, or -1
+   */
+  public int indexOf(int[] prefix, int[] suffix) {
+    if (prefix.length + suffix.length == 0)
+      return 0;
+    int word = (prefix.length > 0) ? prefix[0] : suffix[0];
+    for (int p = first.get(word, -1); p >= 0; p = next[p])
+      if (matches(p, prefix, suffix))
+        return p;
+    return -1;
+  }
+
+  /**
+   * @param sequence word ids
+   * @return the last position at which the sequence occurs in the target, or -1
+   */
+  public int lastIndexOf(int[] sequence) {
+    if (sequence.length == 0)
+      return words.length;
+    for (int p = last.get(sequence[0], -1); p >= 0; p = previous[p])
+      if (matches(p, sequence, EMPTY))
+        return p;
+    return -1;
+  }
+
+  /**
+   * @param prefix word ids
+   * @param suffix the word ids that follow the prefix
+   * @return whether prefix and suffix occur in the target, one right after the other
+   */
+  public boolean contains(int[] prefix, int[] suffix) {
+    return indexOf(prefix, suffix) >= 0;
+  }
+
+  private boolean matches(int position, int[] prefix, int[] suffix) {
+    if (position + prefix.length + suffix.length > words.length)
+      return false;
+    for (int i = 0; i < prefix.length; i++)
+      if (words[position + i] != prefix[i])
+        return false;
+    position += prefix.length;
+    for (int i = 0; i < suffix.length; i++)
+      if (words[position + i] != suffix[i])
+        return false;
+    return true;
+  }
+}
@@ -29,7 +29,7 @@ import java.util.HashMap;
 import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.JoshuaConfiguration;
 import org.apache.joshua.decoder.Support;
-import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.DecoderContext;
 import org.apache.joshua.decoder.hypergraph.HGNode;
 import org.apache.joshua.decoder.hypergraph.HyperEdge;
 import org.apache.joshua.decoder.hypergraph.HyperGraph;
@@ -136,7 +136,7 @@ public class OracleExtractionHG extends SplitHg {
     if (orc_extract_nbest) {
       System.out.println("oracle extraction from nbest list");
 
-      kbest_extractor = new KBestExtractor(null, null, Decoder.weights, false, joshuaConfiguration);
+      kbest_extractor = new KBestExtractor(null, null, DecoderContext.current().getWeights(), false, joshuaConfiguration);
     }
 
     BufferedWriter orc_out = FileUtility.getWriteFileStream(f_orc_out);
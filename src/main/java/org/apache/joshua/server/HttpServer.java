@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * HTTP server. Accepts RESTful translation requests (see {@link ServerThread#handle}) and handles
+ * them concurrently. Each request is answered on its own handler thread while the sentences are
+ * translated by the decoder; the number of requests in the server is bounded by
+ * num_parallel_decoders + server_queue_depth, beyond which clients receive a 503. Connections are
+ * kept alive between requests.
+ */
+public class HttpServer {
+  private static final Logger LOG = LoggerFactory.getLogger(HttpServer.class);
+  private final JoshuaConfiguration joshuaConfiguration;
+  private final Decoder decoder;
+  private final int port;
+
+  public HttpServer(Decoder decoder, int port, JoshuaConfiguration joshuaConfiguration) {
+    this.joshuaConfiguration = joshuaConfiguration;
+    this.decoder = decoder;
+    this.port = port;
+  }
+
+  /**
+   * Starts listening on the port. Returns immediately; requests are served on background threads.
+   *
+   * @throws IOException if the server socket cannot be bound
+   */
+  public void start() throws IOException {
+    com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(
+        new InetSocketAddress(port), joshuaConfiguration.server_backlog);
+    server.createContext("/", new ServerThread(null, decoder, joshuaConfiguration));
+
+    /*
+     * There is a handler thread for each request that may be admitted. An exchange that arrives
+     * while all of them are busy is not queued, but answered with a 503 on the dispatcher thread.
+     */
+    final int handlerThreads = joshuaConfiguration.num_parallel_decoders
+        + joshuaConfiguration.server_queue_depth;
+    final ThreadPoolExecutor handlers = new ThreadPoolExecutor(handlerThreads, handlerThreads,
+        60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("HttpHandler-%d").build(),
+        ServerThread.busyHandler());
+    handlers.allowCoreThreadTimeOut(true);
+    server.setExecutor(handlers);
+    server.start();
+
+    LOG.info("HTTP Server running and listening on port {} ({} concurrent requests, queue depth {}).",
+        port, joshuaConfiguration.num_parallel_decoders, joshuaConfiguration.server_queue_depth);
+  }
+}
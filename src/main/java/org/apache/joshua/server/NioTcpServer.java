@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.DecoderContext;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.Translation;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TCP/IP server that serves all connections from a single selector thread (-server-nio). It speaks
+ * the same protocol as {@link TcpServer}: newline-separated input sentences are written to the
+ * socket and their translations are written back in input order, and the connection is closed once
+ * the client has finished sending and everything has been written.
+ *
+ * Unlike {@link TcpServer}, a connection holds no thread while it waits for input or for its
+ * translations, so many mostly idle clients can stay connected. Sentences are translated on the
+ * decoder's decoding threads ({@link Decoder#decodeAsync(Sentence)}). Each connection has at most
+ * num_parallel_decoders sentences in the decoder at a time and is not read from while it is at that
+ * limit, so that connections take turns on the decoding threads. A connection that sends an input
+ * line longer than server_max_line_length bytes is closed.
+ */
+public class NioTcpServer {
+  private static final Logger LOG = LoggerFactory.getLogger(NioTcpServer.class);
+  private static final Charset FILE_ENCODING = Charset.forName("UTF-8");
+
+  private final JoshuaConfiguration joshuaConfiguration;
+  private final Decoder decoder;
+  private final int port;
+
+  /* How long to stop accepting connections after accepting one failed */
+  private static final long ACCEPT_RETRY_MILLIS = 1000;
+
+  private Selector selector;
+  private SelectionKey acceptKey;
+  private volatile boolean stopped = false;
+
+  /* When to accept connections again after a failure, or 0 if they are being accepted */
+  private long acceptsResumeAt = 0;
+
+  /* Shared by all connections, since they are only read from the selector thread */
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(1 << 16);
+
+  /* Connections whose translations have completed, handed to the selector thread by the decoder */
+  private final ConcurrentLinkedQueue<Connection> completed = new ConcurrentLinkedQueue<>();
+
+  public NioTcpServer(Decoder decoder, int port, JoshuaConfiguration joshuaConfiguration) {
+    this.joshuaConfiguration = joshuaConfiguration;
+    this.decoder = decoder;
+    this.port = port;
+  }
+
+  /**
+   * Listens on a port for new socket connections and serves them until {@link #stop()} is called.
+   * A failure on one connection only closes that connection.
+   */
+  public void start() {
+    try (Selector selector = Selector.open();
+         ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      this.selector = selector;
+      serverChannel.bind(new InetSocketAddress(port), joshuaConfiguration.server_backlog);
+      serverChannel.configureBlocking(false);
+      acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+      LOG.info("** NIO TCP Server running and listening on port {}.", port);
+
+      while (!stopped) {
+        selector.select(acceptsResumeAt == 0 ? 0
+            : Math.max(1, acceptsResumeAt - System.currentTimeMillis()));
+        if (acceptsResumeAt != 0 && System.currentTimeMillis() >= acceptsResumeAt)
+          resumeAccepting();
+
+        Connection connection;
+        while ((connection = completed.poll()) != null)
+          connection.service(false);
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid())
+            continue;
+
+          if (key.isAcceptable()) {
+            accept(serverChannel);
+          } else {
+            ((Connection) key.attachment()).service(key.isReadable());
+          }
+        }
+      }
+
+      for (SelectionKey key : selector.keys())
+        if (key.attachment() != null)
+          ((Connection) key.attachment()).close();
+
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("Could not listen on port: %d.", port));
+    }
+  }
+
+  /**
+   * Makes {@link #start()} close all connections and return.
+   */
+  public void stop() {
+    stopped = true;
+    if (selector != null)
+      selector.wakeup();
+  }
+
+  private void accept(ServerSocketChannel serverChannel) {
+    SocketChannel channel = null;
+    try {
+      channel = serverChannel.accept();
+      if (channel == null)
+        return;
+
+      channel.configureBlocking(false);
+      Connection connection = new Connection(channel);
+      connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    } catch (IOException e) {
+      if (channel == null) {
+        /*
+         * The pending connection could not be accepted, e.g. because the process is out of file
+         * descriptors. It would still be ready on the next select, so stop accepting for a while.
+         */
+        LOG.error("Could not accept a connection: {}", e.getMessage(), e);
+        acceptKey.interestOps(0);
+        acceptsResumeAt = System.currentTimeMillis() + ACCEPT_RETRY_MILLIS;
+        return;
+      }
+      LOG.error("Could not set up connection from {}: {}",
+          channel.socket().getRemoteSocketAddress(), e.getMessage(), e);
+      try {
+        channel.close();
+      } catch (IOException closeException) {
+        LOG.warn("Could not close connection", closeException);
+      }
+    }
+  }
+
+  private void resumeAccepting() {
+    if (acceptsResumeAt != 0) {
+      acceptsResumeAt = 0;
+      acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+    }
+  }
+
+  /**
+   * The state of one client connection. Only touched by the selector thread, except for the
+   * completion callbacks, which just put the connection on the completed queue.
+   */
+  private class Connection {
+    private final SocketChannel channel;
+    private SelectionKey key;
+
+    /* The bytes of an input line whose newline has not arrived yet */
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream(0);
+
+    /* Input lines that have been read but not yet given to the decoder */
+    private final ArrayDeque<String> lines = new ArrayDeque<>();
+
+    /* Translations in input order, including completed ones that are waiting for their predecessors */
+    private final ArrayDeque<CompletableFuture<Translation>> pending = new ArrayDeque<>();
+
+    /* Output that has not been written to the socket yet */
+    private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+
+    private int sentenceNo = 0;
+    private boolean endOfInput = false;
+    private boolean closed = false;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Reads whatever input is available (if readable), hands sentences to the decoder, writes out
+     * the translations that are ready in order, and registers for the events it is waiting on.
+     */
+    void service(boolean readable) {
+      if (closed)
+        return;
+
+      try {
+        if (readable)
+          read();
+        collect();
+        submit();
+        write();
+
+        if (endOfInput && lines.isEmpty() && pending.isEmpty() && output.isEmpty()) {
+          close();
+          return;
+        }
+
+        int ops = 0;
+        if (!endOfInput && lines.isEmpty())
+          ops |= SelectionKey.OP_READ;
+        if (!output.isEmpty())
+          ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+      } catch (IOException | RuntimeException e) {
+        // Includes failed translations and a key cancelled under us, which must not stop the server
+        LOG.error("Closing connection from {}: {}", channel.socket().getRemoteSocketAddress(),
+            e.getMessage(), e);
+        close();
+      }
+    }
+
+    private void read() throws IOException {
+      readBuffer.clear();
+      int read = channel.read(readBuffer);
+      if (read < 0) {
+        endOfInput = true;
+        // Like BufferedReader.readLine(), accept a last line without a newline
+        if (partialLine.size() > 0)
+          addLine();
+        return;
+      }
+
+      readBuffer.flip();
+      final byte[] bytes = readBuffer.array();
+      int start = 0;
+      for (int i = 0; i < readBuffer.limit(); i++) {
+        if (bytes[i] == '\n') {
+          append(bytes, start, i - start);
+          addLine();
+          start = i + 1;
+        }
+      }
+      append(bytes, start, readBuffer.limit() - start);
+    }
+
+    /* Adds to the current line, which may not grow beyond server_max_line_length */
+    private void append(byte[] bytes, int start, int length) throws IOException {
+      if (partialLine.size() + length > joshuaConfiguration.server_max_line_length)
+        throw new IOException(String.format("Input line longer than %d bytes",
+            joshuaConfiguration.server_max_line_length));
+      partialLine.write(bytes, start, length);
+    }
+
+    private void addLine() {
+      String line = new String(partialLine.toByteArray(), FILE_ENCODING);
+      partialLine.reset();
+      if (line.endsWith("\r"))
+        line = line.substring(0, line.length() - 1);
+      lines.add(line);
+    }
+
+    private void submit() {
+      while (!lines.isEmpty() && pending.size() < joshuaConfiguration.num_parallel_decoders) {
+        Sentence sentence;
+        try (DecoderContext.Binding binding = decoder.getContext().bind()) {
+          sentence = new Sentence(lines.poll(), sentenceNo, joshuaConfiguration);
+        }
+        sentence.id = sentenceNo++;
+
+        CompletableFuture<Translation> translation = decoder.decodeAsync(sentence);
+        pending.add(translation);
+        translation.whenComplete((result, error) -> {
+          completed.add(this);
+          selector.wakeup();
+        });
+      }
+    }
+
+    private void collect() {
+      while (!pending.isEmpty() && pending.peek().isDone()) {
+        Translation translation = pending.poll().join();
+        output.add(ByteBuffer.wrap(translation.toString().getBytes(FILE_ENCODING)));
+      }
+    }
+
+    private void write() throws IOException {
+      while (!output.isEmpty()) {
+        ByteBuffer buffer = output.peek();
+        channel.write(buffer);
+        if (buffer.hasRemaining())
+          return;
+        output.poll();
+      }
+    }
+
+    private void close() {
+      if (closed)
+        return;
+      closed = true;
+      // A closed connection frees a file descriptor, which may be what accepting was waiting for
+      resumeAccepting();
+      // Sentences that have not started decoding yet are dropped
+      for (CompletableFuture<Translation> translation : pending)
+        translation.cancel(false);
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.warn("Could not close connection", e);
+      }
+    }
+  }
+}
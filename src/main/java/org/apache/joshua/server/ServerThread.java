@@ -30,7 +30,13 @@ import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -61,6 +67,19 @@ public class ServerThread extends Thread implements HttpHandler {
   private Socket socket = null;
   private final Decoder decoder;
 
+  /*
+   * Bounds the number of HTTP requests in the server: those being translated plus those queued
+   * for a decoding thread. Requests that find no permit are rejected with a 503. A request that
+   * timed out keeps its permit until the sentences it had started decoding are done.
+   */
+  private final Semaphore admission;
+
+  /*
+   * Set while an HTTP exchange that found no free handler thread is run on the server's dispatcher
+   * thread (see busyHandler()), so that it is answered with a 503 instead of being translated.
+   */
+  private static final ThreadLocal<Boolean> overflow = ThreadLocal.withInitial(() -> false);
+
   /**
    * Creates a new TcpServerThread that can run a set of translations.
    * 
@@ -72,6 +91,25 @@ public class ServerThread extends Thread implements HttpHandler {
     this.joshuaConfiguration = joshuaConfiguration;
     this.socket = socket;
     this.decoder = decoder;
+    this.admission = new Semaphore(
+        joshuaConfiguration.num_parallel_decoders + joshuaConfiguration.server_queue_depth);
+  }
+
+  /**
+   * The rejection policy of the HTTP handler pool. An exchange that finds all handler threads busy
+   * is run right away on the thread that dispatched it, which only answers it with a 503.
+   *
+   * @return a handler for exchanges rejected by the handler pool
+   */
+  public static RejectedExecutionHandler busyHandler() {
+    return (exchange, executor) -> {
+      overflow.set(true);
+      try {
+        exchange.run();
+      } finally {
+        overflow.set(false);
+      }
+    };
   }
 
   /**
@@ -138,15 +176,21 @@ public class ServerThread extends Thread implements HttpHandler {
 
     private HttpExchange client = null;
     private OutputStream out = null;
+    private final int status;
     
     public HttpWriter(HttpExchange client) {
+      this(client, 200);
+    }
+
+    public HttpWriter(HttpExchange client, int status) {
       this.client = client;
+      this.status = status;
       client.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
     }
     
     @Override
     public void write(byte[] response) throws IOException {
-      client.sendResponseHeaders(200, response.length);
+      client.sendResponseHeaders(status, response.length);
       out = client.getResponseBody();
       out.write(response);
       out.close();
@@ -170,29 +214,76 @@ public class ServerThread extends Thread implements HttpHandler {
    * 
    * handle() will use q = {a, b} and meta = {d}
    * 
+   * Requests are handled concurrently. At most num_parallel_decoders + server_queue_depth
+   * requests are admitted at a time; others are answered right away with a 503. A request whose
+   * translations are not all ready within translation_thread_timeout milliseconds of its arrival
+   * is answered with a 504. Exchanges are always closed, so that clients can keep their connection alive.
+   * 
    * @param client the client connection
    */
   @Override
-  public synchronized void handle(HttpExchange client) throws IOException {
+  public void handle(HttpExchange client) throws IOException {
+    try {
+      if (overflow.get() || !admission.tryAcquire()) {
+        LOG.warn("Rejecting request: {} requests in flight", 
+            joshuaConfiguration.num_parallel_decoders + joshuaConfiguration.server_queue_depth);
+        client.getResponseHeaders().add("Retry-After", "1");
+        sendError(client, 503, "server busy");
+        return;
+      }
+      CompletableFuture<Void> drained = null;
+      try {
+        drained = translate(client);
+      } finally {
+        if (drained == null)
+          admission.release();
+        else
+          drained.whenComplete((result, ex) -> admission.release());
+      }
+    } finally {
+      client.close();
+    }
+  }
 
+  /*
+   * Translates the request and answers it. Returns a future that completes once none of the
+   * request's sentences is being decoded any more, which may be after the answer when it timed out.
+   */
+  private CompletableFuture<Void> translate(HttpExchange client) throws IOException {
+    final long deadline = System.currentTimeMillis() + joshuaConfiguration.translation_thread_timeout;
     HashMap<String, ArrayList<String>> params = queryToMap(client.getRequestURI().getRawQuery());
     ArrayList<String> queryList = params.get("q");
     ArrayList<String> metaList = params.get("meta");
     String meta = (metaList != null && ! metaList.isEmpty()) ? metaList.get(metaList.size() - 1) : null;
     
     /* Join together multiple sentence queries as distinct sentences. */
-    BufferedReader reader = new BufferedReader(new StringReader(String.join("\n", queryList)));
+    BufferedReader reader = new BufferedReader(new StringReader(String.join("\n",
+        queryList != null ? queryList : Collections.<String>emptyList())));
     TranslationRequestStream request = new TranslationRequestStream(reader, joshuaConfiguration);
     
     TranslationResponseStream translationResponseStream = decoder.decodeAll(request);
     JSONMessage message = new JSONMessage();
-    if (meta != null && ! meta.isEmpty())
-      handleMetadata(meta, message);
+    if (meta != null && ! meta.isEmpty()) {
+      // Metadata commands may change the shared weights and grammar, so they wait for the
+      // sentences being decoded and are run one at a time.
+      decoder.updateModels(() -> handleMetadata(meta, message));
+    }
 
-    for (Translation translation: translationResponseStream) {
-      LOG.info("TRANSLATION: '{}' with {} k-best items, score {}", 
-          translation, translation.getStructuredTranslations().size());
-      message.addTranslation(translation);
+    try {
+      Translation translation;
+      while ((translation = translationResponseStream.next(
+          Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) != null) {
+        LOG.info("TRANSLATION: '{}' with {} k-best items, score {}", 
+            translation, translation.getStructuredTranslations().size());
+        message.addTranslation(translation);
+      }
+    } catch (TimeoutException e) {
+      LOG.warn("Request timed out: {}", e.getMessage());
+      translationResponseStream.cancel();
+      sendError(client, 504, "translation timed out");
+      return translationResponseStream.drained();
+    } finally {
+      reader.close();
     }
 
     OutputStream out = new HttpWriter(client);
@@ -200,8 +291,13 @@ public class ServerThread extends Thread implements HttpHandler {
     if (LOG.isDebugEnabled())
       LOG.debug(message.toString());
     out.close();
-    
-    reader.close();
+    return translationResponseStream.drained();
+  }
+
+  private void sendError(HttpExchange client, int status, String reason) throws IOException {
+    OutputStream out = new HttpWriter(client, status);
+    out.write(String.format("{\"error\": \"%s\"}", reason).getBytes(FILE_ENCODING));
+    out.close();
   }
   
   /**
@@ -220,7 +316,7 @@ public class ServerThread extends Thread implements HttpHandler {
     switch (type) {
     case "get_weight":
       String weight = tokens[1];
-      LOG.info("WEIGHT: %s = %.3f", weight, Decoder.weights.getWeight(weight));
+      LOG.info("WEIGHT: %s = %.3f", weight, decoder.getWeights().getWeight(weight));
 
       break;
     case "set_weights": {
@@ -229,18 +325,18 @@ public class ServerThread extends Thread implements HttpHandler {
       for (int i = 0; i < argTokens.length; i += 2) {
         String feature = argTokens[i];
         String newValue = argTokens[i + 1];
-        float old_weight = Decoder.weights.getWeight(feature);
-        Decoder.weights.set(feature, Float.parseFloat(newValue));
+        float old_weight = decoder.getWeights().getWeight(feature);
+        decoder.getWeights().set(feature, Float.parseFloat(newValue));
         LOG.info("set_weights: {} {} -> {}", feature, old_weight,
-            Decoder.weights.getWeight(feature));
+            decoder.getWeights().getWeight(feature));
       }
 
-      message.addMetaData("weights " + Decoder.weights.toString());
+      message.addMetaData("weights " + decoder.getWeights().toString());
 
       break;
     }
     case "get_weights": {
-      message.addMetaData("weights " + Decoder.weights.toString());
+      message.addMetaData("weights " + decoder.getWeights().toString());
 
       break;
     }
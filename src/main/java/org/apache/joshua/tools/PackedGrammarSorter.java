@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.tools;
+
+import java.io.IOException;
+
+import org.apache.joshua.decoder.ArgsParser;
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.DecoderContext;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.tm.Grammar;
+import org.apache.joshua.decoder.ff.tm.packed.PackedGrammar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts the rules of the packed grammars of a decoder configuration ahead of time. The decoder is
+ * loaded with the same arguments as JoshuaDecoder, so that its feature functions and weights are
+ * exactly those used for decoding, and the sorted order of each slice is written next to it
+ * (see {@link PackedGrammar#writeSortedRules(java.util.List)}). Decoders loaded with the same
+ * features and weights then skip sorting; if either changes, they sort at decoding time as before.
+ * The grammar files are recognized by their size and modification time, so a grammar copied after
+ * sorting must keep its file times.
+ *
+ * Usage: PackedGrammarSorter -c joshua.config [decoder options]
+ */
+public class PackedGrammarSorter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PackedGrammarSorter.class);
+
+  public static void main(String[] args) throws IOException {
+    JoshuaConfiguration joshuaConfiguration = new JoshuaConfiguration();
+    ArgsParser userArgs = new ArgsParser(args, joshuaConfiguration);
+    joshuaConfiguration.sanityCheck();
+
+    // The grammars are sorted below, once they can be written out
+    joshuaConfiguration.amortized_sorting = true;
+    Decoder decoder = new Decoder(joshuaConfiguration, userArgs.getConfigFile());
+
+    try (DecoderContext.Binding binding = decoder.getContext().bind()) {
+      for (Grammar grammar : decoder.getGrammars()) {
+        if (grammar instanceof PackedGrammar) {
+          long startTime = System.currentTimeMillis();
+          ((PackedGrammar) grammar).writeSortedRules(decoder.getFeatureFunctions());
+          LOG.info("Sorting took {} seconds",
+              (System.currentTimeMillis() - startTime) / 1000);
+        }
+      }
+    }
+  }
+}
@@ -35,5 +35,6 @@ public final class Constants {
 
   public static final String fieldDelimiter = "\\s\\|{3}\\s";
   public static final String spaceSeparator = "\\s+";
+  public static final int INT_SIZE_IN_BYTES = Integer.SIZE / 8;
   public static final int LONG_SIZE_IN_BYTES = Long.SIZE / 8;
 }
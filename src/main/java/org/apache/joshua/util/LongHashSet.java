@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util;
+
+/**
+ * A set of longs in a primitive array, with open addressing and linear probing, like
+ * {@link LongIntHashMap}. It takes 8 bytes per slot and no objects per element, where a
+ * HashSet&lt;Long&gt; takes several objects.
+ *
+ * Elements cannot be removed. The set is not thread-safe while it is being written, but any number
+ * of threads may read it once it is complete.
+ */
+public class LongHashSet {
+
+  private static final float MAX_LOAD = 0.7f;
+
+  /* Element 0 marks an empty slot, so whether the set contains 0 is kept apart */
+  private boolean hasZero = false;
+
+  private long[] elements;
+  private int mask;
+  private int size = 0;
+
+  public LongHashSet() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize the number of elements that fit without growing the set
+   */
+  public LongHashSet(int expectedSize) {
+    int capacity = 16;
+    while (capacity * MAX_LOAD < expectedSize)
+      capacity <<= 1;
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    elements = new long[capacity];
+    mask = capacity - 1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(long element) {
+    if (element == 0)
+      return hasZero;
+    return elements[find(element)] == element;
+  }
+
+  /**
+   * Adds an element to the set.
+   *
+   * @return whether the set did not contain the element yet
+   */
+  public boolean add(long element) {
+    if (element == 0) {
+      if (hasZero)
+        return false;
+      hasZero = true;
+      size++;
+      return true;
+    }
+
+    int slot = find(element);
+    if (elements[slot] == element)
+      return false;
+    if (size + 1 > elements.length * MAX_LOAD) {
+      rehash(2 * elements.length);
+      slot = find(element);
+    }
+    elements[slot] = element;
+    size++;
+    return true;
+  }
+
+  /**
+   * @return the slot of the element, or the empty slot where it would go
+   */
+  private int find(long element) {
+    int slot = hash(element) & mask;
+    while (elements[slot] != element && elements[slot] != 0)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldElements = elements;
+    allocate(capacity);
+    for (long element : oldElements) {
+      if (element != 0)
+        elements[find(element)] = element;
+    }
+  }
+
+  private static int hash(long element) {
+    // The finalizer of MurmurHash3, as in LongIntHashMap
+    element = (element ^ (element >>> 33)) * 0xff51afd7ed558ccdL;
+    element = (element ^ (element >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return (int) (element ^ (element >>> 33));
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util;
+
+/**
+ * A map from long to int in two primitive arrays, with open addressing and linear probing. It takes
+ * 12 bytes per slot and no objects per entry, where a HashMap&lt;Long,Integer&gt; takes several
+ * objects. Keys are typically two ints packed with {@link Bits#encodeAsLong(int, int)}.
+ *
+ * Entries cannot be removed. The map is not thread-safe while it is being written, but any number
+ * of threads may read it once it is complete.
+ */
+public class LongIntHashMap {
+
+  private static final float MAX_LOAD = 0.7f;
+
+  /* Key 0 marks an empty slot, so the entry of key 0 is kept apart */
+  private boolean hasZeroKey = false;
+  private int zeroValue;
+
+  private long[] keys;
+  private int[] values;
+  private int mask;
+  private int size = 0;
+
+  public LongIntHashMap() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize the number of entries that fit without growing the map
+   */
+  public LongIntHashMap(int expectedSize) {
+    int capacity = 16;
+    while (capacity * MAX_LOAD < expectedSize)
+      capacity <<= 1;
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean containsKey(long key) {
+    if (key == 0)
+      return hasZeroKey;
+    return keys[find(key)] == key;
+  }
+
+  /**
+   * @return the value of the key, or missingValue if the map does not contain it
+   */
+  public int get(long key, int missingValue) {
+    if (key == 0)
+      return hasZeroKey ? zeroValue : missingValue;
+    int slot = find(key);
+    return (keys[slot] == key) ? values[slot] : missingValue;
+  }
+
+  /**
+   * Sets the value of a key, replacing any value it had.
+   */
+  public void put(long key, int value) {
+    if (key == 0) {
+      if (!hasZeroKey)
+        size++;
+      hasZeroKey = true;
+      zeroValue = value;
+      return;
+    }
+
+    int slot = find(key);
+    if (keys[slot] != key) {
+      if (size + 1 > keys.length * MAX_LOAD) {
+        rehash(2 * keys.length);
+        slot = find(key);
+      }
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] = value;
+  }
+
+  /**
+   * @return the slot of the key, or the empty slot where it would go
+   */
+  private int find(long key) {
+    int slot = hash(key) & mask;
+    while (keys[slot] != key && keys[slot] != 0)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    // The finalizer of MurmurHash3, since packed keys differ mostly in a few bits
+    key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+    key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return (int) (key ^ (key >>> 33));
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util.quantization;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.joshua.util.encoding.Analyzer;
+
+/**
+ * Quantizer that stores each value as one byte, an index into 256 buckets. The buckets are learned
+ * from the values passed to {@link #add(float)} since {@link #initialize()}, with equally many
+ * values per bucket ({@link Analyzer#quantize(int)}), and are fixed by the first read or write.
+ * Zero has a bucket of its own, so it is stored exactly. Unlike the packed grammar encoder
+ * {@link org.apache.joshua.util.encoding.EightBitQuantizer}, whose buckets are given to it, this
+ * one learns them itself.
+ */
+public class LearnedEightBitQuantizer implements Quantizer {
+
+  private final Analyzer analyzer = new Analyzer();
+  private float[] buckets = null;
+
+  @Override
+  public final float read(ByteBuffer stream, int position) {
+    return buckets()[stream.get(position) & 0xff];
+  }
+
+  @Override
+  public final void write(ByteBuffer stream, float value) {
+    final float[] buckets = buckets();
+    int index = 0;
+
+    // Bucket 0 is zero; the others are sorted, so search them for the closest one
+    if (value != 0 && buckets.length > 1) {
+      int t = 1;
+      int b = buckets.length - 1;
+      while ((b - t) > 1) {
+        int half = (t + b) / 2;
+        if (value >= buckets[half])
+          t = half;
+        if (value <= buckets[half])
+          b = half;
+      }
+      index = (Math.abs(buckets[t] - value) > Math.abs(buckets[b] - value)) ? b : t;
+    }
+    stream.put((byte) index);
+  }
+
+  private float[] buckets() {
+    if (buckets == null) {
+      buckets = analyzer.quantize(8);
+      // The histogram is no longer needed
+      analyzer.initialize();
+    }
+    return buckets;
+  }
+
+  @Override
+  public void initialize() {
+    analyzer.initialize();
+    buckets = null;
+  }
+
+  @Override
+  public void add(float key) {
+    if (buckets != null)
+      throw new IllegalStateException("The buckets are fixed once a value has been read or written");
+    analyzer.add(key);
+  }
+
+  @Override
+  public String getKey() {
+    return "8bit";
+  }
+
+  @Override
+  public void writeState(DataOutputStream out) throws IOException {
+    out.writeUTF(getKey());
+    final float[] buckets = buckets();
+    out.writeInt(buckets.length);
+    for (float bucket : buckets)
+      out.writeFloat(bucket);
+  }
+
+  @Override
+  public void readState(DataInputStream in) {
+    try {
+      buckets = new float[in.readInt()];
+      for (int i = 0; i < buckets.length; i++)
+        buckets[i] = in.readFloat();
+    } catch (IOException e) {
+      throw new RuntimeException("Could not read the buckets of an 8-bit quantizer", e);
+    }
+  }
+
+  @Override
+  public final int size() {
+    return 1;
+  }
+}
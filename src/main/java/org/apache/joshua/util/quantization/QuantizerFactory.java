@@ -24,6 +24,9 @@ public class QuantizerFactory {
   public static Quantizer get(String key) { 
     if ("boolean".equals(key)) { 
       return new BooleanQuantizer(); 
+
+    } else if ("8bit".equals(key)) {
+      return new LearnedEightBitQuantizer();
  
 //    } else if ("byte".equals(key)) { 
 //      return new ByteQuantizer(); 
@@ -39,9 +42,6 @@ public class QuantizerFactory {
 // 
 //    } else if ("int".equals(key)) { 
 //      return new IntQuantizer(); 
-// 
-//    } else if ("8bit".equals(key)) { 
-//      return new EightBitQuantizer(); 
  
     } else { 
       throw new RuntimeException("Unknown quantizer type: " + key); 
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.corpus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.StampedLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program compares the throughput of {@link Vocabulary} lookups under
+ * multi-threaded load against the previous, {@link StampedLock}-based
+ * implementation. Each thread repeatedly maps random known words to ids and
+ * ids back to words, as happens during rule loading, LM scoring and output
+ * formatting.
+ *
+ * Usage: java VocabularyBenchmark [THREADS] [WORDS] [LOOKUPS_PER_THREAD]
+ */
+public class VocabularyBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(VocabularyBenchmark.class);
+
+  /**
+   * The vocabulary operations that are timed.
+   */
+  private interface Lookup {
+    int id(String token);
+
+    String word(int id);
+  }
+
+  /**
+   * The vocabulary as it was implemented before lookups became lock-free.
+   */
+  private static class StampedLockVocabulary implements Lookup {
+    private final List<String> idToString = new ArrayList<>();
+    private final Map<String, Integer> stringToId = new HashMap<>();
+    private final StampedLock lock = new StampedLock();
+
+    StampedLockVocabulary() {
+      idToString.add(Vocabulary.UNKNOWN_WORD);
+      stringToId.put(Vocabulary.UNKNOWN_WORD, Vocabulary.UNKNOWN_ID);
+    }
+
+    @Override
+    public int id(String token) {
+      long attempt_read_lock = lock.tryOptimisticRead();
+      if (stringToId.containsKey(token)) {
+        int resultId = stringToId.get(token);
+        if (lock.validate(attempt_read_lock)) {
+          return resultId;
+        }
+      }
+
+      long read_lock_stamp = lock.readLock();
+      try {
+        if (stringToId.containsKey(token)) {
+          return stringToId.get(token);
+        }
+      } finally {
+        lock.unlockRead(read_lock_stamp);
+      }
+
+      long write_lock_stamp = lock.writeLock();
+      try {
+        if (stringToId.containsKey(token)) {
+          return stringToId.get(token);
+        }
+        int id = idToString.size();
+        idToString.add(token);
+        stringToId.put(token, id);
+        return id;
+      } finally {
+        lock.unlockWrite(write_lock_stamp);
+      }
+    }
+
+    @Override
+    public String word(int id) {
+      long lock_stamp = lock.readLock();
+      try {
+        return idToString.get(Math.abs(id));
+      } finally {
+        lock.unlockRead(lock_stamp);
+      }
+    }
+  }
+
+  private static class StaticVocabulary implements Lookup {
+    @Override
+    public int id(String token) {
+      return Vocabulary.id(token);
+    }
+
+    @Override
+    public String word(int id) {
+      return Vocabulary.word(id);
+    }
+  }
+
+  private final int threads;
+  private final String[] words;
+  private final int lookups;
+
+  public VocabularyBenchmark(int threads, int numWords, int lookups) {
+    this.threads = threads;
+    this.lookups = lookups;
+    this.words = new String[numWords];
+    for (int i = 0; i < numWords; i++)
+      words[i] = "word" + i;
+  }
+
+  /**
+   * Runs the lookups on all threads and returns the elapsed time in milliseconds.
+   */
+  private long time(final Lookup vocab) throws Exception {
+    for (String word : words)
+      vocab.id(word);
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Callable<Long>> tasks = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final long seed = t;
+        tasks.add(() -> {
+          Random r = new Random(seed);
+          long sum = 0;
+          for (int i = 0; i < lookups; i++) {
+            int id = vocab.id(words[r.nextInt(words.length)]);
+            sum += vocab.word(id).length();
+          }
+          return sum;
+        });
+      }
+
+      long start_time = System.currentTimeMillis();
+      long sum = 0;
+      for (Future<Long> result : pool.invokeAll(tasks))
+        sum += result.get();
+      long elapsed = System.currentTimeMillis() - start_time;
+      LOG.debug("Checksum: {}", sum);
+      return elapsed;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public void benchmark(int rounds) throws Exception {
+    LOG.info("Beginning benchmark: {} threads, {} words, {} lookups per thread",
+        threads, words.length, lookups);
+
+    for (int round = 0; round < rounds; round++) {
+      long baseline = time(new StampedLockVocabulary());
+
+      Vocabulary.clear();
+      long concurrent = time(new StaticVocabulary());
+
+      Vocabulary.freeze();
+      long frozen = time(new StaticVocabulary());
+
+      LOG.info("Round {}: StampedLock {} ms, lock-free {} ms, lock-free frozen {} ms",
+          round, baseline, concurrent, frozen);
+    }
+    Vocabulary.clear();
+  }
+
+  public static void main(String args[]) throws Exception {
+    int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+    int numWords = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+    int lookups = (args.length > 2) ? Integer.parseInt(args[2]) : 2000000;
+    new VocabularyBenchmark(threads, numWords, lookups).benchmark(5);
+  }
+}
@@ -29,6 +29,12 @@ import static org.testng.AssertJUnit.assertFalse;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class VocabularyTest {
   private static final String WORD1 = "word1";
@@ -130,4 +136,78 @@ public class VocabularyTest {
     assertEquals(id2, Vocabulary.id(NON_TERMINAL));
     assertEquals(id3, Vocabulary.id(WORD2));
   }
+
+  @Test
+  public void givenFrozenVocabulary_whenNewWord_thenKnownAndNewWordsAreFound() {
+    int id1 = Vocabulary.id(WORD1);
+    int id2 = Vocabulary.id(NON_TERMINAL);
+    Vocabulary.freeze();
+    assertTrue(Vocabulary.isFrozen());
+
+    assertEquals(id1, Vocabulary.id(WORD1));
+    assertEquals(id2, Vocabulary.id(NON_TERMINAL));
+    int id3 = Vocabulary.id(WORD2);
+    assertEquals(4, Vocabulary.size());
+    assertEquals(id3, Vocabulary.id(WORD2));
+    assertEquals(WORD2, Vocabulary.word(id3));
+
+    Vocabulary.freeze();
+    assertEquals(id3, Vocabulary.id(WORD2));
+
+    Vocabulary.clear();
+    assertFalse(Vocabulary.isFrozen());
+    assertEquals(1, Vocabulary.size());
+  }
+
+  @Test
+  public void givenManyThreads_whenAddingOverlappingWords_thenIdsAreConsistent() throws Exception {
+    final int numWords = 40000;
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<int[]>> results = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        results.add(pool.submit((Callable<int[]>) () -> {
+          int[] ids = new int[numWords];
+          for (int i = 0; i < numWords; i++)
+            ids[i] = Vocabulary.id("w" + i);
+          return ids;
+        }));
+      }
+      int[] expected = results.get(0).get();
+      for (Future<int[]> result : results) {
+        int[] ids = result.get();
+        for (int i = 0; i < numWords; i++) {
+          assertEquals(expected[i], ids[i]);
+          assertEquals("w" + i, Vocabulary.word(ids[i]));
+        }
+      }
+      assertEquals(numWords + 1, Vocabulary.size());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void givenManyThreads_whenIdIsFound_thenWordIsImmediatelyAvailable() throws Exception {
+    final int numWords = 40000;
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        results.add(pool.submit(() -> {
+          // An id found by lookup may have been added by another thread a moment ago
+          for (int i = 0; i < numWords; i++) {
+            int id = Vocabulary.id("w" + i);
+            if (!Vocabulary.hasId(id) || !("w" + i).equals(Vocabulary.word(id)))
+              return false;
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result : results)
+        assertTrue(result.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
 }
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.ff.FeatureMap;
+import org.apache.joshua.decoder.ff.tm.OwnerId;
+import org.apache.joshua.decoder.ff.tm.OwnerMap;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DecoderContextTest {
+
+  @BeforeMethod
+  @AfterMethod
+  public void resetGlobalState() {
+    Decoder.resetGlobalState();
+  }
+
+  @Test
+  public void givenTwoContexts_whenWordsAdded_thenVocabulariesAreIndependent() {
+    DecoderContext first = new DecoderContext();
+    DecoderContext second = new DecoderContext();
+    OwnerId pt;
+
+    try (DecoderContext.Binding binding = first.bind()) {
+      assertEquals(Vocabulary.id("a"), 1);
+      assertEquals(Vocabulary.id("b"), 2);
+      assertEquals(FeatureMap.hashFeature("f"), 0);
+      pt = OwnerMap.register("pt");
+    }
+    try (DecoderContext.Binding binding = second.bind()) {
+      assertEquals(Vocabulary.id("b"), 1);
+      assertEquals(Vocabulary.size(), 2);
+      assertEquals(FeatureMap.getId("f"), -1);
+      assertEquals(OwnerMap.register("custom"), pt);
+      assertEquals(OwnerMap.getOwner(pt), "custom");
+    }
+    try (DecoderContext.Binding binding = first.bind()) {
+      assertEquals(Vocabulary.word(2), "b");
+      assertEquals(Vocabulary.size(), 3);
+    }
+
+    // the default context is untouched
+    assertEquals(Vocabulary.size(), 1);
+  }
+
+  @Test
+  public void givenNestedBindings_whenClosed_thenPreviousContextIsRestored() {
+    DecoderContext first = new DecoderContext();
+    DecoderContext second = new DecoderContext();
+
+    assertSame(DecoderContext.current(), DecoderContext.getDefault());
+    try (DecoderContext.Binding outer = first.bind()) {
+      try (DecoderContext.Binding inner = second.bind()) {
+        assertSame(DecoderContext.current(), second);
+      }
+      assertSame(DecoderContext.current(), first);
+    }
+    assertSame(DecoderContext.current(), DecoderContext.getDefault());
+  }
+
+  @Test
+  public void givenWrappedTask_whenRunOnAnotherThread_thenContextIsBound() throws Exception {
+    DecoderContext context = new DecoderContext();
+    try (DecoderContext.Binding binding = context.bind()) {
+      Vocabulary.id("word");
+    }
+
+    final String[] seen = new String[1];
+    CompletableFuture.runAsync(context.wrap(() -> seen[0] = Vocabulary.word(1))).get();
+    assertEquals(seen[0], "word");
+
+    context.reset();
+    try (DecoderContext.Binding binding = context.bind()) {
+      assertEquals(Vocabulary.size(), 1);
+    }
+  }
+
+  @Test
+  public void givenDecoderThread_whenNoContextBound_thenLookupFails() throws Exception {
+    DecoderContext context = new DecoderContext();
+    ExecutorService threads = Executors.newSingleThreadExecutor(
+        DecoderContext.threadFactory("TestWorker-%d"));
+    ForkJoinPool pool = new ForkJoinPool(1, DecoderContext.forkJoinThreadFactory("TestForkJoin-"),
+        null, false);
+    try {
+      for (ExecutorService executor : new ExecutorService[] { threads, pool }) {
+        try {
+          executor.submit(() -> Vocabulary.id("word")).get();
+          fail("a decoder thread used the default context");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertSame(executor.submit(() -> {
+          try (DecoderContext.Binding binding = context.bind()) {
+            return DecoderContext.current();
+          }
+        }).get(), context);
+      }
+    } finally {
+      threads.shutdown();
+      pool.shutdown();
+    }
+  }
+}
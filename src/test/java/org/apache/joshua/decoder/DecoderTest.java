@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.joshua.decoder.io.TranslationRequestStream;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DecoderTest {
+
+  private static final String INPUT = "those who hurt others hurt themselves";
+
+  private JoshuaConfiguration joshuaConfig;
+  private Decoder decoder;
+
+  /* The ids of the sentences whose decoding has started */
+  private final Set<Integer> started = ConcurrentHashMap.newKeySet();
+  private CountDownLatch release;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    joshuaConfig = new JoshuaConfiguration();
+    joshuaConfig.num_parallel_decoders = 2;
+    decoder = new Decoder(joshuaConfig, "");
+    started.clear();
+    release = new CountDownLatch(1);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    release.countDown();
+    decoder.cleanUp();
+    decoder = null;
+  }
+
+  /* A sentence whose decoding blocks until release is counted down */
+  private Sentence blockingSentence(int id) {
+    return new Sentence(INPUT, id, joshuaConfig) {
+      @Override
+      public String target() {
+        if (started.add(id()))
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        return super.target();
+      }
+    };
+  }
+
+  private void awaitStarted(int count) throws InterruptedException {
+    for (int i = 0; i < 1000 && started.size() < count; i++)
+      Thread.sleep(10);
+    assertEquals(started.size(), count);
+  }
+
+  @Test
+  public void givenSentenceBeingDecoded_whenModelsUpdated_thenUpdateWaitsForIt() throws Exception {
+    CompletableFuture<Translation> translation = decoder.decodeAsync(blockingSentence(0));
+    awaitStarted(1);
+
+    AtomicBoolean updatedAfterRelease = new AtomicBoolean();
+    CompletableFuture<Void> update = CompletableFuture.runAsync(
+        () -> decoder.updateModels(() -> updatedAfterRelease.set(release.getCount() == 0)));
+    Thread.sleep(200);
+    assertFalse(update.isDone());
+
+    release.countDown();
+    update.get(10, TimeUnit.SECONDS);
+    translation.get(10, TimeUnit.SECONDS);
+    assertTrue(updatedAfterRelease.get());
+  }
+
+  @Test
+  public void givenQueuedSentences_whenRequestCancelled_thenTheyAreNotDecoded() throws Exception {
+    // Both decoding threads are busy
+    CompletableFuture<Translation> first = decoder.decodeAsync(blockingSentence(100));
+    CompletableFuture<Translation> second = decoder.decodeAsync(blockingSentence(101));
+    awaitStarted(2);
+
+    // So the sentences of this request wait in the queue
+    CountDownLatch submitted = new CountDownLatch(3);
+    TranslationRequestStream request = new TranslationRequestStream(
+        new BufferedReader(new StringReader("")), joshuaConfig) {
+      private int id = 0;
+
+      @Override
+      public synchronized Sentence next() {
+        submitted.countDown();
+        return (isShutDown() || id == 2) ? null : blockingSentence(id++);
+      }
+    };
+    TranslationResponseStream responses = decoder.decodeAll(request);
+    assertTrue(submitted.await(10, TimeUnit.SECONDS));
+
+    responses.cancel();
+    release.countDown();
+    first.get(10, TimeUnit.SECONDS);
+    second.get(10, TimeUnit.SECONDS);
+    decoder.decodeAsync(new Sentence(INPUT, 102, joshuaConfig)).get(10, TimeUnit.SECONDS);
+
+    assertFalse(started.contains(0));
+    assertFalse(started.contains(1));
+  }
+
+  @Test
+  public void givenSentenceBeingDecoded_whenRequestCancelled_thenDrainedWaitsForIt()
+      throws Exception {
+    TranslationRequestStream request = new TranslationRequestStream(
+        new BufferedReader(new StringReader("")), joshuaConfig) {
+      private int id = 0;
+
+      @Override
+      public synchronized Sentence next() {
+        return (isShutDown() || id == 3) ? null : blockingSentence(id++);
+      }
+    };
+    TranslationResponseStream responses = decoder.decodeAll(request);
+    awaitStarted(2);
+
+    responses.cancel();
+    Thread.sleep(200);
+    assertFalse(responses.drained().isDone());
+
+    release.countDown();
+    responses.drained().get(10, TimeUnit.SECONDS);
+    assertFalse(started.contains(2));
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class ModelLoaderTest {
+
+  @Test
+  public void givenSubmittedModel_whenTaken_thenLoadedInBackgroundWithContext() {
+    DecoderContext context = new DecoderContext();
+    try (ModelLoader loader = new ModelLoader(context, 2)) {
+      loader.submit("model", () -> new Object[] { Thread.currentThread(), DecoderContext.current() });
+
+      Object[] model = loader.get("model", () -> new Object[] { null, null });
+      assertNotSame(model[0], Thread.currentThread());
+      assertSame(model[1], context);
+      assertEquals(loader.getTimings().size(), 1);
+    }
+  }
+
+  @Test
+  public void givenKeySubmittedTwice_whenTaken_thenSeparateModels() {
+    try (ModelLoader loader = new ModelLoader(new DecoderContext(), 1)) {
+      loader.submit("model", Object::new);
+      loader.submit("model", Object::new);
+
+      Object first = loader.get("model", () -> null);
+      Object second = loader.get("model", () -> null);
+      assertNotSame(first, second);
+      // Nothing is left, so the model is loaded on the calling thread
+      assertEquals(loader.get("model", () -> "inline"), "inline");
+    }
+  }
+
+  @Test
+  public void givenNoThreads_whenSubmitted_thenLoadedOnCallingThread() {
+    try (ModelLoader loader = new ModelLoader(new DecoderContext(), 0)) {
+      loader.submit("model", Thread::currentThread);
+
+      assertSame(loader.get("model", Thread::currentThread), Thread.currentThread());
+    }
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void givenFailingModel_whenTaken_thenFailureIsRethrown() {
+    try (ModelLoader loader = new ModelLoader(new DecoderContext(), 1)) {
+      loader.submit("model", () -> {
+        throw new IllegalStateException("broken model");
+      });
+      loader.get("model", Object::new);
+    }
+  }
+
+  @Test
+  public void givenStep_whenTimed_thenTimingRecorded() {
+    try (ModelLoader loader = new ModelLoader(new DecoderContext(), 0)) {
+      assertEquals(loader.time("grammar", () -> 42), Integer.valueOf(42));
+      assertTrue(loader.getTimings().get(0).startsWith("grammar: "));
+    }
+  }
+}
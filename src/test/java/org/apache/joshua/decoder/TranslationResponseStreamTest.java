@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder;
+
+import static org.testng.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.joshua.decoder.io.TranslationRequestStream;
+import org.testng.annotations.Test;
+
+public class TranslationResponseStreamTest {
+
+  private final JoshuaConfiguration joshuaConfiguration = new JoshuaConfiguration();
+
+  private TranslationRequestStream emptyRequest() {
+    return new TranslationRequestStream(new BufferedReader(new StringReader("")),
+        joshuaConfiguration);
+  }
+
+  @Test(expectedExceptions = TimeoutException.class)
+  public void givenUnfinishedStream_whenWaitingWithTimeout_thenTimesOut() throws Exception {
+    TranslationResponseStream responses = new TranslationResponseStream(emptyRequest());
+    responses.next(10, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void givenStreamFinishedLater_whenWaitingWithTimeout_thenReturnsNull() throws Exception {
+    TranslationRequestStream request = emptyRequest();
+    TranslationResponseStream responses = new TranslationResponseStream(request);
+    new Thread(() -> {
+      request.next();
+      responses.finish();
+    }).start();
+    assertNull(responses.next(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.chart_parser;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This program measures the time and the memory allocated by hierarchical decoding, which is
+ * dominated by cube pruning, at a range of pop limits. The sentences are decoded sequentially on
+ * the calling thread, so that the allocation can be read from the thread's counter.
+ *
+ * Usage: java CubePruningBenchmark [CONFIG] [INPUT] [POP_LIMITS] [ROUNDS]
+ *
+ * The defaults decode the Bengali-English test set in src/test/resources with pop limits
+ * 10,100,1000, and must be run from the root of the repository.
+ */
+public class CubePruningBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CubePruningBenchmark.class);
+
+  private final String configFile;
+  private final List<String> input;
+
+  public CubePruningBenchmark(String configFile, String inputFile) throws Exception {
+    this.configFile = configFile;
+    this.input = Files.lines(Paths.get(inputFile)).collect(Collectors.toList());
+  }
+
+  /**
+   * Returns the bytes allocated by the current thread, or -1 if the JVM does not count them.
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    return -1;
+  }
+
+  public void benchmark(int[] popLimits, int rounds) throws Exception {
+    LOG.info("Beginning benchmark: {} with {} sentences", configFile, input.size());
+
+    for (int popLimit : popLimits) {
+      JoshuaConfiguration config = new JoshuaConfiguration();
+      config.readConfigFile(configFile);
+      config.pop_limit = popLimit;
+      Decoder decoder = new Decoder(config, "");
+
+      try {
+        for (int round = 0; round < rounds; round++) {
+          long start_bytes = allocatedBytes();
+          long start_time = System.nanoTime();
+          long checksum = 0;
+          for (String line : input) {
+            Sentence sentence = new Sentence(line, 0, config);
+            checksum += decoder.decode(sentence).toString().length();
+          }
+          long elapsed = (System.nanoTime() - start_time) / 1000000;
+          long allocated = allocatedBytes() - start_bytes;
+
+          LOG.debug("Checksum: {}", checksum);
+          LOG.info("pop-limit {} round {}: {} ms, {} MB allocated", popLimit, round, elapsed,
+              (start_bytes < 0) ? "?" : allocated >> 20);
+        }
+      } finally {
+        decoder.cleanUp();
+      }
+    }
+  }
+
+  public static void main(String args[]) throws Exception {
+    String config = (args.length > 0) ? args[0]
+        : "src/test/resources/bn-en/hiero/joshua-berkeleylm.config";
+    String input = (args.length > 1) ? args[1] : "src/test/resources/bn-en/hiero/input.bn";
+    String limits = (args.length > 2) ? args[2] : "10,100,1000";
+    int rounds = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+
+    String[] tokens = limits.split(",");
+    int[] popLimits = new int[tokens.length];
+    for (int i = 0; i < tokens.length; i++)
+      popLimits[i] = Integer.parseInt(tokens[i].trim());
+
+    new CubePruningBenchmark(config, input).benchmark(popLimits, rounds);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.chart_parser;
+
+import static org.apache.joshua.decoder.cky.TestUtil.decodeList;
+import static org.apache.joshua.decoder.cky.TestUtil.loadStringsFromFile;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Compares lazy cube pruning, which scores a candidate only when it reaches the top of the heap,
+ * with eager cube pruning on the bn-en hiero test set.
+ */
+public class LazyCubePruningTest {
+
+  private static final String CONFIG = "src/test/resources/bn-en/hiero/joshua-berkeleylm.config";
+  private static final String INPUT = "src/test/resources/bn-en/hiero/input.bn";
+
+  private Decoder decoder;
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (decoder != null) {
+      decoder.cleanUp();
+      decoder = null;
+    }
+  }
+
+  @Test
+  public void givenExhaustivePopLimit_whenLazyCubePruning_thenOutputMatchesEager()
+      throws Exception {
+    // Sentences this short are not pruned at this pop limit, so only the order of scoring differs
+    List<String> input = loadStringsFromFile(INPUT).stream()
+        .filter(sentence -> sentence.split("\\s+").length <= 4)
+        .collect(Collectors.toList());
+    assertTrue(input.size() >= 5);
+
+    assertEquals(decode(input, true, 10000), decode(input, false, 10000));
+  }
+
+  @Test
+  public void givenDefaultPopLimit_whenLazyCubePruning_thenModelScoresMatchEager()
+      throws Exception {
+    List<String> input = loadStringsFromFile(INPUT).subList(0, 30);
+
+    List<String> lazy = decode(input, true, 100);
+    List<String> eager = decode(input, false, 100);
+
+    // The estimates of unscored candidates change which ones fit in the pop limit, so single
+    // sentences can differ, but most should not, and search quality should be the same
+    assertEquals(lazy.size(), eager.size());
+    int same = 0;
+    double lazyScore = 0, eagerScore = 0;
+    for (int i = 0; i < eager.size(); i++) {
+      if (lazy.get(i).equals(eager.get(i)))
+        same++;
+      lazyScore += score(lazy.get(i));
+      eagerScore += score(eager.get(i));
+    }
+    assertTrue(same >= 0.8 * eager.size(), same + " of " + eager.size() + " identical");
+    assertEquals(lazyScore / lazy.size(), eagerScore / eager.size(), 0.5);
+  }
+
+  private List<String> decode(List<String> input, boolean lazy, int popLimit) throws Exception {
+    JoshuaConfiguration joshuaConfig = new JoshuaConfiguration();
+    joshuaConfig.readConfigFile(CONFIG);
+    joshuaConfig.topN = 0;
+    joshuaConfig.lazy_cube_pruning = lazy;
+    joshuaConfig.pop_limit = popLimit;
+    decoder = new Decoder(joshuaConfig, "");
+    List<String> output = decodeList(input, decoder, joshuaConfig);
+    decoder.cleanUp();
+    decoder = null;
+    return output;
+  }
+
+  /* The model score, which the output format puts first, after the opening quote */
+  private static double score(String output) {
+    return Double.parseDouble(output.substring(1, output.indexOf(' ')));
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.chart_parser;
+
+import static org.apache.joshua.decoder.cky.TestUtil.decodeList;
+import static org.apache.joshua.decoder.cky.TestUtil.loadStringsFromFile;
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.Translation;
+import org.apache.joshua.decoder.io.TranslationRequestStream;
+import org.apache.joshua.util.io.KenLmTestUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that expanding the spans of equal width in parallel (num_span_threads &gt; 1) gives the
+ * same n-best lists as the sequential loop, with several sentences decoded at the same time.
+ */
+public class ParallelSpansTest {
+
+  private static final String INPUT = "src/test/resources/bn-en/hiero/input.bn";
+  private static final int SENTENCES = 20;
+
+  private Decoder decoder;
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (decoder != null) {
+      decoder.cleanUp();
+      decoder = null;
+    }
+  }
+
+  @Test
+  public void givenBerkeleyLm_whenSpansExpandedInParallel_thenOutputMatchesSequential()
+      throws Exception {
+    assertParallelMatchesSequential(
+        config("src/test/resources/bn-en/hiero/joshua-berkeleylm.config", null));
+  }
+
+  @Test
+  public void givenKenLmStateMinimization_whenSpansExpandedInParallel_thenOutputMatchesSequential()
+      throws Exception {
+    // The spans of a sentence share its KenLM state pool
+    assertParallelMatchesSequential(config("src/test/resources/bn-en/hiero/joshua.config",
+        "StateMinimizingLanguageModel -lm_type kenlm -lm_order 5 -lm_file src/test/resources/bn-en/hiero/lm.gz"));
+  }
+
+  private void assertParallelMatchesSequential(JoshuaConfiguration joshuaConfig) throws Exception {
+    List<String> input = loadStringsFromFile(INPUT).subList(0, SENTENCES);
+
+    KenLmTestUtil.Guard(() -> decoder = new Decoder(joshuaConfig, ""));
+    List<String> sequential = decodeList(input, decoder, joshuaConfig);
+    decoder.cleanUp();
+
+    joshuaConfig.num_span_threads = 4;
+    joshuaConfig.num_parallel_decoders = 2;
+    decoder = new Decoder(joshuaConfig, "");
+    List<String> parallel = decodeAll(input, joshuaConfig);
+
+    assertEquals(parallel, sequential);
+  }
+
+  private JoshuaConfiguration config(String configFile, String languageModel) throws Exception {
+    JoshuaConfiguration joshuaConfig = new JoshuaConfiguration();
+    joshuaConfig.readConfigFile(configFile);
+    if (languageModel != null) {
+      for (int i = 0; i < joshuaConfig.features.size(); i++)
+        if (joshuaConfig.features.get(i).startsWith("LanguageModel"))
+          joshuaConfig.features.set(i, languageModel);
+    }
+    return joshuaConfig;
+  }
+
+  /* Decodes all sentences as one request, so that several are decoded at the same time */
+  private List<String> decodeAll(List<String> input, JoshuaConfiguration joshuaConfig) {
+    TranslationRequestStream request = new TranslationRequestStream(
+        new BufferedReader(new StringReader(String.join("\n", input))), joshuaConfig);
+    List<String> decoded = new ArrayList<>();
+    for (Translation translation : decoder.decodeAll(request))
+      decoded.addAll(Arrays.asList(translation.toString().split("\n")));
+    return decoded;
+  }
+}
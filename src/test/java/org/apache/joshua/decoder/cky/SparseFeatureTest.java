@@ -16,11 +16,17 @@ package org.apache.joshua.decoder.cky;
 
 import static org.apache.joshua.decoder.cky.TestUtil.translate;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.List;
 
 import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.DecoderContext;
 import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.tm.packed.PackedGrammar;
 import org.apache.joshua.util.io.KenLmTestUtil;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.DataProvider;
@@ -56,6 +62,69 @@ public class SparseFeatureTest {
     assertEquals(decodedString, EXPECTED_OUTPUT);
   }
 
+  @Test
+  public void givenPackedGrammarSortedOffline_whenDecoding_thenScoreAndTranslationCorrect() throws Exception {
+    File grammarDir = copyGrammar("src/test/resources/grammar/sparse-features/grammar.packed");
+    File otherGrammarDir = copyGrammar("src/test/resources/wa_grammar.packed");
+    try {
+      configurePackedDecoder(grammarDir);
+      PackedGrammar grammar = (PackedGrammar) decoder.getGrammars().get(0);
+      assertFalse(grammar.isPresorted());
+      try (DecoderContext.Binding binding = decoder.getContext().bind()) {
+        grammar.writeSortedRules(decoder.getFeatureFunctions());
+      }
+      decoder.cleanUp();
+      File sortedFile = new File(grammarDir, "slice_00000" + PackedGrammar.SORTED_SUFFIX);
+      assertTrue(sortedFile.exists());
+
+      configurePackedDecoder(grammarDir);
+      assertTrue(((PackedGrammar) decoder.getGrammars().get(0)).isPresorted());
+      String decodedString = translate(INPUT_STRING, decoder, joshuaConfig);
+      assertEquals(decodedString, EXPECTED_OUTPUT);
+      decoder.cleanUp();
+
+      // The same vocabulary, but other rule scores, as after a re-pack: the sorted file is stale
+      File featureFile = new File(grammarDir, "slice_00000.features");
+      byte[] features = Files.readAllBytes(featureFile.toPath());
+      features[features.length - 1] ^= 1;
+      long modified = featureFile.lastModified();
+      Files.write(featureFile.toPath(), features);
+      // Make sure the rewrite shows, even on a file system with coarse timestamps
+      assertTrue(featureFile.setLastModified(modified + 2000));
+      configurePackedDecoder(grammarDir);
+      assertFalse(((PackedGrammar) decoder.getGrammars().get(0)).isPresorted());
+      decoder.cleanUp();
+
+      // The same features and weights, but other rules: the sorted file must not be used
+      Files.copy(sortedFile.toPath(), new File(otherGrammarDir, sortedFile.getName()).toPath());
+      configurePackedDecoder(otherGrammarDir);
+      assertFalse(((PackedGrammar) decoder.getGrammars().get(0)).isPresorted());
+    } finally {
+      delete(grammarDir);
+      delete(otherGrammarDir);
+    }
+  }
+
+  private File copyGrammar(String path) throws Exception {
+    File grammarDir = Files.createTempDirectory("sorted-grammar").toFile();
+    for (File file : new File(path).listFiles())
+      Files.copy(file.toPath(), new File(grammarDir, file.getName()).toPath());
+    return grammarDir;
+  }
+
+  private void delete(File grammarDir) {
+    for (File file : grammarDir.listFiles())
+      file.delete();
+    grammarDir.delete();
+  }
+
+  private void configurePackedDecoder(File grammarDir) throws Exception {
+    joshuaConfig = new JoshuaConfiguration();
+    joshuaConfig.readConfigFile("src/test/resources/grammar/sparse-features/joshua-packed.config");
+    joshuaConfig.tms.set(0, "thrax -owner pt -maxspan 20 -path " + grammarDir.getPath());
+    KenLmTestUtil.Guard(() -> decoder = new Decoder(joshuaConfig, ""));
+  }
+
   public void configureDecoder(String pathToConfig) throws Exception {
     joshuaConfig = new JoshuaConfiguration();
     joshuaConfig.readConfigFile(pathToConfig);
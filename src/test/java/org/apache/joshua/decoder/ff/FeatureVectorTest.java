@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.chart_parser.SourcePath;
+import org.apache.joshua.decoder.ff.FeatureFunction.ScoreAccumulator;
+import org.apache.joshua.decoder.ff.state_maintenance.DPState;
+import org.apache.joshua.decoder.ff.tm.Rule;
+import org.apache.joshua.decoder.hypergraph.HGNode;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FeatureVectorTest {
+
+  @BeforeMethod
+  @AfterMethod
+  public void resetGlobalState() {
+    Decoder.resetGlobalState();
+  }
+
+  @Test
+  public void givenFeatureString_whenParsed_thenDenseValuesAreNegatedAndSparseKept() {
+    FeatureVector features = new FeatureVector("0.5 tm_pt_2=1.5 b=2 a=-1", "tm_pt_");
+
+    assertEquals(features.getDense(0), -0.5f);
+    assertEquals(features.getDense(1), 0.0f);
+    assertEquals(features.getDense(2), 1.5f);
+    assertEquals(features.getDenseSize(), 3);
+    assertEquals(features.getSparse("a"), -1.0f);
+    assertEquals(features.getSparse("b"), 2.0f);
+    assertEquals(features.getSparse("unseen"), 0.0f);
+    assertTrue(features.hasValue("a"));
+    assertFalse(features.hasValue("tm_pt_2"));
+    assertEquals(features.toString(), "a=-1.000 b=2.000");
+  }
+
+  @Test
+  public void givenTwoVectors_whenAddedAndSubtracted_thenValuesAreMerged() {
+    FeatureVector a = new FeatureVector();
+    a.increment(0, 1.0f);
+    a.increment("x", 2.0f);
+    FeatureVector b = new FeatureVector();
+    b.increment(2, 3.0f);
+    b.increment("x", 1.0f);
+    b.increment("y", 4.0f);
+
+    a.add(b);
+    assertEquals(a.getDense(0), 1.0f);
+    assertEquals(a.getDense(2), 3.0f);
+    assertEquals(a.getSparse("x"), 3.0f);
+    assertEquals(a.getSparse("y"), 4.0f);
+
+    a.subtract(b);
+    assertEquals(a.getDense(2), 0.0f);
+    assertEquals(a.getSparse("x"), 2.0f);
+    assertEquals(a.getSparse("y"), 0.0f);
+    assertEquals(a.keySet().size(), 2);
+  }
+
+  @Test
+  public void givenManySparseFeatures_whenInnerProduct_thenAllAreCounted() {
+    FeatureVector weights = new FeatureVector();
+    FeatureVector features = new FeatureVector();
+    float expected = 0.0f;
+    for (int i = 0; i < 100; i++) {
+      weights.set("f" + i, i);
+      features.increment("f" + i, 2.0f);
+      expected += 2.0f * i;
+    }
+    features.increment("unweighted", 5.0f);
+
+    assertEquals(features.innerProduct(weights), expected);
+    assertEquals(features.size(), 101);
+  }
+
+  @Test
+  public void givenWeights_whenDenseFeaturesRegistered_thenTheyMoveOutOfTheSparseTable() {
+    FeatureVector weights = new FeatureVector();
+    for (int i = 0; i < 20; i++)
+      weights.set("f" + i, i);
+    weights.set("lm_0", 0.5f);
+    weights.set("OOVPenalty", -100f);
+
+    ArrayList<FeatureFunction> features = new ArrayList<>();
+    features.add(new StatelessFF(weights, "lm_0", new String[0], new JoshuaConfiguration()) {
+      @Override
+      public ArrayList<String> reportDenseFeatures(int index) {
+        denseFeatureIndex = index;
+        ArrayList<String> names = new ArrayList<>();
+        names.add(name);
+        return names;
+      }
+
+      @Override
+      public DPState compute(Rule rule, List<HGNode> tailNodes, int i, int j,
+          SourcePath sourcePath, Sentence sentence, Accumulator acc) {
+        return null;
+      }
+    });
+    weights.registerDenseFeatures(features);
+
+    assertEquals(weights.getDense(0), 0.5f);
+    assertFalse(weights.hasValue("lm_0"));
+    for (int i = 0; i < 20; i++)
+      assertEquals(weights.getWeight("f" + i), (float) i);
+    assertEquals(weights.getWeight("lm_0"), 0.5f);
+    assertEquals(weights.getWeight("OOVPenalty"), -100f);
+    assertTrue(weights.mosesString().startsWith("lm-0=0.500 OOV_Penalty=-100.000 f0=0.000 f1=1.000"));
+  }
+
+  @Test
+  public void givenWeights_whenSparseFeaturesScored_thenWeightsReadFromTableById() {
+    FeatureVector weights = new FeatureVector();
+    weights.set("a", 2.0f);
+    weights.set("b", -1.0f);
+    int a = FeatureMap.hashFeature("a");
+    int b = FeatureMap.hashFeature("b");
+    int unweighted = FeatureMap.hashFeature("unweighted");
+
+    float[] table = weights.getSparseTable();
+    assertSame(weights.getSparseTable(), table);
+    assertEquals(table[a], 2.0f);
+    assertEquals(table[b], -1.0f);
+
+    ScoreAccumulator acc = new ScoreAccumulator(weights);
+    acc.addSparse(a, 3.0f);
+    acc.addSparse(b, 1.0f);
+    acc.addSparse(unweighted, 10.0f);
+    assertEquals(acc.getScore(), 5.0f);
+
+    // Changing a weight drops the table, and the next accumulator sees the new value
+    weights.set("a", 1.0f);
+    assertEquals(weights.getSparseTable()[a], 1.0f);
+    acc.reset(weights);
+    acc.addSparse(a, 3.0f);
+    assertEquals(acc.getScore(), 3.0f);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.lm;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+public class CachedNGramLanguageModelTest {
+
+  /**
+   * Scores an n-gram by its words and counts how often it is asked.
+   */
+  private static class CountingLanguageModel implements NGramLanguageModel {
+    int queries = 0;
+
+    @Override
+    public int getOrder() {
+      return 3;
+    }
+
+    @Override
+    public boolean registerWord(String token, int id) {
+      return false;
+    }
+
+    @Override
+    public float sentenceLogProbability(int[] sentence, int order, int startIndex) {
+      return 0.0f;
+    }
+
+    @Override
+    public float ngramLogProbability(int[] ngram, int order) {
+      queries++;
+      float prob = 0.0f;
+      for (int word : ngram)
+        prob = prob * 10 - word;
+      return prob;
+    }
+
+    @Override
+    public float ngramLogProbability(int[] ngram) {
+      return ngramLogProbability(ngram, getOrder());
+    }
+
+    @Override
+    public boolean isOov(int id) {
+      return false;
+    }
+  }
+
+  @Test
+  public void givenRepeatedNgram_whenQueried_thenLanguageModelIsAskedOnce() {
+    CountingLanguageModel lm = new CountingLanguageModel();
+    CachedNGramLanguageModel cache = new CachedNGramLanguageModel(lm, 16);
+
+    assertEquals(cache.ngramLogProbability(new int[] { 1, 2, 3 }, 3), -123.0f);
+    assertEquals(cache.ngramLogProbability(new int[] { 1, 2, 3 }, 3), -123.0f);
+
+    assertEquals(lm.queries, 1);
+    assertEquals(cache.getHits(), 1);
+    assertEquals(cache.getMisses(), 1);
+  }
+
+  @Test
+  public void givenCollidingNgrams_whenQueried_thenProbabilitiesAreCorrect() {
+    CountingLanguageModel lm = new CountingLanguageModel();
+    // A single slot, so every n-gram replaces the previous one
+    CachedNGramLanguageModel cache = new CachedNGramLanguageModel(lm, 1);
+
+    assertEquals(cache.ngramLogProbability(new int[] { 1, 2, 3 }, 3), -123.0f);
+    assertEquals(cache.ngramLogProbability(new int[] { 1, 2 }, 2), -12.0f);
+    assertEquals(cache.ngramLogProbability(new int[] { 4, 2, 3 }, 3), -423.0f);
+    assertEquals(cache.ngramLogProbability(new int[] { 4, 2, 3 }, 3), -423.0f);
+
+    assertEquals(lm.queries, 3);
+  }
+
+  @Test
+  public void givenBatchOfNgrams_whenScoredThroughCache_thenSumOfNgramsIsReturned() {
+    CountingLanguageModel lm = new CountingLanguageModel();
+    CachedNGramLanguageModel cache = new CachedNGramLanguageModel(lm, 16);
+
+    int[] ngrams = { 1, 2, 3, 2, 3, 4, 1, 2, 3 };
+    assertEquals(cache.ngramLogProbabilities(ngrams, 3, 3), -123.0f - 234.0f - 123.0f);
+    assertEquals(lm.queries, 2);
+  }
+}
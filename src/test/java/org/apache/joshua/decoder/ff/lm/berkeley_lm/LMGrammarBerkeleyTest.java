@@ -118,7 +118,7 @@ public class LMGrammarBerkeleyTest {
         "LanguageModel -lm_type berkeleylm -oov_feature -lm_order 2 -lm_file src/test/resources/berkeley_lm/lm");
     decoder = new Decoder(joshuaConfig, null);
     final String translation = decode(INPUT).toString();
-    assertEquals(Decoder.weights.getDenseFeatures().size(), 3);
+    assertEquals(decoder.getWeights().getDenseSize(), 3);
     assertEquals(translation, EXPECTED_OUTPUT_WITH_OOV);
   }
 
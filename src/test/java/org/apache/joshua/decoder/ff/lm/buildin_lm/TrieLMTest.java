@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.lm.buildin_lm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.ff.lm.ArpaFile;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class TrieLMTest {
+
+  private String arpaFileName;
+
+  @BeforeClass
+  public void setUp() throws IOException {
+    File file = File.createTempFile("testLM", ".arpa");
+    file.deleteOnExit();
+    try (PrintStream out = new PrintStream(file, "UTF-8")) {
+      out.println();
+      out.println("\\data\\");
+      out.println("ngram 1=8");
+      out.println("ngram 2=5");
+      out.println("ngram 3=1");
+      out.println();
+      out.println("\\1-grams:");
+      out.println("-1.992672\ta\t-0.1195484");
+      out.println("-2.713723\tbecause\t-0.4665429");
+      out.println("-4.678545\tboycott\t-0.0902521");
+      out.println("-1.609573\tof\t-0.1991907");
+      out.println("-3.875917\tparliament\t-0.1274891");
+      out.println("-9.753210\tpotato");
+      out.println("-4.678545\tresumption\t-0.07945678");
+      out.println("-1.712444\tthe\t-0.1606644");
+      out.println();
+      out.println("\\2-grams:");
+      out.println("-0.3552987\tbecause of\t-0.03083654");
+      out.println("-1.403534\tof a");
+      out.println("-0.7507797\tof the\t-0.05237135");
+      out.println("-0.7266324\tresumption of");
+      out.println("-3.936147\tthe resumption");
+      out.println();
+      out.println("\\3-grams:");
+      out.println("-0.6309999\tbecause of the");
+      out.println();
+      out.println("\\end\\");
+    }
+    arpaFileName = file.getAbsolutePath();
+  }
+
+  private TrieLM load(boolean quantize) throws IOException {
+    return new TrieLM(new ArpaFile(arpaFileName, null), quantize);
+  }
+
+  private static float prob(TrieLM lm, String ngram) {
+    return lm.ngramLogProbability(Vocabulary.addAll(ngram), 3);
+  }
+
+  @Test
+  public void givenArpaFile_whenLoaded_thenBacksOffLikeArpa() throws IOException {
+    TrieLM lm = load(false);
+
+    assertEquals(lm.getOrder(), 3);
+    assertEquals(prob(lm, "because of the"), -0.6309999f, 1e-6);
+    assertEquals(prob(lm, "resumption of"), -0.7266324f, 1e-6);
+    assertEquals(prob(lm, "potato"), -9.753210f, 1e-6);
+    // bo(because of) + p(a | of)
+    assertEquals(prob(lm, "because of a"), -0.03083654f - 1.403534f, 1e-6);
+    // bo(the resumption) = 0, bo(resumption) + p(potato)
+    assertEquals(prob(lm, "the resumption potato"), -0.07945678f - 9.753210f, 1e-6);
+    // bo(boycott) + p(of)
+    assertEquals(prob(lm, "parliament boycott of"), -0.0902521f - 1.609573f, 1e-6);
+  }
+
+  @Test
+  public void givenUnknownWord_whenLoaded_thenIsOov() throws IOException {
+    TrieLM lm = load(false);
+
+    assertTrue(lm.isOov(Vocabulary.id("xyzzy")));
+    assertFalse(lm.isOov(Vocabulary.id("potato")));
+    assertEquals(prob(lm, "xyzzy"), -100.0f, 1e-6);
+    assertEquals(prob(lm, "xyzzy of"), -1.609573f, 1e-6);
+  }
+
+  @Test
+  public void givenQuantization_whenLoaded_thenCloseToArpa() throws IOException {
+    TrieLM exact = load(false);
+    TrieLM quantized = load(true);
+
+    for (String ngram : new String[] { "because of the", "because of a", "the resumption potato",
+        "of the", "boycott", "parliament boycott of" }) {
+      assertEquals(prob(quantized, ngram), prob(exact, ngram), 1e-3, ngram);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.state_maintenance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+import org.testng.annotations.Test;
+
+public class NgramDPStateTest {
+
+  @Test
+  public void givenEqualStates_whenFingerprinted_thenFingerprintsAreEqual() {
+    NgramDPState first = new NgramDPState(new int[] { 1, 2 }, new int[] { 3, 4 });
+    NgramDPState second = new NgramDPState(new int[] { 1, 2 }, new int[] { 3, 4 });
+
+    assertEquals(first, second);
+    assertEquals(first.fingerprint(), second.fingerprint());
+  }
+
+  @Test
+  public void givenSwappedContexts_whenFingerprinted_thenFingerprintsDiffer() {
+    NgramDPState first = new NgramDPState(new int[] { 1, 2 }, new int[] { 3, 4 });
+    NgramDPState second = new NgramDPState(new int[] { 3, 4 }, new int[] { 1, 2 });
+
+    assertNotEquals(first.fingerprint(), second.fingerprint());
+  }
+
+  @Test
+  public void givenChangedWords_whenFingerprinted_thenFingerprintFollows() {
+    NgramDPState state = new NgramDPState(new int[] { 1, 2 }, new int[] { 3, 4 });
+    state.setRightLMStateWords(new int[] { 3, 5 });
+
+    NgramDPState expected = new NgramDPState(new int[] { 1, 2 }, new int[] { 3, 5 });
+    assertEquals(state.fingerprint(), expected.fingerprint());
+    assertEquals(state.hashCode(), expected.hashCode());
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
+import org.apache.joshua.decoder.ff.tm.hash_based.MemoryBasedBatchGrammar;
+import org.testng.annotations.Test;
+
+public class TerminalVocabularyTest {
+
+  private final HieroFormatReader reader = new HieroFormatReader();
+
+  @Test
+  public void givenGrammar_whenBuilt_thenContainsFirstTerminals() {
+    MemoryBasedBatchGrammar grammar = new MemoryBasedBatchGrammar("pt", new JoshuaConfiguration(), 20);
+    grammar.addRule(reader.parseLine("[X] ||| haus ||| house ||| 1"));
+    grammar.addRule(reader.parseLine("[X] ||| das [X,1] ||| the [X,1] ||| 1"));
+    grammar.addRule(reader.parseLine("[X] ||| [X,1] boot ||| [X,1] boat ||| 1"));
+
+    TerminalVocabulary terminals = grammar.getTerminalVocabulary();
+    assertEquals(terminals.size(), 2);
+    assertTrue(terminals.contains(Vocabulary.id("haus")));
+    assertTrue(terminals.contains(Vocabulary.id("das")));
+    assertFalse(terminals.contains(Vocabulary.id("boot")));
+    assertFalse(terminals.contains(-1));
+    assertSame(grammar.getTerminalVocabulary(), terminals);
+
+    boolean[] ends = new boolean[10];
+    terminals.findWords("xdashaus".toCharArray(), 1, ends);
+    assertTrue(ends[4]);
+    assertFalse(ends[8]);
+  }
+
+  @Test
+  public void givenNewFirstTerminal_whenRuleAdded_thenRebuilt() {
+    MemoryBasedBatchGrammar grammar = new MemoryBasedBatchGrammar("pt", new JoshuaConfiguration(), 20);
+    grammar.addRule(reader.parseLine("[X] ||| haus ||| house ||| 1"));
+    TerminalVocabulary before = grammar.getTerminalVocabulary();
+
+    // Rules that share a first symbol leave it as it is
+    grammar.addRule(reader.parseLine("[X] ||| haus [X,1] ||| house [X,1] ||| 1"));
+    assertSame(grammar.getTerminalVocabulary(), before);
+
+    grammar.addRule(reader.parseLine("[X] ||| garten ||| garden ||| 1"));
+    TerminalVocabulary after = grammar.getTerminalVocabulary();
+    assertNotSame(after, before);
+    assertTrue(after.contains(Vocabulary.id("garten")));
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.ff.tm.packed;
+
+import static org.apache.joshua.decoder.cky.TestUtil.decodeList;
+import static org.apache.joshua.decoder.cky.TestUtil.loadStringsFromFile;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.tm.Grammar;
+import org.apache.joshua.tools.GrammarPacker;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Decodes with the bn-en hiero grammar, packed into several slices, and a trie node cache so small
+ * that nodes are evicted and recreated all the time.
+ */
+public class PackedTrieCacheTest {
+
+  private static final String CONFIG = "src/test/resources/bn-en/hiero/joshua-berkeleylm.config";
+  private static final String GRAMMAR = "src/test/resources/bn-en/hiero/grammar.gz";
+  private static final String INPUT = "src/test/resources/bn-en/hiero/input.bn";
+  private static final int SENTENCES = 20;
+
+  private static File grammarDir;
+  private Decoder decoder;
+
+  @BeforeClass
+  public static void packGrammar() throws Exception {
+    grammarDir = Files.createTempDirectory("packed-trie-cache").toFile();
+    new GrammarPacker(GRAMMAR, null, grammarDir.getPath(), null, null, false, 5000).pack();
+  }
+
+  @AfterClass
+  public static void deleteGrammar() {
+    for (File file : grammarDir.listFiles())
+      file.delete();
+    grammarDir.delete();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (decoder != null) {
+      decoder.cleanUp();
+      decoder = null;
+    }
+  }
+
+  @Test
+  public void givenTinyTrieCache_whenDecoding_thenOutputMatchesDefaultCache() throws Exception {
+    List<String> input = loadStringsFromFile(INPUT).subList(0, SENTENCES);
+
+    JoshuaConfiguration joshuaConfig = config();
+    decoder = new Decoder(joshuaConfig, "");
+    List<String> expected = decodeList(input, decoder, joshuaConfig);
+    decoder.cleanUp();
+
+    joshuaConfig = config();
+    joshuaConfig.cachedTrieSize = 1;
+    decoder = new Decoder(joshuaConfig, "");
+    List<String> decoded = decodeList(input, decoder, joshuaConfig);
+
+    assertEquals(decoded, expected);
+    assertTrue(packedGrammar().getTrieCacheStats().evictionCount() > 0);
+  }
+
+  @Test
+  public void givenTinyTrieCache_whenDecodingAgain_thenRulesComeFromTheRuleCache()
+      throws Exception {
+    List<String> input = loadStringsFromFile(INPUT).subList(0, SENTENCES);
+
+    JoshuaConfiguration joshuaConfig = config();
+    joshuaConfig.cachedTrieSize = 1;
+    joshuaConfig.cachedRuleSize = 1000000;
+    decoder = new Decoder(joshuaConfig, "");
+    decodeList(input, decoder, joshuaConfig);
+    CacheStats first = packedGrammar().getRuleCacheStats();
+    decodeList(input, decoder, joshuaConfig);
+    CacheStats second = packedGrammar().getRuleCacheStats().minus(first);
+
+    // The trie objects of the first pass are gone, but their rules are found by node position
+    assertTrue(second.hitCount() > 0);
+    assertEquals(second.missCount(), 0);
+    assertTrue(packedGrammar().getRuleCacheSize() <= first.missCount());
+  }
+
+  private JoshuaConfiguration config() throws Exception {
+    JoshuaConfiguration joshuaConfig = new JoshuaConfiguration();
+    joshuaConfig.readConfigFile(CONFIG);
+    joshuaConfig.tms.set(0, "thrax -owner pt -maxspan 12 -path " + grammarDir.getPath());
+    return joshuaConfig;
+  }
+
+  private PackedGrammar packedGrammar() {
+    for (Grammar grammar : decoder.getGrammars())
+      if (grammar instanceof PackedGrammar)
+        return (PackedGrammar) grammar;
+    throw new AssertionError("no packed grammar");
+  }
+}
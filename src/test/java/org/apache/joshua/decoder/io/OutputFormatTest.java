@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.io;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.testng.annotations.Test;
+
+public class OutputFormatTest {
+
+  @Test
+  public void givenTemplate_whenFormatted_thenVariablesReplaced() {
+    OutputFormat format = new OutputFormat("%i ||| %s ||| %f ||| %c");
+
+    String output = format.format(variable -> {
+      switch (variable) {
+      case 'i': return "3";
+      case 's': return "the house";
+      case 'f': return "lm_0=-1.000";
+      case 'c': return "-1.500";
+      default: return null;
+      }
+    });
+    assertEquals(output, "3 ||| the house ||| lm_0=-1.000 ||| -1.500");
+    assertTrue(format.contains('f'));
+    assertFalse(format.contains('a'));
+  }
+
+  @Test
+  public void givenUnknownVariable_whenFormatted_thenLeftAsIs() {
+    OutputFormat format = new OutputFormat("%w [%s] 100% %");
+
+    assertEquals(format.format(variable -> variable == 's' ? "x" : null), "%w [x] 100% %");
+  }
+
+  @Test
+  public void givenVariableInValue_whenFormatted_thenNotReplacedAgain() {
+    OutputFormat format = new OutputFormat("%s %c");
+
+    assertEquals(format.format(variable -> variable == 's' ? "50%c" : "1.0"), "50%c 1.0");
+  }
+
+  @Test
+  public void givenUnusedVariable_whenFormatted_thenValueNotComputed() {
+    OutputFormat format = new OutputFormat("%s");
+    List<Character> asked = new ArrayList<>();
+
+    format.format(variable -> {
+      asked.add(variable);
+      return "";
+    });
+    assertEquals(asked.size(), 1);
+    assertEquals(asked.get(0), Character.valueOf('s'));
+  }
+
+  @Test
+  public void givenConfiguration_whenFormatChanges_thenRecompiled() {
+    JoshuaConfiguration config = new JoshuaConfiguration();
+    OutputFormat format = config.getOutputFormat();
+    assertSame(config.getOutputFormat(), format);
+
+    config.outputFormat = "%s";
+    assertEquals(config.getOutputFormat().toString(), "%s");
+  }
+}
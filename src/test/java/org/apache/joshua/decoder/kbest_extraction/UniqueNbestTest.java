@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.kbest_extraction;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.segment_file.Sentence;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks unique n-best extraction on a grammar with spurious ambiguity, where several derivations
+ * yield the same output string.
+ */
+public class UniqueNbestTest {
+
+  private static final String GRAMMAR = "src/test/resources/kbest_extraction/spurious-ambiguity/grammar";
+  private static final String GLUE_GRAMMAR = "src/test/resources/kbest_extraction/glue-grammar";
+  private static final String INPUT = "a b c";
+
+  private Decoder decoder = null;
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (decoder != null) {
+      decoder.cleanUp();
+      decoder = null;
+    }
+  }
+
+  @Test
+  public void givenSpuriousAmbiguity_whenUniqueNbestExtracted_thenEqualsStringDeduplication() {
+    // All derivations, best first, with the strings that several of them share
+    List<String> derivations = decode(false, 1000);
+    List<String> deduplicated = new ArrayList<>(new LinkedHashSet<>(derivations));
+    assertTrue(deduplicated.size() < derivations.size());
+
+    List<String> unique = decode(true, deduplicated.size());
+
+    assertEquals(unique, deduplicated);
+  }
+
+  private List<String> decode(boolean uniqueNbest, int topN) {
+    JoshuaConfiguration joshuaConfig = new JoshuaConfiguration();
+    joshuaConfig.tms.add("thrax -owner pt -maxspan 12 -path " + GRAMMAR);
+    joshuaConfig.tms.add("thrax -owner glue -maxspan -1 -path " + GLUE_GRAMMAR);
+    joshuaConfig.goal_symbol = "[GOAL]";
+    joshuaConfig.default_non_terminal = "[X]";
+    joshuaConfig.mark_oovs = false;
+    joshuaConfig.pop_limit = 1000;
+    joshuaConfig.weights.add("tm_pt_0 -1");
+    joshuaConfig.weights.add("tm_glue_0 1");
+    joshuaConfig.use_unique_nbest = uniqueNbest;
+    joshuaConfig.topN = topN;
+    joshuaConfig.outputFormat = "%s";
+
+    if (decoder != null)
+      decoder.cleanUp();
+    decoder = new Decoder(joshuaConfig, "");
+    String output = decoder.decode(new Sentence(INPUT, 0, joshuaConfig)).toString();
+    return Arrays.asList(output.split("\n"));
+  }
+}
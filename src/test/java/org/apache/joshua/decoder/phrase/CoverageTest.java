@@ -21,6 +21,7 @@ package org.apache.joshua.decoder.phrase;
 import org.testng.annotations.Test;
 
 import java.util.BitSet;
+import java.util.Random;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
@@ -139,4 +140,87 @@ public class CoverageTest {
     cov.set(44, 49);
     assertEquals(cov.toString(), "40 ....xxxxx.");
   }
+
+  @Test
+  public void testLongSentence() {
+    Coverage cov = new Coverage();
+    cov.set(0, 3);
+    cov.set(70, 75);
+    cov.set(140, 141);
+    assertTrue(cov.compatible(3, 70));
+    assertFalse(cov.compatible(69, 71));
+    assertEquals(cov.leftOpening(100), 75);
+    assertEquals(cov.rightOpening(80, 200), 140);
+    assertEquals(cov.rightOpening(141, 200), 200);
+
+    cov.set(3, 70);
+    assertEquals(cov.firstZero(), 75);
+    assertEquals(cov.rightOpening(76, 200), 140);
+    cov.set(75, 140);
+    assertEquals(cov.firstZero(), 141);
+  }
+
+  @Test
+  public void testHashCode() {
+    Coverage a = new Coverage();
+    a.set(3, 5);
+    Coverage b = new Coverage(a);
+    assertEquals(a.hashCode(), b.hashCode());
+    b.set(0, 3);
+    assertFalse(a.equals(b));
+
+    Coverage c = new Coverage(new Coverage(), 3, 5);
+    assertEquals(c, a);
+    assertEquals(c.hashCode(), a.hashCode());
+  }
+
+  /**
+   * Applies random compatible spans, and checks the coverage against an array of covered words.
+   */
+  @Test
+  public void testAgainstCoveredWords() {
+    Random random = new Random(7);
+    for (int trial = 0; trial < 200; trial++) {
+      int length = 1 + random.nextInt(150);
+      boolean[] covered = new boolean[length];
+      Coverage cov = new Coverage();
+
+      for (int step = 0; step < 40; step++) {
+        int firstZero = 0;
+        while (firstZero < length && covered[firstZero])
+          firstZero++;
+        assertEquals(cov.firstZero(), firstZero);
+        if (firstZero == length)
+          break;
+
+        int begin = random.nextInt(length);
+        int end = begin + 1 + random.nextInt(Math.min(5, length - begin));
+        boolean compatible = begin >= firstZero;
+        for (int i = begin; i < end; i++)
+          compatible &= !covered[i];
+        assertEquals(cov.compatible(begin, end), compatible);
+        if (!compatible)
+          continue;
+
+        int left = firstZero;
+        for (int i = begin; i >= firstZero; i--)
+          if (covered[i]) {
+            left = i + 1;
+            break;
+          }
+        int right = length;
+        for (int i = end; i < length; i++)
+          if (covered[i]) {
+            right = i;
+            break;
+          }
+        assertEquals(cov.leftOpening(begin), left);
+        assertEquals(cov.rightOpening(end, length), right);
+
+        cov.set(begin, end);
+        for (int i = begin; i < end; i++)
+          covered[i] = true;
+      }
+    }
+  }
 }
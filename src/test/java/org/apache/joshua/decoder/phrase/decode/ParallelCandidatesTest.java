@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.phrase.decode;
+
+import static org.apache.joshua.decoder.cky.TestUtil.decodeList;
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.Translation;
+import org.apache.joshua.decoder.io.TranslationRequestStream;
+import org.apache.joshua.util.io.KenLmTestUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that building the stack candidates in parallel (num_span_threads &gt; 1) gives the same
+ * translations as building them on the decoding thread, with several sentences decoded at the
+ * same time.
+ */
+public class ParallelCandidatesTest {
+
+  private static final String CONFIG = "src/test/resources/phrase_decoder/config";
+  private static final List<String> INPUT = Arrays.asList(
+      "una estrategia republicana para obstaculizar la reelección de Obama",
+      "la reelección de Obama",
+      "una estrategia para obstaculizar la reelección republicana de Obama",
+      "obstaculizar una estrategia republicana",
+      "Obama para la reelección de una estrategia republicana para obstaculizar la reelección",
+      "de Obama la estrategia");
+
+  private Decoder decoder;
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (decoder != null) {
+      decoder.cleanUp();
+      decoder = null;
+    }
+  }
+
+  @Test
+  public void givenKenLmStateMinimization_whenCandidatesBuiltInParallel_thenOutputMatchesSequential()
+      throws Exception {
+    // The candidates of a sentence share its KenLM state pool
+    assertParallelMatchesSequential(config(null));
+  }
+
+  @Test
+  public void givenBerkeleyLm_whenCandidatesBuiltInParallel_thenOutputMatchesSequential()
+      throws Exception {
+    assertParallelMatchesSequential(config(
+        "LanguageModel -lm_type berkeleylm -lm_order 5 -lm_file src/test/resources/bn-en/hiero/lm.gz"));
+  }
+
+  private void assertParallelMatchesSequential(JoshuaConfiguration joshuaConfig) throws Exception {
+    KenLmTestUtil.Guard(() -> decoder = new Decoder(joshuaConfig, ""));
+    List<String> sequential = decodeList(INPUT, decoder, joshuaConfig);
+    decoder.cleanUp();
+
+    joshuaConfig.num_span_threads = 3;
+    joshuaConfig.num_parallel_decoders = 2;
+    decoder = new Decoder(joshuaConfig, "");
+    List<String> parallel = decodeAll(INPUT, joshuaConfig);
+
+    assertEquals(parallel.size(), sequential.size());
+    for (int i = 0; i < sequential.size(); i++)
+      // The ids differ: decodeList gives every sentence id 0
+      assertEquals(parallel.get(i).replaceFirst("^\\d+ ", ""),
+          sequential.get(i).replaceFirst("^\\d+ ", ""));
+  }
+
+  private JoshuaConfiguration config(String languageModel) throws Exception {
+    JoshuaConfiguration joshuaConfig = new JoshuaConfiguration();
+    joshuaConfig.readConfigFile(CONFIG);
+    joshuaConfig.topN = 10;
+    if (languageModel != null) {
+      for (int i = 0; i < joshuaConfig.features.size(); i++)
+        if (joshuaConfig.features.get(i).startsWith("StateMinimizingLanguageModel"))
+          joshuaConfig.features.set(i, languageModel);
+    }
+    return joshuaConfig;
+  }
+
+  /* Decodes all sentences as one request, so that several are decoded at the same time */
+  private List<String> decodeAll(List<String> input, JoshuaConfiguration joshuaConfig) {
+    TranslationRequestStream request = new TranslationRequestStream(
+        new BufferedReader(new StringReader(String.join("\n", input))), joshuaConfig);
+    List<String> decoded = new ArrayList<>();
+    for (Translation translation : decoder.decodeAll(request))
+      decoded.addAll(Arrays.asList(translation.toString().split("\n")));
+    return decoded;
+  }
+}
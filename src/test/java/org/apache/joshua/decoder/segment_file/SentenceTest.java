@@ -18,7 +18,16 @@
  */
 package org.apache.joshua.decoder.segment_file;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.joshua.corpus.Vocabulary;
 import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.apache.joshua.decoder.ff.tm.Grammar;
+import org.apache.joshua.decoder.ff.tm.format.HieroFormatReader;
+import org.apache.joshua.decoder.ff.tm.hash_based.MemoryBasedBatchGrammar;
+import org.apache.joshua.lattice.Arc;
+import org.apache.joshua.lattice.Node;
 
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
@@ -56,6 +65,50 @@ public class SentenceTest {
     assertFalse(new Sentence("hello , world", 0, joshuaConfiguration).isEmpty());
   }
 
+  private Grammar grammar(String... sourceWords) {
+    MemoryBasedBatchGrammar grammar = new MemoryBasedBatchGrammar("pt", joshuaConfiguration, 20);
+    HieroFormatReader reader = new HieroFormatReader();
+    for (String word : sourceWords)
+      grammar.addRule(reader.parseLine(String.format("[X] ||| %s ||| %s ||| 1", word, word)));
+    return grammar;
+  }
+
+  private static List<String> arcs(Sentence sentence) {
+    List<String> arcs = new ArrayList<>();
+    for (Node<Token> node : sentence.getLattice().getNodes())
+      for (Arc<Token> arc : node.getOutgoingArcs())
+        arcs.add(String.format("%d-%s-%d", node.id(), Vocabulary.word(arc.getLabel().getWord()),
+            arc.getHead().id()));
+    return arcs;
+  }
+
+  @Test
+  public void givenCompoundOov_whenSegmented_thenLatticeHasCompleteSegmentations() {
+    Sentence sentence = new Sentence("the golfloch", 0, joshuaConfiguration);
+    // "fl" and "och" are on no complete path, and "loc" leaves "h" uncovered
+    sentence.segmentOOVs(new Grammar[] { grammar("the", "golf", "go", "lf", "loch", "loc", "fl"),
+        grammar("och") });
+
+    List<String> arcs = arcs(sentence);
+    assertTrue(arcs.contains("2-golfloch-5"), arcs.toString());
+    assertTrue(arcs.contains("2-golf-4"), arcs.toString());
+    assertTrue(arcs.contains("2-go-3"), arcs.toString());
+    assertTrue(arcs.contains("3-lf-4"), arcs.toString());
+    assertTrue(arcs.contains("4-loch-5"), arcs.toString());
+    assertFalse(arcs.contains("4-loc-5"), arcs.toString());
+    assertEquals(sentence.getLattice().getNodes().size(), 7, arcs.toString());
+  }
+
+  @Test
+  public void givenUnsegmentableOov_whenSegmented_thenLatticeUnchanged() {
+    Sentence sentence = new Sentence("the golfloch", 0, joshuaConfiguration);
+    int numNodes = sentence.getLattice().getNodes().size();
+    sentence.segmentOOVs(new Grammar[] { grammar("the", "golf", "lo") });
+
+    assertEquals(sentence.getLattice().getNodes().size(), numNodes);
+    assertTrue(arcs(sentence).contains("2-golfloch-3"), arcs(sentence).toString());
+  }
+
   /**
    * Return a string consisting of repeatedToken concatenated MAX_SENTENCE_NODES times, joined by a
    * space.
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.decoder.segment_file;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.joshua.corpus.Vocabulary;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.testng.annotations.Test;
+
+public class TargetIndexTest {
+
+  private static int[] ids(String words) {
+    return words.isEmpty() ? new int[0] : Vocabulary.addAll(words);
+  }
+
+  @Test
+  public void givenRepeatedWords_whenSearched_thenFirstAndLastPositionsFound() {
+    TargetIndex index = new TargetIndex("<s> the cat saw the cat sleep </s>");
+
+    assertEquals(index.size(), 8);
+    assertEquals(index.indexOf(ids("the cat")), 1);
+    assertEquals(index.lastIndexOf(ids("the cat")), 4);
+    assertEquals(index.indexOf(ids("cat sleep")), 5);
+    assertEquals(index.indexOf(ids("cat dog")), -1);
+    assertEquals(index.lastIndexOf(ids("dog")), -1);
+    assertEquals(index.indexOf(ids("sleep </s> </s>")), -1);
+    assertEquals(index.indexOf(ids("")), 0);
+    assertEquals(index.lastIndexOf(ids("")), 8);
+  }
+
+  @Test
+  public void givenTwoSequences_whenSearched_thenMatchedWithoutConcatenation() {
+    TargetIndex index = new TargetIndex("<s> the cat saw the cat sleep </s>");
+
+    assertTrue(index.contains(ids("<s> the"), ids("cat saw")));
+    assertTrue(index.contains(ids("the cat"), ids("sleep")));
+    assertTrue(index.contains(ids(""), ids("saw the")));
+    assertFalse(index.contains(ids("cat"), ids("the")));
+    assertEquals(index.indexOf(ids("the"), ids("cat sleep")), 4);
+  }
+
+  @Test
+  public void givenPartialWord_whenSearched_thenNotMatched() {
+    TargetIndex index = new TargetIndex("<s> category </s>");
+
+    assertEquals(index.indexOf(ids("cat")), -1);
+    assertFalse(index.contains(ids("<s>"), ids("cat")));
+  }
+
+  @Test
+  public void givenSentence_whenIndexed_thenIndexIncludesMarkersAndIsCached() {
+    Sentence sentence = new Sentence("das haus ||| the house", 0, new JoshuaConfiguration());
+
+    TargetIndex index = sentence.targetIndex();
+    assertEquals(index.size(), 4);
+    assertTrue(index.contains(ids("<s>"), ids("the house </s>")));
+    assertSame(sentence.targetIndex(), index);
+
+    assertNull(new Sentence("das haus", 1, new JoshuaConfiguration()).targetIndex());
+  }
+}
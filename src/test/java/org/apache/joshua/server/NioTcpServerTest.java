@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.joshua.decoder.Decoder;
+import org.apache.joshua.decoder.JoshuaConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class NioTcpServerTest {
+
+  private static final String INPUT = "those who hurt others hurt themselves";
+  private static final int MAX_LINE_LENGTH = 1000;
+
+  private Decoder decoder;
+  private NioTcpServer server;
+  private Thread serverThread;
+  private int port;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    JoshuaConfiguration joshuaConfig = new JoshuaConfiguration();
+    joshuaConfig.num_parallel_decoders = 2;
+    joshuaConfig.server_max_line_length = MAX_LINE_LENGTH;
+    decoder = new Decoder(joshuaConfig, "");
+
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    server = new NioTcpServer(decoder, port, joshuaConfig);
+    serverThread = new Thread(server::start, "NioTcpServer");
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    server.stop();
+    serverThread.join(10_000);
+    decoder.cleanUp();
+  }
+
+  private Socket connect() throws Exception {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return new Socket("localhost", port);
+      } catch (IOException e) {
+        if (attempt == 100)
+          throw e;
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  private List<String> translate(String input) throws Exception {
+    try (Socket socket = connect()) {
+      socket.setSoTimeout(30_000);
+      socket.getOutputStream().write(input.getBytes(StandardCharsets.UTF_8));
+      socket.shutdownOutput();
+
+      List<String> lines = new ArrayList<>();
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null)
+        lines.add(line);
+      return lines;
+    }
+  }
+
+  @Test
+  public void givenInput_whenTranslated_thenTranslationsInOrder() throws Exception {
+    List<String> lines = translate(INPUT + "\nhurt others\n");
+
+    assertEquals(lines.size(), 2);
+    assertTrue(lines.get(0).startsWith("0 ||| " + INPUT + " |||"));
+    assertTrue(lines.get(1).startsWith("1 ||| hurt others |||"));
+  }
+
+  @Test
+  public void givenClientDisconnectedMidRequest_whenNextClientConnects_thenItIsServed()
+      throws Exception {
+    // A client that resets its connection while its sentences are being translated
+    try (Socket socket = connect()) {
+      OutputStream out = socket.getOutputStream();
+      for (int i = 0; i < 100; i++)
+        out.write((INPUT + "\n").getBytes(StandardCharsets.UTF_8));
+      out.write("a partial line".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      socket.setSoLinger(true, 0);
+    }
+
+    List<String> lines = translate(INPUT + "\n");
+
+    assertEquals(lines.size(), 1);
+    assertTrue(lines.get(0).startsWith("0 ||| " + INPUT + " |||"));
+    assertTrue(serverThread.isAlive());
+  }
+
+  @Test
+  public void givenLineLongerThanMaximum_whenSent_thenConnectionIsClosed() throws Exception {
+    StringBuilder line = new StringBuilder();
+    while (line.length() <= MAX_LINE_LENGTH)
+      line.append("hurt ");
+
+    // No newline: the server must not wait for one
+    try (Socket socket = connect()) {
+      socket.setSoTimeout(30_000);
+      socket.getOutputStream().write(line.toString().getBytes(StandardCharsets.UTF_8));
+      assertEquals(socket.getInputStream().read(), -1);
+    }
+
+    List<String> lines = translate(INPUT + "\n");
+    assertEquals(lines.size(), 1);
+    assertTrue(lines.get(0).startsWith("0 ||| " + INPUT + " |||"));
+  }
+}
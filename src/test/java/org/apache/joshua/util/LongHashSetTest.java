@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class LongHashSetTest {
+
+  @Test
+  public void givenManyElements_whenAdded_thenAllAreContained() {
+    LongHashSet set = new LongHashSet(4);
+    for (int i = 0; i < 10000; i++)
+      assertTrue(set.add(Bits.encodeAsLong(i % 100, i)));
+
+    assertEquals(set.size(), 10000);
+    for (int i = 0; i < 10000; i++)
+      assertTrue(set.contains(Bits.encodeAsLong(i % 100, i)));
+    assertFalse(set.contains(Bits.encodeAsLong(7, 8)));
+  }
+
+  @Test
+  public void givenExistingElement_whenAdded_thenSetIsUnchanged() {
+    LongHashSet set = new LongHashSet();
+    assertTrue(set.add(42L));
+    assertFalse(set.add(42L));
+
+    assertEquals(set.size(), 1);
+  }
+
+  @Test
+  public void givenZero_whenAdded_thenIsKeptApartFromEmptySlots() {
+    LongHashSet set = new LongHashSet();
+    assertFalse(set.contains(0L));
+
+    assertTrue(set.add(0L));
+    assertFalse(set.add(0L));
+    assertTrue(set.contains(0L));
+    assertEquals(set.size(), 1);
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.joshua.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class LongIntHashMapTest {
+
+  @Test
+  public void givenManyKeys_whenPut_thenAllCanBeFound() {
+    LongIntHashMap map = new LongIntHashMap(4);
+    for (int i = 0; i < 10000; i++)
+      map.put(Bits.encodeAsLong(i % 100, i), i);
+
+    assertEquals(map.size(), 10000);
+    for (int i = 0; i < 10000; i++)
+      assertEquals(map.get(Bits.encodeAsLong(i % 100, i), -1), i);
+    assertEquals(map.get(Bits.encodeAsLong(7, 8), -1), -1);
+  }
+
+  @Test
+  public void givenExistingKey_whenPut_thenValueIsReplaced() {
+    LongIntHashMap map = new LongIntHashMap();
+    map.put(42L, 1);
+    map.put(42L, 2);
+
+    assertEquals(map.size(), 1);
+    assertEquals(map.get(42L, -1), 2);
+  }
+
+  @Test
+  public void givenZeroKey_whenPut_thenIsKeptApartFromEmptySlots() {
+    LongIntHashMap map = new LongIntHashMap();
+    assertFalse(map.containsKey(0L));
+    assertEquals(map.get(0L, -1), -1);
+
+    map.put(0L, 5);
+    assertTrue(map.containsKey(0L));
+    assertEquals(map.get(0L, -1), 5);
+    assertEquals(map.size(), 1);
+  }
+}